@@ -0,0 +1,143 @@
+package com.cotescu.radu.http.server.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import com.cotescu.radu.http.server.HTTPServer;
+
+/**
+ * This class configures the server's static state for the benchmarks which go through the {@link com.cotescu.radu.http.server.Request}
+ * and the request handlers. The server serves a temporary root folder and binds an ephemeral port on the loopback interface, but it never
+ * accepts connections: the requests are fed to it through {@link InMemoryConnection}s. The caches are disabled, so that every request
+ * goes through the code which produces its response, while the {@link com.cotescu.radu.http.server.cache.FileIndex} is enabled as in the
+ * default configuration. Since the configuration is a singleton, the server can only be started once per JVM; JMH runs every benchmark
+ * in its own forked JVM.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+public class BenchmarkServer
+{
+	private static final String[] SETTINGS = { "server.listen.port=0", "server.listen.address=127.0.0.1",
+			"server.default.documents=index.html", "server.browseable.directories=true", "server.threads.min=1", "server.threads.max=1",
+			"server.threads.keepalive=60", "server.threads.queued.requests=1", "server.status=false",
+			"server.connections.keepalive.requests=100", "server.connections.keepalive.timeout=5", "server.transport=blocking",
+			"server.transport.eventloops=1", "server.cache.size=0", "server.mmap.threshold=0", "server.etag=weak",
+			"server.compression.precompressed=false", "server.compression.cache.size=0", "server.response.chunk.size=8192",
+			"server.directories.page.size=1000", "server.directories.cache.size=0", "server.index.max.entries=100000",
+			"server.index.missing.size=0", "server.overload.target.delay=0", "server.overload.interval=100",
+			"server.overload.retry.after=1", "server.acceptors=1", "server.accept.backlog=0",
+			"server.socket.nodelay=false", "server.socket.send.buffer=0", "server.socket.receive.buffer=0", "server.socket.linger=-1",
+			"server.timeout.read=30000", "server.timeout.header=0", "server.timeout.body=0", "server.timeout.write=0",
+			"server.request.line.max=0", "server.request.headers.max=0", "server.request.header.max=0",
+			"server.threads.autotune=false" };
+
+	private static File root;
+	private static boolean started;
+
+	/**
+	 * Starts the server on a new temporary root folder, unless it was already started.
+	 * 
+	 * @return the root folder
+	 * @throws IOException
+	 *             if the root folder or the configuration file cannot be created
+	 */
+	public static synchronized File start() throws IOException
+	{
+		if (started)
+		{
+			return root;
+		}
+		getRoot();
+		File configuration = File.createTempFile("shs-benchmark", ".conf");
+		configuration.deleteOnExit();
+		StringBuilder settings = new StringBuilder();
+		for (String setting : SETTINGS)
+		{
+			settings.append(setting).append('\n');
+		}
+		settings.append("server.root.folder=").append(root.getPath()).append('\n');
+		write(configuration, settings.toString().getBytes("ISO-8859-1"));
+		new HTTPServer(configuration.getPath());
+		started = true;
+		return root;
+	}
+
+	/**
+	 * Creates a file with random content under the root folder. Files must be created before the server is started, so that they are
+	 * indexed.
+	 * 
+	 * @param path
+	 *            the file's path, relative to the root folder
+	 * @param size
+	 *            the file's size in bytes
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public static void createFile(String path, int size) throws IOException
+	{
+		byte[] content = new byte[size];
+		new Random(42).nextBytes(content);
+		File file = new File(getRoot(), path);
+		file.getParentFile().mkdirs();
+		write(file, content);
+	}
+
+	/**
+	 * Returns the root folder, which is created on the first call but only served once {@link #start()} is called.
+	 * 
+	 * @return the root folder
+	 * @throws IOException
+	 *             if the root folder cannot be created
+	 */
+	public static synchronized File getRoot() throws IOException
+	{
+		if (root == null)
+		{
+			root = File.createTempFile("shs-benchmark", "").getCanonicalFile();
+			root.delete();
+			root.mkdir();
+		}
+		return root;
+	}
+
+	/**
+	 * Deletes the root folder and its content.
+	 */
+	public static synchronized void deleteRoot()
+	{
+		if (root != null)
+		{
+			delete(root);
+		}
+	}
+
+	private static void delete(File file)
+	{
+		File[] children = file.listFiles();
+		if (children != null)
+		{
+			for (File child : children)
+			{
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private static void write(File file, byte[] content) throws IOException
+	{
+		OutputStream out = new FileOutputStream(file);
+		try
+		{
+			out.write(content);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,222 @@
+package com.cotescu.radu.http.server.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.cotescu.radu.http.server.Configuration;
+import com.cotescu.radu.http.server.metrics.LatencyHistogram;
+
+/**
+ * This class measures how many new connections per second the server accepts and serves on the loopback interface, for several numbers
+ * of acceptor threads. For every number of acceptors the server is started in its own JVM, as by the {@link LoadGenerator}, and driven by
+ * closed-loop clients: every client thread opens a connection, sends a single request for a small file with {@code Connection: close},
+ * reads the response until the server closes the connection and starts over right away. The clients reset their side of the connections
+ * when closing them, so that the loopback interface does not run out of ports held in the TIME_WAIT state.
+ * 
+ * The options are given as name=value arguments:
+ * 
+ * <pre>
+ * conf         the base configuration file; by default the one embedded in the server
+ * acceptors    the numbers of acceptors to compare, separated by commas; by default 1 and the number of processors
+ * clients      the number of client threads; by default 64
+ * duration     the number of seconds of every measurement; by default 10
+ * warmup       the number of seconds of connections opened before every measurement and not measured; by default 3
+ * </pre>
+ * 
+ * Usage: ConnectionRateBenchmark [name=value]...
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+public class ConnectionRateBenchmark
+{
+	private static final double[] QUANTILES = { 0.5, 0.99, 0.999 };
+	private static final byte[] REQUEST = "GET /index.html HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"
+			.getBytes(StandardCharsets.ISO_8859_1);
+
+	/**
+	 * The connections and their latencies, from the opening of the connection to its closing by the server.
+	 */
+	private static class Results
+	{
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final LongAdder errors = new LongAdder();
+		private long elapsed;
+	}
+
+	/**
+	 * A client thread, which opens connections one after the other until the end of the run.
+	 */
+	private static class Client implements Runnable
+	{
+		private final InetSocketAddress address;
+		private final Results results;
+		private final long end;
+		private final byte[] buffer = new byte[4096];
+
+		Client(InetSocketAddress address, Results results, long end)
+		{
+			this.address = address;
+			this.results = results;
+			this.end = end;
+		}
+
+		public void run()
+		{
+			while (System.nanoTime() < end)
+			{
+				long start = System.nanoTime();
+				Socket socket = new Socket();
+				try
+				{
+					socket.setSoLinger(true, 0);
+					socket.connect(address, 5000);
+					socket.setSoTimeout(5000);
+					socket.getOutputStream().write(REQUEST);
+					InputStream in = socket.getInputStream();
+					// the first digit of the status code, which is 5 for the 503 responses of the shed connections
+					int status = -1;
+					int read;
+					while ((read = in.read(buffer)) >= 0)
+					{
+						if (status < 0 && read > 9)
+						{
+							status = buffer[9];
+						}
+					}
+					if (status != '2')
+					{
+						results.errors.increment();
+					}
+					results.latency.record(System.nanoTime() - start);
+				}
+				catch (IOException e)
+				{
+					results.errors.increment();
+				}
+				finally
+				{
+					try
+					{
+						socket.close();
+					}
+					catch (IOException e)
+					{
+						// the connection is dropped anyway
+					}
+				}
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		Map<String, String> options = new HashMap<String, String>();
+		for (String arg : args)
+		{
+			int equals = arg.indexOf('=');
+			if (equals < 0)
+			{
+				System.err.println("Usage: ConnectionRateBenchmark [name=value]...");
+				System.exit(1);
+			}
+			options.put(arg.substring(0, equals), arg.substring(equals + 1));
+		}
+		Properties configuration = LoadGenerator.loadConfiguration(options.get("conf"));
+		String acceptors = LoadGenerator.getOption(options, "acceptors", "1," + Runtime.getRuntime().availableProcessors());
+		int clients = Integer.parseInt(LoadGenerator.getOption(options, "clients", "64"));
+		long duration = TimeUnit.SECONDS.toNanos(Long.parseLong(LoadGenerator.getOption(options, "duration", "10")));
+		long warmup = TimeUnit.SECONDS.toNanos(Long.parseLong(LoadGenerator.getOption(options, "warmup", "3")));
+		File root = File.createTempFile("shs-accept", "").getCanonicalFile();
+		root.delete();
+		root.mkdirs();
+		OutputStream out = new FileOutputStream(new File(root, "index.html"));
+		try
+		{
+			out.write(new byte[128]);
+		}
+		finally
+		{
+			out.close();
+		}
+		System.out.printf("%-12s %12s %8s %12s %9s %9s %9s %9s%n", "Acceptors", "Connections", "Errors", "Conn/s", "p50 ms", "p99 ms",
+				"p99.9 ms", "max ms");
+		try
+		{
+			for (String count : acceptors.split(","))
+			{
+				int port = LoadGenerator.getFreePort();
+				Properties settings = new Properties();
+				settings.putAll(configuration);
+				settings.setProperty(Configuration.SERVER_LISTEN_ADDRESS, "127.0.0.1");
+				settings.setProperty(Configuration.SERVER_LISTEN_PORT, Integer.toString(port));
+				settings.setProperty(Configuration.SERVER_ROOT_FOLDER, root.getPath());
+				settings.setProperty(Configuration.SERVER_TRANSPORT, "blocking");
+				settings.setProperty(Configuration.SERVER_ACCEPTORS, count.trim());
+				// the access log would measure the disk instead of the accept path
+				settings.setProperty(Configuration.SERVER_ACCESSLOG_FILE, "");
+				Process server = LoadGenerator.startServer(settings, port);
+				try
+				{
+					InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+					if (warmup > 0)
+					{
+						run(address, clients, warmup);
+					}
+					report(count.trim(), run(address, clients, duration));
+				}
+				finally
+				{
+					server.destroy();
+					server.waitFor();
+				}
+			}
+		}
+		finally
+		{
+			LoadGenerator.delete(root);
+		}
+	}
+
+	private static Results run(InetSocketAddress address, int clients, long duration) throws InterruptedException
+	{
+		Results results = new Results();
+		long start = System.nanoTime();
+		Thread[] threads = new Thread[clients];
+		for (int i = 0; i < clients; i++)
+		{
+			threads[i] = new Thread(new Client(address, results, start + duration), "ConnectionRateBenchmark-" + i);
+			threads[i].start();
+		}
+		for (Thread thread : threads)
+		{
+			thread.join();
+		}
+		results.elapsed = System.nanoTime() - start;
+		return results;
+	}
+
+	private static void report(String name, Results results)
+	{
+		LatencyHistogram.Snapshot snapshot = results.latency.getSnapshot();
+		System.out.printf("%-12s %12d %8d %12.1f", name, snapshot.getCount(), results.errors.sum(), snapshot.getCount()
+				/ (results.elapsed / 1e9));
+		for (double quantile : QUANTILES)
+		{
+			System.out.printf(" %9.3f", snapshot.getPercentile(quantile) / 1000.0);
+		}
+		System.out.printf(" %9.3f%n", snapshot.getMax() / 1000.0);
+	}
+}
@@ -0,0 +1,75 @@
+package com.cotescu.radu.http.server.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cotescu.radu.http.server.DirectoryIndexRequestHandler;
+import com.cotescu.radu.http.server.Request;
+import com.cotescu.radu.http.server.Response;
+import com.cotescu.radu.http.server.exceptions.HTTPException;
+
+/**
+ * This benchmark measures the generation of a directory listing by the {@link DirectoryIndexRequestHandler}, from the reading of the
+ * request to the end of the chunked response. The {@link com.cotescu.radu.http.server.cache.ListingCache} is disabled, so the directory
+ * is read and the page is rendered for every request.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DirectoryListingBenchmark
+{
+	@Param({ "10", "1000" })
+	private int entries;
+
+	@Param({ "html", "json" })
+	private String format;
+
+	private InMemoryConnection connection;
+
+	@Setup
+	public void setUp() throws IOException
+	{
+		for (int i = 0; i < entries; i++)
+		{
+			BenchmarkServer.createFile("listing/file-" + i + ".txt", i % 4096);
+		}
+		BenchmarkServer.start();
+		connection = new InMemoryConnection("GET /listing/?format=" + format + " HTTP/1.1\r\nHost: localhost\r\n\r\n");
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		BenchmarkServer.deleteRoot();
+	}
+
+	@Benchmark
+	public Response listDirectory() throws IOException, HTTPException
+	{
+		connection.nextRequest();
+		Request request = new Request(connection);
+		request.validateRequest();
+		Response response = new Response(request);
+		new DirectoryIndexRequestHandler(request, response).processRequest();
+		return response;
+	}
+}
@@ -0,0 +1,69 @@
+package com.cotescu.radu.http.server.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cotescu.radu.http.server.DefaultRequestHandler;
+import com.cotescu.radu.http.server.Request;
+import com.cotescu.radu.http.server.Response;
+import com.cotescu.radu.http.server.exceptions.HTTPException;
+
+/**
+ * This benchmark measures the serving of a file by the {@link DefaultRequestHandler}, from the reading of the request to the end of the
+ * response. The content cache and the memory mappings are disabled and the {@link InMemoryConnection} has no channel to which the file
+ * could be transferred, so the body goes through the copy loop of the {@link Response}; the file stays in the page cache.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileBodyBenchmark
+{
+	@Param({ "1024", "65536", "1048576" })
+	private int size;
+
+	private InMemoryConnection connection;
+
+	@Setup
+	public void setUp() throws IOException
+	{
+		BenchmarkServer.createFile("file.bin", size);
+		BenchmarkServer.start();
+		connection = new InMemoryConnection("GET /file.bin HTTP/1.1\r\nHost: localhost\r\n\r\n");
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		BenchmarkServer.deleteRoot();
+	}
+
+	@Benchmark
+	public Response sendFile() throws IOException, HTTPException
+	{
+		connection.nextRequest();
+		Request request = new Request(connection);
+		request.validateRequest();
+		Response response = new Response(request);
+		new DefaultRequestHandler(request, response).processRequest();
+		return response;
+	}
+}
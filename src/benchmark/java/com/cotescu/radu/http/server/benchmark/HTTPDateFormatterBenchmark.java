@@ -0,0 +1,141 @@
+package com.cotescu.radu.http.server.benchmark;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cotescu.radu.http.server.utils.HTTPDateFormatter;
+
+/**
+ * This benchmark compares the {@link HTTPDateFormatter} with the implementation it replaced, which created a {@link SimpleDateFormat}
+ * for every call and tried up to three patterns when parsing. The formatted dates change with every call, so that no case benefits from
+ * formatting the same second over and over again, except for the current date, which is cached on purpose.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HTTPDateFormatterBenchmark
+{
+	private static final String IMF_FIXDATE = "Sun, 06 Nov 1994 08:49:37 GMT";
+	private static final String ASCTIME = "Sun Nov  6 08:49:37 1994";
+
+	private final byte[] bytes = new byte[HTTPDateFormatter.DATE_LENGTH];
+	private long time;
+
+	@Benchmark
+	public String formatLegacy()
+	{
+		return legacyFormat(new Date(nextTime()));
+	}
+
+	@Benchmark
+	public String formatString()
+	{
+		return HTTPDateFormatter.getFormattedDate(nextTime());
+	}
+
+	@Benchmark
+	public byte[] formatBytes()
+	{
+		HTTPDateFormatter.format(nextTime(), bytes, 0);
+		return bytes;
+	}
+
+	@Benchmark
+	public byte[] currentDateBytes()
+	{
+		return HTTPDateFormatter.getCurrentDateBytes();
+	}
+
+	@Benchmark
+	public Date parseImfFixdateLegacy()
+	{
+		return legacyParse(IMF_FIXDATE);
+	}
+
+	@Benchmark
+	public long parseImfFixdate()
+	{
+		return HTTPDateFormatter.parse(IMF_FIXDATE);
+	}
+
+	@Benchmark
+	public Date parseAsctimeLegacy()
+	{
+		return legacyParse(ASCTIME);
+	}
+
+	@Benchmark
+	public long parseAsctime()
+	{
+		return HTTPDateFormatter.parse(ASCTIME);
+	}
+
+	private long nextTime()
+	{
+		time += 1000;
+		return time;
+	}
+
+	/**
+	 * The formatting done before the {@link HTTPDateFormatter} was rewritten.
+	 */
+	private static String legacyFormat(Date date)
+	{
+		SimpleDateFormat sdf = new SimpleDateFormat("E, dd MMM yyyy HH:mm:ss zz", Locale.US);
+		sdf.setTimeZone(TimeZone.getTimeZone("GMT"));
+		return sdf.format(date);
+	}
+
+	/**
+	 * The parsing done before the {@link HTTPDateFormatter} was rewritten.
+	 */
+	private static Date legacyParse(String date)
+	{
+		SimpleDateFormat sdf = new SimpleDateFormat("", Locale.US);
+		sdf.applyPattern("E, dd MMM yyyy HH:mm:ss zz");
+		try
+		{
+			return sdf.parse(date);
+		}
+		catch (ParseException e)
+		{
+			sdf.applyPattern("EEEE, dd-MMM-yy HH:mm:ss zz");
+			try
+			{
+				return sdf.parse(date);
+			}
+			catch (ParseException e1)
+			{
+				sdf.applyPattern("E MMM d HH:mm:ss yyyy");
+				try
+				{
+					return sdf.parse(date);
+				}
+				catch (ParseException e2)
+				{
+					return null;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package com.cotescu.radu.http.server.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import com.cotescu.radu.http.server.Connection;
+import com.cotescu.radu.http.server.RequestParser;
+
+/**
+ * This class replaces the client's socket with in-memory streams, so that the benchmarks measure the server's code and not the network
+ * stack. The same request is received over and over again, as if the client sent it on a persistent connection, and the responses are
+ * discarded. The socket is never connected and has no {@code SocketChannel}, therefore files are sent through the copy loop of the
+ * {@link com.cotescu.radu.http.server.Response}.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+public class InMemoryConnection extends Connection
+{
+	/**
+	 * Creates a Connection which receives the same request forever.
+	 * 
+	 * @param request
+	 *            the request's head, with the line terminators
+	 */
+	public InMemoryConnection(String request)
+	{
+		super(new Socket(), new RequestStream(request.getBytes(StandardCharsets.ISO_8859_1)), new RequestParser(), new BufferedOutputStream(
+				OutputStream.nullOutputStream()));
+	}
+
+	/**
+	 * Prepares this Connection for reading the next request, as the worker thread does between the requests of a persistent connection.
+	 */
+	public void nextRequest()
+	{
+		getParser().recycle();
+	}
+
+	/**
+	 * The benchmarks run for longer than the server's keep-alive settings allow, so the connection is always reused.
+	 */
+	@Override
+	public boolean canKeepAlive()
+	{
+		return true;
+	}
+
+	/**
+	 * A stream which delivers a request, one request per read, without ever reaching its end.
+	 */
+	private static class RequestStream extends InputStream
+	{
+		private final byte[] request;
+		private int position;
+
+		RequestStream(byte[] request)
+		{
+			this.request = request;
+		}
+
+		@Override
+		public int read()
+		{
+			int b = request[position++] & 0xff;
+			position %= request.length;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int offset, int length)
+		{
+			int count = Math.min(length, request.length - position);
+			System.arraycopy(request, position, b, offset, count);
+			position = (position + count) % request.length;
+			return count;
+		}
+	}
+}
@@ -0,0 +1,782 @@
+package com.cotescu.radu.http.server.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.cotescu.radu.http.server.Configuration;
+import com.cotescu.radu.http.server.HTTPServer;
+import com.cotescu.radu.http.server.metrics.LatencyHistogram;
+
+/**
+ * This class runs an end-to-end benchmark of the server on the loopback interface. For every thread pool configuration to compare, the
+ * server is started in its own JVM, since its configuration can only be read once per JVM, and it is driven by an open-loop client: the
+ * requests are sent at a constant arrival rate, or with the timing of a captured access log, whether or not the previous responses have
+ * arrived. The latency of a request is measured from the moment when it was scheduled to be sent, so a stalled server is charged for the
+ * requests which queued up behind the stall (the coordinated omission correction of wrk2 and HdrHistogram).
+ * 
+ * The server serves a generated tree of files whose sizes follow a configurable distribution, or an existing folder for replaying an
+ * access log. The options are given as name=value arguments:
+ * 
+ * <pre>
+ * conf         the base configuration file; by default the one embedded in the server
+ * pools        the thread pool configurations to compare, as min/max/queued separated by commas; by default the base configuration's
+ * keepalive    true to reuse the connections, false to open a connection for every request, or both; by default true
+ * rate         the number of requests per second; by default 1000
+ * connections  the number of client connections, each with its own thread; by default 16
+ * duration     the number of seconds of every measurement; by default 30
+ * warmup       the number of seconds of load sent before every measurement and not measured; by default 5
+ * files        the number of generated files; by default 1000
+ * sizes        the distribution of the generated files' sizes, as size:weight separated by commas; by default 1024:60,16384:30,1048576:10
+ * root         an existing folder to serve instead of the generated files
+ * replay       an access log, in the server's format or in the common or combined log format, whose GET and HEAD requests are sent
+ *              with their original timing instead of the constant rate
+ * speed        the factor by which the replayed log is accelerated; by default 1
+ * </pre>
+ * 
+ * Usage: LoadGenerator [name=value]...
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+public class LoadGenerator
+{
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+	private static final Pattern REQUEST_LINE = Pattern.compile("\"(GET|HEAD) (\\S+) HTTP/\\d\\.\\d\"");
+	private static final Pattern LOG4J_DATE = Pattern.compile("^(\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2},\\d{3})");
+	private static final Pattern CLF_DATE = Pattern.compile("\\[(\\d{2}/\\w{3}/\\d{4}:\\d{2}:\\d{2}:\\d{2} [+-]\\d{4})\\]");
+
+	/**
+	 * The requests sent by one client connection, in the order of their scheduled times.
+	 */
+	private interface Schedule
+	{
+		/**
+		 * Moves to the next request.
+		 * 
+		 * @return {@code false} if there are no more requests
+		 */
+		boolean next();
+
+		/**
+		 * @return the time when the current request must be sent, in nanoseconds from the start of the run
+		 */
+		long getOffset();
+
+		/**
+		 * @return the current request
+		 */
+		Target getTarget();
+	}
+
+	/**
+	 * A request to send: its method and path.
+	 */
+	private static class Target
+	{
+		private final String method;
+		private final String path;
+		private final long offset;
+
+		Target(String method, String path, long offset)
+		{
+			this.method = method;
+			this.path = path;
+			this.offset = offset;
+		}
+	}
+
+	/**
+	 * Sends the requests at a constant rate, spread evenly over the connections, to paths chosen at random.
+	 */
+	private static class ConstantRate implements Schedule
+	{
+		private final List<Target> targets;
+		private final long interval;
+		private final long end;
+		private final Random random;
+		private long offset;
+		private Target target;
+
+		ConstantRate(List<Target> targets, double rate, int connections, int connection, long duration)
+		{
+			this.targets = targets;
+			interval = (long) (TimeUnit.SECONDS.toNanos(1) * connections / rate);
+			end = duration;
+			random = new Random(connection);
+			offset = (long) (TimeUnit.SECONDS.toNanos(1) * connection / rate) - interval;
+		}
+
+		public boolean next()
+		{
+			offset += interval;
+			target = targets.get(random.nextInt(targets.size()));
+			return offset < end;
+		}
+
+		public long getOffset()
+		{
+			return offset;
+		}
+
+		public Target getTarget()
+		{
+			return target;
+		}
+	}
+
+	/**
+	 * Sends the requests of an access log, each at its original time.
+	 */
+	private static class Replay implements Schedule
+	{
+		private final List<Target> targets;
+		private final int step;
+		private int index;
+
+		Replay(List<Target> targets, int connections, int connection)
+		{
+			this.targets = targets;
+			step = connections;
+			index = connection - step;
+		}
+
+		public boolean next()
+		{
+			index += step;
+			return index < targets.size();
+		}
+
+		public long getOffset()
+		{
+			return targets.get(index).offset;
+		}
+
+		public Target getTarget()
+		{
+			return targets.get(index);
+		}
+	}
+
+	/**
+	 * The outcome of a run, shared by all the client connections.
+	 */
+	private static class Results
+	{
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final LongAdder responses = new LongAdder();
+		private final LongAdder errors = new LongAdder();
+		private final LongAdder bytes = new LongAdder();
+		private long elapsed;
+	}
+
+	/**
+	 * A client connection, which sends its requests one after the other at their scheduled times.
+	 */
+	private static class Client implements Runnable
+	{
+		private final int port;
+		private final boolean keepAlive;
+		private final Schedule schedule;
+		private final Results results;
+		private final long start;
+		private final byte[] buffer = new byte[65536];
+		private Socket socket;
+		private InputStream in;
+		private OutputStream out;
+		private boolean closeAfterResponse;
+
+		Client(int port, boolean keepAlive, Schedule schedule, Results results, long start)
+		{
+			this.port = port;
+			this.keepAlive = keepAlive;
+			this.schedule = schedule;
+			this.results = results;
+			this.start = start;
+		}
+
+		public void run()
+		{
+			while (schedule.next())
+			{
+				long scheduled = start + schedule.getOffset();
+				long delay;
+				while ((delay = scheduled - System.nanoTime()) > 0)
+				{
+					LockSupport.parkNanos(delay);
+				}
+				try
+				{
+					int status = send(schedule.getTarget());
+					results.latency.record(System.nanoTime() - scheduled);
+					if (status >= 200 && status < 400)
+					{
+						results.responses.increment();
+					}
+					else
+					{
+						results.errors.increment();
+					}
+					if (!keepAlive || closeAfterResponse)
+					{
+						close();
+					}
+				}
+				catch (IOException e)
+				{
+					results.latency.record(System.nanoTime() - scheduled);
+					results.errors.increment();
+					close();
+				}
+			}
+			close();
+		}
+
+		/**
+		 * Sends a request and reads its response.
+		 * 
+		 * @return the status code of the response
+		 */
+		private int send(Target target) throws IOException
+		{
+			if (socket == null)
+			{
+				socket = new Socket();
+				socket.setTcpNoDelay(true);
+				socket.setSoTimeout(30000);
+				socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 30000);
+				in = new BufferedInputStream(socket.getInputStream(), 16384);
+				out = socket.getOutputStream();
+			}
+			String request = target.method + " " + target.path + " HTTP/1.1\r\nHost: localhost\r\n"
+					+ (keepAlive ? "" : "Connection: close\r\n") + "\r\n";
+			out.write(request.getBytes(StandardCharsets.ISO_8859_1));
+			out.flush();
+			String statusLine = readLine();
+			if (statusLine == null || !statusLine.startsWith("HTTP/"))
+			{
+				throw new IOException("Invalid status line " + statusLine);
+			}
+			int status = Integer.parseInt(statusLine.substring(9, 12));
+			long length = -1;
+			boolean chunked = false;
+			closeAfterResponse = statusLine.startsWith("HTTP/1.0");
+			String line;
+			while ((line = readLine()) != null && !line.isEmpty())
+			{
+				int colon = line.indexOf(':');
+				String name = line.substring(0, colon).trim();
+				String value = line.substring(colon + 1).trim();
+				if (name.equalsIgnoreCase("Content-Length"))
+				{
+					length = Long.parseLong(value);
+				}
+				else
+					if (name.equalsIgnoreCase("Transfer-Encoding"))
+					{
+						chunked = value.equalsIgnoreCase("chunked");
+					}
+					else
+						if (name.equalsIgnoreCase("Connection"))
+						{
+							closeAfterResponse = value.equalsIgnoreCase("close");
+						}
+			}
+			if (line == null)
+			{
+				throw new IOException("The connection was closed before the end of the head");
+			}
+			if (target.method.equals("HEAD") || status == 304 || status == 204)
+			{
+				return status;
+			}
+			if (chunked)
+			{
+				long size;
+				while ((size = Long.parseLong(readLine().split(";")[0].trim(), 16)) > 0)
+				{
+					skip(size);
+					readLine();
+				}
+				while ((line = readLine()) != null && !line.isEmpty())
+				{
+					// the trailers are ignored
+				}
+			}
+			else
+				if (length >= 0)
+				{
+					skip(length);
+				}
+				else
+				{
+					skip(Long.MAX_VALUE);
+					closeAfterResponse = true;
+				}
+			return status;
+		}
+
+		/**
+		 * Reads a line of the response's head, without its terminator.
+		 * 
+		 * @return the line or {@code null} if the connection was closed
+		 */
+		private String readLine() throws IOException
+		{
+			StringBuilder line = new StringBuilder();
+			int b;
+			while ((b = in.read()) != '\n')
+			{
+				if (b < 0)
+				{
+					return null;
+				}
+				if (b != '\r')
+				{
+					line.append((char) b);
+				}
+			}
+			return line.toString();
+		}
+
+		/**
+		 * Reads and discards a part of the body, or the rest of the stream if {@code count} is {@link Long#MAX_VALUE}.
+		 */
+		private void skip(long count) throws IOException
+		{
+			long remaining = count;
+			while (remaining > 0)
+			{
+				int bytesRead = in.read(buffer, 0, (int) Math.min(remaining, buffer.length));
+				if (bytesRead < 0)
+				{
+					if (count == Long.MAX_VALUE)
+					{
+						return;
+					}
+					throw new IOException("The connection was closed before the end of the body");
+				}
+				remaining -= bytesRead;
+				results.bytes.add(bytesRead);
+			}
+		}
+
+		private void close()
+		{
+			if (socket != null)
+			{
+				try
+				{
+					socket.close();
+				}
+				catch (IOException e)
+				{
+					// the connection is dropped anyway
+				}
+				socket = null;
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		Map<String, String> options = new HashMap<String, String>();
+		for (String arg : args)
+		{
+			int equals = arg.indexOf('=');
+			if (equals < 0)
+			{
+				System.err.println("Usage: LoadGenerator [name=value]...");
+				System.exit(1);
+			}
+			options.put(arg.substring(0, equals), arg.substring(equals + 1));
+		}
+		Properties configuration = loadConfiguration(options.get("conf"));
+		double rate = Double.parseDouble(getOption(options, "rate", "1000"));
+		int connections = Integer.parseInt(getOption(options, "connections", "16"));
+		long duration = TimeUnit.SECONDS.toNanos(Long.parseLong(getOption(options, "duration", "30")));
+		long warmup = TimeUnit.SECONDS.toNanos(Long.parseLong(getOption(options, "warmup", "5")));
+		String keepAlive = getOption(options, "keepalive", "true");
+		String pools = getOption(options, "pools", configuration.getProperty(Configuration.SERVER_THREADS_MIN) + "/"
+				+ configuration.getProperty(Configuration.SERVER_THREADS_MAX) + "/"
+				+ configuration.getProperty(Configuration.SERVER_THREADS_QUEUED_REQUESTS));
+		File root;
+		boolean generated = options.get("root") == null;
+		List<Target> targets;
+		if (generated)
+		{
+			root = File.createTempFile("shs-load", "").getCanonicalFile();
+			root.delete();
+			targets = generateFiles(root, Integer.parseInt(getOption(options, "files", "1000")), getOption(options, "sizes",
+					"1024:60,16384:30,1048576:10"));
+		}
+		else
+		{
+			root = new File(options.get("root")).getCanonicalFile();
+			targets = new ArrayList<Target>();
+		}
+		List<Target> replay = null;
+		if (options.get("replay") != null)
+		{
+			replay = readAccessLog(new File(options.get("replay")), Double.parseDouble(getOption(options, "speed", "1")));
+			if (replay.isEmpty())
+			{
+				System.err.println("No GET or HEAD requests found in " + options.get("replay"));
+				System.exit(1);
+			}
+			// the warm-up sends the replayed paths at random, at the log's average rate
+			targets = replay;
+			long span = replay.get(replay.size() - 1).offset;
+			rate = span > 0 ? replay.size() * (double) TimeUnit.SECONDS.toNanos(1) / span : rate;
+			duration = span + 1;
+		}
+		else
+			if (targets.isEmpty())
+			{
+				System.err.println("A replay log is needed for serving an existing root folder");
+				System.exit(1);
+			}
+		System.out.printf("%-24s %10s %8s %10s %9s %9s %9s %9s %9s %9s%n", "Configuration", "Responses", "Errors", "Req/s", "MB/s",
+				"p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+		try
+		{
+			for (String pool : pools.split(","))
+			{
+				String[] threads = pool.trim().split("/");
+				if (threads.length != 3)
+				{
+					throw new IllegalArgumentException("Invalid thread pool configuration " + pool);
+				}
+				int port = getFreePort();
+				Properties settings = new Properties();
+				settings.putAll(configuration);
+				settings.setProperty(Configuration.SERVER_LISTEN_ADDRESS, "127.0.0.1");
+				settings.setProperty(Configuration.SERVER_LISTEN_PORT, Integer.toString(port));
+				settings.setProperty(Configuration.SERVER_ROOT_FOLDER, root.getPath());
+				settings.setProperty(Configuration.SERVER_THREADS_MIN, threads[0]);
+				settings.setProperty(Configuration.SERVER_THREADS_MAX, threads[1]);
+				settings.setProperty(Configuration.SERVER_THREADS_QUEUED_REQUESTS, threads[2]);
+				Process server = startServer(settings, port);
+				try
+				{
+					for (String mode : "both".equals(keepAlive) ? new String[] { "true", "false" } : new String[] { keepAlive })
+					{
+						boolean reuse = Boolean.parseBoolean(mode);
+						if (warmup > 0)
+						{
+							run(port, reuse, targets, null, rate, connections, warmup);
+						}
+						Results results = run(port, reuse, targets, replay, rate, connections, duration);
+						report(pool.trim() + (reuse ? " keep-alive" : " close"), results);
+					}
+				}
+				finally
+				{
+					server.destroy();
+					server.waitFor();
+				}
+			}
+		}
+		finally
+		{
+			if (generated)
+			{
+				delete(root);
+			}
+		}
+	}
+
+	/**
+	 * Sends the requests of a run from all the client connections and waits for their responses.
+	 */
+	private static Results run(int port, boolean keepAlive, List<Target> targets, List<Target> replay, double rate, int connections,
+			long duration) throws InterruptedException
+	{
+		Results results = new Results();
+		long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+		Thread[] clients = new Thread[connections];
+		for (int i = 0; i < connections; i++)
+		{
+			Schedule schedule = replay != null ? new Replay(replay, connections, i) : new ConstantRate(targets, rate, connections, i,
+					duration);
+			clients[i] = new Thread(new Client(port, keepAlive, schedule, results, start), "LoadGenerator-" + i);
+			clients[i].start();
+		}
+		for (Thread client : clients)
+		{
+			client.join();
+		}
+		results.elapsed = System.nanoTime() - start;
+		return results;
+	}
+
+	private static void report(String name, Results results)
+	{
+		LatencyHistogram.Snapshot snapshot = results.latency.getSnapshot();
+		double seconds = results.elapsed / 1e9;
+		System.out.printf("%-24s %10d %8d %10.1f %9.2f", name, results.responses.sum(), results.errors.sum(), snapshot.getCount() / seconds,
+				results.bytes.sum() / (1024.0 * 1024.0) / seconds);
+		for (double quantile : QUANTILES)
+		{
+			System.out.printf(" %9.3f", snapshot.getPercentile(quantile) / 1000.0);
+		}
+		System.out.printf(" %9.3f%n", snapshot.getMax() / 1000.0);
+	}
+
+	/**
+	 * Starts the server in a new JVM and waits until it accepts connections. Its output is written to a log file next to its
+	 * configuration file.
+	 */
+	static Process startServer(Properties settings, int port) throws IOException, InterruptedException
+	{
+		File configuration = File.createTempFile("shs-load", ".conf");
+		configuration.deleteOnExit();
+		OutputStream out = new FileOutputStream(configuration);
+		try
+		{
+			settings.store(out, null);
+		}
+		finally
+		{
+			out.close();
+		}
+		File log = new File(configuration.getPath().replace(".conf", ".log"));
+		ProcessBuilder builder = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(), "-cp",
+				getClassPath(), HTTPServer.class.getName(), configuration.getPath());
+		builder.redirectErrorStream(true).redirectOutput(log);
+		Process server = builder.start();
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+		while (System.nanoTime() < deadline)
+		{
+			try
+			{
+				new Socket(InetAddress.getLoopbackAddress(), port).close();
+				return server;
+			}
+			catch (IOException e)
+			{
+				if (!server.isAlive())
+				{
+					break;
+				}
+				Thread.sleep(100);
+			}
+		}
+		server.destroy();
+		throw new IOException("The server did not start; see " + log);
+	}
+
+	/**
+	 * Returns the classpath of this class, which is also the server's. When running inside Maven, the classes are loaded by a
+	 * {@link URLClassLoader} and the JVM's own classpath only holds Maven's launcher.
+	 */
+	private static String getClassPath() throws IOException
+	{
+		ClassLoader loader = LoadGenerator.class.getClassLoader();
+		if (!(loader instanceof URLClassLoader))
+		{
+			return System.getProperty("java.class.path");
+		}
+		StringBuilder classPath = new StringBuilder();
+		for (URL url : ((URLClassLoader) loader).getURLs())
+		{
+			try
+			{
+				classPath.append(classPath.length() > 0 ? File.pathSeparator : "").append(new File(url.toURI()).getPath());
+			}
+			catch (URISyntaxException e)
+			{
+				throw new IOException("Invalid classpath entry " + url, e);
+			}
+		}
+		return classPath.toString();
+	}
+
+	static int getFreePort() throws IOException
+	{
+		ServerSocket socket = new ServerSocket(0, 0, InetAddress.getLoopbackAddress());
+		try
+		{
+			return socket.getLocalPort();
+		}
+		finally
+		{
+			socket.close();
+		}
+	}
+
+	static Properties loadConfiguration(String path) throws IOException
+	{
+		Properties configuration = new Properties();
+		InputStream in = path != null ? new FileInputStream(path) : LoadGenerator.class.getClassLoader().getResourceAsStream(
+				HTTPServer.CONFIG_FILE);
+		try
+		{
+			configuration.load(in);
+		}
+		finally
+		{
+			in.close();
+		}
+		return configuration;
+	}
+
+	/**
+	 * Generates the files of the root folder, in directories of 100 files, with sizes drawn from a weighted distribution.
+	 * 
+	 * @return the paths of the files
+	 */
+	private static List<Target> generateFiles(File root, int count, String sizes) throws IOException
+	{
+		String[] entries = sizes.split(",");
+		long[] values = new long[entries.length];
+		int[] weights = new int[entries.length];
+		int totalWeight = 0;
+		for (int i = 0; i < entries.length; i++)
+		{
+			String[] entry = entries[i].trim().split(":");
+			values[i] = Long.parseLong(entry[0]);
+			weights[i] = entry.length > 1 ? Integer.parseInt(entry[1]) : 1;
+			totalWeight += weights[i];
+		}
+		Random random = new Random(42);
+		byte[] block = new byte[65536];
+		random.nextBytes(block);
+		List<Target> targets = new ArrayList<Target>(count);
+		long totalSize = 0;
+		for (int i = 0; i < count; i++)
+		{
+			int pick = random.nextInt(totalWeight);
+			int size = 0;
+			while (pick >= weights[size])
+			{
+				pick -= weights[size++];
+			}
+			String path = "/d" + (i / 100) + "/f" + i + ".bin";
+			File file = new File(root, path);
+			file.getParentFile().mkdirs();
+			OutputStream out = new FileOutputStream(file);
+			try
+			{
+				for (long written = 0; written < values[size]; written += block.length)
+				{
+					out.write(block, 0, (int) Math.min(block.length, values[size] - written));
+				}
+			}
+			finally
+			{
+				out.close();
+			}
+			totalSize += values[size];
+			targets.add(new Target("GET", path, 0));
+		}
+		System.out.printf("Generated %d files, %.1f MB in total%n", count, totalSize / (1024.0 * 1024.0));
+		return targets;
+	}
+
+	/**
+	 * Reads the GET and HEAD requests of an access log, with their times relative to the first request. The server's own log lines start
+	 * with a timestamp with milliseconds, while the common and combined log formats only have seconds.
+	 */
+	private static List<Target> readAccessLog(File file, double speed) throws IOException
+	{
+		SimpleDateFormat log4jDate = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss,SSS");
+		SimpleDateFormat clfDate = new SimpleDateFormat("dd/MMM/yyyy:HH:mm:ss Z", Locale.US);
+		List<Target> targets = new ArrayList<Target>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try
+		{
+			long first = -1;
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				Matcher request = REQUEST_LINE.matcher(line);
+				if (!request.find())
+				{
+					continue;
+				}
+				long time;
+				try
+				{
+					Matcher date = LOG4J_DATE.matcher(line);
+					if (date.find())
+					{
+						time = log4jDate.parse(date.group(1)).getTime();
+					}
+					else
+					{
+						date = CLF_DATE.matcher(line);
+						if (!date.find())
+						{
+							continue;
+						}
+						time = clfDate.parse(date.group(1)).getTime();
+					}
+				}
+				catch (ParseException e)
+				{
+					continue;
+				}
+				if (first < 0)
+				{
+					first = time;
+				}
+				long offset = (long) (TimeUnit.MILLISECONDS.toNanos(Math.max(time - first, 0)) / speed);
+				targets.add(new Target(request.group(1), request.group(2), offset));
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		System.out.printf("Replaying %d requests%n", targets.size());
+		return targets;
+	}
+
+	static String getOption(Map<String, String> options, String name, String defaultValue)
+	{
+		String value = options.get(name);
+		return value != null ? value : defaultValue;
+	}
+
+	static void delete(File file)
+	{
+		File[] children = file.listFiles();
+		if (children != null)
+		{
+			for (File child : children)
+			{
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,50 @@
+package com.cotescu.radu.http.server.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cotescu.radu.http.server.constants.MIMEmap;
+
+/**
+ * This benchmark measures the lookup of a content type in the {@link MIMEmap}, for common extensions and for an extension which is not
+ * mapped.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MIMEmapBenchmark
+{
+	@Param({ "html", "css", "js", "png", "woff2", "unknown" })
+	private String extension;
+
+	private MIMEmap mimeMap;
+
+	@Setup
+	public void setUp()
+	{
+		mimeMap = new MIMEmap();
+	}
+
+	@Benchmark
+	public String getContentType()
+	{
+		return mimeMap.getContentType(extension);
+	}
+}
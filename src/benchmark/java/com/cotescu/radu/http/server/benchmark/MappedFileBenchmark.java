@@ -0,0 +1,205 @@
+package com.cotescu.radu.http.server.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cotescu.radu.http.server.cache.FileMetadata;
+import com.cotescu.radu.http.server.cache.MappedFile;
+import com.cotescu.radu.http.server.cache.MappedFileRegistry;
+
+/**
+ * This benchmark compares the two ways in which the server sends large files, under concurrent load: copying the file through a
+ * per-request stream and buffer, and writing a memory mapping shared by all requests through the {@link MappedFileRegistry}. Every
+ * worker thread repeatedly sends the same file over its own loopback connection, whose other end is drained by a separate thread.
+ * 
+ * Usage: MappedFileBenchmark [file size in MB] [threads] [seconds per mode]
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+public class MappedFileBenchmark
+{
+	private static final String STREAM = "stream";
+	private static final String MMAP = "mmap";
+
+	public static void main(String[] args) throws Exception
+	{
+		int sizeMB = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		File file = createFile(sizeMB);
+		try
+		{
+			System.out.println("File size: " + sizeMB + " MB, threads: " + threads + ", duration: " + seconds + " s per mode");
+			MappedFileRegistry registry = new MappedFileRegistry(60);
+			// warm up the page cache and the JIT for both modes before measuring
+			run(STREAM, file, registry, threads, Math.max(seconds / 5, 1));
+			run(MMAP, file, registry, threads, Math.max(seconds / 5, 1));
+			report(STREAM, run(STREAM, file, registry, threads, seconds), seconds);
+			report(MMAP, run(MMAP, file, registry, threads, seconds), seconds);
+			registry.shutdown();
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+
+	private static void report(String mode, long bytes, int seconds)
+	{
+		System.out.printf("%-8s %10.1f MB/s%n", mode, bytes / (1024.0 * 1024.0) / seconds);
+	}
+
+	/**
+	 * Runs one mode and returns the number of bytes sent by all the threads.
+	 */
+	private static long run(final String mode, final File file, final MappedFileRegistry registry, int threads, int seconds)
+			throws Exception
+	{
+		final ServerSocketChannel server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		final AtomicLong bytesSent = new AtomicLong();
+		final long deadline = System.nanoTime() + seconds * 1000000000L;
+		final CountDownLatch done = new CountDownLatch(threads);
+		final FileMetadata metadata = new FileMetadata(file.getName(), file, false, true, file.length(), file.lastModified(), null, false);
+		for (int i = 0; i < threads; i++)
+		{
+			final SocketChannel client = SocketChannel.open(server.getLocalAddress());
+			final SocketChannel peer = server.accept();
+			startDrain(client);
+			new Thread(new Runnable()
+			{
+				public void run()
+				{
+					try
+					{
+						while (System.nanoTime() < deadline)
+						{
+							bytesSent.addAndGet(MMAP.equals(mode) ? sendMapped(registry, metadata, peer) : sendStream(file, peer));
+						}
+						peer.close();
+					}
+					catch (IOException e)
+					{
+						e.printStackTrace();
+					}
+					finally
+					{
+						done.countDown();
+					}
+				}
+			}).start();
+		}
+		done.await();
+		server.close();
+		return bytesSent.get();
+	}
+
+	/**
+	 * Sends the file the way the server did before files could be mapped: through a buffered stream copy.
+	 */
+	private static long sendStream(File file, SocketChannel channel) throws IOException
+	{
+		OutputStream out = new BufferedOutputStream(channel.socket().getOutputStream());
+		InputStream reader = new BufferedInputStream(new FileInputStream(file));
+		long sent = 0;
+		try
+		{
+			byte[] buffer = new byte[4096];
+			int bytesRead;
+			while ((bytesRead = reader.read(buffer)) != -1)
+			{
+				out.write(buffer, 0, bytesRead);
+				sent += bytesRead;
+			}
+			out.flush();
+		}
+		finally
+		{
+			reader.close();
+		}
+		return sent;
+	}
+
+	/**
+	 * Sends the file from the shared mapping.
+	 */
+	private static long sendMapped(MappedFileRegistry registry, FileMetadata metadata, SocketChannel channel) throws IOException
+	{
+		MappedFile mappedFile = registry.acquire(metadata);
+		try
+		{
+			ByteBuffer buffer = mappedFile.getBuffer();
+			long sent = buffer.remaining();
+			while (buffer.hasRemaining())
+			{
+				channel.write(buffer);
+			}
+			return sent;
+		}
+		finally
+		{
+			registry.release(mappedFile);
+		}
+	}
+
+	private static void startDrain(final SocketChannel channel)
+	{
+		Thread t = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				ByteBuffer buffer = ByteBuffer.allocateDirect(65536);
+				try
+				{
+					while (channel.read(buffer) != -1)
+					{
+						buffer.clear();
+					}
+					channel.close();
+				}
+				catch (IOException e)
+				{
+					// the sending side closed the connection
+				}
+			}
+		});
+		t.setDaemon(true);
+		t.start();
+	}
+
+	private static File createFile(int sizeMB) throws IOException
+	{
+		File file = File.createTempFile("shs-benchmark", ".bin");
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+		try
+		{
+			byte[] block = new byte[1024 * 1024];
+			new Random(42).nextBytes(block);
+			for (int i = 0; i < sizeMB; i++)
+			{
+				out.write(block);
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+		file = file.getCanonicalFile();
+		return file;
+	}
+}
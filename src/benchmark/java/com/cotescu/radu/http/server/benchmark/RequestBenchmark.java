@@ -0,0 +1,91 @@
+package com.cotescu.radu.http.server.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cotescu.radu.http.server.Request;
+import com.cotescu.radu.http.server.RequestParser;
+import com.cotescu.radu.http.server.constants.HTTPRequestHeader;
+import com.cotescu.radu.http.server.exceptions.HTTPException;
+
+/**
+ * This benchmark measures the reading of a request: the parsing of its head by the {@link RequestParser} alone and the whole validation
+ * done by the {@link Request}, which also decodes the request target and resolves the requested file through the
+ * {@link com.cotescu.radu.http.server.cache.FileIndex}. The requests are received from an {@link InMemoryConnection}.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestBenchmark
+{
+	private static final String MINIMAL = "GET /index.html HTTP/1.1\r\nHost: localhost\r\n\r\n";
+	private static final String BROWSER = "GET /static/css/site%20main.css?v=42 HTTP/1.1\r\n" + "Host: www.example.com\r\n"
+			+ "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:109.0) Gecko/20100101 Firefox/118.0\r\n"
+			+ "Accept: text/css,*/*;q=0.1\r\n" + "Accept-Language: en-US,en;q=0.5\r\n" + "Accept-Encoding: gzip, deflate, br\r\n"
+			+ "Referer: https://www.example.com/\r\n" + "Connection: keep-alive\r\n"
+			+ "Cookie: session=4f1c2e9a7b3d4e5f8a9b0c1d2e3f4a5b; theme=dark; consent=1\r\n"
+			+ "If-Modified-Since: Sun, 06 Nov 1994 08:49:37 GMT\r\n" + "If-None-Match: W/\"1a2b-3c4d5e6f\"\r\n"
+			+ "Sec-Fetch-Dest: style\r\n" + "Sec-Fetch-Mode: no-cors\r\n" + "Sec-Fetch-Site: same-origin\r\n\r\n";
+
+	@Param({ "minimal", "browser" })
+	private String request;
+
+	private InMemoryConnection connection;
+
+	@Setup
+	public void setUp() throws IOException
+	{
+		BenchmarkServer.createFile("index.html", 1024);
+		BenchmarkServer.createFile("static/css/site main.css", 1024);
+		BenchmarkServer.start();
+		connection = new InMemoryConnection("browser".equals(request) ? BROWSER : MINIMAL);
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		BenchmarkServer.deleteRoot();
+	}
+
+	/**
+	 * Parses the head of a request and reads a known and a custom header from it.
+	 */
+	@Benchmark
+	public int parseHead() throws IOException, HTTPException
+	{
+		connection.nextRequest();
+		RequestParser parser = connection.readRequestHead();
+		return parser.getHeader(HTTPRequestHeader.Host).length() + (parser.getHeader("sec-fetch-mode") != null ? 1 : 0);
+	}
+
+	/**
+	 * Reads and validates a request, as the worker thread does before choosing its handler.
+	 */
+	@Benchmark
+	public Request validateRequest() throws IOException, HTTPException
+	{
+		connection.nextRequest();
+		Request request = new Request(connection);
+		request.validateRequest();
+		return request;
+	}
+}
@@ -0,0 +1,89 @@
+package com.cotescu.radu.http.server.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cotescu.radu.http.server.Request;
+import com.cotescu.radu.http.server.Response;
+import com.cotescu.radu.http.server.constants.HTTPResponseHeader;
+import com.cotescu.radu.http.server.constants.HTTPStatusCode;
+import com.cotescu.radu.http.server.exceptions.HTTPException;
+
+/**
+ * This benchmark measures the serialisation of a {@link Response}'s status line and headers into the {@link InMemoryConnection}'s
+ * {@link com.cotescu.radu.http.server.ResponseHead}, and its copy to the connection's output stream, for the headers of a typical file
+ * response and for a response which also carries custom headers. The request is validated once, before the measurement.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseHeadBenchmark
+{
+	private static final String LAST_MODIFIED = "Sun, 06 Nov 1994 08:49:37 GMT";
+
+	private Request request;
+
+	@Setup
+	public void setUp() throws IOException, HTTPException
+	{
+		BenchmarkServer.createFile("index.html", 1024);
+		BenchmarkServer.start();
+		InMemoryConnection connection = new InMemoryConnection("GET /index.html HTTP/1.1\r\nHost: localhost\r\n\r\n");
+		request = new Request(connection);
+		request.validateRequest();
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		BenchmarkServer.deleteRoot();
+	}
+
+	@Benchmark
+	public Response fileHeaders() throws IOException
+	{
+		Response response = new Response(request);
+		response.sendResponseStatus(HTTPStatusCode.HTTP_OK);
+		response.addHeader(HTTPResponseHeader.AcceptRanges, "bytes");
+		response.addHeader(HTTPResponseHeader.LastModified, LAST_MODIFIED);
+		response.addHeader(HTTPResponseHeader.ETag, "W/\"400-2f8f1a4e1c8\"");
+		response.addHeader(HTTPResponseHeader.ContentLength, "1024");
+		response.addHeader(HTTPResponseHeader.ContentType, "text/html");
+		response.sendHeaders();
+		response.endResponse();
+		return response;
+	}
+
+	@Benchmark
+	public Response customHeaders() throws IOException
+	{
+		Response response = new Response(request);
+		response.sendResponseStatus(HTTPStatusCode.HTTP_OK);
+		response.addHeader(HTTPResponseHeader.ContentLength, "1024");
+		response.addHeader(HTTPResponseHeader.ContentType, "text/html");
+		response.addCustomHeader("X-Content-Type-Options", "nosniff");
+		response.addCustomHeader("X-Frame-Options", "DENY");
+		response.addCustomHeader("Strict-Transport-Security", "max-age=31536000");
+		response.sendHeaders();
+		response.endResponse();
+		return response;
+	}
+}
@@ -32,6 +32,50 @@ public enum Configuration
 	public static final String SERVER_THREADS_KEEPALIVE = "server.threads.keepalive";
 	public static final String SERVER_THREADS_QUEUED_REQUESTS = "server.threads.queued.requests";
 	public static final String SERVER_STATUS = "server.status";
+	public static final String SERVER_CONNECTIONS_KEEPALIVE_REQUESTS = "server.connections.keepalive.requests";
+	public static final String SERVER_CONNECTIONS_KEEPALIVE_TIMEOUT = "server.connections.keepalive.timeout";
+	public static final String SERVER_TRANSPORT = "server.transport";
+	public static final String SERVER_TRANSPORT_EVENTLOOPS = "server.transport.eventloops";
+	public static final String SERVER_THREADS_MODE = "server.threads.mode";
+	public static final String SERVER_THREADS_VIRTUAL_LIMIT = "server.threads.virtual.limit";
+	public static final String SERVER_THREADS_AUTOTUNE = "server.threads.autotune";
+	public static final String SERVER_THREADS_AUTOTUNE_MAX = "server.threads.autotune.max";
+	public static final String SERVER_THREADS_AUTOTUNE_INTERVAL = "server.threads.autotune.interval";
+	public static final String SERVER_THREADS_AUTOTUNE_QUEUE_DELAY = "server.threads.autotune.queue.delay";
+	public static final String SERVER_CACHE_SIZE = "server.cache.size";
+	public static final String SERVER_CACHE_FILE_MAX = "server.cache.file.max";
+	public static final String SERVER_MMAP_THRESHOLD = "server.mmap.threshold";
+	public static final String SERVER_MMAP_IDLE = "server.mmap.idle";
+	public static final String SERVER_ETAG = "server.etag";
+	public static final String SERVER_COMPRESSION_PRECOMPRESSED = "server.compression.precompressed";
+	public static final String SERVER_COMPRESSION_CACHE_SIZE = "server.compression.cache.size";
+	public static final String SERVER_COMPRESSION_FILE_MAX = "server.compression.file.max";
+	public static final String SERVER_RESPONSE_CHUNK_SIZE = "server.response.chunk.size";
+	public static final String SERVER_DIRECTORIES_PAGE_SIZE = "server.directories.page.size";
+	public static final String SERVER_DIRECTORIES_CACHE_SIZE = "server.directories.cache.size";
+	public static final String SERVER_INDEX_MAX_ENTRIES = "server.index.max.entries";
+	public static final String SERVER_INDEX_MISSING_SIZE = "server.index.missing.size";
+	public static final String SERVER_INDEX_MISSING_TTL = "server.index.missing.ttl";
+	public static final String SERVER_ACCESSLOG_FILE = "server.accesslog.file";
+	public static final String SERVER_ACCESSLOG_FORMAT = "server.accesslog.format";
+	public static final String SERVER_ACCESSLOG_BUFFER = "server.accesslog.buffer";
+	public static final String SERVER_ACCESSLOG_FLUSH_INTERVAL = "server.accesslog.flush.interval";
+	public static final String SERVER_OVERLOAD_TARGET_DELAY = "server.overload.target.delay";
+	public static final String SERVER_OVERLOAD_INTERVAL = "server.overload.interval";
+	public static final String SERVER_OVERLOAD_RETRY_AFTER = "server.overload.retry.after";
+	public static final String SERVER_ACCEPTORS = "server.acceptors";
+	public static final String SERVER_ACCEPT_BACKLOG = "server.accept.backlog";
+	public static final String SERVER_SOCKET_NODELAY = "server.socket.nodelay";
+	public static final String SERVER_SOCKET_SEND_BUFFER = "server.socket.send.buffer";
+	public static final String SERVER_SOCKET_RECEIVE_BUFFER = "server.socket.receive.buffer";
+	public static final String SERVER_SOCKET_LINGER = "server.socket.linger";
+	public static final String SERVER_TIMEOUT_READ = "server.timeout.read";
+	public static final String SERVER_TIMEOUT_HEADER = "server.timeout.header";
+	public static final String SERVER_TIMEOUT_BODY = "server.timeout.body";
+	public static final String SERVER_TIMEOUT_WRITE = "server.timeout.write";
+	public static final String SERVER_REQUEST_LINE_MAX = "server.request.line.max";
+	public static final String SERVER_REQUEST_HEADERS_MAX = "server.request.headers.max";
+	public static final String SERVER_REQUEST_HEADER_MAX = "server.request.header.max";
 
 	/**
 	 * Private constructor for this enum.
@@ -52,6 +96,50 @@ public enum Configuration
 		optional(SERVER_BROWSEABLE_DIRECTORIES);
 		optional(SERVER_DEFAULT_DOCUMENTS);
 		optional(SERVER_STATUS);
+		optional(SERVER_CONNECTIONS_KEEPALIVE_REQUESTS);
+		optional(SERVER_CONNECTIONS_KEEPALIVE_TIMEOUT);
+		optional(SERVER_TRANSPORT);
+		optional(SERVER_TRANSPORT_EVENTLOOPS);
+		optional(SERVER_THREADS_MODE);
+		optional(SERVER_THREADS_VIRTUAL_LIMIT);
+		optional(SERVER_THREADS_AUTOTUNE);
+		optional(SERVER_THREADS_AUTOTUNE_MAX);
+		optional(SERVER_THREADS_AUTOTUNE_INTERVAL);
+		optional(SERVER_THREADS_AUTOTUNE_QUEUE_DELAY);
+		optional(SERVER_CACHE_SIZE);
+		optional(SERVER_CACHE_FILE_MAX);
+		optional(SERVER_MMAP_THRESHOLD);
+		optional(SERVER_MMAP_IDLE);
+		optional(SERVER_ETAG);
+		optional(SERVER_COMPRESSION_PRECOMPRESSED);
+		optional(SERVER_COMPRESSION_CACHE_SIZE);
+		optional(SERVER_COMPRESSION_FILE_MAX);
+		optional(SERVER_RESPONSE_CHUNK_SIZE);
+		optional(SERVER_DIRECTORIES_PAGE_SIZE);
+		optional(SERVER_DIRECTORIES_CACHE_SIZE);
+		optional(SERVER_INDEX_MAX_ENTRIES);
+		optional(SERVER_INDEX_MISSING_SIZE);
+		optional(SERVER_INDEX_MISSING_TTL);
+		optional(SERVER_ACCESSLOG_FILE);
+		optional(SERVER_ACCESSLOG_FORMAT);
+		optional(SERVER_ACCESSLOG_BUFFER);
+		optional(SERVER_ACCESSLOG_FLUSH_INTERVAL);
+		optional(SERVER_OVERLOAD_TARGET_DELAY);
+		optional(SERVER_OVERLOAD_INTERVAL);
+		optional(SERVER_OVERLOAD_RETRY_AFTER);
+		optional(SERVER_ACCEPTORS);
+		optional(SERVER_ACCEPT_BACKLOG);
+		optional(SERVER_SOCKET_NODELAY);
+		optional(SERVER_SOCKET_SEND_BUFFER);
+		optional(SERVER_SOCKET_RECEIVE_BUFFER);
+		optional(SERVER_SOCKET_LINGER);
+		optional(SERVER_TIMEOUT_READ);
+		optional(SERVER_TIMEOUT_HEADER);
+		optional(SERVER_TIMEOUT_BODY);
+		optional(SERVER_TIMEOUT_WRITE);
+		optional(SERVER_REQUEST_LINE_MAX);
+		optional(SERVER_REQUEST_HEADERS_MAX);
+		optional(SERVER_REQUEST_HEADER_MAX);
 		mandatory(SERVER_LISTEN_ADDRESS);
 		mandatory(SERVER_LISTEN_PORT);
 		mandatory(SERVER_ROOT_FOLDER);
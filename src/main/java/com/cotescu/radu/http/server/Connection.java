@@ -0,0 +1,568 @@
+package com.cotescu.radu.http.server;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+
+import com.cotescu.radu.http.server.constants.HTTPStatusCode;
+import com.cotescu.radu.http.server.exceptions.HTTPException;
+import com.cotescu.radu.http.server.metrics.Metrics;
+
+/**
+ * This class represents a client connection which can carry several {@link Request}/{@link Response} pairs when HTTP persistent
+ * connections are used.
+ * 
+ * The reads are bounded by the deadlines of the {@link ConnectionSettings}: the socket's timeout is lowered to the time left before the
+ * deadline of the current phase, so a client which trickles its request fails at the deadline instead of resetting the timeout with every
+ * byte. Blocking writes are not bounded by the socket's timeout, so the deadline of the response is enforced by the
+ * {@link WriteDeadlineWatchdog}, which closes the socket of a client that does not read its response in time.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+public class Connection
+{
+	private final Socket socket;
+	private final ConnectionSettings settings;
+	private final InputStream in;
+	private final RequestParser parser;
+	private final BufferedOutputStream out;
+	private ResponseHead responseHead;
+	private int requestsCount;
+	private int timeout;
+	private long headerDeadline;
+	private volatile long writeDeadline;
+	private boolean closed;
+
+	/**
+	 * Creates a Connection based on a {@link Socket}.
+	 * 
+	 * @param socket
+	 *            the {@code Socket} accepted by the server
+	 * @throws IOException
+	 *             if any I/O error occurs
+	 */
+	public Connection(Socket socket) throws IOException
+	{
+		this(socket, socket.getInputStream(), HTTPServer.getConnectionSettings().createParser(), new BufferedOutputStream(socket
+				.getOutputStream()));
+		settings.configure(socket);
+		HTTPServer.getMetrics().connectionOpened();
+	}
+
+	/**
+	 * Creates a Connection whose requests are parsed by the supplied {@link RequestParser} and whose responses are written to the
+	 * supplied stream.
+	 * 
+	 * @param socket
+	 *            the client's {@code Socket}
+	 * @param in
+	 *            the stream from which the requests are read or {@code null} if the parser already holds the whole request
+	 * @param parser
+	 *            the parser used for the requests
+	 * @param out
+	 *            the stream used for the responses
+	 */
+	protected Connection(Socket socket, InputStream in, RequestParser parser, BufferedOutputStream out)
+	{
+		this.socket = socket;
+		this.in = in;
+		this.parser = parser;
+		this.out = out;
+		settings = HTTPServer.getConnectionSettings();
+		timeout = settings.getReadTimeout();
+	}
+
+	/**
+	 * Waits for the next request on this Connection. The first request is expected right away, while for the following ones the client
+	 * is allowed to stay idle for at most the configured keep-alive timeout. The deadline of the request's head starts once the request is
+	 * expected, or once its first bytes arrive on a persistent connection.
+	 * 
+	 * @return {@code true} if a new request can be read from this Connection, {@code false} if the client closed the connection or the
+	 *         idle timeout expired
+	 * @throws IOException
+	 *             if any I/O error occurs
+	 */
+	public boolean awaitRequest() throws IOException
+	{
+		if (requestsCount > 0)
+		{
+			parser.recycle();
+			// a pipelined request may have been received together with the previous one
+			if (!parser.hasBufferedData())
+			{
+				setTimeout(HTTPServer.getKeepAliveTimeout() * 1000);
+				try
+				{
+					if (fill() < 0)
+					{
+						return false;
+					}
+				}
+				catch (SocketTimeoutException e)
+				{
+					return false;
+				}
+			}
+		}
+		headerDeadline = ConnectionSettings.deadline(settings.getHeaderTimeout());
+		requestsCount++;
+		return true;
+	}
+
+	/**
+	 * Reads from the client until the head of the current request has been received completely.
+	 * 
+	 * @return the {@link RequestParser} holding the parsed head
+	 * @throws IOException
+	 *             if any I/O error occurs
+	 * @throws HTTPException
+	 *             if the client stopped sending before the end of the head or if the head is too large, or with
+	 *             {@code 408 Request Timeout} if the head was not received before the read timeout or the header deadline
+	 */
+	public RequestParser readRequestHead() throws IOException, HTTPException
+	{
+		while (!parser.parse())
+		{
+			if (parser.isFull())
+			{
+				throw new HTTPException(HTTPStatusCode.HTTP_BAD_REQUEST);
+			}
+			int bytesRead;
+			try
+			{
+				bytesRead = fill(headerDeadline);
+			}
+			catch (SocketTimeoutException e)
+			{
+				HTTPServer.getMetrics().recordTimeout(Metrics.TimeoutPhase.HEADER);
+				throw new HTTPException(HTTPStatusCode.HTTP_CLIENT_TIMEOUT);
+			}
+			if (bytesRead < 0)
+			{
+				throw new HTTPException(HTTPStatusCode.HTTP_BAD_REQUEST);
+			}
+		}
+		return parser;
+	}
+
+	/**
+	 * Discards the body of the current request.
+	 * 
+	 * @param length
+	 *            the length of the body
+	 * @return {@code true} if the whole body was discarded, {@code false} if the client stopped sending before its end or did not send it
+	 *         before the read timeout or the body deadline
+	 * @throws IOException
+	 *             if any I/O error occurs
+	 */
+	public boolean skipBody(long length) throws IOException
+	{
+		length -= parser.skip(length);
+		long deadline = length > 0 ? ConnectionSettings.deadline(settings.getBodyTimeout()) : 0;
+		while (length > 0)
+		{
+			try
+			{
+				if (fill(deadline) < 0)
+				{
+					return false;
+				}
+			}
+			catch (SocketTimeoutException e)
+			{
+				HTTPServer.getMetrics().recordTimeout(Metrics.TimeoutPhase.BODY);
+				return false;
+			}
+			length -= parser.skip(length);
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the bytes sent by the client before a deadline.
+	 * 
+	 * @param deadline
+	 *            the deadline, as returned by {@link ConnectionSettings#deadline(long)}
+	 * @return the number of bytes read or -1 if no more bytes can be received
+	 * @throws SocketTimeoutException
+	 *             if the deadline or the read timeout expired
+	 * @throws IOException
+	 *             if any I/O error occurs
+	 */
+	private int fill(long deadline) throws IOException
+	{
+		int wait = settings.getWaitTime(deadline);
+		if (wait == 0)
+		{
+			throw new SocketTimeoutException("The deadline expired");
+		}
+		setTimeout(wait);
+		return fill();
+	}
+
+	/**
+	 * Changes the socket's timeout, if it is not already set to the requested value.
+	 */
+	private void setTimeout(int timeout) throws IOException
+	{
+		if (this.timeout != timeout)
+		{
+			socket.setSoTimeout(timeout);
+			this.timeout = timeout;
+		}
+	}
+
+	/**
+	 * Starts the deadline for sending the current request's response, unless it has already been started.
+	 */
+	public void startWriteDeadline()
+	{
+		if (writeDeadline == 0)
+		{
+			writeDeadline = ConnectionSettings.deadline(settings.getWriteTimeout());
+		}
+	}
+
+	/**
+	 * Clears the deadline of the response, once it has been sent.
+	 */
+	public void clearWriteDeadline()
+	{
+		writeDeadline = 0;
+	}
+
+	/**
+	 * Returns the deadline for sending the current response.
+	 * 
+	 * @return the deadline, as returned by {@link ConnectionSettings#deadline(long)}, or 0 if there is none
+	 */
+	public long getWriteDeadline()
+	{
+		return writeDeadline;
+	}
+
+	/**
+	 * Closes the socket of a client which did not read its response before the deadline, from the {@link WriteDeadlineWatchdog}'s
+	 * thread. The worker thread blocked in a write fails right away and releases the Connection. The output is shut down first, since
+	 * closing the socket does not wake up a thread blocked while a file is transferred to it.
+	 */
+	void expireWrite()
+	{
+		try
+		{
+			try
+			{
+				socket.shutdownOutput();
+			}
+			finally
+			{
+				socket.close();
+			}
+		}
+		catch (IOException e)
+		{
+			HTTPServer.getLog().debug("Unable to close socket", e);
+		}
+	}
+
+	/**
+	 * Reads the bytes sent by the client into the {@link RequestParser}'s buffer.
+	 * 
+	 * @return the number of bytes read or -1 if no more bytes can be received
+	 * @throws IOException
+	 *             if any I/O error occurs
+	 */
+	protected int fill() throws IOException
+	{
+		int bytesRead = parser.read(in);
+		if (bytesRead > 0)
+		{
+			HTTPServer.getMetrics().addBytesReceived(bytesRead);
+		}
+		return bytesRead;
+	}
+
+	/**
+	 * Checks if this Connection may still be kept open after the current request, based on the server's keep-alive settings.
+	 * 
+	 * @return {@code true} if the connection can be reused, {@code false} otherwise
+	 */
+	public boolean canKeepAlive()
+	{
+		return getRequestsCount() < HTTPServer.getKeepAliveMaxRequests();
+	}
+
+	/**
+	 * Releases this Connection once the worker thread stops serving requests on it. A blocking Connection is always closed at this point,
+	 * since the worker only stops when the connection cannot or should not be reused anymore. If the head of the last request was refused
+	 * because it is too large, the rest of it may still be arriving, so the input received so far is discarded before the socket is
+	 * closed.
+	 * 
+	 * @param keepAlive
+	 *            {@code true} if the last {@link Response} allowed the connection to be reused
+	 * @throws IOException
+	 *             if any I/O error occurs
+	 */
+	public void release(boolean keepAlive) throws IOException
+	{
+		try
+		{
+			if (parser.isTooLarge() && !socket.isClosed())
+			{
+				out.flush();
+				discardInput(socket);
+			}
+		}
+		finally
+		{
+			close();
+		}
+	}
+
+	/**
+	 * Sends a region of a file directly to the client, letting the kernel move the data from the file to the socket without copying it
+	 * through the JVM. This is only possible if the socket has an associated {@link SocketChannel}; the data written so far through the
+	 * output stream must have been flushed already.
+	 * 
+	 * @param fileChannel
+	 *            the file's channel
+	 * @param position
+	 *            the position in the file from which the data is sent
+	 * @param count
+	 *            the number of bytes to send
+	 * @return the number of bytes sent, which is smaller than {@code count} if the data could not be sent this way
+	 * @throws IOException
+	 *             if any I/O error occurs
+	 */
+	public long transferFrom(FileChannel fileChannel, long position, long count) throws IOException
+	{
+		SocketChannel channel = socket.getChannel();
+		if (channel == null)
+		{
+			return 0;
+		}
+		long transferred = 0;
+		while (transferred < count)
+		{
+			long bytes = fileChannel.transferTo(position + transferred, count - transferred, channel);
+			if (bytes <= 0)
+			{
+				break;
+			}
+			transferred += bytes;
+		}
+		return transferred;
+	}
+
+	/**
+	 * Writes the remaining bytes of a {@link ByteBuffer} to the client. Direct and mapped buffers are written to the socket's
+	 * {@link SocketChannel}, when it exists, without being copied to the heap; the data written so far through the output stream must
+	 * have been flushed already.
+	 * 
+	 * @param buffer
+	 *            the data
+	 * @throws IOException
+	 *             if any I/O error occurs
+	 */
+	public void write(ByteBuffer buffer) throws IOException
+	{
+		SocketChannel channel = socket.getChannel();
+		if (channel != null)
+		{
+			while (buffer.hasRemaining())
+			{
+				channel.write(buffer);
+			}
+			return;
+		}
+		copy(buffer);
+		out.flush();
+	}
+
+	/**
+	 * Writes the remaining bytes of several {@link ByteBuffer}s to the client, in order. When the socket has an associated
+	 * {@link SocketChannel} the buffers are sent with a single gathering write, so that a response's head and the beginning of its body
+	 * leave in the same TCP segment; the data written so far through the output stream must have been flushed already.
+	 * 
+	 * @param buffers
+	 *            the data
+	 * @throws IOException
+	 *             if any I/O error occurs
+	 */
+	public void write(ByteBuffer[] buffers) throws IOException
+	{
+		SocketChannel channel = socket.getChannel();
+		if (channel != null)
+		{
+			long remaining = 0;
+			for (ByteBuffer buffer : buffers)
+			{
+				remaining += buffer.remaining();
+			}
+			// the last buffer may be empty, so the loop cannot stop on its remaining bytes alone
+			while (remaining > 0)
+			{
+				remaining -= channel.write(buffers);
+			}
+			return;
+		}
+		for (ByteBuffer buffer : buffers)
+		{
+			copy(buffer);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Copies the remaining bytes of a {@link ByteBuffer} to the output stream.
+	 */
+	private void copy(ByteBuffer buffer) throws IOException
+	{
+		if (buffer.hasArray())
+		{
+			out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+			buffer.position(buffer.limit());
+			return;
+		}
+		byte[] chunk = new byte[Math.min(buffer.remaining(), 8192)];
+		while (buffer.hasRemaining())
+		{
+			int length = Math.min(buffer.remaining(), chunk.length);
+			buffer.get(chunk, 0, length);
+			out.write(chunk, 0, length);
+		}
+	}
+
+	/**
+	 * Sends a pre-encoded response to a client whose connection is refused and closes the connection.
+	 * 
+	 * @param response
+	 *            the encoded response, which must be small enough to fit in the socket's send buffer
+	 * @throws IOException
+	 *             if any I/O error occurs
+	 */
+	public void reject(byte[] response) throws IOException
+	{
+		try
+		{
+			out.write(response);
+			out.flush();
+			discardInput(socket);
+		}
+		finally
+		{
+			close();
+		}
+	}
+
+	/**
+	 * Sends a pre-encoded response to a client whose socket is refused before a Connection was created for it and closes the socket.
+	 * The response is written to the empty send buffer of the new socket, so this does not block the accepting thread.
+	 * 
+	 * @param socket
+	 *            the socket
+	 * @param response
+	 *            the encoded response, which must be small enough to fit in the socket's send buffer
+	 * @throws IOException
+	 *             if any I/O error occurs
+	 */
+	public static void reject(Socket socket, byte[] response) throws IOException
+	{
+		try
+		{
+			socket.getOutputStream().write(response);
+			discardInput(socket);
+		}
+		finally
+		{
+			socket.close();
+		}
+	}
+
+	/**
+	 * Ends the output of a refused socket or request and discards the request bytes already received: closing a socket with unread data
+	 * resets the connection, which can destroy the response before the client has read it.
+	 */
+	private static void discardInput(Socket socket) throws IOException
+	{
+		socket.shutdownOutput();
+		InputStream input = socket.getInputStream();
+		int available = input.available();
+		if (available > 0)
+		{
+			input.skip(available);
+		}
+	}
+
+	/**
+	 * Closes this Connection's socket.
+	 * 
+	 * @throws IOException
+	 *             if any I/O error occurs
+	 */
+	public void close() throws IOException
+	{
+		if (!closed)
+		{
+			closed = true;
+			try
+			{
+				// the socket is already closed if the write deadline expired
+				if (!socket.isClosed())
+				{
+					out.flush();
+				}
+			}
+			finally
+			{
+				socket.close();
+				HTTPServer.getMetrics().connectionClosed();
+				if (HTTPServer.getWriteDeadlineWatchdog() != null)
+				{
+					HTTPServer.getWriteDeadlineWatchdog().unregister(this);
+				}
+			}
+		}
+	}
+
+	public Socket getSocket()
+	{
+		return socket;
+	}
+
+	public RequestParser getParser()
+	{
+		return parser;
+	}
+
+	public BufferedOutputStream getOutputStream()
+	{
+		return out;
+	}
+
+	/**
+	 * Returns the {@link ResponseHead} in which the responses sent on this Connection assemble their status line and headers.
+	 * 
+	 * @return the ResponseHead, reused by all the responses
+	 */
+	public ResponseHead getResponseHead()
+	{
+		if (responseHead == null)
+		{
+			responseHead = new ResponseHead();
+		}
+		return responseHead;
+	}
+
+	public int getRequestsCount()
+	{
+		return requestsCount;
+	}
+
+}
@@ -0,0 +1,204 @@
+package com.cotescu.radu.http.server;
+
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class holds the settings which bound what a client can make a {@link Connection} do: the options of the accepted sockets, the
+ * deadlines of the phases of a request and the limits of the request's head.
+ * 
+ * The read timeout bounds every single read, so a client which stops sending is noticed. A client which keeps trickling bytes resets it
+ * with every read, which is why the header, body and write deadlines bound the total time of their phase instead: a client which sends
+ * its head one byte at a time, or reads the response as slowly as it can, only holds a worker thread until the deadline of its phase,
+ * whatever the pace of its bytes. The limits of the head are enforced by the {@link RequestParser} while the head is received, so an
+ * oversized request line or header is refused as soon as it exceeds its limit.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+public class ConnectionSettings
+{
+	private final boolean tcpNoDelay;
+	private final int sendBufferSize;
+	private final int receiveBufferSize;
+	private final int linger;
+	private final int readTimeout;
+	private final long headerTimeout;
+	private final long bodyTimeout;
+	private final long writeTimeout;
+	private final int maxRequestLine;
+	private final int maxHeaders;
+	private final int maxHeaderLine;
+
+	/**
+	 * Creates the connection settings.
+	 * 
+	 * @param tcpNoDelay
+	 *            {@code true} to disable Nagle's algorithm on the accepted sockets
+	 * @param sendBufferSize
+	 *            the size of the sockets' send buffer in bytes, or 0 to keep the system's default
+	 * @param receiveBufferSize
+	 *            the size of the sockets' receive buffer in bytes, or 0 to keep the system's default
+	 * @param linger
+	 *            the number of seconds during which closing a socket waits for its unsent data, or a negative value to close the sockets
+	 *            in the background
+	 * @param readTimeout
+	 *            the maximum time in milliseconds that a single read waits for the client
+	 * @param headerTimeout
+	 *            the maximum time in milliseconds for receiving the head of a request, or 0 for no deadline
+	 * @param bodyTimeout
+	 *            the maximum time in milliseconds for receiving the body of a request, or 0 for no deadline
+	 * @param writeTimeout
+	 *            the maximum time in milliseconds for sending a response, or 0 for no deadline
+	 * @param maxRequestLine
+	 *            the maximum length of the request line in bytes, or 0 to only be limited by the size of the parser's buffer
+	 * @param maxHeaders
+	 *            the maximum number of header lines of a request, or 0 for no limit
+	 * @param maxHeaderLine
+	 *            the maximum length of a header line in bytes, or 0 to only be limited by the size of the parser's buffer
+	 * @throws IllegalArgumentException
+	 *             if a value is negative, except for the linger time, or if the read timeout is 0
+	 */
+	public ConnectionSettings(boolean tcpNoDelay, int sendBufferSize, int receiveBufferSize, int linger, int readTimeout,
+			int headerTimeout, int bodyTimeout, int writeTimeout, int maxRequestLine, int maxHeaders, int maxHeaderLine)
+	{
+		if (sendBufferSize < 0 || receiveBufferSize < 0)
+		{
+			throw new IllegalArgumentException("The socket buffer sizes cannot be negative.");
+		}
+		if (readTimeout < 1)
+		{
+			throw new IllegalArgumentException("The read timeout must be at least 1 ms.");
+		}
+		if (headerTimeout < 0 || bodyTimeout < 0 || writeTimeout < 0)
+		{
+			throw new IllegalArgumentException("The header, body and write timeouts cannot be negative.");
+		}
+		if (maxRequestLine < 0 || maxHeaders < 0 || maxHeaderLine < 0)
+		{
+			throw new IllegalArgumentException("The limits of the request head cannot be negative.");
+		}
+		this.tcpNoDelay = tcpNoDelay;
+		this.sendBufferSize = sendBufferSize;
+		this.receiveBufferSize = receiveBufferSize;
+		this.linger = linger;
+		this.readTimeout = readTimeout;
+		this.headerTimeout = TimeUnit.MILLISECONDS.toNanos(headerTimeout);
+		this.bodyTimeout = TimeUnit.MILLISECONDS.toNanos(bodyTimeout);
+		this.writeTimeout = TimeUnit.MILLISECONDS.toNanos(writeTimeout);
+		this.maxRequestLine = maxRequestLine;
+		this.maxHeaders = maxHeaders;
+		this.maxHeaderLine = maxHeaderLine;
+	}
+
+	/**
+	 * Applies the socket options to an accepted socket.
+	 * 
+	 * @param socket
+	 *            the socket
+	 * @throws SocketException
+	 *             if an option cannot be set
+	 */
+	public void configure(Socket socket) throws SocketException
+	{
+		if (tcpNoDelay)
+		{
+			socket.setTcpNoDelay(true);
+		}
+		if (sendBufferSize > 0)
+		{
+			socket.setSendBufferSize(sendBufferSize);
+		}
+		if (receiveBufferSize > 0)
+		{
+			socket.setReceiveBufferSize(receiveBufferSize);
+		}
+		if (linger >= 0)
+		{
+			socket.setSoLinger(true, linger);
+		}
+		socket.setSoTimeout(readTimeout);
+	}
+
+	/**
+	 * Creates a parser which enforces the limits of the request head.
+	 * 
+	 * @return the parser
+	 */
+	public RequestParser createParser()
+	{
+		return new RequestParser(maxRequestLine, maxHeaders, maxHeaderLine);
+	}
+
+	/**
+	 * Computes the end of a phase of a request.
+	 * 
+	 * @param timeout
+	 *            the phase's timeout in nanoseconds, as returned by the getters
+	 * @return the {@link System#nanoTime()} at which the phase's deadline expires, or 0 if the phase has no deadline
+	 */
+	public static long deadline(long timeout)
+	{
+		if (timeout == 0)
+		{
+			return 0;
+		}
+		long deadline = System.nanoTime() + timeout;
+		// 0 means no deadline
+		return deadline == 0 ? 1 : deadline;
+	}
+
+	/**
+	 * Computes how long a blocking call may wait before a deadline expires.
+	 * 
+	 * @param deadline
+	 *            the deadline, as returned by {@link #deadline(long)}
+	 * @return the time to wait in milliseconds, never more than the read timeout, or 0 if the deadline has expired
+	 */
+	public int getWaitTime(long deadline)
+	{
+		if (deadline == 0)
+		{
+			return readTimeout;
+		}
+		long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+		if (remaining <= 0)
+		{
+			return 0;
+		}
+		return (int) Math.min(remaining, readTimeout);
+	}
+
+	/**
+	 * @return the maximum time in milliseconds that a single read waits for the client
+	 */
+	public int getReadTimeout()
+	{
+		return readTimeout;
+	}
+
+	/**
+	 * @return the maximum time in nanoseconds for receiving the head of a request, or 0 for no deadline
+	 */
+	public long getHeaderTimeout()
+	{
+		return headerTimeout;
+	}
+
+	/**
+	 * @return the maximum time in nanoseconds for receiving the body of a request, or 0 for no deadline
+	 */
+	public long getBodyTimeout()
+	{
+		return bodyTimeout;
+	}
+
+	/**
+	 * @return the maximum time in nanoseconds for sending a response, or 0 for no deadline
+	 */
+	public long getWriteTimeout()
+	{
+		return writeTimeout;
+	}
+}
@@ -1,16 +1,38 @@
 package com.cotescu.radu.http.server;
 
-import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.Date;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.ThreadPoolExecutor;
 
+import com.cotescu.radu.http.server.cache.CachedContent;
+import com.cotescu.radu.http.server.cache.CompressedContentCache;
+import com.cotescu.radu.http.server.cache.ContentCache;
+import com.cotescu.radu.http.server.cache.FileIndex;
+import com.cotescu.radu.http.server.cache.FileMetadata;
+import com.cotescu.radu.http.server.cache.ListingCache;
+import com.cotescu.radu.http.server.cache.MappedFile;
+import com.cotescu.radu.http.server.cache.MappedFileRegistry;
+import com.cotescu.radu.http.server.cache.MissingPathCache;
 import com.cotescu.radu.http.server.constants.HTTPMethod;
+import com.cotescu.radu.http.server.constants.HTTPRequestHeader;
 import com.cotescu.radu.http.server.constants.HTTPResponseHeader;
 import com.cotescu.radu.http.server.constants.HTTPStatusCode;
 import com.cotescu.radu.http.server.exceptions.HTTPException;
+import com.cotescu.radu.http.server.log.AccessLog;
+import com.cotescu.radu.http.server.metrics.LatencyHistogram;
+import com.cotescu.radu.http.server.metrics.Metrics;
+import com.cotescu.radu.http.server.utils.ByteRange;
+import com.cotescu.radu.http.server.utils.ContentCoding;
+import com.cotescu.radu.http.server.utils.EntityTag;
 import com.cotescu.radu.http.server.utils.HTTPDateFormatter;
 
 /**
@@ -21,6 +43,16 @@ import com.cotescu.radu.http.server.utils.HTTPDateFormatter;
  */
 public class DefaultRequestHandler extends RequestHandler
 {
+	private static final String FORMAT_PROMETHEUS = "prometheus";
+	private static final String FORMAT_JSON = "json";
+	private static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private FileMetadata metadata;
+	private File file;
+	private String contentCoding;
+	private CachedContent content;
+	private MappedFile mappedFile;
+	private FileInputStream fileStream;
 
 	/**
 	 * Creates a request handler for GET/POST/HEAD.
@@ -39,57 +71,490 @@ public class DefaultRequestHandler extends RequestHandler
 	public void processRequest() throws HTTPException, IOException
 	{
 		if (request.getRequestURI().equals("/server-status") && Configuration.INSTANCE.getBooleanValueFor(Configuration.SERVER_STATUS)) {
-			String htmlMessage = getServerStatus();
+			// the metrics are exported for monitoring systems with format=prometheus or format=json
+			String format = request.getParameter("format");
+			if (format != null && !FORMAT_PROMETHEUS.equals(format) && !FORMAT_JSON.equals(format))
+			{
+				throw new HTTPException(HTTPStatusCode.HTTP_BAD_REQUEST);
+			}
 			response.sendResponseStatus(HTTPStatusCode.HTTP_OK);
-			response.addHeader(HTTPResponseHeader.ContentLength, Integer.toString(htmlMessage.getBytes().length));
-			response.addHeader(HTTPResponseHeader.ContentType, "html");
-			response.addHeader(HTTPResponseHeader.LastModified, HTTPDateFormatter.getFormattedDate(new Date()));
-			response.addHeader(HTTPResponseHeader.Connection, "close");
-			response.sendHeaders();
-			if (request.getMethod() == HTTPMethod.HEAD) {
-				response.endResponse();
-				return;
+			response.addHeader(HTTPResponseHeader.ContentType, FORMAT_PROMETHEUS.equals(format) ? PROMETHEUS_CONTENT_TYPE : HTTPServer
+					.getMimeMap().getContentType(format != null ? format : "html"));
+			response.addHeader(HTTPResponseHeader.LastModified, HTTPDateFormatter.getCurrentDate());
+			response.addHeader(HTTPResponseHeader.CacheControl, "no-cache");
+			Writer writer = new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8);
+			if (FORMAT_PROMETHEUS.equals(format))
+			{
+				HTTPServer.getMetrics().writePrometheus(writer);
 			}
-			response.write(htmlMessage);
+			else
+				if (FORMAT_JSON.equals(format))
+				{
+					HTTPServer.getMetrics().writeJson(writer);
+				}
+				else
+				{
+					writeServerStatus(writer);
+				}
+			writer.close();
 			response.endResponse();
 			return;
 		}
 		checkRequestedFile();
-		response.sendResponseStatus(HTTPStatusCode.HTTP_OK);
-		response.addHeader(HTTPResponseHeader.ContentLength, new Long(request.getFile().length()).toString());
-		response.addHeader(HTTPResponseHeader.ContentType, request.getContentType());
-		response.addHeader(HTTPResponseHeader.LastModified, HTTPDateFormatter.getFormattedDate(new Date(request.getFile().lastModified())));
-		response.addHeader(HTTPResponseHeader.Connection, "close");
-		response.sendHeaders();
-		if (request.getMethod() == HTTPMethod.HEAD)
+		metadata = request.getMetadata();
+		file = metadata.getFile();
+		if (negotiateContentCoding())
 		{
-			response.endResponse();
+			response.addHeader(HTTPResponseHeader.Vary, HTTPRequestHeader.AcceptEncoding.getHeader());
+		}
+		// the validators only need the file's metadata, so unmodified files are never opened nor cached
+		long lastModifiedTime = metadata.getLastModified();
+		String etag = getEntityTag(metadata.getLength(), lastModifiedTime);
+		if (etag != null && contentCoding != null && file == request.getFile())
+		{
+			etag = EntityTag.forCoding(etag, contentCoding);
+		}
+		String lastModified = HTTPDateFormatter.getFormattedDate(lastModifiedTime);
+		if (isNotModified(lastModifiedTime, etag))
+		{
+			sendNotModified(lastModified, etag);
 			return;
 		}
-		InputStream reader = new BufferedInputStream(new FileInputStream(request.getFile()));
-		byte[] buffer = new byte[4096];
-		int bytesRead;
-		while ((bytesRead = reader.read(buffer)) != -1)
+		// a coding without a sidecar means that the file is compressed on the fly
+		if (contentCoding != null && file == request.getFile())
 		{
-			response.write(buffer, 0, bytesRead);
+			content = HTTPServer.getCompressedContentCache().get(metadata);
+			if (content == null)
+			{
+				// the compressed cache did not take the file, so it is sent as it is
+				contentCoding = null;
+				etag = getEntityTag(metadata.getLength(), lastModifiedTime);
+			}
+		}
+		if (content == null && HTTPServer.getContentCache() != null)
+		{
+			content = HTTPServer.getContentCache().get(metadata);
+		}
+		long length = content != null ? content.getLength() : metadata.getLength();
+		List<ByteRange> ranges = getRequestedRanges(length, lastModified, etag);
+		response.addHeader(HTTPResponseHeader.AcceptRanges, "bytes");
+		response.addHeader(HTTPResponseHeader.LastModified, lastModified);
+		if (etag != null)
+		{
+			response.addHeader(HTTPResponseHeader.ETag, etag);
 		}
+		if (contentCoding != null)
+		{
+			response.addHeader(HTTPResponseHeader.ContentEncoding, contentCoding);
+		}
+		if (ranges == null)
+		{
+			response.sendResponseStatus(HTTPStatusCode.HTTP_OK);
+			response.addHeader(HTTPResponseHeader.ContentLength, Long.toString(length));
+			response.addHeader(HTTPResponseHeader.ContentType, request.getContentType());
+			response.sendHeaders();
+			if (request.getMethod() != HTTPMethod.HEAD)
+			{
+				sendBody(length, 0, length);
+			}
+		}
+		else
+			if (ranges.size() == 1)
+			{
+				ByteRange range = ranges.get(0);
+				response.sendResponseStatus(HTTPStatusCode.HTTP_PARTIAL);
+				response.addHeader(HTTPResponseHeader.ContentLength, Long.toString(range.getLength()));
+				response.addHeader(HTTPResponseHeader.ContentRange, range.getContentRange(length));
+				response.addHeader(HTTPResponseHeader.ContentType, request.getContentType());
+				response.sendHeaders();
+				sendBody(length, range.getStart(), range.getLength());
+			}
+			else
+			{
+				sendMultipartRanges(length, ranges);
+			}
 		response.endResponse();
 	}
-	
-	private String getServerStatus() {
-		ThreadPoolExecutor e = (ThreadPoolExecutor) HTTPServer.getExecutorService();
-		StringBuilder sb = new StringBuilder();
-		sb.append("<!DOCTYPE html PUBLIC \"-//W3C//DTD HTML 4.01 Transitional//EN\">\n");
-		sb.append("<html>\n<head>\n<title>Server Status</title>\n</head>\n");
-		sb.append("<body>\n");
-		sb.append("Server max threads: ").append(e.getMaximumPoolSize()).append("<br/>\n");
-		sb.append("Server min threads: ").append(e.getCorePoolSize()).append("<br/>\n");
-		sb.append("Server current threads: ").append(e.getPoolSize()).append("<br/>\n");
-		sb.append("Server active threads: ").append(e.getActiveCount()).append("<br/>\n");
-		sb.append("Requests served: ").append(e.getCompletedTaskCount()).append("<br/>\n");
-		sb.append("\n");
-		sb.append("<hr />").append(HTTPServer.SERVER_NAME).append("\n</body>\n</html>");
-		return sb.toString();
+
+	/**
+	 * Chooses the content coding of the response for a compressible file. A fresh precompressed sidecar ({@code file.br} or
+	 * {@code file.gz}) is preferred; otherwise the file is compressed with gzip through the {@link CompressedContentCache}. The choice only
+	 * depends on the files' metadata, so the file is not compressed before its preconditions are evaluated.
+	 * 
+	 * @return {@code true} if the response depends on the Accept-Encoding header of the request
+	 */
+	private boolean negotiateContentCoding()
+	{
+		CompressedContentCache cache = HTTPServer.getCompressedContentCache();
+		if (!HTTPServer.getMimeMap().isCompressible(request.getContentType()) || (!HTTPServer.isPrecompressed() && cache == null))
+		{
+			return false;
+		}
+		String acceptEncoding = request.getHeader(HTTPRequestHeader.AcceptEncoding);
+		if (HTTPServer.isPrecompressed())
+		{
+			if (useSidecar(acceptEncoding, ContentCoding.BROTLI, ".br") || useSidecar(acceptEncoding, ContentCoding.GZIP, ".gz"))
+			{
+				return true;
+			}
+		}
+		long length = metadata.getLength();
+		if (cache != null && length >= ContentCoding.MIN_COMPRESSIBLE_SIZE && length <= cache.getMaxFileSize()
+				&& ContentCoding.accepts(acceptEncoding, ContentCoding.GZIP))
+		{
+			contentCoding = ContentCoding.GZIP;
+		}
+		return true;
+	}
+
+	/**
+	 * Serves a precompressed sidecar of the requested file if the coding is acceptable and the sidecar is at least as recent as the file.
+	 */
+	private boolean useSidecar(String acceptEncoding, String coding, String extension)
+	{
+		if (!ContentCoding.accepts(acceptEncoding, coding))
+		{
+			return false;
+		}
+		FileMetadata sidecar = HTTPServer.getFileIndex().lookup(metadata.getPath() + extension);
+		if (sidecar != null && !sidecar.isDirectory() && sidecar.isReadable() && sidecar.getLastModified() >= metadata.getLastModified())
+		{
+			metadata = sidecar;
+			file = sidecar.getFile();
+			contentCoding = coding;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Evaluates the Range and If-Range headers of a GET {@link Request}.
+	 * 
+	 * @param length
+	 *            the length of the requested file
+	 * @param lastModified
+	 *            the formatted modification date of the requested file
+	 * @param etag
+	 *            the entity tag of the requested file or {@code null} if entity tags are disabled
+	 * @return the requested ranges or {@code null} if the whole file must be sent
+	 * @throws HTTPException
+	 *             if none of the requested ranges can be satisfied
+	 */
+	private List<ByteRange> getRequestedRanges(long length, String lastModified, String etag) throws HTTPException
+	{
+		String rangeHeader = request.getHeader(HTTPRequestHeader.Range);
+		if (request.getMethod() != HTTPMethod.GET || rangeHeader == null)
+		{
+			return null;
+		}
+		String ifRange = request.getHeader(HTTPRequestHeader.IfRange);
+		if (ifRange != null)
+		{
+			ifRange = ifRange.trim();
+			// an entity tag validates the ranges only if both tags are strong and equal, otherwise the date must match exactly
+			boolean valid = ifRange.startsWith("\"") || EntityTag.isWeak(ifRange) ? etag != null && EntityTag.matches(ifRange, etag, true)
+					: ifRange.equals(lastModified);
+			if (!valid)
+			{
+				return null;
+			}
+		}
+		List<ByteRange> ranges = ByteRange.parse(rangeHeader, length);
+		if (ranges != null && ranges.isEmpty())
+		{
+			response.addHeader(HTTPResponseHeader.ContentRange, "bytes */" + length);
+			throw new HTTPException(HTTPStatusCode.HTTP_RANGE_NOT_SATISFIABLE);
+		}
+		return ranges;
+	}
+
+	/**
+	 * Sends several ranges of the requested file as a multipart/byteranges body.
+	 * 
+	 * @param length
+	 *            the length of the requested file
+	 * @param ranges
+	 *            the requested ranges
+	 * @throws IOException
+	 *             if any I/O error occurs
+	 */
+	private void sendMultipartRanges(long length, List<ByteRange> ranges) throws IOException
+	{
+		String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong());
+		List<byte[]> partHeaders = new ArrayList<byte[]>(ranges.size());
+		long contentLength = 0;
+		for (ByteRange range : ranges)
+		{
+			byte[] partHeader = ("\r\n--" + boundary + "\r\n" + HTTPResponseHeader.ContentType.getHeader() + ": " + request.getContentType()
+					+ "\r\n" + HTTPResponseHeader.ContentRange.getHeader() + ": " + range.getContentRange(length) + "\r\n\r\n")
+					.getBytes(StandardCharsets.ISO_8859_1);
+			partHeaders.add(partHeader);
+			contentLength += partHeader.length + range.getLength();
+		}
+		byte[] end = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+		contentLength += end.length;
+		response.sendResponseStatus(HTTPStatusCode.HTTP_PARTIAL);
+		response.addHeader(HTTPResponseHeader.ContentLength, Long.toString(contentLength));
+		response.addHeader(HTTPResponseHeader.ContentType, "multipart/byteranges; boundary=" + boundary);
+		response.sendHeaders();
+		openBody(length);
+		try
+		{
+			for (int i = 0; i < ranges.size(); i++)
+			{
+				response.write(partHeaders.get(i), 0, partHeaders.get(i).length);
+				writeBody(ranges.get(i).getStart(), ranges.get(i).getLength());
+			}
+			response.write(end, 0, end.length);
+		}
+		finally
+		{
+			closeBody();
+		}
+	}
+
+	/**
+	 * Sends a region of the requested file as the body of the {@link Response}.
+	 * 
+	 * @param length
+	 *            the length of the requested file
+	 * @param position
+	 *            the position of the region
+	 * @param count
+	 *            the length of the region
+	 * @throws IOException
+	 *             if any I/O error occurs
+	 */
+	private void sendBody(long length, long position, long count) throws IOException
+	{
+		openBody(length);
+		try
+		{
+			writeBody(position, count);
+		}
+		finally
+		{
+			closeBody();
+		}
+	}
+
+	/**
+	 * Prepares the source of the body: the {@link ContentCache}, a shared memory mapping for large files or else the file itself, which
+	 * is sent without copying it through the JVM.
+	 * 
+	 * @param length
+	 *            the length of the requested file
+	 * @throws IOException
+	 *             if the file cannot be opened
+	 */
+	private void openBody(long length) throws IOException
+	{
+		if (content != null)
+		{
+			return;
+		}
+		MappedFileRegistry registry = HTTPServer.getMappedFileRegistry();
+		if (registry != null && length >= HTTPServer.getMmapThreshold() && length <= Integer.MAX_VALUE)
+		{
+			try
+			{
+				mappedFile = registry.acquire(metadata);
+				return;
+			}
+			catch (IOException e)
+			{
+				// the file shrank since its length was announced and cannot be mapped anymore, but the headers are already queued; the
+				// file channel copes with a short file by closing the connection
+			}
+		}
+		fileStream = new FileInputStream(file);
+	}
+
+	/**
+	 * Writes a region of the requested file from the source prepared by {@link #openBody(long)}. Regions which do not start at the
+	 * beginning of the file are sent from their position, without reading the skipped bytes.
+	 */
+	private void writeBody(long position, long count) throws IOException
+	{
+		if (content != null)
+		{
+			response.write(content.getBody(), (int) position, (int) count);
+		}
+		else
+			if (mappedFile != null)
+			{
+				ByteBuffer buffer = mappedFile.getBuffer();
+				buffer.limit((int) (position + count)).position((int) position);
+				response.write(buffer);
+			}
+			else
+			{
+				response.write(fileStream.getChannel(), position, count);
+			}
+	}
+
+	private void closeBody() throws IOException
+	{
+		if (mappedFile != null)
+		{
+			HTTPServer.getMappedFileRegistry().release(mappedFile);
+			mappedFile = null;
+		}
+		if (fileStream != null)
+		{
+			fileStream.close();
+			fileStream = null;
+		}
+	}
+
+	/**
+	 * Writes the server status page.
+	 * 
+	 * @param writer
+	 *            the Writer which receives the page
+	 * @throws IOException
+	 *             if any I/O error occurs
+	 */
+	private void writeServerStatus(Writer writer) throws IOException {
+		writer.append("<!DOCTYPE html PUBLIC \"-//W3C//DTD HTML 4.01 Transitional//EN\">\n");
+		writer.append("<html>\n<head>\n<title>Server Status</title>\n</head>\n");
+		writer.append("<body>\n");
+		if (HTTPServer.getExecutorService() instanceof VirtualThreadExecutor)
+		{
+			VirtualThreadExecutor e = (VirtualThreadExecutor) HTTPServer.getExecutorService();
+			writer.append("Server virtual threads limit: ").append(String.valueOf(e.getLimit())).append("<br/>\n");
+			writer.append("Server in-flight requests: ").append(String.valueOf(e.getActiveCount())).append("<br/>\n");
+			writer.append("Tasks completed: ").append(String.valueOf(e.getCompletedTaskCount())).append("<br/>\n");
+			writer.append("Tasks rejected: ").append(String.valueOf(e.getRejectedTaskCount())).append("<br/>\n");
+		}
+		else
+		{
+			ExecutorService[] groups = HTTPServer.getExecutorServices();
+			for (int i = 0; i < groups.length; i++)
+			{
+				ThreadPoolExecutor e = (ThreadPoolExecutor) groups[i];
+				String prefix = groups.length > 1 ? "Worker group " + (i + 1) + " " : "Server ";
+				writer.append(prefix).append("max threads: ").append(String.valueOf(e.getMaximumPoolSize())).append("<br/>\n");
+				writer.append(prefix).append("min threads: ").append(String.valueOf(e.getCorePoolSize())).append("<br/>\n");
+				writer.append(prefix).append("current threads: ").append(String.valueOf(e.getPoolSize())).append("<br/>\n");
+				writer.append(prefix).append("active threads: ").append(String.valueOf(e.getActiveCount())).append("<br/>\n");
+				writer.append(groups.length > 1 ? prefix + "tasks" : "Tasks").append(" completed: ").append(String.valueOf(
+						e.getCompletedTaskCount())).append("<br/>\n");
+				if (HTTPServer.getPoolSizeController() != null)
+				{
+					writePoolSize(writer, prefix, HTTPServer.getPoolSizeController(), i);
+				}
+			}
+		}
+		Metrics metrics = HTTPServer.getMetrics();
+		writer.append("Requests served: ").append(String.valueOf(metrics.getRequests())).append("<br/>\n");
+		writer.append("Active connections: ").append(String.valueOf(metrics.getActiveConnections())).append("<br/>\n");
+		writer.append("Bytes received: ").append(String.valueOf(metrics.getBytesReceived())).append("<br/>\n");
+		writer.append("Bytes sent: ").append(String.valueOf(metrics.getBytesSent())).append("<br/>\n");
+		writeLatency(writer, "Queue wait", metrics.getQueueWait().getSnapshot());
+		writeLatency(writer, "Time to first byte", metrics.getTimeToFirstByte().getSnapshot());
+		writeLatency(writer, "Response time", metrics.getResponseTime().getSnapshot());
+		writer.append("Connections shed: ").append(String.valueOf(metrics.getShed(Metrics.ShedReason.REJECTED))).append(" rejected, ")
+				.append(String.valueOf(metrics.getShed(Metrics.ShedReason.OVERLOADED))).append(" overloaded, ")
+				.append(String.valueOf(metrics.getShed(Metrics.ShedReason.QUEUE_DELAY))).append(" queue delay<br/>\n");
+		writer.append("Timeouts: ").append(String.valueOf(metrics.getTimeouts(Metrics.TimeoutPhase.HEADER))).append(" header, ")
+				.append(String.valueOf(metrics.getTimeouts(Metrics.TimeoutPhase.BODY))).append(" body, ")
+				.append(String.valueOf(metrics.getTimeouts(Metrics.TimeoutPhase.WRITE))).append(" write<br/>\n");
+		writer.append("Queue delay (&micro;s): ").append(String.valueOf(metrics.getQueueDelay()))
+				.append(metrics.isOverloaded() ? " (overloaded)" : "").append("<br/>\n");
+		if (HTTPServer.getContentCache() != null)
+		{
+			ContentCache c = HTTPServer.getContentCache();
+			writer.append("Cache size: ").append(String.valueOf(c.getSize())).append(" / ").append(String.valueOf(c.getCapacity()))
+					.append(" bytes in ").append(String.valueOf(c.getEntriesCount())).append(" files<br/>\n");
+			writer.append("Cache hits: ").append(String.valueOf(c.getHits())).append("<br/>\n");
+			writer.append("Cache misses: ").append(String.valueOf(c.getMisses())).append("<br/>\n");
+			writer.append("Cache evictions: ").append(String.valueOf(c.getEvictions())).append("<br/>\n");
+		}
+		if (HTTPServer.getCompressedContentCache() != null)
+		{
+			ContentCache c = HTTPServer.getCompressedContentCache();
+			writer.append("Compressed cache size: ").append(String.valueOf(c.getSize())).append(" / ")
+					.append(String.valueOf(c.getCapacity())).append(" bytes in ").append(String.valueOf(c.getEntriesCount()))
+					.append(" files<br/>\n");
+			writer.append("Compressed cache hits: ").append(String.valueOf(c.getHits())).append("<br/>\n");
+			writer.append("Compressed cache misses: ").append(String.valueOf(c.getMisses())).append("<br/>\n");
+		}
+		if (HTTPServer.getListingCache() != null)
+		{
+			ListingCache c = HTTPServer.getListingCache();
+			writer.append("Listing cache size: ").append(String.valueOf(c.getSize())).append(" / ").append(String.valueOf(c.getCapacity()))
+					.append(" bytes in ").append(String.valueOf(c.getEntriesCount())).append(" listings of ")
+					.append(String.valueOf(c.getWatchedDirectoriesCount())).append(" directories<br/>\n");
+			writer.append("Listing cache hits: ").append(String.valueOf(c.getHits())).append("<br/>\n");
+			writer.append("Listing cache misses: ").append(String.valueOf(c.getMisses())).append("<br/>\n");
+			writer.append("Listing cache invalidations: ").append(String.valueOf(c.getInvalidations())).append("<br/>\n");
+		}
+		FileIndex index = HTTPServer.getFileIndex();
+		if (index.isEnabled())
+		{
+			writer.append("File index: ").append(String.valueOf(index.getEntriesCount())).append(" / ")
+					.append(String.valueOf(index.getMaxEntries())).append(" files in ").append(String.valueOf(index.getWatchedDirectoriesCount()))
+					.append(" watched directories<br/>\n");
+		}
+		writer.append("File system lookups: ").append(String.valueOf(index.getFileSystemReads())).append("<br/>\n");
+		if (HTTPServer.getMissingPathCache() != null)
+		{
+			MissingPathCache c = HTTPServer.getMissingPathCache();
+			writer.append("Missing paths: ").append(String.valueOf(c.getEntriesCount())).append(" / ").append(String.valueOf(c.getCapacity()))
+					.append("<br/>\n");
+			writer.append("Missing path hits: ").append(String.valueOf(c.getHits())).append("<br/>\n");
+			writer.append("Missing path misses: ").append(String.valueOf(c.getMisses())).append("<br/>\n");
+		}
+		if (HTTPServer.getAccessLog() != null)
+		{
+			AccessLog l = HTTPServer.getAccessLog();
+			writer.append("Access log records written: ").append(String.valueOf(l.getWritten())).append("<br/>\n");
+			writer.append("Access log records pending: ").append(String.valueOf(l.getPending())).append(" / ")
+					.append(String.valueOf(l.getCapacity())).append("<br/>\n");
+			writer.append("Access log records dropped: ").append(String.valueOf(metrics.getAccessLogDrops())).append("<br/>\n");
+		}
+		if (HTTPServer.getMappedFileRegistry() != null)
+		{
+			writer.append("Mapped files: ").append(String.valueOf(HTTPServer.getMappedFileRegistry().getMappedFilesCount()))
+					.append("<br/>\n");
+		}
+		if (HTTPServer.getSelectorTransport() != null)
+		{
+			writer.append("Open connections: ").append(String.valueOf(HTTPServer.getSelectorTransport().getConnectionsCount()))
+					.append("<br/>\n");
+		}
+		writer.append("\n");
+		writer.append("<hr />").append(HTTPServer.SERVER_NAME).append("\n</body>\n</html>");
+	}
+
+	private static void writePoolSize(Writer writer, String prefix, PoolSizeController controller, int group) throws IOException
+	{
+		PoolSizeController.Decision d = controller.getDecision(group);
+		writer.append(prefix).append("pool tuning: ").append(String.valueOf(Math.round(d.getBusyThreads() * 10) / 10.0))
+				.append(" busy threads, ").append(String.valueOf(Math.round(d.getThroughput() * 10) / 10.0)).append(" tasks/s, ")
+				.append(String.valueOf(d.getQueueWait() / 1000)).append(" &micro;s queue wait, bounds ")
+				.append(String.valueOf(controller.getMinThreads())).append(" - ").append(String.valueOf(controller.getMaxThreads()))
+				.append(" threads<br/>\n");
+		writer.append(prefix).append("last resize: ");
+		if (d.getReason() == null)
+		{
+			writer.append("none");
+		}
+		else
+		{
+			writer.append(String.valueOf(d.getPreviousThreads())).append(" -> ").append(String.valueOf(d.getThreads()))
+					.append(" threads (").append(d.getReason()).append(") on ")
+					.append(HTTPDateFormatter.getFormattedDate(d.getChangeTime()));
+		}
+		writer.append("<br/>\n");
+	}
+
+	private static void writeLatency(Writer writer, String name, LatencyHistogram.Snapshot snapshot) throws IOException
+	{
+		writer.append(name).append(" (&micro;s): p50 ").append(String.valueOf(snapshot.getPercentile(0.5))).append(", p99 ")
+				.append(String.valueOf(snapshot.getPercentile(0.99))).append(", max ").append(String.valueOf(snapshot.getMax()))
+				.append("<br/>\n");
 	}
 
 }
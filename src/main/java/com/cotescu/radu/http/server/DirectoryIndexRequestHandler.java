@@ -1,26 +1,54 @@
 package com.cotescu.radu.http.server;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.Date;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 
+import com.cotescu.radu.http.server.cache.CachedListing;
+import com.cotescu.radu.http.server.cache.ListingCache;
 import com.cotescu.radu.http.server.constants.HTTPMethod;
+import com.cotescu.radu.http.server.constants.HTTPRequestHeader;
 import com.cotescu.radu.http.server.constants.HTTPResponseHeader;
 import com.cotescu.radu.http.server.constants.HTTPStatusCode;
 import com.cotescu.radu.http.server.exceptions.HTTPException;
-import com.cotescu.radu.http.server.utils.FileNameComparator;
+import com.cotescu.radu.http.server.utils.ContentCoding;
+import com.cotescu.radu.http.server.utils.DirectoryListing;
+import com.cotescu.radu.http.server.utils.EntityTag;
 
 /**
- * This class handles the listing of a directory represented by the {@link File} asked in a {@link Request}.
+ * This class handles the listing of a directory represented by the {@link File} asked in a {@link Request}. The listing is streamed
+ * while it is generated, since its length is not known in advance.
+ * 
+ * Large directories are listed in pages, selected with the query parameters {@code offset} and {@code limit} (at most the configured
+ * page size). The entries are sorted by {@code sort=name|size|mtime|none} in the {@code order=asc|desc}, and {@code format=json}
+ * returns the page as JSON instead of HTML.
+ * 
+ * When the {@link ListingCache} is enabled, the rendered pages are also kept in memory while they are streamed, and the following
+ * requests for the same page are served from the cache, with a Content-Length and validators, until the directory changes.
  * 
  * @author Radu Cotescu
  * 
  */
 public class DirectoryIndexRequestHandler extends RequestHandler
 {
+	private static final String FORMAT_HTML = "html";
+	private static final String FORMAT_JSON = "json";
+
+	private int offset;
+	private int limit;
+	private String sort;
+	private boolean descending;
+	private String format;
 
 	/**
 	 * Creates a request handler for listing directories.
@@ -38,75 +66,385 @@ public class DirectoryIndexRequestHandler extends RequestHandler
 	@Override
 	public void processRequest() throws HTTPException, IOException
 	{
-		File[] files = request.getFile().listFiles();
-		ArrayList<File> directories = new ArrayList<File>();
-		ArrayList<File> regularFiles = new ArrayList<File>();
-		for (File f : files)
+		readParameters();
+		// once the headers are sent an error cannot be reported anymore, so the directory is checked first
+		if (!request.getMetadata().isReadable())
+		{
+			throw new HTTPException(HTTPStatusCode.HTTP_FORBIDDEN);
+		}
+		boolean gzip = false;
+		if (HTTPServer.getCompressedContentCache() != null)
 		{
-			if (f.isDirectory())
+			response.addHeader(HTTPResponseHeader.Vary, HTTPRequestHeader.AcceptEncoding.getHeader());
+			gzip = ContentCoding.accepts(request.getHeader(HTTPRequestHeader.AcceptEncoding), ContentCoding.GZIP);
+		}
+		Path directory = request.getFile().toPath();
+		String variant = format + '&' + sort + '&' + descending + '&' + offset + '&' + limit;
+		ListingCache cache = HTTPServer.getListingCache();
+		if (cache != null)
+		{
+			CachedListing listing = cache.get(directory, variant);
+			if (listing != null)
+			{
+				sendCachedListing(listing, gzip);
+				return;
+			}
+		}
+		long token = cache != null ? cache.prepare(directory) : 0;
+		CachedListing listing = null;
+		try
+		{
+			// the listing is written in UTF-8 whatever the platform's default charset is, so the clients are told which one it is
+			String contentType = HTTPServer.getMimeMap().getContentType(format) + "; charset=utf-8";
+			if (gzip)
+			{
+				response.addHeader(HTTPResponseHeader.ContentEncoding, ContentCoding.GZIP);
+			}
+			response.addHeader(HTTPResponseHeader.ContentType, contentType);
+			response.sendResponseStatus(HTTPStatusCode.HTTP_OK);
+			OutputStream body = response.getOutputStream();
+			if (gzip)
+			{
+				body = new GZIPOutputStream(body, HTTPServer.getChunkSize());
+			}
+			CapturingOutputStream capture = null;
+			if (cache != null)
+			{
+				body = capture = new CapturingOutputStream(body, cache.getCapacity() / 4);
+			}
+			Writer writer = new OutputStreamWriter(body, StandardCharsets.UTF_8);
+			long renderTime = System.currentTimeMillis();
+			if (FORMAT_JSON.equals(format))
 			{
-				directories.add(f);
+				writeJSON(writer, request.getRequestURI());
 			}
 			else
 			{
-				regularFiles.add(f);
+				writeHTML(writer, request.getRequestURI());
 			}
+			writer.close();
+			response.endResponse();
+			if (capture != null)
+			{
+				listing = createCachedListing(capture.getCapturedBytes(), renderTime, contentType);
+			}
+		}
+		finally
+		{
+			if (cache != null)
+			{
+				// a listing which could not be rendered releases the directory's watch
+				cache.put(directory, variant, token, listing);
+			}
+		}
+	}
+
+	/**
+	 * Serves a listing from the {@link ListingCache}, in the content coding accepted by the client.
+	 */
+	private void sendCachedListing(CachedListing listing, boolean gzip) throws HTTPException, IOException
+	{
+		byte[] body = listing.getBody();
+		String etag = listing.getEntityTag();
+		if (gzip && listing.getGzipBody() != null)
+		{
+			body = listing.getGzipBody();
+			etag = etag == null ? null : EntityTag.forCoding(etag, ContentCoding.GZIP);
+			response.addHeader(HTTPResponseHeader.ContentEncoding, ContentCoding.GZIP);
+		}
+		if (isNotModified(listing.getLastModified(), etag))
+		{
+			sendNotModified(listing.getLastModifiedHeader(), etag);
+			return;
+		}
+		response.addHeader(HTTPResponseHeader.ContentLength, Integer.toString(body.length));
+		response.addHeader(HTTPResponseHeader.ContentType, listing.getContentType());
+		response.addHeader(HTTPResponseHeader.LastModified, listing.getLastModifiedHeader());
+		if (etag != null)
+		{
+			response.addHeader(HTTPResponseHeader.ETag, etag);
 		}
-		Comparator<File> fileNameComparator = new FileNameComparator();
-		Collections.sort(directories, fileNameComparator);
-		Collections.sort(regularFiles, fileNameComparator);
-		String html = getHTML(request.getRequestURI(), directories, regularFiles);
-		response.addHeader(HTTPResponseHeader.ContentLength, new Integer(html.getBytes().length).toString());
-		response.addHeader(HTTPResponseHeader.ContentType, HTTPServer.getMimeMap().getContentType("html"));
 		response.sendResponseStatus(HTTPStatusCode.HTTP_OK);
 		response.sendHeaders();
 		if (request.getMethod() != HTTPMethod.HEAD)
 		{
-			response.write(html);
+			response.write(body, 0, body.length);
 		}
 		response.endResponse();
 	}
 
 	/**
-	 * Creates the HTML page returned for listing directories.
+	 * Creates the cache entry of a rendered listing. Since a listing has no modification time of its own, its entity tag is derived from
+	 * a checksum of its content, while the time when it was rendered serves as its Last-Modified date.
 	 * 
+	 * @return the cache entry or {@code null} if the listing was too large to be captured
+	 */
+	private CachedListing createCachedListing(byte[] body, long renderTime, String contentType) throws IOException
+	{
+		if (body == null)
+		{
+			return null;
+		}
+		CRC32 checksum = new CRC32();
+		checksum.update(body, 0, body.length);
+		byte[] gzipBody = null;
+		if (HTTPServer.getCompressedContentCache() != null && body.length >= ContentCoding.MIN_COMPRESSIBLE_SIZE)
+		{
+			gzipBody = ContentCoding.gzip(body, Deflater.BEST_COMPRESSION);
+		}
+		return new CachedListing(renderTime, body, gzipBody, contentType, getEntityTag(body.length, checksum.getValue()));
+	}
+
+	/**
+	 * Reads the paging, sorting and format parameters of the {@link Request}.
+	 * 
+	 * @throws HTTPException
+	 *             if any parameter is not valid
+	 */
+	private void readParameters() throws HTTPException
+	{
+		offset = getIntegerParameter("offset", 0);
+		int pageSize = HTTPServer.getDirectoryPageSize();
+		limit = getIntegerParameter("limit", pageSize);
+		if (limit == 0 || (pageSize > 0 && limit > pageSize))
+		{
+			limit = pageSize;
+		}
+		sort = request.getParameter("sort");
+		if (sort == null)
+		{
+			sort = DirectoryListing.SORT_NAME;
+		}
+		String order = request.getParameter("order");
+		format = request.getParameter("format");
+		if (format == null)
+		{
+			format = FORMAT_HTML;
+		}
+		if (!DirectoryListing.isValidSort(sort) || (order != null && !order.equals("asc") && !order.equals("desc"))
+				|| (!FORMAT_HTML.equals(format) && !FORMAT_JSON.equals(format)))
+		{
+			throw new HTTPException(HTTPStatusCode.HTTP_BAD_REQUEST);
+		}
+		descending = "desc".equals(order);
+	}
+
+	private int getIntegerParameter(String name, int defaultValue) throws HTTPException
+	{
+		String value = request.getParameter(name);
+		if (value == null)
+		{
+			return defaultValue;
+		}
+		try
+		{
+			int number = Integer.parseInt(value);
+			if (number >= 0)
+			{
+				return number;
+			}
+		}
+		catch (NumberFormatException e)
+		{
+			// reported below
+		}
+		throw new HTTPException(HTTPStatusCode.HTTP_BAD_REQUEST);
+	}
+
+	/**
+	 * Writes the HTML page returned for listing directories.
+	 * 
+	 * @param writer
+	 *            the Writer which receives the page
 	 * @param requestURI
 	 *            the Request-URI
-	 * @param directories
-	 *            an ArrayList of directories
-	 * @param files
-	 *            an ArrayList of files
-	 * @return a String containing the generated HTML for the response page
+	 * @throws IOException
+	 *             if any I/O error occurs
 	 */
-	private String getHTML(String requestURI, ArrayList<File> directories, ArrayList<File> files)
+	private void writeHTML(final Writer writer, String requestURI) throws IOException
 	{
-		StringBuilder sb = new StringBuilder();
-		sb.append("<!DOCTYPE html PUBLIC \"-//W3C//DTD HTML 4.01 Transitional//EN\">\n");
-		sb.append("<html>\n<head>\n<title>Index of ").append(requestURI).append("</title>\n</head>");
-		sb.append("<body>\n<h1>Index of ").append(requestURI).append("</h1>\n");
-		sb.append("<table>\n<tr><th>Name</th><th>Last modified</th><th>Size</th></tr><tr><th colspan=\"3\"><hr></th></tr>\n");
-		for (File f : directories)
-		{
-			sb.append("<tr><td><a href=\"").append(requestURI);
-			if (!requestURI.endsWith("/"))
+		final String prefix = escapeHTML(requestURI.endsWith("/") ? requestURI : requestURI + "/");
+		writer.append("<!DOCTYPE html PUBLIC \"-//W3C//DTD HTML 4.01 Transitional//EN\">\n");
+		writer.append("<html>\n<head>\n<title>Index of ").append(escapeHTML(requestURI)).append("</title>\n</head>");
+		writer.append("<body>\n<h1>Index of ").append(escapeHTML(requestURI)).append("</h1>\n");
+		writer.append("<table>\n<tr><th><a href=\"?sort=name").append(getOrderParameter(DirectoryListing.SORT_NAME))
+				.append("\">Name</a></th><th><a href=\"?sort=mtime").append(getOrderParameter(DirectoryListing.SORT_MTIME))
+				.append("\">Last modified</a></th><th><a href=\"?sort=size").append(getOrderParameter(DirectoryListing.SORT_SIZE))
+				.append("\">Size</a></th></tr><tr><th colspan=\"3\"><hr></th></tr>\n");
+		boolean more = DirectoryListing.list(request.getFile().toPath(), sort, descending, offset, limit, new DirectoryListing.Visitor()
+		{
+			@Override
+			public void visit(DirectoryListing.Entry entry) throws IOException
 			{
-				sb.append("/");
+				String name = escapeHTML(entry.getName());
+				writer.append("<tr><td><a href=\"").append(prefix).append(name).append("\">").append(name).append("</a></td><td>")
+						.append(String.valueOf(new Date(entry.getLastModified()))).append("</td><td>")
+						.append(entry.isDirectory() ? "-" : Long.toString(entry.getSize())).append("</td></tr>\n");
 			}
-			sb.append(f.getName()).append("\">").append(f.getName()).append("</a></td><td>").append(new Date(f.lastModified()))
-					.append("</td><td>-</td></tr>\n");
+		});
+		writer.append("<tr><th colspan=\"3\"><hr></th></tr>\n</table>\n");
+		if (offset > 0 && limit > 0)
+		{
+			writer.append("<a href=\"").append(getPageQuery(Math.max(offset - limit, 0))).append("\">Previous</a>\n");
 		}
-		for (File f : files)
+		if (more)
+		{
+			writer.append("<a href=\"").append(getPageQuery(offset + limit)).append("\">Next</a>\n");
+		}
+		writer.append(HTTPServer.SERVER_NAME).append("\n</body>\n</html>");
+	}
+
+	/**
+	 * Writes the JSON document returned for listing directories.
+	 * 
+	 * @param writer
+	 *            the Writer which receives the document
+	 * @param requestURI
+	 *            the Request-URI
+	 * @throws IOException
+	 *             if any I/O error occurs
+	 */
+	private void writeJSON(final Writer writer, String requestURI) throws IOException
+	{
+		writer.append("{\"path\":\"").append(escapeJSON(requestURI)).append("\",\"offset\":").append(Integer.toString(offset))
+				.append(",\"limit\":").append(Integer.toString(limit)).append(",\"sort\":\"").append(sort).append("\",\"order\":\"")
+				.append(descending ? "desc" : "asc").append("\",\"entries\":[");
+		boolean more = DirectoryListing.list(request.getFile().toPath(), sort, descending, offset, limit, new DirectoryListing.Visitor()
+		{
+			private boolean first = true;
+
+			@Override
+			public void visit(DirectoryListing.Entry entry) throws IOException
+			{
+				writer.append(first ? "\n" : ",\n").append("{\"name\":\"").append(escapeJSON(entry.getName())).append("\",\"type\":\"")
+						.append(entry.isDirectory() ? "directory" : "file").append("\",\"size\":")
+						.append(Long.toString(entry.isDirectory() ? 0 : entry.getSize())).append(",\"lastModified\":")
+						.append(Long.toString(entry.getLastModified())).append("}");
+				first = false;
+			}
+		});
+		writer.append("\n],\"more\":").append(String.valueOf(more)).append("}\n");
+	}
+
+	/**
+	 * Returns the query string of another page of the listing, with the same sorting and format.
+	 */
+	private String getPageQuery(int pageOffset)
+	{
+		StringBuilder sb = new StringBuilder("?offset=").append(pageOffset).append("&amp;limit=").append(limit);
+		sb.append("&amp;sort=").append(sort).append("&amp;order=").append(descending ? "desc" : "asc");
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the order parameter of the link which sorts the listing by a column: the current sort column is reversed.
+	 */
+	private String getOrderParameter(String column)
+	{
+		return column.equals(sort) && !descending ? "&amp;order=desc" : "";
+	}
+
+	private static String escapeHTML(String text)
+	{
+		StringBuilder sb = null;
+		for (int i = 0; i < text.length(); i++)
 		{
-			sb.append("<tr><td><a href=\"").append(requestURI);
-			if (!requestURI.endsWith("/"))
+			char c = text.charAt(i);
+			String replacement = c == '&' ? "&amp;" : c == '<' ? "&lt;" : c == '>' ? "&gt;" : c == '"' ? "&quot;" : null;
+			if (replacement != null && sb == null)
 			{
-				sb.append("/");
+				sb = new StringBuilder(text.length() + 16).append(text, 0, i);
 			}
-			sb.append(f.getName()).append("\">").append(f.getName()).append("</a></td><td>").append(new Date(f.lastModified()))
-					.append("</td><td>").append(f.length()).append("</td></tr>\n");
+			if (sb != null)
+			{
+				if (replacement != null)
+				{
+					sb.append(replacement);
+				}
+				else
+				{
+					sb.append(c);
+				}
+			}
+		}
+		return sb == null ? text : sb.toString();
+	}
+
+	private static String escapeJSON(String text)
+	{
+		StringBuilder sb = new StringBuilder(text.length() + 8);
+		for (int i = 0; i < text.length(); i++)
+		{
+			char c = text.charAt(i);
+			if (c == '"' || c == '\\')
+			{
+				sb.append('\\').append(c);
+			}
+			else
+				if (c < 0x20)
+				{
+					sb.append(String.format("\\u%04x", (int) c));
+				}
+				else
+				{
+					sb.append(c);
+				}
 		}
-		sb.append("<tr><th colspan=\"3\"><hr></th></tr>\n</table>\n").append(HTTPServer.SERVER_NAME).append("\n</body>\n</html>");
 		return sb.toString();
 	}
 
+	/**
+	 * Passes the listing through to the client while keeping a copy of it, as long as the copy stays under a size limit.
+	 */
+	private static class CapturingOutputStream extends FilterOutputStream
+	{
+		private final long limit;
+		private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+		CapturingOutputStream(OutputStream out, long limit)
+		{
+			super(out);
+			this.limit = limit;
+		}
+
+		@Override
+		public void write(int b) throws IOException
+		{
+			out.write(b);
+			capture(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int offset, int length) throws IOException
+		{
+			out.write(b, offset, length);
+			capture(b, offset, length);
+		}
+
+		private void capture(byte[] b, int offset, int length)
+		{
+			if (copy != null)
+			{
+				if (copy.size() + length > limit)
+				{
+					copy = null;
+				}
+				else
+				{
+					copy.write(b, offset, length);
+				}
+			}
+		}
+
+		/**
+		 * Returns the captured data.
+		 * 
+		 * @return the data or {@code null} if it exceeded the size limit
+		 */
+		byte[] getCapturedBytes()
+		{
+			return copy == null ? null : copy.toByteArray();
+		}
+	}
+
 }
@@ -3,8 +3,11 @@ package com.cotescu.radu.http.server;
 import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -12,13 +15,23 @@ import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 
 import com.cotescu.radu.commons.StringUtils;
+import com.cotescu.radu.http.server.cache.CompressedContentCache;
+import com.cotescu.radu.http.server.cache.ContentCache;
+import com.cotescu.radu.http.server.cache.FileIndex;
+import com.cotescu.radu.http.server.cache.ListingCache;
+import com.cotescu.radu.http.server.cache.MappedFileRegistry;
+import com.cotescu.radu.http.server.cache.MissingPathCache;
 import com.cotescu.radu.http.server.constants.MIMEmap;
+import com.cotescu.radu.http.server.log.AccessLog;
+import com.cotescu.radu.http.server.metrics.Metrics;
+import com.cotescu.radu.http.server.nio.SelectorTransport;
 
 /**
  * This is the main class of the HTTP server.
@@ -33,21 +46,52 @@ public class HTTPServer implements Runnable
 	public static final String SERVER_NAME = "Radu's HTTP Server";
 	public static final String SERVER_VERSION = "0.0.1";
 	public static final String CONFIG_FILE = "shs.conf";
+	public static final String TRANSPORT_BLOCKING = "blocking";
+	public static final String TRANSPORT_NIO = "nio";
+	public static final String THREADS_PLATFORM = "platform";
+	public static final String THREADS_VIRTUAL = "virtual";
+	public static final String ETAG_WEAK = "weak";
+	public static final String ETAG_STRONG = "strong";
+	public static final String ETAG_OFF = "off";
 	
 	private static final Logger log = Logger.getLogger(HTTPServer.class);
+	private static final Metrics metrics = new Metrics();
 
 	private static String configurationFilePath;
 	private static int port;
 	private static InetAddress address;
-	private static ServerSocket serverSocket;
-	private Socket socket;
+	private static Acceptor[] acceptors;
+	private static int acceptorsCount;
+	private static int acceptBacklog;
+	private static SelectorTransport selectorTransport;
+	private static String transport;
+	private static int eventLoops;
+	private static ContentCache contentCache;
+	private static MappedFileRegistry mappedFileRegistry;
+	private static long mmapThreshold;
+	private static String etagMode;
+	private static boolean precompressed;
+	private static CompressedContentCache compressedContentCache;
+	private static int chunkSize;
+	private static int directoryPageSize;
+	private static ListingCache listingCache;
+	private static long fileIndexMaxEntries;
+	private static FileIndex fileIndex;
+	private static MissingPathCache missingPathCache;
+	private static AccessLog accessLog;
+	private static OverloadController overloadController;
+	private static ConnectionSettings connectionSettings;
+	private static WriteDeadlineWatchdog writeDeadlineWatchdog;
+	private static PoolSizeController poolSizeController;
 	private static File rootDirectory;
 	private static MIMEmap mimeMap;
 	private static List<String> defaultDocuments;
 	private static boolean isRunning = true;
+	private static int keepAliveMaxRequests;
+	private static int keepAliveTimeout;
 
 	private static ExecutorService executorService;
-	private static BlockingQueue<Runnable> tasksQueue;
+	private static ExecutorService[] executorServices;
 
 	/**
 	 * Creates the main server thread. If no configuration file is supplied to the server, a default file will be used with the following
@@ -61,8 +105,52 @@ public class HTTPServer implements Runnable
 	 * server.threads.min=5
 	 * server.threads.max=10
 	 * server.threads.keepalive=60
-	 * server.threads.queued.requests=10
+	 * server.threads.queued.requests=1000
 	 * server.status=true
+	 * server.connections.keepalive.requests=100
+	 * server.connections.keepalive.timeout=5
+	 * server.transport=blocking
+	 * server.transport.eventloops=2
+	 * server.threads.mode=platform
+	 * server.threads.virtual.limit=1000
+	 * server.threads.autotune=false
+	 * server.threads.autotune.max=100
+	 * server.threads.autotune.interval=1000
+	 * server.threads.autotune.queue.delay=5
+	 * server.cache.size=67108864
+	 * server.cache.file.max=1048576
+	 * server.mmap.threshold=0
+	 * server.mmap.idle=60
+	 * server.etag=weak
+	 * server.compression.precompressed=true
+	 * server.compression.cache.size=16777216
+	 * server.compression.file.max=1048576
+	 * server.response.chunk.size=8192
+	 * server.directories.page.size=1000
+	 * server.directories.cache.size=4194304
+	 * server.index.max.entries=100000
+	 * server.index.missing.size=10000
+	 * server.index.missing.ttl=2
+	 * server.accesslog.file=access.log
+	 * server.accesslog.format=combined
+	 * server.accesslog.buffer=8192
+	 * server.accesslog.flush.interval=1000
+	 * server.overload.target.delay=20
+	 * server.overload.interval=100
+	 * server.overload.retry.after=1
+	 * server.acceptors=1
+	 * server.accept.backlog=1024
+	 * server.socket.nodelay=true
+	 * server.socket.send.buffer=0
+	 * server.socket.receive.buffer=0
+	 * server.socket.linger=-1
+	 * server.timeout.read=30000
+	 * server.timeout.header=10000
+	 * server.timeout.body=30000
+	 * server.timeout.write=300000
+	 * server.request.line.max=8192
+	 * server.request.headers.max=100
+	 * server.request.header.max=8192
 	 * 
 	 * @param _configurationFilePath
 	 *            the path for the configuration file
@@ -78,9 +166,39 @@ public class HTTPServer implements Runnable
 		try
 		{
 			mimeMap = new MIMEmap();
-			serverSocket = new ServerSocket(port, 0, address);
-			log.info("Started server on " + serverSocket.getInetAddress().toString().replace("/", "") + ":" + serverSocket.getLocalPort());
+			fileIndex = new FileIndex(rootDirectory, mimeMap, defaultDocuments, fileIndexMaxEntries, missingPathCache);
+			if (TRANSPORT_NIO.equals(transport))
+			{
+				selectorTransport = new SelectorTransport(address, port, executorService, eventLoops, acceptBacklog);
+				log.info("Started server on " + address.getHostAddress() + ":" + selectorTransport.getLocalAddress().getPort() + " using "
+						+ eventLoops + " event loop(s)");
+			}
+			else
+			{
+				boolean sharded = acceptorsCount > 1 && isReusePortSupported();
+				ServerSocket[] serverSockets = openServerSockets(sharded);
+				acceptors = new Acceptor[acceptorsCount];
+				for (int i = 0; i < acceptorsCount; i++)
+				{
+					acceptors[i] = new Acceptor(serverSockets[i], executorServices[i]);
+				}
+				log.info("Started server on " + serverSockets[0].getInetAddress().toString().replace("/", "") + ":"
+						+ serverSockets[0].getLocalPort() + " using " + acceptorsCount + " acceptor(s)"
+						+ (sharded ? " with their own SO_REUSEPORT sockets" : ""));
+			}
 			log.info("Root directory is " + rootDirectory);
+			if (accessLog != null)
+			{
+				// the records still waiting in the access log's buffer are written when the server is stopped
+				Runtime.getRuntime().addShutdownHook(new Thread("HTTPServerAccessLogShutdown")
+				{
+					@Override
+					public void run()
+					{
+						accessLog.shutdown();
+					}
+				});
+			}
 		}
 		catch (IOException e)
 		{
@@ -120,12 +238,197 @@ public class HTTPServer implements Runnable
 			{
 				throw new IllegalArgumentException("The number of min threads cannot be smaller than the number of max threads.");
 			}
-			tasksQueue = new ArrayBlockingQueue<Runnable>(Configuration.INSTANCE.getIntegerValueFor(
-					Configuration.SERVER_THREADS_QUEUED_REQUESTS, 10));
-			executorService = new ThreadPoolExecutor(Configuration.INSTANCE.getIntegerValueFor(Configuration.SERVER_THREADS_MIN, 5),
-					Configuration.INSTANCE.getIntegerValueFor(Configuration.SERVER_THREADS_MAX, 10),
-					Configuration.INSTANCE.getIntegerValueFor(Configuration.SERVER_THREADS_KEEPALIVE, 30), TimeUnit.SECONDS, tasksQueue,
-					new ServerThreadFactory(), new RejectedExecution());
+			keepAliveMaxRequests = Configuration.INSTANCE.getIntegerValueFor(Configuration.SERVER_CONNECTIONS_KEEPALIVE_REQUESTS, 100);
+			keepAliveTimeout = Configuration.INSTANCE.getIntegerValueFor(Configuration.SERVER_CONNECTIONS_KEEPALIVE_TIMEOUT, 5);
+			if (keepAliveTimeout < 0)
+			{
+				throw new IllegalArgumentException("The keep-alive timeout cannot be negative.");
+			}
+			transport = Configuration.INSTANCE.getValueFor(Configuration.SERVER_TRANSPORT);
+			if (StringUtils.isEmpty(transport))
+			{
+				transport = TRANSPORT_BLOCKING;
+			}
+			if (!TRANSPORT_BLOCKING.equals(transport) && !TRANSPORT_NIO.equals(transport))
+			{
+				throw new IllegalArgumentException("Unknown transport " + transport + ".");
+			}
+			eventLoops = Configuration.INSTANCE.getIntegerValueFor(Configuration.SERVER_TRANSPORT_EVENTLOOPS, 2);
+			if (eventLoops < 1)
+			{
+				throw new IllegalArgumentException("The number of event loops must be at least 1.");
+			}
+			acceptorsCount = Configuration.INSTANCE.getIntegerValueFor(Configuration.SERVER_ACCEPTORS, 1);
+			if (acceptorsCount < 1)
+			{
+				throw new IllegalArgumentException("The number of acceptors must be at least 1.");
+			}
+			if (TRANSPORT_NIO.equals(transport) && acceptorsCount > 1)
+			{
+				log.warn("The nio transport accepts connections on a single thread; ignoring " + Configuration.SERVER_ACCEPTORS);
+				acceptorsCount = 1;
+			}
+			acceptBacklog = Configuration.INSTANCE.getIntegerValueFor(Configuration.SERVER_ACCEPT_BACKLOG, 0);
+			if (acceptBacklog < 0)
+			{
+				throw new IllegalArgumentException("The accept backlog cannot be negative.");
+			}
+			connectionSettings = new ConnectionSettings(Configuration.INSTANCE.getBooleanValueFor(Configuration.SERVER_SOCKET_NODELAY),
+					Configuration.INSTANCE.getIntegerValueFor(Configuration.SERVER_SOCKET_SEND_BUFFER, 0),
+					Configuration.INSTANCE.getIntegerValueFor(Configuration.SERVER_SOCKET_RECEIVE_BUFFER, 0),
+					Configuration.INSTANCE.getIntegerValueFor(Configuration.SERVER_SOCKET_LINGER, -1),
+					Configuration.INSTANCE.getIntegerValueFor(Configuration.SERVER_TIMEOUT_READ, 30000),
+					Configuration.INSTANCE.getIntegerValueFor(Configuration.SERVER_TIMEOUT_HEADER, 0),
+					Configuration.INSTANCE.getIntegerValueFor(Configuration.SERVER_TIMEOUT_BODY, 0),
+					Configuration.INSTANCE.getIntegerValueFor(Configuration.SERVER_TIMEOUT_WRITE, 0),
+					Configuration.INSTANCE.getIntegerValueFor(Configuration.SERVER_REQUEST_LINE_MAX, 0),
+					Configuration.INSTANCE.getIntegerValueFor(Configuration.SERVER_REQUEST_HEADERS_MAX, 0),
+					Configuration.INSTANCE.getIntegerValueFor(Configuration.SERVER_REQUEST_HEADER_MAX, 0));
+			// the non-blocking writes enforce their deadline themselves
+			if (TRANSPORT_BLOCKING.equals(transport) && connectionSettings.getWriteTimeout() > 0)
+			{
+				writeDeadlineWatchdog = new WriteDeadlineWatchdog(metrics);
+				Thread watchdog = new Thread(writeDeadlineWatchdog, "HTTPServerWriteDeadlineWatchdog");
+				watchdog.setDaemon(true);
+				watchdog.start();
+			}
+			long cacheSize = Configuration.INSTANCE.getLongValueFor(Configuration.SERVER_CACHE_SIZE, 0);
+			if (cacheSize > 0)
+			{
+				contentCache = new ContentCache(cacheSize, Configuration.INSTANCE.getLongValueFor(Configuration.SERVER_CACHE_FILE_MAX,
+						1048576));
+			}
+			mmapThreshold = Configuration.INSTANCE.getLongValueFor(Configuration.SERVER_MMAP_THRESHOLD, 0);
+			if (mmapThreshold > 0)
+			{
+				mappedFileRegistry = new MappedFileRegistry(Configuration.INSTANCE.getIntegerValueFor(Configuration.SERVER_MMAP_IDLE, 60));
+			}
+			etagMode = Configuration.INSTANCE.getValueFor(Configuration.SERVER_ETAG);
+			if (StringUtils.isEmpty(etagMode))
+			{
+				etagMode = ETAG_WEAK;
+			}
+			if (!ETAG_WEAK.equals(etagMode) && !ETAG_STRONG.equals(etagMode) && !ETAG_OFF.equals(etagMode))
+			{
+				throw new IllegalArgumentException("Unknown entity tags mode " + etagMode + ".");
+			}
+			precompressed = Configuration.INSTANCE.getBooleanValueFor(Configuration.SERVER_COMPRESSION_PRECOMPRESSED);
+			long compressionCacheSize = Configuration.INSTANCE.getLongValueFor(Configuration.SERVER_COMPRESSION_CACHE_SIZE, 0);
+			if (compressionCacheSize > 0)
+			{
+				compressedContentCache = new CompressedContentCache(compressionCacheSize, Configuration.INSTANCE.getLongValueFor(
+						Configuration.SERVER_COMPRESSION_FILE_MAX, 1048576));
+			}
+			chunkSize = Configuration.INSTANCE.getIntegerValueFor(Configuration.SERVER_RESPONSE_CHUNK_SIZE, 8192);
+			if (chunkSize < 1)
+			{
+				throw new IllegalArgumentException("The response chunk size must be at least 1.");
+			}
+			directoryPageSize = Configuration.INSTANCE.getIntegerValueFor(Configuration.SERVER_DIRECTORIES_PAGE_SIZE, 1000);
+			if (directoryPageSize < 0)
+			{
+				throw new IllegalArgumentException("The directory listing page size cannot be negative.");
+			}
+			long listingCacheSize = Configuration.INSTANCE.getLongValueFor(Configuration.SERVER_DIRECTORIES_CACHE_SIZE, 0);
+			if (listingCacheSize > 0)
+			{
+				listingCache = new ListingCache(listingCacheSize);
+			}
+			fileIndexMaxEntries = Configuration.INSTANCE.getLongValueFor(Configuration.SERVER_INDEX_MAX_ENTRIES, 0);
+			if (fileIndexMaxEntries < 0)
+			{
+				throw new IllegalArgumentException("The maximum number of indexed files cannot be negative.");
+			}
+			int missingPathCacheSize = Configuration.INSTANCE.getIntegerValueFor(Configuration.SERVER_INDEX_MISSING_SIZE, 0);
+			if (missingPathCacheSize > 0)
+			{
+				int missingPathTimeToLive = Configuration.INSTANCE.getIntegerValueFor(Configuration.SERVER_INDEX_MISSING_TTL, 2);
+				if (missingPathTimeToLive < 0)
+				{
+					throw new IllegalArgumentException("The time to live of missing paths cannot be negative.");
+				}
+				missingPathCache = new MissingPathCache(missingPathCacheSize, missingPathTimeToLive);
+			}
+			String accessLogFile = Configuration.INSTANCE.getValueFor(Configuration.SERVER_ACCESSLOG_FILE);
+			if (!StringUtils.isEmpty(accessLogFile))
+			{
+				String accessLogFormat = Configuration.INSTANCE.getValueFor(Configuration.SERVER_ACCESSLOG_FORMAT);
+				if (StringUtils.isEmpty(accessLogFormat))
+				{
+					accessLogFormat = AccessLog.FORMAT_COMBINED;
+				}
+				accessLog = new AccessLog(new File(accessLogFile), accessLogFormat, Configuration.INSTANCE.getIntegerValueFor(
+						Configuration.SERVER_ACCESSLOG_BUFFER, 8192), Configuration.INSTANCE.getIntegerValueFor(
+						Configuration.SERVER_ACCESSLOG_FLUSH_INTERVAL, 1000), metrics);
+			}
+			overloadController = new OverloadController(Configuration.INSTANCE.getIntegerValueFor(Configuration.SERVER_OVERLOAD_TARGET_DELAY,
+					0), Configuration.INSTANCE.getIntegerValueFor(Configuration.SERVER_OVERLOAD_INTERVAL, 100),
+					Configuration.INSTANCE.getIntegerValueFor(Configuration.SERVER_OVERLOAD_RETRY_AFTER, 1), metrics);
+			String threadsMode = Configuration.INSTANCE.getValueFor(Configuration.SERVER_THREADS_MODE);
+			if (StringUtils.isEmpty(threadsMode))
+			{
+				threadsMode = THREADS_PLATFORM;
+			}
+			if (THREADS_VIRTUAL.equals(threadsMode))
+			{
+				int limit = Configuration.INSTANCE.getIntegerValueFor(Configuration.SERVER_THREADS_VIRTUAL_LIMIT, 1000);
+				if (limit < 1)
+				{
+					throw new IllegalArgumentException("The virtual threads limit must be at least 1.");
+				}
+				executorService = new VirtualThreadExecutor(limit, new RejectedExecution());
+				// virtual threads are not pinned to carrier threads, so all the acceptors share the same executor
+				executorServices = new ExecutorService[acceptorsCount];
+				Arrays.fill(executorServices, executorService);
+				if (Configuration.INSTANCE.getBooleanValueFor(Configuration.SERVER_THREADS_AUTOTUNE))
+				{
+					log.warn("Virtual threads are not pooled; ignoring " + Configuration.SERVER_THREADS_AUTOTUNE);
+				}
+			}
+			else
+				if (THREADS_PLATFORM.equals(threadsMode))
+				{
+					int minThreads = Configuration.INSTANCE.getIntegerValueFor(Configuration.SERVER_THREADS_MIN, 5);
+					int maxThreads = Configuration.INSTANCE.getIntegerValueFor(Configuration.SERVER_THREADS_MAX, 10);
+					boolean autotune = Configuration.INSTANCE.getBooleanValueFor(Configuration.SERVER_THREADS_AUTOTUNE);
+					PoolSizeController.Statistics[] statistics = null;
+					if (autotune)
+					{
+						statistics = new PoolSizeController.Statistics[acceptorsCount];
+						for (int i = 0; i < statistics.length; i++)
+						{
+							statistics[i] = new PoolSizeController.Statistics();
+						}
+					}
+					createWorkerGroups(minThreads, maxThreads, Configuration.INSTANCE.getIntegerValueFor(
+							Configuration.SERVER_THREADS_KEEPALIVE, 30), Configuration.INSTANCE.getIntegerValueFor(
+							Configuration.SERVER_THREADS_QUEUED_REQUESTS, 10), statistics);
+					if (autotune)
+					{
+						int autotuneMax = Configuration.INSTANCE.getIntegerValueFor(Configuration.SERVER_THREADS_AUTOTUNE_MAX, maxThreads);
+						if (autotuneMax < maxThreads)
+						{
+							throw new IllegalArgumentException("The maximum number of self-tuned threads cannot be smaller than the number of"
+									+ " max threads.");
+						}
+						ThreadPoolExecutor[] executors = new ThreadPoolExecutor[acceptorsCount];
+						for (int i = 0; i < executors.length; i++)
+						{
+							executors[i] = (ThreadPoolExecutor) executorServices[i];
+						}
+						poolSizeController = new PoolSizeController(executors, statistics, share(minThreads, acceptorsCount), share(
+								autotuneMax, acceptorsCount), Configuration.INSTANCE.getIntegerValueFor(
+								Configuration.SERVER_THREADS_AUTOTUNE_INTERVAL, 1000), Configuration.INSTANCE.getIntegerValueFor(
+								Configuration.SERVER_THREADS_AUTOTUNE_QUEUE_DELAY, 5));
+						Thread controller = new Thread(poolSizeController, "HTTPServerPoolSizeController");
+						controller.setDaemon(true);
+						controller.start();
+					}
+				}
+				else
+				{
+					throw new IllegalArgumentException("Unknown threads mode " + threadsMode + ".");
+				}
 		}
 		catch (Exception e)
 		{
@@ -136,8 +439,101 @@ public class HTTPServer implements Runnable
 	}
 
 	/**
-	 * Adapter used to implement the behaviour of the thread pool when no more tasks can be queued. In this case all additional requests
-	 * will be refused and the connections will be closed.
+	 * Creates a thread pool for every acceptor. The threads and the queue of the configuration are shared out evenly between the worker
+	 * groups, rounded up, so that the connections accepted by an acceptor are served by the same threads, which keep their caches warm.
+	 * 
+	 * @param minThreads
+	 *            the minimum number of threads of the server
+	 * @param maxThreads
+	 *            the maximum number of threads of the server
+	 * @param keepAlive
+	 *            the time in seconds after which idle threads above the minimum are stopped
+	 * @param queuedRequests
+	 *            the size of the server's queue
+	 * @param statistics
+	 *            the statistics recorded for the {@link PoolSizeController} by every worker group, or {@code null} if the size of the
+	 *            pools is fixed
+	 */
+	private void createWorkerGroups(int minThreads, int maxThreads, int keepAlive, int queuedRequests,
+			PoolSizeController.Statistics[] statistics)
+	{
+		int groups = acceptorsCount;
+		executorServices = new ExecutorService[groups];
+		for (int i = 0; i < groups; i++)
+		{
+			executorServices[i] = new AdmissionThreadPoolExecutor(share(minThreads, groups), share(maxThreads, groups), keepAlive,
+					TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(share(queuedRequests, groups)), new ServerThreadFactory(
+							groups > 1 ? "HTTPServerWorkerThread-" + (i + 1) : "HTTPServerWorkerThread"), new RejectedExecution(),
+					statistics == null ? null : statistics[i]);
+		}
+		executorService = executorServices[0];
+	}
+
+	private static int share(int value, int groups)
+	{
+		return (value + groups - 1) / groups;
+	}
+
+	/**
+	 * Opens the listening sockets of the acceptors. Sockets accepted through a channel have their own {@code SocketChannel}, which allows
+	 * sending files without copying them.
+	 * 
+	 * @param sharded
+	 *            {@code true} to give every acceptor its own socket bound with {@code SO_REUSEPORT}, so that the kernel spreads the incoming
+	 *            connections over their accept queues; otherwise the acceptors share a single socket
+	 * @return the socket of every acceptor
+	 * @throws IOException
+	 *             if a socket cannot be bound
+	 */
+	private static ServerSocket[] openServerSockets(boolean sharded) throws IOException
+	{
+		ServerSocket[] serverSockets = new ServerSocket[acceptorsCount];
+		int boundPort = port;
+		for (int i = 0; i < acceptorsCount; i++)
+		{
+			if (i > 0 && !sharded)
+			{
+				serverSockets[i] = serverSockets[0];
+				continue;
+			}
+			ServerSocketChannel channel = ServerSocketChannel.open();
+			if (sharded)
+			{
+				channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+			}
+			channel.bind(new InetSocketAddress(address, boundPort), acceptBacklog);
+			// with port 0 the other sockets join the port chosen for the first one
+			boundPort = channel.socket().getLocalPort();
+			serverSockets[i] = channel.socket();
+		}
+		return serverSockets;
+	}
+
+	/**
+	 * Checks whether the listening sockets can be sharded. Only Linux balances the connections between the sockets bound with
+	 * {@code SO_REUSEPORT}; other systems accept the option but hand all the connections to one socket.
+	 */
+	private static boolean isReusePortSupported() throws IOException
+	{
+		if (!System.getProperty("os.name").startsWith("Linux"))
+		{
+			return false;
+		}
+		ServerSocketChannel channel = ServerSocketChannel.open();
+		try
+		{
+			return channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+		}
+		finally
+		{
+			channel.close();
+		}
+	}
+
+	/**
+	 * Adapter used to implement the behaviour of the thread pool when no more tasks can be queued (or, for virtual threads, when the
+	 * concurrency limit is reached). In this case all additional requests will be refused with a {@code 503 Service Unavailable} response
+	 * and their connections will be closed.
 	 * 
 	 * @author Radu Cotescu
 	 * 
@@ -147,33 +543,108 @@ public class HTTPServer implements Runnable
 		@Override
 		public void rejectedExecution(Runnable task, ThreadPoolExecutor executor)
 		{
-			try
+			if (task instanceof HTTPServerWorkerThread)
 			{
-				socket.close();
-			}
-			catch (IOException e)
-			{
-				log.error("Unable to close socket", e);
+				((HTTPServerWorkerThread) task).abort(Metrics.ShedReason.REJECTED);
 			}
 		}
 
 	}
 
-	public void run()
+	/**
+	 * Thread pool which asks the {@link OverloadController} whether a connection can be queued before accepting it, so that new
+	 * connections are shed right away, by the thread handing them over, while the queued ones wait too long.
+	 * 
+	 * @author Radu Cotescu
+	 * 
+	 */
+	private static class AdmissionThreadPoolExecutor extends ThreadPoolExecutor
 	{
-		while (isRunning)
+		private final PoolSizeController.Statistics statistics;
+
+		AdmissionThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue,
+				ThreadFactory threadFactory, RejectedExecutionHandler handler, PoolSizeController.Statistics statistics)
+		{
+			super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory, handler);
+			this.statistics = statistics;
+		}
+
+		@Override
+		public void execute(Runnable task)
 		{
-			try
+			if (task instanceof HTTPServerWorkerThread && !overloadController.admit(getQueue().size()))
 			{
-				socket = serverSocket.accept();
-				executorService.execute(new HTTPServerWorkerThread(socket));
+				((HTTPServerWorkerThread) task).abort(Metrics.ShedReason.OVERLOADED);
+				return;
 			}
-			catch (IOException e)
+			super.execute(task);
+		}
+
+		@Override
+		protected void beforeExecute(Thread thread, Runnable task)
+		{
+			if (statistics != null && task instanceof HTTPServerWorkerThread)
 			{
-				log.error("I/o error while waiting for connection", e);
+				statistics.taskStarted(System.nanoTime() - ((HTTPServerWorkerThread) task).getCreatedTime());
 			}
 		}
 
+		@Override
+		protected void afterExecute(Runnable task, Throwable t)
+		{
+			if (statistics != null && task instanceof HTTPServerWorkerThread)
+			{
+				statistics.taskCompleted();
+			}
+		}
+	}
+
+	/**
+	 * Accepts connections on a listening socket and hands them to the acceptor's worker group.
+	 * 
+	 * @author Radu Cotescu
+	 * 
+	 */
+	private static class Acceptor implements Runnable
+	{
+		private final ServerSocket serverSocket;
+		private final ExecutorService executorService;
+
+		Acceptor(ServerSocket serverSocket, ExecutorService executorService)
+		{
+			this.serverSocket = serverSocket;
+			this.executorService = executorService;
+		}
+
+		public void run()
+		{
+			while (isRunning)
+			{
+				try
+				{
+					Socket socket = serverSocket.accept();
+					executorService.execute(new HTTPServerWorkerThread(socket));
+				}
+				catch (IOException e)
+				{
+					log.error("I/o error while waiting for connection", e);
+				}
+			}
+		}
+	}
+
+	public void run()
+	{
+		if (selectorTransport != null)
+		{
+			selectorTransport.run();
+			return;
+		}
+		for (int i = 1; i < acceptors.length; i++)
+		{
+			new Thread(acceptors[i], "HTTPServerAcceptor-" + (i + 1)).start();
+		}
+		acceptors[0].run();
 	}
 
 	public static int getListenPort()
@@ -201,6 +672,117 @@ public class HTTPServer implements Runnable
 		return defaultDocuments;
 	}
 
+	public static int getKeepAliveMaxRequests()
+	{
+		return keepAliveMaxRequests;
+	}
+
+	public static int getKeepAliveTimeout()
+	{
+		return keepAliveTimeout;
+	}
+
+	public static String getTransport()
+	{
+		return transport;
+	}
+
+	public static SelectorTransport getSelectorTransport()
+	{
+		return selectorTransport;
+	}
+
+	public static ContentCache getContentCache()
+	{
+		return contentCache;
+	}
+
+	public static OverloadController getOverloadController()
+	{
+		return overloadController;
+	}
+
+	/**
+	 * @return the controller sizing the thread pools of the worker groups, or {@code null} if their size is fixed
+	 */
+	public static PoolSizeController getPoolSizeController()
+	{
+		return poolSizeController;
+	}
+
+	public static ConnectionSettings getConnectionSettings()
+	{
+		return connectionSettings;
+	}
+
+	/**
+	 * @return the watchdog enforcing the deadline of the responses sent on blocking connections, or {@code null} if there is none
+	 */
+	public static WriteDeadlineWatchdog getWriteDeadlineWatchdog()
+	{
+		return writeDeadlineWatchdog;
+	}
+
+	public static AccessLog getAccessLog()
+	{
+		return accessLog;
+	}
+
+	public static MappedFileRegistry getMappedFileRegistry()
+	{
+		return mappedFileRegistry;
+	}
+
+	public static long getMmapThreshold()
+	{
+		return mmapThreshold;
+	}
+
+	public static String getEtagMode()
+	{
+		return etagMode;
+	}
+
+	public static boolean isPrecompressed()
+	{
+		return precompressed;
+	}
+
+	public static CompressedContentCache getCompressedContentCache()
+	{
+		return compressedContentCache;
+	}
+
+	public static int getChunkSize()
+	{
+		return chunkSize;
+	}
+
+	public static int getDirectoryPageSize()
+	{
+		return directoryPageSize;
+	}
+
+	public static ListingCache getListingCache()
+	{
+		return listingCache;
+	}
+
+	public static FileIndex getFileIndex()
+	{
+		return fileIndex;
+	}
+
+	public static MissingPathCache getMissingPathCache()
+	{
+		return missingPathCache;
+	}
+
+	public static Metrics getMetrics()
+	{
+		return metrics;
+	}
+
 	public static String getConfigurationFilePath()
 	{
 		return configurationFilePath;
@@ -216,6 +798,14 @@ public class HTTPServer implements Runnable
 		return executorService;
 	}
 
+	/**
+	 * @return the executor of every acceptor; with virtual threads all the acceptors share the same executor
+	 */
+	public static ExecutorService[] getExecutorServices()
+	{
+		return executorServices;
+	}
+
 	public static void main(String[] args)
 	{
 		String configurationFilePath = null;
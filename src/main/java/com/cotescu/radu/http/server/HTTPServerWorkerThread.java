@@ -1,18 +1,23 @@
 package com.cotescu.radu.http.server;
 
-import java.io.File;
 import java.io.IOException;
 import java.net.Socket;
-import java.util.Date;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 
+import com.cotescu.radu.http.server.cache.FileMetadata;
 import com.cotescu.radu.http.server.constants.HTTPErrorStatusCodesMap;
 import com.cotescu.radu.http.server.constants.HTTPMethod;
 import com.cotescu.radu.http.server.constants.HTTPRequestHeader;
 import com.cotescu.radu.http.server.constants.HTTPResponseHeader;
 import com.cotescu.radu.http.server.constants.HTTPStatusCode;
 import com.cotescu.radu.http.server.exceptions.HTTPException;
+import com.cotescu.radu.http.server.log.AccessLog;
+import com.cotescu.radu.http.server.metrics.Metrics;
 import com.cotescu.radu.http.server.utils.HTTPDateFormatter;
 
 /**
@@ -23,11 +28,29 @@ import com.cotescu.radu.http.server.utils.HTTPDateFormatter;
  */
 public class HTTPServerWorkerThread implements Runnable
 {
+	/**
+	 * The error pages, rendered once for every error {@link HTTPStatusCode}.
+	 */
+	private static final Map<HTTPStatusCode, byte[]> errorPages = new EnumMap<HTTPStatusCode, byte[]>(HTTPStatusCode.class);
+
+	static
+	{
+		for (HTTPStatusCode statusCode : HTTPStatusCode.values())
+		{
+			if (statusCode.getStatusCode() >= 400)
+			{
+				errorPages.put(statusCode, renderErrorPage(statusCode));
+			}
+		}
+	}
 
 	private Socket socket;
+	private Connection connection;
 	private Logger log;
 	private Request request;
 	private Response response;
+	private final long createdTime = System.nanoTime();
+	private long startTime;
 
 	/**
 	 * Creates a worker thread for a {@code Socket}.
@@ -42,23 +65,138 @@ public class HTTPServerWorkerThread implements Runnable
 	}
 
 	/**
-	 * The thread's main function.
+	 * Creates a worker thread for an already established {@link Connection}.
+	 * 
+	 * @param connection
+	 *            the {@link Connection} for this worker thread
+	 */
+	public HTTPServerWorkerThread(Connection connection)
+	{
+		this.connection = connection;
+		socket = connection.getSocket();
+		log = Logger.getLogger(getClass());
+	}
+
+	/**
+	 * The thread's main function. Requests are served one after the other on the same {@link Connection} for as long as the
+	 * {@link Response}s allow the connection to be kept alive.
 	 */
 	public void run()
 	{
-		try
+		boolean keepAlive = false;
+		Metrics metrics = HTTPServer.getMetrics();
+		long queueWait = System.nanoTime() - createdTime;
+		metrics.recordQueueWait(queueWait);
+		if (!HTTPServer.getOverloadController().admitQueued(queueWait))
 		{
-			socket.setSoTimeout(30000);
-			handleRequest();
+			abort(Metrics.ShedReason.QUEUE_DELAY);
+			return;
 		}
-		catch (HTTPException e)
+		try
 		{
-			sendErrorPage(e);
+			if (connection == null)
+			{
+				connection = new Connection(socket);
+				// registered once constructed, so that the watchdog never sees a partially initialised connection
+				if (HTTPServer.getWriteDeadlineWatchdog() != null)
+				{
+					HTTPServer.getWriteDeadlineWatchdog().register(connection);
+				}
+			}
+			while (connection.awaitRequest())
+			{
+				keepAlive = false;
+				startTime = System.nanoTime();
+				try
+				{
+					handleRequest();
+				}
+				catch (HTTPException e)
+				{
+					sendErrorPage(e);
+				}
+				connection.clearWriteDeadline();
+				long endTime = System.nanoTime();
+				metrics.recordRequest(request.getMethod(), response.getHTTPStatusCode(), response.getBytesSent(),
+						(response.isHeadSent() ? response.getHeadSentTime() : endTime) - startTime, endTime - startTime);
+				keepAlive = response.isKeepAlive();
+				if (!keepAlive)
+				{
+					break;
+				}
+			}
 		}
 		catch (IOException e)
 		{
+			keepAlive = false;
 			log.error("I/O error while handling request", e);
 		}
+		finally
+		{
+			releaseConnection(keepAlive);
+		}
+	}
+
+	/**
+	 * @return the {@link System#nanoTime()} at which this worker thread was created, and queued
+	 */
+	long getCreatedTime()
+	{
+		return createdTime;
+	}
+
+	/**
+	 * Sheds this worker thread's connection without serving it: the client receives the pre-encoded {@code 503 Service Unavailable}
+	 * response of the {@link OverloadController} and the connection is closed. This is used when the thread pool cannot accept the task
+	 * or when the server is overloaded.
+	 * 
+	 * @param reason
+	 *            the reason for which the connection is shed
+	 */
+	public void abort(Metrics.ShedReason reason)
+	{
+		HTTPServer.getMetrics().recordShed(reason);
+		byte[] response = HTTPServer.getOverloadController().getResponse();
+		try
+		{
+			if (connection != null)
+			{
+				connection.reject(response);
+			}
+			else
+			{
+				Connection.reject(socket, response);
+			}
+		}
+		catch (IOException e)
+		{
+			log.debug("Unable to send the overload response", e);
+		}
+	}
+
+	/**
+	 * Releases the connection served by this worker thread.
+	 * 
+	 * @param keepAlive
+	 *            {@code true} if the last {@link Response} allowed the connection to be reused
+	 */
+	private void releaseConnection(boolean keepAlive)
+	{
+		try
+		{
+			if (connection != null)
+			{
+				connection.release(keepAlive);
+			}
+			else
+			{
+				socket.close();
+			}
+		}
+		catch (IOException e)
+		{
+			log.debug("Unable to close socket", e);
+		}
 	}
 
 	/**
@@ -71,7 +209,7 @@ public class HTTPServerWorkerThread implements Runnable
 	 */
 	private void handleRequest() throws IOException, HTTPException
 	{
-		request = new Request(socket);
+		request = new Request(connection);
 		response = new Response(request);
 		request.validateRequest();
 		RequestHandler rh = getRequestHandler();
@@ -82,6 +220,7 @@ public class HTTPServerWorkerThread implements Runnable
 		}
 		else
 		{
+			response.closeConnection();
 			response.endResponse();
 		}
 	}
@@ -98,25 +237,22 @@ public class HTTPServerWorkerThread implements Runnable
 		if (request.getRequestURI().equals("/server-status") && Configuration.INSTANCE.getBooleanValueFor(Configuration.SERVER_STATUS)) {
 			return new DefaultRequestHandler(request, response);
 		}
-		if (request.getFile().isDirectory())
+		FileMetadata metadata = request.getMetadata();
+		if (metadata != null && metadata.isDirectory())
 		{
-			for (String fileName : HTTPServer.getDefaultDocuments())
+			FileMetadata indexFile = HTTPServer.getFileIndex().getDefaultDocument(metadata);
+			if (indexFile != null)
 			{
-				File indexFile = new File(request.getFile(), fileName);
-				if (indexFile.exists() && !indexFile.isDirectory())
-				{
-					request.setFile(indexFile);
-					break;
-				}
+				request.setFile(indexFile);
 			}
 		}
-		if (!request.getFile().exists())
+		if (metadata == null)
 		{
 			throw new HTTPException(HTTPStatusCode.HTTP_NOT_FOUND);
 		}
 		else
 		{
-			if (request.getFile().isDirectory())
+			if (request.getMetadata().isDirectory())
 				if (Configuration.INSTANCE.getBooleanValueFor(Configuration.SERVER_BROWSEABLE_DIRECTORIES))
 				{
 					return new DirectoryIndexRequestHandler(request, response);
@@ -133,6 +269,24 @@ public class HTTPServerWorkerThread implements Runnable
 		}
 	}
 
+	/**
+	 * Renders the HTML error page of a {@link HTTPStatusCode}.
+	 * 
+	 * @param statusCode
+	 *            the HTTPStatusCode
+	 * @return the encoded page
+	 */
+	static byte[] renderErrorPage(HTTPStatusCode statusCode)
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append("<!DOCTYPE html PUBLIC \"-//W3C//DTD HTML 4.01 Transitional//EN\">\n");
+		sb.append("<html>\n<head>\n<title>").append(statusCode.getStatusCode()).append(" ").append(statusCode.getStatusMessage())
+				.append("</title>\n</head>\n");
+		sb.append("<body>\n").append(HTTPErrorStatusCodesMap.getErrorMessage(statusCode)).append("\n");
+		sb.append("<hr />").append(HTTPServer.SERVER_NAME).append("\n</body>\n</html>");
+		return sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+	}
+
 	/**
 	 * Based on a {@link HTTPException}, this method creates the HTML for the error page that will be served to the client.
 	 * 
@@ -141,29 +295,29 @@ public class HTTPServerWorkerThread implements Runnable
 	 */
 	private void sendErrorPage(HTTPException httpException)
 	{
+		connection.startWriteDeadline();
 		try
 		{
-			StringBuilder sb = new StringBuilder();
-			sb.append("<!DOCTYPE html PUBLIC \"-//W3C//DTD HTML 4.01 Transitional//EN\">\n");
-			sb.append("<html>\n<head>\n<title>").append(httpException.getIntStatusCode()).append(" ").append(httpException.getMessage())
-					.append("</title>\n</head>\n");
-			sb.append("<body>\n").append(HTTPErrorStatusCodesMap.getErrorMessage(httpException.getHTTPStatusCode())).append("\n");
-			sb.append("<hr />").append(HTTPServer.SERVER_NAME).append("\n</body>\n</html>");
-			String htmlErrorMessage = sb.toString();
+			byte[] errorPage = errorPages.get(httpException.getHTTPStatusCode());
+			if (errorPage == null)
+			{
+				errorPage = renderErrorPage(httpException.getHTTPStatusCode());
+			}
 			response.sendResponseStatus(httpException.getHTTPStatusCode());
-			response.addHeader(HTTPResponseHeader.ContentLength, new Integer(htmlErrorMessage.getBytes().length).toString());
+			response.addHeader(HTTPResponseHeader.ContentLength, Integer.toString(errorPage.length));
 			response.addHeader(HTTPResponseHeader.ContentType, HTTPServer.getMimeMap().getContentType("html"));
-			response.addHeader(HTTPResponseHeader.LastModified, HTTPDateFormatter.getFormattedDate(new Date()));
+			response.addHeader(HTTPResponseHeader.LastModified, HTTPDateFormatter.getCurrentDate());
 			response.sendHeaders();
 			if (request.getMethod() != HTTPMethod.HEAD)
 			{
-				response.write(htmlErrorMessage);
+				response.write(errorPage, 0, errorPage.length);
 			}
 			response.endResponse();
 			logRequestInfo();
 		}
 		catch (IOException e)
 		{
+			response.closeConnection();
 			log.error("Unable to send error page due to I/O error", e);
 			logRequestError();
 			log.error("HTTP exception", httpException);
@@ -172,15 +326,26 @@ public class HTTPServerWorkerThread implements Runnable
 	}
 
 	/**
-	 * Creates a logger entry for a request using the INFO level.
+	 * Publishes a request to the {@link AccessLog}, which writes it from its own thread, or creates a logger entry for it using the INFO
+	 * level if the server has no access log.
 	 */
 	private void logRequestInfo()
 	{
+		AccessLog accessLog = HTTPServer.getAccessLog();
+		if (accessLog != null)
+		{
+			long duration = System.nanoTime() - startTime;
+			accessLog.log(System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(duration), request.getSocket().getInetAddress(),
+					request.getFirstRequestLine(), response.getHTTPStatusCode().getStatusCode(), response.getBodyBytesSent(),
+					TimeUnit.NANOSECONDS.toMicros(duration), request.getHeader(HTTPRequestHeader.Referer),
+					request.getHeader(HTTPRequestHeader.UserAgent));
+			return;
+		}
 		StringBuilder sb = new StringBuilder();
 		sb.append(request.getSocket().getInetAddress().getHostAddress()).append(" - \"").append(request.getFirstRequestLine())
 				.append("\" ").append(response.getHTTPStatusCode().getStatusCode()).append(" ")
 				.append(response.getHeaderValue(HTTPResponseHeader.ContentLength)).append(" \"")
-				.append(request.getHeaders().get(HTTPRequestHeader.UserAgent.getHeader())).append("\"");
+				.append(request.getHeader(HTTPRequestHeader.UserAgent)).append("\"");
 		log.info(sb);
 	}
 
@@ -193,7 +358,7 @@ public class HTTPServerWorkerThread implements Runnable
 		sb.append(request.getSocket().getInetAddress().getHostAddress()).append(" - \"").append(request.getFirstRequestLine())
 				.append("\" ").append(response.getHTTPStatusCode().getStatusCode()).append(" ")
 				.append(response.getHeaderValue(HTTPResponseHeader.ContentLength)).append(" \"")
-				.append(request.getHeaders().get(HTTPRequestHeader.UserAgent.getHeader())).append("\"");
+				.append(request.getHeader(HTTPRequestHeader.UserAgent)).append("\"");
 		log.error(sb);
 	}
 
@@ -0,0 +1,143 @@
+package com.cotescu.radu.http.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cotescu.radu.http.server.constants.HTTPStatusCode;
+import com.cotescu.radu.http.server.metrics.Metrics;
+
+/**
+ * This class protects the server from overload by shedding connections before they are served, with a {@code 503 Service Unavailable}
+ * response which is encoded once, when the server starts. Connections are shed when the executor refuses them and, with a target delay,
+ * when the time spent by connections in the executor's queue shows that the server cannot keep up.
+ * 
+ * The admission follows CoDel: the worker threads report the queue wait of every connection they take, and if even the shortest wait of
+ * an interval exceeded the target delay, the queue is not absorbing a burst but standing, so the server is overloaded until an interval
+ * passes with a wait below the target. While the server is overloaded, new connections are refused as long as others are queued, and the
+ * queued connections which waited longer than the target are shed instead of being served late. The queue is thus bounded by the time
+ * spent in it instead of by its length, and the accepted requests keep a flat latency during traffic spikes.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+public class OverloadController
+{
+	private final long targetDelay;
+	private final long interval;
+	private final Metrics metrics;
+	private final byte[] response;
+	private final AtomicLong minQueueWait = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong intervalEnd;
+	private volatile boolean overloaded;
+
+	/**
+	 * Creates an overload controller.
+	 * 
+	 * @param targetDelay
+	 *            the acceptable queue wait in milliseconds; 0 disables the admission based on the queue wait
+	 * @param interval
+	 *            the interval in milliseconds over which the shortest queue wait is compared with the target delay
+	 * @param retryAfter
+	 *            the number of seconds after which the clients of the shed connections are asked to retry
+	 * @param metrics
+	 *            the Metrics recording the queue delay and the overload state
+	 * @throws IllegalArgumentException
+	 *             if a value is negative, or if the interval is not positive while a target delay is set
+	 */
+	public OverloadController(int targetDelay, int interval, int retryAfter, Metrics metrics)
+	{
+		if (targetDelay < 0 || retryAfter < 0)
+		{
+			throw new IllegalArgumentException("The overload target delay and retry time cannot be negative.");
+		}
+		if (targetDelay > 0 && interval < 1)
+		{
+			throw new IllegalArgumentException("The overload interval must be at least 1 ms.");
+		}
+		this.targetDelay = TimeUnit.MILLISECONDS.toNanos(targetDelay);
+		this.interval = TimeUnit.MILLISECONDS.toNanos(interval);
+		this.metrics = metrics;
+		intervalEnd = new AtomicLong(System.nanoTime() + this.interval);
+		response = encodeResponse(retryAfter);
+	}
+
+	/**
+	 * Decides whether a new connection is handed to the executor.
+	 * 
+	 * @param queuedConnections
+	 *            the number of connections waiting in the executor's queue
+	 * @return {@code true} if the connection is accepted, {@code false} if it must be shed
+	 */
+	public boolean admit(int queuedConnections)
+	{
+		return !overloaded || queuedConnections == 0;
+	}
+
+	/**
+	 * Records the queue wait of a connection taken by a worker thread and decides whether the connection is served.
+	 * 
+	 * @param queueWait
+	 *            the time spent by the connection in the executor's queue, in nanoseconds
+	 * @return {@code true} if the connection is served, {@code false} if it must be shed
+	 */
+	public boolean admitQueued(long queueWait)
+	{
+		if (targetDelay == 0)
+		{
+			return true;
+		}
+		long min = minQueueWait.get();
+		while (queueWait < min && !minQueueWait.compareAndSet(min, queueWait))
+		{
+			min = minQueueWait.get();
+		}
+		long now = System.nanoTime();
+		long end = intervalEnd.get();
+		if (now - end >= 0 && intervalEnd.compareAndSet(end, now + interval))
+		{
+			long intervalMin = Math.min(minQueueWait.getAndSet(Long.MAX_VALUE), queueWait);
+			overloaded = intervalMin > targetDelay;
+			metrics.setQueueDelay(intervalMin, overloaded);
+		}
+		return !overloaded || queueWait <= targetDelay;
+	}
+
+	/**
+	 * @return {@code true} if the queue wait stayed above the target delay during the last interval
+	 */
+	public boolean isOverloaded()
+	{
+		return overloaded;
+	}
+
+	/**
+	 * @return the {@code 503 Service Unavailable} response sent to the shed connections, which must not be modified
+	 */
+	public byte[] getResponse()
+	{
+		return response;
+	}
+
+	/**
+	 * Encodes the response sent to the shed connections. It has no Date header, which servers may omit from 5xx responses, so that it
+	 * never needs to be encoded again; the connection is always closed after it.
+	 */
+	private static byte[] encodeResponse(int retryAfter)
+	{
+		byte[] page = HTTPServerWorkerThread.renderErrorPage(HTTPStatusCode.HTTP_SERVICE_UNAVAILABLE);
+		StringBuilder sb = new StringBuilder();
+		sb.append(HTTPServer.HTTP_VERSION).append(' ').append(HTTPStatusCode.HTTP_SERVICE_UNAVAILABLE.getStatusCode()).append(' ')
+				.append(HTTPStatusCode.HTTP_SERVICE_UNAVAILABLE.getStatusMessage()).append("\r\n");
+		sb.append("Server: ").append(HTTPServer.SERVER_NAME).append("\r\n");
+		sb.append("Retry-After: ").append(retryAfter).append("\r\n");
+		sb.append("Content-Type: text/html\r\n");
+		sb.append("Content-Length: ").append(page.length).append("\r\n");
+		sb.append("Connection: close\r\n\r\n");
+		byte[] head = sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+		byte[] response = new byte[head.length + page.length];
+		System.arraycopy(head, 0, response, 0, head.length);
+		System.arraycopy(page, 0, response, head.length, page.length);
+		return response;
+	}
+}
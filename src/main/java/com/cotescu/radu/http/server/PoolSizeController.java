@@ -0,0 +1,343 @@
+package com.cotescu.radu.http.server;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.log4j.Logger;
+
+/**
+ * This class sizes the thread pools of the worker groups while the server runs, between a minimum and a maximum number of threads per
+ * group. Once per interval it samples every group: the time its threads spent running tasks during the interval, how long the tasks
+ * waited in the queue and how many tasks were completed.
+ * 
+ * The size follows Little's law: the number of threads kept busy is the arrival rate of the tasks times the time a task holds its thread,
+ * which for a blocking connection includes the keep-alive wait and the time spent sending the response. The pool is sized to that number
+ * with a margin for bursts. If the tasks waited longer than the target queue delay, the queue itself shows that threads are missing: the
+ * queued tasks are counted as busy threads too, and the pool grows by at least a quarter and at most doubles. When the load drops, the
+ * pool only shrinks by half the difference per interval, so that a short lull does not stop the threads which the next burst needs.
+ * 
+ * The time a task holds its thread is not compared with its past values: a server of static files sees it change with the files which
+ * are requested, so a longer service time says nothing about the threads contending for the processor.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+public class PoolSizeController implements Runnable
+{
+	private static final double HEADROOM = 1.25;
+	private static final Logger log = Logger.getLogger(PoolSizeController.class);
+
+	private final ThreadPoolExecutor[] executors;
+	private final Statistics[] statistics;
+	private final int[] configuredMaximum;
+	private final int minThreads;
+	private final int maxThreads;
+	private final long interval;
+	private final long queueDelay;
+	private final AtomicReferenceArray<Decision> decisions;
+
+	/**
+	 * Creates a pool size controller.
+	 * 
+	 * @param executors
+	 *            the thread pool of every worker group
+	 * @param statistics
+	 *            the statistics recorded by the thread pool of every worker group
+	 * @param minThreads
+	 *            the minimum number of threads of a worker group
+	 * @param maxThreads
+	 *            the maximum number of threads of a worker group
+	 * @param interval
+	 *            the interval in milliseconds between two adjustments
+	 * @param queueDelay
+	 *            the queue wait in milliseconds above which a worker group needs more threads
+	 * @throws IllegalArgumentException
+	 *             if the bounds are not positive or are inverted, if the interval is not positive or if the queue delay is negative
+	 */
+	public PoolSizeController(ThreadPoolExecutor[] executors, Statistics[] statistics, int minThreads, int maxThreads, int interval,
+			int queueDelay)
+	{
+		if (minThreads < 1 || minThreads > maxThreads)
+		{
+			throw new IllegalArgumentException("The bounds of the pool size must be positive and the minimum cannot exceed the maximum.");
+		}
+		if (interval < 1)
+		{
+			throw new IllegalArgumentException("The pool size controller interval must be at least 1 ms.");
+		}
+		if (queueDelay < 0)
+		{
+			throw new IllegalArgumentException("The pool size controller queue delay cannot be negative.");
+		}
+		this.executors = executors;
+		this.statistics = statistics;
+		this.minThreads = minThreads;
+		this.maxThreads = maxThreads;
+		this.interval = TimeUnit.MILLISECONDS.toNanos(interval);
+		this.queueDelay = TimeUnit.MILLISECONDS.toNanos(queueDelay);
+		configuredMaximum = new int[executors.length];
+		decisions = new AtomicReferenceArray<Decision>(executors.length);
+		for (int i = 0; i < executors.length; i++)
+		{
+			configuredMaximum[i] = executors[i].getMaximumPoolSize();
+			int threads = executors[i].getCorePoolSize();
+			decisions.set(i, new Decision(0, 0, 0, threads, threads, null, 0));
+		}
+	}
+
+	public void run()
+	{
+		long last = System.nanoTime();
+		while (true)
+		{
+			try
+			{
+				TimeUnit.NANOSECONDS.sleep(interval);
+			}
+			catch (InterruptedException e)
+			{
+				return;
+			}
+			long now = System.nanoTime();
+			for (int i = 0; i < executors.length; i++)
+			{
+				adjust(i, now - last);
+			}
+			last = now;
+		}
+	}
+
+	private void adjust(int group, long elapsed)
+	{
+		ThreadPoolExecutor executor = executors[group];
+		Statistics groupStatistics = statistics[group];
+		long busyTime;
+		long startedTasks;
+		long queueWait;
+		long tasks;
+		synchronized (groupStatistics)
+		{
+			groupStatistics.accumulate(System.nanoTime());
+			busyTime = groupStatistics.busyTime;
+			startedTasks = groupStatistics.startedTasks;
+			queueWait = groupStatistics.queueWait;
+			tasks = groupStatistics.completedTasks;
+			groupStatistics.busyTime = 0;
+			groupStatistics.startedTasks = 0;
+			groupStatistics.queueWait = 0;
+			groupStatistics.completedTasks = 0;
+		}
+		int threads = executor.getCorePoolSize();
+		double busy = (double) busyTime / elapsed;
+		long averageQueueWait = startedTasks == 0 ? 0 : queueWait / startedTasks;
+		int target = (int) Math.ceil(busy * HEADROOM);
+		String reason = "utilisation";
+		if (averageQueueWait > queueDelay)
+		{
+			// the queued tasks will hold a thread as well, but the pool at most doubles per interval
+			int demand = (int) Math.min(Math.ceil((busy + executor.getQueue().size()) * HEADROOM), 2L * threads);
+			demand = Math.max(demand, threads + Math.max(1, threads / 4));
+			if (demand > target)
+			{
+				target = demand;
+				reason = "queue wait";
+			}
+		}
+		else
+			if (target < threads)
+			{
+				target = threads - Math.max(1, (threads - target) / 2);
+			}
+		target = Math.max(minThreads, Math.min(maxThreads, target));
+		Decision previous = decisions.get(group);
+		double throughput = (double) tasks * TimeUnit.SECONDS.toNanos(1) / elapsed;
+		if (target == threads)
+		{
+			decisions.set(group, new Decision(busy, throughput, averageQueueWait, threads, previous.previousThreads, previous.reason,
+					previous.changeTime));
+			return;
+		}
+		if (target > threads)
+		{
+			if (target > executor.getMaximumPoolSize())
+			{
+				executor.setMaximumPoolSize(target);
+			}
+			executor.setCorePoolSize(target);
+		}
+		else
+		{
+			executor.setCorePoolSize(target);
+			executor.setMaximumPoolSize(Math.max(target, configuredMaximum[group]));
+		}
+		if (log.isDebugEnabled())
+		{
+			log.debug("Resized worker group " + (group + 1) + " from " + threads + " to " + target + " threads (" + reason + ")");
+		}
+		decisions.set(group, new Decision(busy, throughput, averageQueueWait, target, threads, reason, System.currentTimeMillis()));
+	}
+
+	/**
+	 * Returns the last decision taken for a worker group.
+	 * 
+	 * @param group
+	 *            the index of the worker group, as in {@link HTTPServer#getExecutorServices()}
+	 * @return the decision
+	 */
+	public Decision getDecision(int group)
+	{
+		return decisions.get(group);
+	}
+
+	/**
+	 * @return the minimum number of threads of a worker group
+	 */
+	public int getMinThreads()
+	{
+		return minThreads;
+	}
+
+	/**
+	 * @return the maximum number of threads of a worker group
+	 */
+	public int getMaxThreads()
+	{
+		return maxThreads;
+	}
+
+	/**
+	 * The statistics which the thread pool of a worker group records for the controller between two adjustments.
+	 * 
+	 * @author Radu Cotescu
+	 * 
+	 */
+	public static class Statistics
+	{
+		private int running;
+		private long lastChange = System.nanoTime();
+		private long busyTime;
+		private long startedTasks;
+		private long queueWait;
+		private long completedTasks;
+
+		/**
+		 * Records a task taken from the queue by a thread.
+		 * 
+		 * @param queueWait
+		 *            the time in nanoseconds that the task waited in the queue
+		 */
+		public synchronized void taskStarted(long queueWait)
+		{
+			accumulate(System.nanoTime());
+			running++;
+			startedTasks++;
+			this.queueWait += queueWait;
+		}
+
+		/**
+		 * Records a task which released its thread.
+		 */
+		public synchronized void taskCompleted()
+		{
+			accumulate(System.nanoTime());
+			running--;
+			completedTasks++;
+		}
+
+		/**
+		 * Adds the time spent by the running tasks since the last change, so that a task which holds its thread for several intervals is
+		 * counted in each of them instead of all at once when it completes.
+		 */
+		private void accumulate(long now)
+		{
+			busyTime += running * (now - lastChange);
+			lastChange = now;
+		}
+	}
+
+	/**
+	 * The sample taken for a worker group during the last interval and the last change of its size.
+	 * 
+	 * @author Radu Cotescu
+	 * 
+	 */
+	public static class Decision
+	{
+		private final double busyThreads;
+		private final double throughput;
+		private final long queueWait;
+		private final int threads;
+		private final int previousThreads;
+		private final String reason;
+		private final long changeTime;
+
+		Decision(double busyThreads, double throughput, long queueWait, int threads, int previousThreads, String reason, long changeTime)
+		{
+			this.busyThreads = busyThreads;
+			this.throughput = throughput;
+			this.queueWait = queueWait;
+			this.threads = threads;
+			this.previousThreads = previousThreads;
+			this.reason = reason;
+			this.changeTime = changeTime;
+		}
+
+		/**
+		 * @return the average number of busy threads during the last interval
+		 */
+		public double getBusyThreads()
+		{
+			return busyThreads;
+		}
+
+		/**
+		 * @return the number of tasks completed per second during the last interval
+		 */
+		public double getThroughput()
+		{
+			return throughput;
+		}
+
+		/**
+		 * @return the average queue wait in nanoseconds of the tasks taken from the queue during the last interval
+		 */
+		public long getQueueWait()
+		{
+			return queueWait;
+		}
+
+		/**
+		 * @return the number of threads of the worker group
+		 */
+		public int getThreads()
+		{
+			return threads;
+		}
+
+		/**
+		 * @return the number of threads of the worker group before its last change
+		 */
+		public int getPreviousThreads()
+		{
+			return previousThreads;
+		}
+
+		/**
+		 * @return the reason of the last change, {@code "utilisation"} or {@code "queue wait"}, or {@code null} if the size was never
+		 *         changed
+		 */
+		public String getReason()
+		{
+			return reason;
+		}
+
+		/**
+		 * @return the time in milliseconds since the epoch of the last change
+		 */
+		public long getChangeTime()
+		{
+			return changeTime;
+		}
+	}
+}
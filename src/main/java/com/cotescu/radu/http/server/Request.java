@@ -1,17 +1,20 @@
 package com.cotescu.radu.http.server;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.Socket;
 import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 
 import com.cotescu.radu.commons.FileUtils;
 import com.cotescu.radu.commons.StringUtils;
+import com.cotescu.radu.http.server.cache.FileIndex;
+import com.cotescu.radu.http.server.cache.FileMetadata;
 import com.cotescu.radu.http.server.constants.HTTPMethod;
+import com.cotescu.radu.http.server.constants.HTTPRequestHeader;
 import com.cotescu.radu.http.server.constants.HTTPStatusCode;
 import com.cotescu.radu.http.server.exceptions.HTTPException;
 
@@ -23,35 +26,38 @@ import com.cotescu.radu.http.server.exceptions.HTTPException;
  */
 public class Request
 {
+	private final Connection connection;
 	private final Socket socket;
-	private final BufferedReader reader;
-	private final Map<String, String> headers;
+	private final RequestParser parser;
+	private Map<String, String> headers;
 	private String requestURI;
+	private String queryString;
+	private Map<String, String> parameters;
 	private HTTPMethod method;
 	private float httpVersion;
 	private String firstRequestLine;
+	private boolean complete;
 
+	private FileMetadata metadata;
 	private File file;
 	private String fileExtension;
 	private String contentType;
 
 	/**
-	 * Creates a Request object based on a {@link Socket}.
+	 * Creates a Request object based on a {@link Connection}.
 	 * 
-	 * @param socket
-	 *            the {@code Socket} which is used for this Request
-	 * @throws IOException
-	 *             if any I/O error occurs
+	 * @param connection
+	 *            the {@link Connection} from which this Request is read
 	 */
-	public Request(Socket socket) throws IOException
+	public Request(Connection connection)
 	{
-		this.socket = socket;
-		reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-		headers = new HashMap<String, String>();
+		this.connection = connection;
+		socket = connection.getSocket();
+		parser = connection.getParser();
 	}
 
 	/**
-	 * Validates a request.
+	 * Validates a request. Once the request has been received, the deadline of its response starts.
 	 * 
 	 * @throws IOException
 	 *             if any I/O error occurs
@@ -60,13 +66,15 @@ public class Request
 	 */
 	public void validateRequest() throws IOException, HTTPException
 	{
+		connection.readRequestHead();
 		readFirstRequestLine();
-		populateHeaders();
+		skipBody();
+		connection.startWriteDeadline();
 		analyseRequestedFile();
 	}
 
 	/**
-	 * Analyses this Request's first line.
+	 * Analyses this Request's first line, which has been parsed by the {@link RequestParser} of the {@link Connection}.
 	 * 
 	 * @throws IOException
 	 *             if any I/O error occurs
@@ -75,60 +83,143 @@ public class Request
 	 */
 	private void readFirstRequestLine() throws IOException, HTTPException
 	{
-		String line = reader.readLine();
-		if (!StringUtils.isEmpty(line))
+		if (parser.getError() != null)
+		{
+			throw new HTTPException(parser.getError());
+		}
+		method = parser.getMethod();
+		httpVersion = parser.getHttpVersion();
+		String requestTarget = parser.getRequestTarget();
+		int query = requestTarget.indexOf('?');
+		if (query >= 0)
+		{
+			queryString = requestTarget.substring(query + 1);
+			requestTarget = requestTarget.substring(0, query);
+		}
+		if (requestTarget.indexOf('%') < 0 && requestTarget.indexOf('+') < 0)
+		{
+			requestURI = requestTarget;
+		}
+		else
 		{
-			firstRequestLine = line;
-			String[] requestLine = firstRequestLine.split(" ");
-			if (requestLine.length != 3)
-			{
-				throw new HTTPException(HTTPStatusCode.HTTP_BAD_REQUEST);
-			}
-			String _method = requestLine[0];
-			String _requestURI = requestLine[1];
-			String _httpVersion = requestLine[2];
-
 			try
 			{
-				method = HTTPMethod.valueOf(_method);
+				requestURI = URLDecoder.decode(requestTarget, "UTF-8");
 			}
 			catch (IllegalArgumentException e)
 			{
-				throw new HTTPException(HTTPStatusCode.HTTP_NOT_IMPLEMENTED);
+				throw new HTTPException(HTTPStatusCode.HTTP_BAD_REQUEST);
 			}
+		}
+	}
 
-			requestURI = URLDecoder.decode(_requestURI, "UTF-8");
+	/**
+	 * Returns the value of a well-known header sent by the client.
+	 * 
+	 * @param header
+	 *            the {@link HTTPRequestHeader}
+	 * @return the header's value or {@code null} if the header was not sent
+	 */
+	public String getHeader(HTTPRequestHeader header)
+	{
+		return parser.getHeader(header);
+	}
 
-			if (_httpVersion.endsWith("/1.1"))
-			{
-				httpVersion = 1.1f;
-			}
-			else
-				if (_httpVersion.endsWith("/1.0"))
-				{
-					httpVersion = 1.0f;
-				}
-				else
-				{
-					httpVersion = 1.0f;
-				}
-		}
-		else
-		{
-			throw new HTTPException(HTTPStatusCode.HTTP_BAD_REQUEST);
-		}
+	/**
+	 * Returns the value of a header sent by the client, looked up by its name ignoring the case.
+	 * 
+	 * @param header
+	 *            the header's name
+	 * @return the header's value or {@code null} if the header was not sent
+	 */
+	public String getHeader(String header)
+	{
+		return parser.getHeader(header);
 	}
 
+	/**
+	 * Returns all the headers sent by the client in a map whose keys ignore the case. The map is only created when it is needed, so
+	 * {@link #getHeader(HTTPRequestHeader)} should be preferred for single headers.
+	 * 
+	 * @return the headers
+	 */
 	public Map<String, String> getHeaders()
 	{
+		if (headers == null)
+		{
+			headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+			for (int i = 0; i < parser.getHeadersCount(); i++)
+			{
+				headers.put(parser.getHeaderName(i), parser.getHeaderValue(i));
+			}
+		}
 		return headers;
 	}
 
+	/**
+	 * Returns the decoded path of the request target, without the query string.
+	 * 
+	 * @return the Request-URI
+	 */
 	public String getRequestURI()
 	{
 		return requestURI;
 	}
 
+	/**
+	 * Returns the query string of the request target, as sent by the client.
+	 * 
+	 * @return the query string or {@code null} if the request target has none
+	 */
+	public String getQueryString()
+	{
+		return queryString;
+	}
+
+	/**
+	 * Returns the decoded value of a parameter of the query string. The parameters are only parsed when they are first needed; when a
+	 * parameter is repeated, its first value is returned.
+	 * 
+	 * @param name
+	 *            the parameter's name
+	 * @return the parameter's value, an empty String for a parameter without a value, or {@code null} if the parameter was not sent
+	 * @throws HTTPException
+	 *             if the query string is not correctly encoded
+	 */
+	public String getParameter(String name) throws HTTPException
+	{
+		if (queryString == null)
+		{
+			return null;
+		}
+		if (parameters == null)
+		{
+			Map<String, String> parsed = new HashMap<String, String>();
+			try
+			{
+				for (String parameter : queryString.split("&"))
+				{
+					if (parameter.length() == 0)
+					{
+						continue;
+					}
+					int equals = parameter.indexOf('=');
+					String key = URLDecoder.decode(equals < 0 ? parameter : parameter.substring(0, equals), StandardCharsets.UTF_8);
+					if (!parsed.containsKey(key))
+					{
+						parsed.put(key, equals < 0 ? "" : URLDecoder.decode(parameter.substring(equals + 1), StandardCharsets.UTF_8));
+					}
+				}
+			}
+			catch (IllegalArgumentException e)
+			{
+				throw new HTTPException(HTTPStatusCode.HTTP_BAD_REQUEST);
+			}
+			parameters = parsed;
+		}
+		return parameters.get(name);
+	}
+
 	public HTTPMethod getMethod()
 	{
 		return method;
@@ -144,6 +235,21 @@ public class Request
 		return socket;
 	}
 
+	public Connection getConnection()
+	{
+		return connection;
+	}
+
+	/**
+	 * Returns the metadata of the requested file.
+	 * 
+	 * @return the metadata or {@code null} if the file does not exist
+	 */
+	public FileMetadata getMetadata()
+	{
+		return metadata;
+	}
+
 	public File getFile()
 	{
 		return file;
@@ -161,50 +267,111 @@ public class Request
 
 	public String getFirstRequestLine()
 	{
+		if (firstRequestLine == null)
+		{
+			firstRequestLine = parser.getRequestLine();
+		}
 		return firstRequestLine;
 	}
 
-	public void setFile(File file)
+	public void setFile(FileMetadata metadata)
 	{
-		this.file = file;
-		this.fileExtension = FileUtils.getExtension(file);
-		contentType = HTTPServer.getMimeMap().getContentType(fileExtension);
+		this.metadata = metadata;
+		file = metadata.getFile();
+		fileExtension = FileUtils.getExtension(file);
+		contentType = metadata.getContentType();
 	}
 
 	/**
-	 * Reads the headers sent by the client for this Request.
+	 * Checks if the client allows the connection to be reused after this Request. HTTP/1.1 connections are persistent unless the client
+	 * sends {@code Connection: close}, while HTTP/1.0 connections are persistent only if the client sends {@code Connection: keep-alive}.
+	 * A Request which could not be read completely never allows the connection to be reused.
 	 * 
-	 * @throws IOException
-	 *             if any I/O error occurs
+	 * @return {@code true} if the client accepts a persistent connection, {@code false} otherwise
+	 */
+	public boolean isKeepAlive()
+	{
+		if (!complete)
+		{
+			return false;
+		}
+		String connectionHeader = parser.getHeader(HTTPRequestHeader.Connection);
+		if (httpVersion >= 1.1f)
+		{
+			return !hasToken(connectionHeader, "close");
+		}
+		return hasToken(connectionHeader, "keep-alive");
+	}
+
+	/**
+	 * Checks if a comma separated header value contains a token, ignoring the case.
+	 * 
+	 * @param headerValue
+	 *            the header value
+	 * @param token
+	 *            the token to look for
+	 * @return {@code true} if the token was found, {@code false} otherwise
 	 */
-	private void populateHeaders() throws IOException
+	private static boolean hasToken(String headerValue, String token)
 	{
-		String line = reader.readLine();
-		while (!StringUtils.isEmpty(line))
+		if (StringUtils.isEmpty(headerValue))
 		{
-			String header = line.split(":", 2)[0];
-			StringBuilder sb = new StringBuilder(line.substring(line.indexOf(header) + header.length() + 1).trim());
-			line = reader.readLine();
-			while (!StringUtils.isEmpty(line) && Character.isWhitespace(line.charAt(0)))
+			return false;
+		}
+		for (String t : headerValue.split(","))
+		{
+			if (t.trim().equalsIgnoreCase(token))
 			{
-				sb.append(line);
-				line = reader.readLine();
+				return true;
 			}
-			String headerValue = sb.toString();
-			headers.put(header, headerValue);
 		}
+		return false;
 	}
 
 	/**
-	 * Retrieves basic information about the requested file.
+	 * Discards the message body sent by the client, if any, so that the next Request on the same {@link Connection} can be read. Bodies
+	 * sent with a transfer coding are not supported, therefore such a Request will not allow the connection to be reused.
 	 * 
 	 * @throws IOException
 	 *             if any I/O error occurs
+	 * @throws HTTPException
+	 *             in case the Content-Length header is invalid
 	 */
-	private void analyseRequestedFile() throws IOException
+	private void skipBody() throws IOException, HTTPException
 	{
-		file = new File(HTTPServer.getRootDirectory(), requestURI).getCanonicalFile();
-		fileExtension = FileUtils.getExtension(file);
-		contentType = HTTPServer.getMimeMap().getContentType(fileExtension);
+		if (parser.hasHeader(HTTPRequestHeader.TransferEncoding))
+		{
+			return;
+		}
+		long length = parser.getContentLength();
+		if (length == RequestParser.INVALID_CONTENT_LENGTH)
+		{
+			throw new HTTPException(HTTPStatusCode.HTTP_BAD_REQUEST);
+		}
+		if (length > 0 && !connection.skipBody(length))
+		{
+			return;
+		}
+		complete = true;
+	}
+
+	/**
+	 * Retrieves basic information about the requested file from the {@link FileIndex}. The path of the request is normalised as a String,
+	 * so it cannot point outside the root folder.
+	 */
+	private void analyseRequestedFile()
+	{
+		String path = FileIndex.normalize(requestURI);
+		metadata = HTTPServer.getFileIndex().lookup(path);
+		if (metadata != null)
+		{
+			setFile(metadata);
+		}
+		else
+		{
+			file = path.isEmpty() ? HTTPServer.getRootDirectory() : new File(HTTPServer.getRootDirectory(), path);
+			fileExtension = FileUtils.getExtension(file);
+			contentType = HTTPServer.getMimeMap().getContentType(fileExtension);
+		}
 	}
 }
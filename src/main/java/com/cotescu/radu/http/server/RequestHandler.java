@@ -2,8 +2,13 @@ package com.cotescu.radu.http.server;
 
 import java.io.IOException;
 
+import com.cotescu.radu.http.server.constants.HTTPMethod;
+import com.cotescu.radu.http.server.constants.HTTPRequestHeader;
+import com.cotescu.radu.http.server.constants.HTTPResponseHeader;
 import com.cotescu.radu.http.server.constants.HTTPStatusCode;
 import com.cotescu.radu.http.server.exceptions.HTTPException;
+import com.cotescu.radu.http.server.utils.EntityTag;
+import com.cotescu.radu.http.server.utils.HTTPDateFormatter;
 
 /**
  * Abstract class that defines a Request handler.
@@ -39,17 +44,123 @@ public abstract class RequestHandler
 	 */
 	protected void checkRequestedFile() throws HTTPException
 	{
-		if (!request.getFile().exists())
+		if (request.getMetadata() == null)
 		{
 			throw new HTTPException(HTTPStatusCode.HTTP_NOT_FOUND);
 		}
 
-		if (!request.getFile().canRead())
+		if (!request.getMetadata().isReadable())
 		{
 			throw new HTTPException(HTTPStatusCode.HTTP_FORBIDDEN);
 		}
 	}
 
+	/**
+	 * Generates the entity tag of the requested resource from its metadata, according to the configured entity tags mode.
+	 * 
+	 * @param length
+	 *            the resource's length
+	 * @param lastModified
+	 *            the resource's modification time in milliseconds
+	 * @return the entity tag or {@code null} if entity tags are disabled
+	 */
+	protected String getEntityTag(long length, long lastModified)
+	{
+		if (HTTPServer.ETAG_OFF.equals(HTTPServer.getEtagMode()))
+		{
+			return null;
+		}
+		return EntityTag.generate(length, lastModified, !HTTPServer.ETAG_STRONG.equals(HTTPServer.getEtagMode()));
+	}
+
+	/**
+	 * Evaluates the conditional headers of the {@link Request} against the requested resource's validators, in the order required by
+	 * RFC 7232: If-Match, then If-Unmodified-Since when If-Match is absent, then If-None-Match, then If-Modified-Since when If-None-Match
+	 * is absent. This must be done before the resource is read.
+	 * 
+	 * @param lastModified
+	 *            the resource's modification time in milliseconds
+	 * @param etag
+	 *            the resource's entity tag or {@code null} if entity tags are disabled
+	 * @return {@code true} if the resource has not been modified and a 304 (Not Modified) response must be sent instead of it
+	 * @throws HTTPException
+	 *             with 412 (Precondition Failed) if a precondition of the client does not hold
+	 */
+	protected boolean isNotModified(long lastModified, String etag) throws HTTPException
+	{
+		String ifMatch = request.getHeader(HTTPRequestHeader.IfMatch);
+		if (ifMatch != null)
+		{
+			if (etag == null ? !ifMatch.trim().equals("*") : !EntityTag.matches(ifMatch, etag, true))
+			{
+				throw new HTTPException(HTTPStatusCode.HTTP_PRECON_FAILED);
+			}
+		}
+		else
+		{
+			long ifUnmodifiedSince = getDateHeader(HTTPRequestHeader.IfUnmodifiedSince);
+			if (ifUnmodifiedSince >= 0 && lastModified / 1000 > ifUnmodifiedSince / 1000)
+			{
+				throw new HTTPException(HTTPStatusCode.HTTP_PRECON_FAILED);
+			}
+		}
+		boolean safeMethod = request.getMethod() == HTTPMethod.GET || request.getMethod() == HTTPMethod.HEAD;
+		String ifNoneMatch = request.getHeader(HTTPRequestHeader.IfNoneMatch);
+		if (ifNoneMatch != null)
+		{
+			if (etag == null ? ifNoneMatch.trim().equals("*") : EntityTag.matches(ifNoneMatch, etag, false))
+			{
+				if (safeMethod)
+				{
+					return true;
+				}
+				throw new HTTPException(HTTPStatusCode.HTTP_PRECON_FAILED);
+			}
+			return false;
+		}
+		if (safeMethod)
+		{
+			long ifModifiedSince = getDateHeader(HTTPRequestHeader.IfModifiedSince);
+			return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+		}
+		return false;
+	}
+
+	/**
+	 * Parses the value of a date header of the {@link Request}.
+	 * 
+	 * @param header
+	 *            the {@link HTTPRequestHeader}
+	 * @return the date in milliseconds or -1 if the header is missing or invalid
+	 */
+	private long getDateHeader(HTTPRequestHeader header)
+	{
+		String value = request.getHeader(header);
+		return value == null ? -1 : HTTPDateFormatter.parse(value);
+	}
+
+	/**
+	 * Sends a 304 (Not Modified) {@link Response}, which carries the resource's validators but no body.
+	 * 
+	 * @param lastModified
+	 *            the resource's formatted modification date
+	 * @param etag
+	 *            the resource's entity tag or {@code null} if entity tags are disabled
+	 * @throws IOException
+	 *             if any I/O error occurs
+	 */
+	protected void sendNotModified(String lastModified, String etag) throws IOException
+	{
+		response.sendResponseStatus(HTTPStatusCode.HTTP_NOT_MODIFIED);
+		response.addHeader(HTTPResponseHeader.LastModified, lastModified);
+		if (etag != null)
+		{
+			response.addHeader(HTTPResponseHeader.ETag, etag);
+		}
+		response.sendHeaders();
+		response.endResponse();
+	}
+
 	/**
 	 * Processes a {@link Request} by sending the appropriate {@link Response}.
 	 * 
@@ -0,0 +1,696 @@
+package com.cotescu.radu.http.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.cotescu.radu.http.server.constants.HTTPMethod;
+import com.cotescu.radu.http.server.constants.HTTPRequestHeader;
+import com.cotescu.radu.http.server.constants.HTTPStatusCode;
+
+/**
+ * This class parses the head of HTTP requests directly from the bytes received on a {@link Connection}, in a buffer which is reused for
+ * all the requests of the connection.
+ * 
+ * The parser is incremental: {@link #parse()} scans only the bytes received since its last call, so a head which arrives split across
+ * several reads is never scanned twice. The request line and the headers are recorded as offsets in the buffer; the method and the
+ * well-known {@link HTTPRequestHeader}s are recognised by comparing bytes, and a header's value only becomes a String when it is asked
+ * for. Header names are matched ignoring their case.
+ * 
+ * The length of the request line, the number of header lines and the length of every header line can be limited. A head which exceeds a
+ * limit, or which does not fit in the buffer, is refused as soon as the limit is crossed, without waiting for its end: the parse is then
+ * complete and reports a {@code 414 Request-URI Too Long} or a {@code 431 Request Header Fields Too Large} error.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+public class RequestParser
+{
+	public static final int INITIAL_BUFFER_SIZE = 4096;
+	public static final int MAX_BUFFER_SIZE = 65536;
+	public static final long INVALID_CONTENT_LENGTH = -2;
+
+	private static final int REQUEST_LINE = 0;
+	private static final int HEADERS = 1;
+	private static final int DONE = 2;
+
+	private static final HTTPMethod[] METHODS = HTTPMethod.values();
+	private static final byte[][] METHOD_NAMES = new byte[METHODS.length][];
+	private static final HTTPRequestHeader[] KNOWN_HEADERS = HTTPRequestHeader.values();
+	private static final int TABLE_MASK = 127;
+	private static final HTTPRequestHeader[] TABLE_HEADERS = new HTTPRequestHeader[TABLE_MASK + 1];
+	private static final byte[][] TABLE_NAMES = new byte[TABLE_MASK + 1][];
+
+	static
+	{
+		for (int i = 0; i < METHODS.length; i++)
+		{
+			METHOD_NAMES[i] = METHODS[i].name().getBytes(StandardCharsets.ISO_8859_1);
+		}
+		for (HTTPRequestHeader header : KNOWN_HEADERS)
+		{
+			byte[] name = header.getHeader().getBytes(StandardCharsets.ISO_8859_1);
+			int slot = hash(name, 0, name.length) & TABLE_MASK;
+			while (TABLE_NAMES[slot] != null)
+			{
+				slot = (slot + 1) & TABLE_MASK;
+			}
+			TABLE_HEADERS[slot] = header;
+			TABLE_NAMES[slot] = name;
+		}
+	}
+
+	private byte[] buffer;
+	private ByteBuffer channelBuffer;
+	private int limit;
+	private int position;
+	private int lineStart;
+	private int state;
+	private HTTPStatusCode error;
+	private boolean tooLarge;
+	private final int maxRequestLine;
+	private final int maxHeaders;
+	private final int maxHeaderLine;
+
+	private int requestLineStart;
+	private int requestLineEnd;
+	private int targetStart;
+	private int targetEnd;
+	private HTTPMethod method;
+	private float httpVersion;
+	private int headLength;
+	private int bodyPosition;
+
+	private int headersCount;
+	private int[] nameStarts;
+	private int[] nameEnds;
+	private int[] valueStarts;
+	private int[] valueEnds;
+	private boolean[] folded;
+	private String[] values;
+	private final int[] knownHeaders;
+
+	/**
+	 * Creates a parser with an empty buffer, whose requests are only limited by the size of the buffer.
+	 */
+	public RequestParser()
+	{
+		this(0, 0, 0);
+	}
+
+	/**
+	 * Creates a parser with an empty buffer and limits for the head of the requests.
+	 * 
+	 * @param maxRequestLine
+	 *            the maximum length of the request line, or 0 for no limit
+	 * @param maxHeaders
+	 *            the maximum number of header lines, or 0 for no limit
+	 * @param maxHeaderLine
+	 *            the maximum length of a header line, or 0 for no limit
+	 */
+	public RequestParser(int maxRequestLine, int maxHeaders, int maxHeaderLine)
+	{
+		this.maxRequestLine = maxRequestLine;
+		this.maxHeaders = maxHeaders;
+		this.maxHeaderLine = maxHeaderLine;
+		buffer = new byte[INITIAL_BUFFER_SIZE];
+		nameStarts = new int[16];
+		nameEnds = new int[16];
+		valueStarts = new int[16];
+		valueEnds = new int[16];
+		folded = new boolean[16];
+		values = new String[16];
+		knownHeaders = new int[KNOWN_HEADERS.length];
+	}
+
+	/**
+	 * Reads the available bytes from a stream into the buffer. While a body is being skipped, the bytes already skipped are dropped
+	 * first, so that the buffer only grows for the head.
+	 * 
+	 * @param in
+	 *            the stream
+	 * @return the number of bytes read, 0 if the buffer is full or -1 if the end of the stream was reached
+	 * @throws IOException
+	 *             if any I/O error occurs
+	 */
+	public int read(InputStream in) throws IOException
+	{
+		if (!makeRoom())
+		{
+			return 0;
+		}
+		int bytesRead = in.read(buffer, limit, buffer.length - limit);
+		if (bytesRead > 0)
+		{
+			limit += bytesRead;
+		}
+		return bytesRead;
+	}
+
+	/**
+	 * Reads the available bytes from a channel into the buffer.
+	 * 
+	 * @param channel
+	 *            the channel
+	 * @return the number of bytes read, 0 if the buffer is full or if no bytes were available, or -1 if the end of the stream was
+	 *         reached
+	 * @throws IOException
+	 *             if any I/O error occurs
+	 */
+	public int read(ReadableByteChannel channel) throws IOException
+	{
+		if (!makeRoom())
+		{
+			return 0;
+		}
+		if (channelBuffer == null || channelBuffer.array() != buffer)
+		{
+			channelBuffer = ByteBuffer.wrap(buffer);
+		}
+		channelBuffer.limit(buffer.length).position(limit);
+		int bytesRead = channel.read(channelBuffer);
+		if (bytesRead > 0)
+		{
+			limit += bytesRead;
+		}
+		return bytesRead;
+	}
+
+	/**
+	 * Makes room at the end of the buffer, growing it up to {@link #MAX_BUFFER_SIZE}.
+	 * 
+	 * @return {@code false} if the buffer is full
+	 */
+	private boolean makeRoom()
+	{
+		if (state == DONE && bodyPosition == limit)
+		{
+			limit = headLength;
+			bodyPosition = headLength;
+		}
+		if (limit < buffer.length)
+		{
+			return true;
+		}
+		if (buffer.length >= MAX_BUFFER_SIZE)
+		{
+			return false;
+		}
+		buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, MAX_BUFFER_SIZE));
+		return true;
+	}
+
+	/**
+	 * Scans the bytes received since the last call. Malformed requests do not stop the scan: the error is recorded and reported by
+	 * {@link #getError()} once the whole head has been received. A head which exceeds the limits stops the scan right away.
+	 * 
+	 * @return {@code true} if the head of the request has been received completely, {@code false} if more bytes are needed
+	 */
+	public boolean parse()
+	{
+		while (state != DONE && position < limit)
+		{
+			if (buffer[position++] != '\n')
+			{
+				continue;
+			}
+			int lineEnd = position - 1;
+			if (lineEnd > lineStart && buffer[lineEnd - 1] == '\r')
+			{
+				lineEnd--;
+			}
+			if (state == REQUEST_LINE)
+			{
+				// empty lines before the request line are ignored
+				if (exceeds(maxRequestLine, lineEnd - lineStart))
+				{
+					reject(HTTPStatusCode.HTTP_REQ_TOO_LONG);
+				}
+				else
+					if (lineEnd > lineStart)
+					{
+						parseRequestLine(lineStart, lineEnd);
+						state = HEADERS;
+					}
+			}
+			else
+				if (lineEnd == lineStart)
+				{
+					headLength = position;
+					bodyPosition = position;
+					state = DONE;
+				}
+				else
+					if (exceeds(maxHeaderLine, lineEnd - lineStart))
+					{
+						reject(HTTPStatusCode.HTTP_HEADERS_TOO_LARGE);
+					}
+					else
+						if (buffer[lineStart] == ' ' || buffer[lineStart] == '\t')
+						{
+							foldHeaderLine(lineEnd);
+						}
+						else
+						{
+							parseHeaderLine(lineStart, lineEnd);
+						}
+			lineStart = position;
+		}
+		if (state != DONE)
+		{
+			// the line being received already exceeds its limit, not counting the carriage return which may end it
+			boolean requestLine = state == REQUEST_LINE;
+			if (exceeds(requestLine ? maxRequestLine : maxHeaderLine, limit - lineStart - 1) || isFull())
+			{
+				reject(requestLine ? HTTPStatusCode.HTTP_REQ_TOO_LONG : HTTPStatusCode.HTTP_HEADERS_TOO_LARGE);
+			}
+		}
+		return state == DONE;
+	}
+
+	private static boolean exceeds(int max, int length)
+	{
+		return max > 0 && length > max;
+	}
+
+	/**
+	 * Ends the parse of a head which exceeds the limits. The bytes received so far are considered to be the head, so the request is
+	 * complete and its error can be answered right away; the connection cannot be reused afterwards.
+	 */
+	private void reject(HTTPStatusCode statusCode)
+	{
+		error = statusCode;
+		tooLarge = true;
+		if (state == REQUEST_LINE)
+		{
+			requestLineStart = 0;
+			requestLineEnd = 0;
+		}
+		position = limit;
+		headLength = limit;
+		bodyPosition = limit;
+		state = DONE;
+	}
+
+	/**
+	 * Splits the request line in its three parts.
+	 */
+	private void parseRequestLine(int start, int end)
+	{
+		requestLineStart = start;
+		requestLineEnd = end;
+		int firstSpace = indexOf(' ', start, end);
+		int secondSpace = firstSpace < 0 ? -1 : indexOf(' ', firstSpace + 1, end);
+		if (secondSpace < 0 || indexOf(' ', secondSpace + 1, end) >= 0 || firstSpace == start || secondSpace == firstSpace + 1
+				|| secondSpace == end - 1)
+		{
+			error = HTTPStatusCode.HTTP_BAD_REQUEST;
+			return;
+		}
+		for (int i = 0; i < METHODS.length; i++)
+		{
+			if (regionEquals(METHOD_NAMES[i], start, firstSpace, false))
+			{
+				method = METHODS[i];
+				break;
+			}
+		}
+		if (method == null)
+		{
+			error = HTTPStatusCode.HTTP_NOT_IMPLEMENTED;
+		}
+		targetStart = firstSpace + 1;
+		targetEnd = secondSpace;
+		httpVersion = end - secondSpace > 4 && buffer[end - 4] == '/' && buffer[end - 3] == '1' && buffer[end - 2] == '.'
+				&& buffer[end - 1] == '1' ? 1.1f : 1.0f;
+	}
+
+	/**
+	 * Records a header line as the offsets of its name and of its value, without the surrounding whitespace.
+	 */
+	private void parseHeaderLine(int start, int end)
+	{
+		int colon = indexOf(':', start, end);
+		if (colon <= start)
+		{
+			error = HTTPStatusCode.HTTP_BAD_REQUEST;
+			return;
+		}
+		if (headersCount == maxHeaders && maxHeaders > 0)
+		{
+			reject(HTTPStatusCode.HTTP_HEADERS_TOO_LARGE);
+			return;
+		}
+		if (headersCount == nameStarts.length)
+		{
+			int capacity = headersCount * 2;
+			nameStarts = Arrays.copyOf(nameStarts, capacity);
+			nameEnds = Arrays.copyOf(nameEnds, capacity);
+			valueStarts = Arrays.copyOf(valueStarts, capacity);
+			valueEnds = Arrays.copyOf(valueEnds, capacity);
+			folded = Arrays.copyOf(folded, capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+		int valueStart = colon + 1;
+		while (valueStart < end && isWhitespace(buffer[valueStart]))
+		{
+			valueStart++;
+		}
+		int valueEnd = end;
+		while (valueEnd > valueStart && isWhitespace(buffer[valueEnd - 1]))
+		{
+			valueEnd--;
+		}
+		nameStarts[headersCount] = start;
+		nameEnds[headersCount] = colon;
+		valueStarts[headersCount] = valueStart;
+		valueEnds[headersCount] = valueEnd;
+		folded[headersCount] = false;
+		headersCount++;
+		HTTPRequestHeader known = lookup(start, colon);
+		if (known != null)
+		{
+			// a repeated header replaces the previous one
+			knownHeaders[known.ordinal()] = headersCount;
+		}
+	}
+
+	/**
+	 * Appends an obsolete continuation line to the value of the previous header.
+	 */
+	private void foldHeaderLine(int end)
+	{
+		if (headersCount == 0)
+		{
+			error = HTTPStatusCode.HTTP_BAD_REQUEST;
+			return;
+		}
+		valueEnds[headersCount - 1] = end;
+		folded[headersCount - 1] = true;
+	}
+
+	/**
+	 * Finds the {@link HTTPRequestHeader} whose name is stored in a region of the buffer.
+	 */
+	private HTTPRequestHeader lookup(int start, int end)
+	{
+		int slot = hash(buffer, start, end) & TABLE_MASK;
+		while (TABLE_NAMES[slot] != null)
+		{
+			if (regionEquals(TABLE_NAMES[slot], start, end, true))
+			{
+				return TABLE_HEADERS[slot];
+			}
+			slot = (slot + 1) & TABLE_MASK;
+		}
+		return null;
+	}
+
+	/**
+	 * Discards bytes of the request's body which have already been received.
+	 * 
+	 * @param count
+	 *            the number of bytes to discard
+	 * @return the number of bytes discarded
+	 */
+	public int skip(long count)
+	{
+		int skipped = (int) Math.min(count, limit - bodyPosition);
+		bodyPosition += skipped;
+		return skipped;
+	}
+
+	/**
+	 * Prepares the parser for the next request on the same connection. The bytes received after the current request (a pipelined
+	 * request) are moved to the beginning of the buffer.
+	 */
+	public void recycle()
+	{
+		if (state != DONE)
+		{
+			return;
+		}
+		int remaining = limit - bodyPosition;
+		System.arraycopy(buffer, bodyPosition, buffer, 0, remaining);
+		limit = remaining;
+		position = 0;
+		lineStart = 0;
+		state = REQUEST_LINE;
+		error = null;
+		tooLarge = false;
+		method = null;
+		headLength = 0;
+		bodyPosition = 0;
+		Arrays.fill(values, 0, headersCount, null);
+		Arrays.fill(knownHeaders, 0);
+		headersCount = 0;
+	}
+
+	/**
+	 * Checks if the buffer is full and cannot grow anymore, in which case the head is too large to be parsed.
+	 * 
+	 * @return {@code true} if no more bytes can be received
+	 */
+	public boolean isFull()
+	{
+		return limit == buffer.length && buffer.length >= MAX_BUFFER_SIZE;
+	}
+
+	/**
+	 * Checks if the head of the current request was refused because it exceeds the limits, in which case the connection must be closed
+	 * after the error response, since the rest of the head was not read.
+	 * 
+	 * @return {@code true} if the head is too large
+	 */
+	public boolean isTooLarge()
+	{
+		return tooLarge;
+	}
+
+	/**
+	 * Checks if bytes which do not belong to the current request have already been received.
+	 * 
+	 * @return {@code true} if the buffer holds unparsed bytes
+	 */
+	public boolean hasBufferedData()
+	{
+		return limit > (state == DONE ? bodyPosition : 0);
+	}
+
+	/**
+	 * Returns the number of bytes of the current request which have been received, including its head.
+	 * 
+	 * @return the number of received bytes
+	 */
+	public int getReceivedLength()
+	{
+		return limit;
+	}
+
+	public int getHeadLength()
+	{
+		return headLength;
+	}
+
+	public HTTPStatusCode getError()
+	{
+		return error;
+	}
+
+	public HTTPMethod getMethod()
+	{
+		return method;
+	}
+
+	public float getHttpVersion()
+	{
+		return httpVersion;
+	}
+
+	/**
+	 * Returns the request line.
+	 * 
+	 * @return the request line or {@code null} if it has not been received or was too long
+	 */
+	public String getRequestLine()
+	{
+		if (state == REQUEST_LINE || requestLineEnd == requestLineStart)
+		{
+			return null;
+		}
+		return new String(buffer, requestLineStart, requestLineEnd - requestLineStart, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Returns the request target (the Request-URI), as sent by the client.
+	 * 
+	 * @return the request target
+	 */
+	public String getRequestTarget()
+	{
+		return new String(buffer, targetStart, targetEnd - targetStart, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Returns the value of a well-known header.
+	 * 
+	 * @param header
+	 *            the {@link HTTPRequestHeader}
+	 * @return the value or {@code null} if the header was not sent
+	 */
+	public String getHeader(HTTPRequestHeader header)
+	{
+		int index = knownHeaders[header.ordinal()];
+		return index == 0 ? null : getHeaderValue(index - 1);
+	}
+
+	/**
+	 * Returns the value of a header, looked up by its name ignoring the case.
+	 * 
+	 * @param name
+	 *            the header's name
+	 * @return the value or {@code null} if the header was not sent
+	 */
+	public String getHeader(String name)
+	{
+		byte[] bytes = name.getBytes(StandardCharsets.ISO_8859_1);
+		for (int i = headersCount - 1; i >= 0; i--)
+		{
+			if (regionEquals(bytes, nameStarts[i], nameEnds[i], true))
+			{
+				return getHeaderValue(i);
+			}
+		}
+		return null;
+	}
+
+	public boolean hasHeader(HTTPRequestHeader header)
+	{
+		return knownHeaders[header.ordinal()] != 0;
+	}
+
+	public int getHeadersCount()
+	{
+		return headersCount;
+	}
+
+	public String getHeaderName(int index)
+	{
+		return new String(buffer, nameStarts[index], nameEnds[index] - nameStarts[index], StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Returns the value of a header, creating its String the first time it is asked for.
+	 * 
+	 * @param index
+	 *            the header's position in the request
+	 * @return the value
+	 */
+	public String getHeaderValue(int index)
+	{
+		String value = values[index];
+		if (value == null)
+		{
+			int start = valueStarts[index];
+			int end = valueEnds[index];
+			if (folded[index])
+			{
+				StringBuilder sb = new StringBuilder(end - start);
+				for (int i = start; i < end; i++)
+				{
+					if (buffer[i] != '\r' && buffer[i] != '\n')
+					{
+						sb.append((char) (buffer[i] & 0xff));
+					}
+				}
+				value = sb.toString();
+			}
+			else
+			{
+				value = new String(buffer, start, end - start, StandardCharsets.ISO_8859_1);
+			}
+			values[index] = value;
+		}
+		return value;
+	}
+
+	/**
+	 * Parses the value of the Content-Length header without creating a String.
+	 * 
+	 * @return the length, -1 if the header is missing or empty or {@link #INVALID_CONTENT_LENGTH} if its value is not a valid length
+	 */
+	public long getContentLength()
+	{
+		int index = knownHeaders[HTTPRequestHeader.ContentLength.ordinal()] - 1;
+		if (index < 0 || valueStarts[index] == valueEnds[index])
+		{
+			return -1;
+		}
+		long length = 0;
+		for (int i = valueStarts[index]; i < valueEnds[index]; i++)
+		{
+			byte b = buffer[i];
+			if (b < '0' || b > '9' || length > (Long.MAX_VALUE - 9) / 10)
+			{
+				return INVALID_CONTENT_LENGTH;
+			}
+			length = length * 10 + (b - '0');
+		}
+		return length;
+	}
+
+	private int indexOf(char c, int start, int end)
+	{
+		for (int i = start; i < end; i++)
+		{
+			if (buffer[i] == c)
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Compares a region of the buffer with an ASCII name.
+	 */
+	private boolean regionEquals(byte[] name, int start, int end, boolean ignoreCase)
+	{
+		if (end - start != name.length)
+		{
+			return false;
+		}
+		for (int i = 0; i < name.length; i++)
+		{
+			byte b = buffer[start + i];
+			if (b != name[i] && (!ignoreCase || toLowerCase(b) != toLowerCase(name[i])))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int hash(byte[] data, int start, int end)
+	{
+		int h = 0;
+		for (int i = start; i < end; i++)
+		{
+			h = 31 * h + toLowerCase(data[i]);
+		}
+		return h ^ (h >>> 7);
+	}
+
+	private static int toLowerCase(byte b)
+	{
+		return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+	}
+
+	private static boolean isWhitespace(byte b)
+	{
+		return b == ' ' || b == '\t';
+	}
+}
@@ -2,12 +2,13 @@ package com.cotescu.radu.http.server;
 
 import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.net.Socket;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
+import com.cotescu.radu.http.server.constants.HTTPMethod;
 import com.cotescu.radu.http.server.constants.HTTPResponseHeader;
 import com.cotescu.radu.http.server.constants.HTTPStatusCode;
 import com.cotescu.radu.http.server.utils.HTTPDateFormatter;
@@ -15,18 +16,35 @@ import com.cotescu.radu.http.server.utils.HTTPDateFormatter;
 /**
  * This class represents an HTTP response, based on an HTTP request.
  * 
+ * The status line and the headers are assembled from their pre-encoded forms into the {@link Connection}'s {@link ResponseHead} and are
+ * not written until the body starts, so that the head and the beginning of the body reach the client in a single write: small bodies are
+ * buffered together with the head, while larger ones are sent with a gathering write when the transport supports it.
+ * 
  * @author Radu Cotescu
  * 
  */
 public class Response
 {
-	private static final String SP = " ";
-	private static final String EOL = "\r\n";
+	private static final int COPY_BUFFER_SIZE = 8192;
+	private static final HTTPResponseHeader[] HEADERS = HTTPResponseHeader.values();
+	private static final byte[] SERVER_HEADER = (HTTPResponseHeader.Server.getHeader() + ": " + HTTPServer.SERVER_NAME + "\r\n")
+			.getBytes(StandardCharsets.ISO_8859_1);
 
 	private BufferedOutputStream out;
-	private Socket socket;
-	private Map<String, String> headers;
+	private Request request;
+	private Connection connection;
+	private String[] headers;
+	private List<String> customHeaders;
+	private List<String> trailers;
+	private ResponseOutputStream body;
+	private ResponseHead head;
+	private boolean headPending;
+	private boolean headSent;
+	private long headSentTime;
+	private long bytesSent;
+	private int headLength;
 	private HTTPStatusCode statusCode;
+	private boolean keepAlive = true;
 
 	/**
 	 * Creates a Response based on a {@link Request}.
@@ -38,14 +56,14 @@ public class Response
 	 */
 	public Response(Request request) throws IOException
 	{
-		socket = request.getSocket();
-		out = new BufferedOutputStream(socket.getOutputStream());
-		headers = new HashMap<String, String>(3);
-		populateDefaultResponseHeaders();
+		this.request = request;
+		connection = request.getConnection();
+		out = connection.getOutputStream();
+		headers = new String[HEADERS.length];
 	}
 
 	/**
-	 * Sends the first line of the HTTP Response.
+	 * Sets the status of this Response. The status line is sent together with the headers.
 	 * 
 	 * @param statusCode
 	 *            the {@link HTTPStatusCode} for this Response
@@ -55,9 +73,6 @@ public class Response
 	public void sendResponseStatus(HTTPStatusCode statusCode) throws IOException
 	{
 		this.statusCode = statusCode;
-		StringBuilder sb = new StringBuilder();
-		sb.append("HTTP/1.1 ").append(statusCode.getStatusCode()).append(SP).append(statusCode.getStatusMessage()).append(EOL);
-		out.write(sb.toString().getBytes());
 	}
 
 	/**
@@ -70,7 +85,7 @@ public class Response
 	 */
 	public void addHeader(HTTPResponseHeader header, String headerValue)
 	{
-		headers.put(header.getHeader(), headerValue);
+		headers[header.ordinal()] = headerValue;
 	}
 
 	/**
@@ -83,25 +98,153 @@ public class Response
 	 */
 	public void addCustomHeader(String header, String headerValue)
 	{
-		headers.put(header, headerValue);
+		if (customHeaders == null)
+		{
+			customHeaders = new ArrayList<String>(4);
+		}
+		for (int i = 0; i < customHeaders.size(); i += 2)
+		{
+			if (customHeaders.get(i).equalsIgnoreCase(header))
+			{
+				customHeaders.set(i + 1, headerValue);
+				return;
+			}
+		}
+		customHeaders.add(header);
+		customHeaders.add(headerValue);
+	}
+
+	/**
+	 * Adds a trailer, sent after the body of a Response streamed with the chunked transfer coding and ignored otherwise. The names of the
+	 * trailers added before {@link #getOutputStream()} is called are announced in the Trailer header; their values can still be replaced
+	 * until the body is closed.
+	 * 
+	 * @param trailer
+	 *            the trailer's name
+	 * @param trailerValue
+	 *            the trailer's value
+	 */
+	public void addTrailer(String trailer, String trailerValue)
+	{
+		if (trailers == null)
+		{
+			trailers = new ArrayList<String>(4);
+		}
+		for (int i = 0; i < trailers.size(); i += 2)
+		{
+			if (trailers.get(i).equalsIgnoreCase(trailer))
+			{
+				trailers.set(i + 1, trailerValue);
+				return;
+			}
+		}
+		trailers.add(trailer);
+		trailers.add(trailerValue);
 	}
 
 	/**
-	 * Sends the headers for this Reponse.
+	 * Sends the headers for this Reponse. The head is only assembled here; it is written together with the first part of the body or,
+	 * if there is no body, when the Response ends.
 	 * 
 	 * @throws IOException
 	 *             if any I/O error occurs
 	 */
 	public void sendHeaders() throws IOException
 	{
-		StringBuilder sb = new StringBuilder();
-		for (Entry<String, String> headerEntry : headers.entrySet())
+		// the end of the body must be known for the connection to be reused; 304 (Not Modified) responses never have one
+		keepAlive = keepAlive && connection.canKeepAlive() && request.isKeepAlive()
+				&& (headers[HTTPResponseHeader.ContentLength.ordinal()] != null || headers[HTTPResponseHeader.TransferEncoding.ordinal()] != null
+				|| statusCode == HTTPStatusCode.HTTP_NOT_MODIFIED);
+		if (keepAlive)
 		{
-			sb.append(headerEntry.getKey()).append(":").append(SP).append(headerEntry.getValue()).append(EOL);
+			addHeader(HTTPResponseHeader.Connection, "keep-alive");
+			if (request.getHttpVersion() < 1.1f)
+			{
+				addHeader(HTTPResponseHeader.KeepAlive, "timeout=" + HTTPServer.getKeepAliveTimeout() + ", max="
+						+ (HTTPServer.getKeepAliveMaxRequests() - connection.getRequestsCount()));
+			}
 		}
-		sb.append(EOL);
-		out.write(sb.toString().getBytes());
-		out.flush();
+		else
+		{
+			addHeader(HTTPResponseHeader.Connection, "close");
+		}
+		head = connection.getResponseHead();
+		head.reset();
+		head.append(statusCode.getStatusLineBytes());
+		// the default headers are appended in their encoded form, unless a handler replaced them
+		if (headers[HTTPResponseHeader.Date.ordinal()] == null)
+		{
+			head.append(HTTPResponseHeader.Date.getHeaderBytes());
+			head.append(HTTPDateFormatter.getCurrentDateBytes());
+			head.appendLineEnd();
+		}
+		if (headers[HTTPResponseHeader.Server.ordinal()] == null)
+		{
+			head.append(SERVER_HEADER);
+		}
+		for (int i = 0; i < HEADERS.length; i++)
+		{
+			if (headers[i] != null)
+			{
+				head.append(HEADERS[i].getHeaderBytes());
+				head.append(headers[i]);
+				head.appendLineEnd();
+			}
+		}
+		if (customHeaders != null)
+		{
+			for (int i = 0; i < customHeaders.size(); i += 2)
+			{
+				head.append(customHeaders.get(i));
+				head.append(": ");
+				head.append(customHeaders.get(i + 1));
+				head.appendLineEnd();
+			}
+		}
+		head.appendLineEnd();
+		headPending = true;
+	}
+
+	/**
+	 * Sends the headers for this Response and returns the stream to which its body is written. Unless a Content-Length header was
+	 * added, the body is streamed with the chunked transfer coding to HTTP/1.1 clients, while for HTTP/1.0 clients its end is marked by
+	 * closing the connection. The data written to the stream of a HEAD request's Response is discarded. Calling this method again
+	 * returns the same stream.
+	 * 
+	 * @return the body's stream, which is closed when this Response ends
+	 * @throws IOException
+	 *             if any I/O error occurs
+	 */
+	public ResponseOutputStream getOutputStream() throws IOException
+	{
+		if (body == null)
+		{
+			boolean chunked = false;
+			if (headers[HTTPResponseHeader.ContentLength.ordinal()] == null)
+			{
+				if (request.getHttpVersion() >= 1.1f)
+				{
+					chunked = true;
+					addHeader(HTTPResponseHeader.TransferEncoding, "chunked");
+					if (trailers != null)
+					{
+						StringBuilder names = new StringBuilder();
+						for (int i = 0; i < trailers.size(); i += 2)
+						{
+							names.append(i == 0 ? "" : ", ").append(trailers.get(i));
+						}
+						addHeader(HTTPResponseHeader.Trailer, names.toString());
+					}
+				}
+				else
+				{
+					keepAlive = false;
+				}
+			}
+			sendHeaders();
+			body = new ResponseOutputStream(this, chunked, request.getMethod() == HTTPMethod.HEAD, HTTPServer.getChunkSize());
+		}
+		return body;
 	}
 
 	/**
@@ -114,7 +257,8 @@ public class Response
 	 */
 	public void write(String string) throws IOException
 	{
-		out.write(string.getBytes());
+		byte[] bytes = string.getBytes();
+		write(bytes, 0, bytes.length);
 	}
 
 	/**
@@ -131,19 +275,168 @@ public class Response
 	 */
 	public void write(byte[] buffer, int offset, int length) throws IOException
 	{
+		if (headPending && head.getLength() + length > COPY_BUFFER_SIZE)
+		{
+			sendingHead();
+			connection.write(new ByteBuffer[] { head.toByteBuffer(), ByteBuffer.wrap(buffer, offset, length) });
+			bytesSent += length;
+			return;
+		}
+		writeHead();
 		out.write(buffer, offset, length);
+		bytesSent += length;
 	}
 
 	/**
-	 * Ends this Response by flushing the socket's output stream and closing the socket.
+	 * Writes a region of a file to this Response. The data is handed to the kernel to be sent directly from the file to the socket
+	 * whenever the {@link Connection} allows it; otherwise, or for the part which could not be sent this way, the data is copied through
+	 * this Response's {@link BufferedOutputStream}. Regions small enough to be buffered together with the pending head are always copied,
+	 * since a single write is cheaper than a write followed by a transfer. If the file turns out to be shorter than {@code count}, the
+	 * connection is closed after this Response, since the client cannot find the end of the body anymore.
+	 * 
+	 * @param fileChannel
+	 *            the file's channel
+	 * @param position
+	 *            the position in the file from which the data is written
+	 * @param count
+	 *            the number of bytes to write
+	 * @throws IOException
+	 *             if any I/O error occurs
+	 */
+	public void write(FileChannel fileChannel, long position, long count) throws IOException
+	{
+		boolean copy = headPending && head.getLength() + count <= COPY_BUFFER_SIZE;
+		writeHead();
+		long written = 0;
+		if (!copy)
+		{
+			out.flush();
+			written = connection.transferFrom(fileChannel, position, count);
+		}
+		if (written < count)
+		{
+			ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(count - written, COPY_BUFFER_SIZE));
+			int bytesRead;
+			while (written < count && (bytesRead = fileChannel.read(buffer, position + written)) != -1)
+			{
+				int length = (int) Math.min(bytesRead, count - written);
+				out.write(buffer.array(), 0, length);
+				written += length;
+				buffer.clear();
+			}
+		}
+		bytesSent += written;
+		if (written < count)
+		{
+			keepAlive = false;
+		}
+	}
+
+	/**
+	 * Writes the remaining bytes of a {@link ByteBuffer} to this Response, directly to the socket when the {@link Connection} allows it.
+	 * A pending head is sent in the same gathering write.
+	 * 
+	 * @param buffer
+	 *            the data
+	 * @throws IOException
+	 *             if any I/O error occurs
+	 */
+	public void write(ByteBuffer buffer) throws IOException
+	{
+		bytesSent += buffer.remaining();
+		if (headPending)
+		{
+			sendingHead();
+			connection.write(new ByteBuffer[] { head.toByteBuffer(), buffer });
+			return;
+		}
+		out.flush();
+		connection.write(buffer);
+	}
+
+	/**
+	 * Sends the pending head and the data written so far to the client.
+	 * 
+	 * @throws IOException
+	 *             if any I/O error occurs
+	 */
+	public void flush() throws IOException
+	{
+		writeHead();
+		out.flush();
+	}
+
+	/**
+	 * Ends this Response by closing its body stream, if it was used, and by flushing the socket's output stream. The socket is closed
+	 * unless the {@link Connection} is kept alive for the next {@link Request}.
 	 * 
 	 * @throws IOException
 	 *             if any I/O error occurs
 	 */
 	public void endResponse() throws IOException
 	{
+		if (body != null)
+		{
+			body.close();
+		}
+		writeHead();
 		out.flush();
-		socket.close();
+		if (!keepAlive)
+		{
+			connection.close();
+		}
+	}
+
+	/**
+	 * Forces the {@link Connection} to be closed after this Response. This must be called before the headers are sent.
+	 */
+	public void closeConnection()
+	{
+		keepAlive = false;
+	}
+
+	/**
+	 * Checks if the {@link Connection} will be reused after this Response.
+	 * 
+	 * @return {@code true} if the connection is kept alive, {@code false} otherwise
+	 */
+	public boolean isKeepAlive()
+	{
+		return keepAlive;
+	}
+
+	/**
+	 * Checks if the head of this Response was handed to the {@link Connection}.
+	 * 
+	 * @return {@code true} if the head was sent, {@code false} otherwise
+	 */
+	public boolean isHeadSent()
+	{
+		return headSent;
+	}
+
+	/**
+	 * @return the time, as returned by {@link System#nanoTime()}, when the head of this Response was handed to the {@link Connection}
+	 */
+	public long getHeadSentTime()
+	{
+		return headSentTime;
+	}
+
+	/**
+	 * @return the number of bytes of this Response handed to the {@link Connection} so far, including its head
+	 */
+	public long getBytesSent()
+	{
+		return bytesSent;
+	}
+
+	/**
+	 * @return the number of bytes of this Response's body handed to the {@link Connection} so far
+	 */
+	public long getBodyBytesSent()
+	{
+		return bytesSent - headLength;
 	}
 
 	public HTTPStatusCode getHTTPStatusCode()
@@ -151,18 +444,49 @@ public class Response
 		return statusCode;
 	}
 
+	List<String> getTrailers()
+	{
+		return trailers;
+	}
+
 	public String getHeaderValue(HTTPResponseHeader header)
 	{
-		return headers.get(header.getHeader());
+		String value = headers[header.ordinal()];
+		if (value == null)
+		{
+			if (header == HTTPResponseHeader.Date)
+			{
+				return HTTPDateFormatter.getCurrentDate();
+			}
+			if (header == HTTPResponseHeader.Server)
+			{
+				return HTTPServer.SERVER_NAME;
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Copies the pending head, if any, to the socket's output stream, where it is buffered until the body is flushed.
+	 */
+	private void writeHead() throws IOException
+	{
+		if (headPending)
+		{
+			sendingHead();
+			out.write(head.getBuffer(), 0, head.getLength());
+		}
 	}
 
 	/**
-	 * Adds the default headers to this Response.
+	 * Marks the head as sent and records when it left this Response.
 	 */
-	private void populateDefaultResponseHeaders()
+	private void sendingHead()
 	{
-		headers.put(HTTPResponseHeader.Date.getHeader(), HTTPDateFormatter.getFormattedDate(new Date()));
-		headers.put(HTTPResponseHeader.Server.getHeader(), HTTPServer.SERVER_NAME);
-		headers.put(HTTPResponseHeader.Connection.getHeader(), "close");
+		headPending = false;
+		headSent = true;
+		headSentTime = System.nanoTime();
+		headLength = head.getLength();
+		bytesSent += headLength;
 	}
 }
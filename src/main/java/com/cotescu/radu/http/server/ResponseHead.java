@@ -0,0 +1,98 @@
+package com.cotescu.radu.http.server;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This class accumulates the encoded status line and headers of a {@link Response}. Each {@link Connection} reuses the same instance for
+ * all its responses, so that the head of a response is assembled without allocating, and it is sent to the client in the same write as
+ * the beginning of the body.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+public class ResponseHead
+{
+	private static final int INITIAL_SIZE = 512;
+
+	private byte[] buffer = new byte[INITIAL_SIZE];
+	private int length;
+
+	/**
+	 * Discards the content of this ResponseHead.
+	 */
+	public void reset()
+	{
+		length = 0;
+	}
+
+	/**
+	 * Appends already encoded bytes.
+	 * 
+	 * @param bytes
+	 *            the bytes
+	 */
+	public void append(byte[] bytes)
+	{
+		ensureCapacity(bytes.length);
+		System.arraycopy(bytes, 0, buffer, length, bytes.length);
+		length += bytes.length;
+	}
+
+	/**
+	 * Appends a String encoded in ISO-8859-1, the charset of HTTP header fields. The characters which cannot be encoded are replaced by
+	 * {@code '?'}.
+	 * 
+	 * @param string
+	 *            the String
+	 */
+	public void append(String string)
+	{
+		int stringLength = string.length();
+		ensureCapacity(stringLength);
+		for (int i = 0; i < stringLength; i++)
+		{
+			char c = string.charAt(i);
+			buffer[length++] = (byte) (c < 256 ? c : '?');
+		}
+	}
+
+	/**
+	 * Appends the line terminator.
+	 */
+	public void appendLineEnd()
+	{
+		ensureCapacity(2);
+		buffer[length++] = '\r';
+		buffer[length++] = '\n';
+	}
+
+	/**
+	 * Wraps the content of this ResponseHead in a {@link ByteBuffer}, without copying it.
+	 * 
+	 * @return the ByteBuffer
+	 */
+	public ByteBuffer toByteBuffer()
+	{
+		return ByteBuffer.wrap(buffer, 0, length);
+	}
+
+	public byte[] getBuffer()
+	{
+		return buffer;
+	}
+
+	public int getLength()
+	{
+		return length;
+	}
+
+	private void ensureCapacity(int extra)
+	{
+		if (length + extra > buffer.length)
+		{
+			byte[] newBuffer = new byte[Math.max(buffer.length * 2, length + extra)];
+			System.arraycopy(buffer, 0, newBuffer, 0, length);
+			buffer = newBuffer;
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package com.cotescu.radu.http.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * This class is the body of a {@link Response} whose length does not have to be known when its headers are sent. The data is collected
+ * in a buffer of the configured chunk size and each full buffer is sent as one chunk of the chunked transfer coding, so that generated
+ * responses start streaming right away while holding a bounded amount of memory. Closing the stream sends the last chunk, followed by
+ * the {@link Response}'s trailers.
+ * 
+ * When the chunked transfer coding is not used (the length of the body is known or the client only understands HTTP/1.0, in which case
+ * the end of the body is marked by closing the connection) the data is written as it is.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+public class ResponseOutputStream extends OutputStream
+{
+	private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.ISO_8859_1);
+	private static final byte[] CRLF = { '\r', '\n' };
+	private static final byte[] LAST_CHUNK = { '0', '\r', '\n' };
+
+	private final Response response;
+	private final boolean chunked;
+	private final boolean discard;
+	private final byte[] buffer;
+	private final byte[] chunkSize = new byte[10];
+	private int count;
+	private boolean closed;
+
+	/**
+	 * Creates the body stream of a {@link Response}, whose headers have already been sent.
+	 * 
+	 * @param response
+	 *            the Response
+	 * @param chunked
+	 *            {@code true} if the body is sent with the chunked transfer coding
+	 * @param discard
+	 *            {@code true} if the Response has no body, like the responses for HEAD requests, in which case the data is dropped
+	 * @param bufferSize
+	 *            the size of the chunks
+	 */
+	ResponseOutputStream(Response response, boolean chunked, boolean discard, int bufferSize)
+	{
+		this.response = response;
+		this.chunked = chunked;
+		this.discard = discard;
+		buffer = new byte[bufferSize];
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		ensureOpen();
+		if (discard)
+		{
+			return;
+		}
+		if (count == buffer.length)
+		{
+			flushBuffer();
+		}
+		buffer[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int offset, int length) throws IOException
+	{
+		ensureOpen();
+		if (discard || length == 0)
+		{
+			return;
+		}
+		if (count + length > buffer.length)
+		{
+			flushBuffer();
+			if (length >= buffer.length)
+			{
+				// large writes become chunks of their own instead of being copied through the buffer
+				writeChunk(b, offset, length);
+				return;
+			}
+		}
+		System.arraycopy(b, offset, buffer, count, length);
+		count += length;
+	}
+
+	/**
+	 * Sends the buffered data as a chunk and pushes everything written so far to the client.
+	 */
+	@Override
+	public void flush() throws IOException
+	{
+		ensureOpen();
+		flushBuffer();
+		response.flush();
+	}
+
+	/**
+	 * Sends the buffered data and ends the body: for the chunked transfer coding, the last chunk and the trailers are sent. The
+	 * connection itself stays open until the {@link Response} ends.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if (closed)
+		{
+			return;
+		}
+		flushBuffer();
+		closed = true;
+		if (chunked && !discard)
+		{
+			response.write(LAST_CHUNK, 0, LAST_CHUNK.length);
+			List<String> trailers = response.getTrailers();
+			if (trailers != null)
+			{
+				for (int i = 0; i < trailers.size(); i += 2)
+				{
+					byte[] trailer = (trailers.get(i) + ": " + trailers.get(i + 1) + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+					response.write(trailer, 0, trailer.length);
+				}
+			}
+			response.write(CRLF, 0, CRLF.length);
+		}
+	}
+
+	public boolean isChunked()
+	{
+		return chunked;
+	}
+
+	private void flushBuffer() throws IOException
+	{
+		if (count > 0)
+		{
+			writeChunk(buffer, 0, count);
+			count = 0;
+		}
+	}
+
+	/**
+	 * Sends data as a single chunk, preceded by its size in hexadecimal digits.
+	 */
+	private void writeChunk(byte[] b, int offset, int length) throws IOException
+	{
+		if (!chunked)
+		{
+			response.write(b, offset, length);
+			return;
+		}
+		int position = chunkSize.length - 2;
+		chunkSize[position] = '\r';
+		chunkSize[position + 1] = '\n';
+		int value = length;
+		do
+		{
+			chunkSize[--position] = HEX_DIGITS[value & 0xf];
+			value >>>= 4;
+		}
+		while (value != 0);
+		response.write(chunkSize, position, chunkSize.length - position);
+		response.write(b, offset, length);
+		response.write(CRLF, 0, CRLF.length);
+	}
+
+	private void ensureOpen() throws IOException
+	{
+		if (closed)
+		{
+			throw new IOException("The response body has already been closed");
+		}
+	}
+}
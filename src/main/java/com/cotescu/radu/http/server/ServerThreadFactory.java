@@ -2,6 +2,8 @@ package com.cotescu.radu.http.server;
 
 import java.util.concurrent.ThreadFactory;
 
+import com.cotescu.radu.http.server.nio.ChannelOutputStream;
+
 /**
  * This factory is used to create {@link Runnable} tasks for the thread pool used by the {@link HTTPServer}.
  * 
@@ -11,19 +13,43 @@ import java.util.concurrent.ThreadFactory;
 public class ServerThreadFactory implements ThreadFactory
 {
 
-	private static ThreadGroup threadGroup;
-	private static int n = 0;
+	private final ThreadGroup threadGroup;
+	private int n = 0;
 
 	public ServerThreadFactory()
 	{
-		threadGroup = new ThreadGroup("HTTPServerWorkerThread");
+		this("HTTPServerWorkerThread");
+	}
+
+	/**
+	 * Creates a factory whose threads belong to their own {@code ThreadGroup}, which is used for the pool of each worker group.
+	 * 
+	 * @param name
+	 *            the name of the thread group, which prefixes the names of the threads
+	 */
+	public ServerThreadFactory(String name)
+	{
+		threadGroup = new ThreadGroup(name);
 	}
 
 	@Override
-	public Thread newThread(Runnable task)
+	public Thread newThread(final Runnable task)
 	{
 		n++;
-		Thread t = new Thread(threadGroup, task, threadGroup.getName() + "-" + n);
+		Thread t = new Thread(threadGroup, new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					task.run();
+				}
+				finally
+				{
+					ChannelOutputStream.closeSelector();
+				}
+			}
+		}, threadGroup.getName() + "-" + n);
 		return t;
 	}
 
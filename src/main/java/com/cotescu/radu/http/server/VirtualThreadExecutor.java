@@ -0,0 +1,147 @@
+package com.cotescu.radu.http.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cotescu.radu.http.server.nio.ChannelOutputStream;
+
+/**
+ * This executor runs every task on its own virtual thread. Instead of queueing the tasks, the number of tasks executed at the same time
+ * is bounded by a {@link Semaphore}; the tasks submitted while the limit is reached are rejected through a
+ * {@link RejectedExecutionHandler}, which is called with a {@code null} executor.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+public class VirtualThreadExecutor extends AbstractExecutorService
+{
+	private final int limit;
+	private final Semaphore permits;
+	private final ThreadFactory threadFactory;
+	private final RejectedExecutionHandler rejectedExecutionHandler;
+	private final AtomicLong completedTasks = new AtomicLong();
+	private final AtomicLong rejectedTasks = new AtomicLong();
+	private volatile boolean isShutdown;
+
+	/**
+	 * Creates an executor for virtual threads.
+	 * 
+	 * @param limit
+	 *            the maximum number of tasks executed at the same time
+	 * @param rejectedExecutionHandler
+	 *            the handler called for the tasks which cannot be executed
+	 */
+	public VirtualThreadExecutor(int limit, RejectedExecutionHandler rejectedExecutionHandler)
+	{
+		this.limit = limit;
+		this.rejectedExecutionHandler = rejectedExecutionHandler;
+		permits = new Semaphore(limit);
+		threadFactory = Thread.ofVirtual().name("HTTPServerWorkerThread-virtual-", 1).factory();
+	}
+
+	@Override
+	public void execute(final Runnable task)
+	{
+		if (isShutdown || !permits.tryAcquire())
+		{
+			rejectedTasks.incrementAndGet();
+			rejectedExecutionHandler.rejectedExecution(task, null);
+			return;
+		}
+		threadFactory.newThread(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					task.run();
+				}
+				finally
+				{
+					ChannelOutputStream.closeSelector();
+					completedTasks.incrementAndGet();
+					permits.release();
+				}
+			}
+		}).start();
+	}
+
+	/**
+	 * Returns the maximum number of tasks executed at the same time.
+	 * 
+	 * @return the concurrency limit
+	 */
+	public int getLimit()
+	{
+		return limit;
+	}
+
+	/**
+	 * Returns the number of tasks which are currently executed.
+	 * 
+	 * @return the number of in-flight tasks
+	 */
+	public int getActiveCount()
+	{
+		return limit - permits.availablePermits();
+	}
+
+	public long getCompletedTaskCount()
+	{
+		return completedTasks.get();
+	}
+
+	public long getRejectedTaskCount()
+	{
+		return rejectedTasks.get();
+	}
+
+	@Override
+	public void shutdown()
+	{
+		isShutdown = true;
+	}
+
+	/**
+	 * Stops accepting tasks. The running virtual threads are not interrupted, therefore no task is ever returned.
+	 */
+	@Override
+	public List<Runnable> shutdownNow()
+	{
+		isShutdown = true;
+		return new ArrayList<Runnable>();
+	}
+
+	@Override
+	public boolean isShutdown()
+	{
+		return isShutdown;
+	}
+
+	@Override
+	public boolean isTerminated()
+	{
+		return isShutdown && getActiveCount() == 0;
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		if (!isShutdown)
+		{
+			return false;
+		}
+		if (permits.tryAcquire(limit, timeout, unit))
+		{
+			permits.release(limit);
+			return true;
+		}
+		return false;
+	}
+}
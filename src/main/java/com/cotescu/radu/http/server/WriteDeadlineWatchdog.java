@@ -0,0 +1,83 @@
+package com.cotescu.radu.http.server;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.cotescu.radu.http.server.metrics.Metrics;
+
+/**
+ * This class enforces the write deadline of the blocking {@link Connection}s. A blocking socket write is not bounded by the socket's
+ * timeout, so a client which stops reading its response would hold its worker thread for as long as it keeps the connection open. The
+ * watchdog checks the open connections once per second, as the event loops check their idle channels, and closes the sockets whose
+ * response is still being sent after its deadline, which makes the blocked write fail.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+public class WriteDeadlineWatchdog implements Runnable
+{
+	private static final long CHECK_INTERVAL = 1000;
+
+	private final Set<Connection> connections = Collections.newSetFromMap(new ConcurrentHashMap<Connection, Boolean>());
+	private final Metrics metrics;
+
+	/**
+	 * Creates a watchdog.
+	 * 
+	 * @param metrics
+	 *            the Metrics counting the expired writes
+	 */
+	public WriteDeadlineWatchdog(Metrics metrics)
+	{
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Starts watching an open Connection.
+	 * 
+	 * @param connection
+	 *            the Connection
+	 */
+	public void register(Connection connection)
+	{
+		connections.add(connection);
+	}
+
+	/**
+	 * Stops watching a closed Connection.
+	 * 
+	 * @param connection
+	 *            the Connection
+	 */
+	public void unregister(Connection connection)
+	{
+		connections.remove(connection);
+	}
+
+	public void run()
+	{
+		while (true)
+		{
+			try
+			{
+				Thread.sleep(CHECK_INTERVAL);
+			}
+			catch (InterruptedException e)
+			{
+				return;
+			}
+			long now = System.nanoTime();
+			for (Connection connection : connections)
+			{
+				long deadline = connection.getWriteDeadline();
+				if (deadline != 0 && now - deadline >= 0)
+				{
+					connections.remove(connection);
+					metrics.recordTimeout(Metrics.TimeoutPhase.WRITE);
+					connection.expireWrite();
+				}
+			}
+		}
+	}
+}
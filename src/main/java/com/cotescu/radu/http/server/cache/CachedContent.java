@@ -0,0 +1,69 @@
+package com.cotescu.radu.http.server.cache;
+
+/**
+ * This class holds a file's content together with the metadata of the file it was read from, so that a cached file can be served
+ * without touching the disk for as long as the file does not change.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+public class CachedContent
+{
+	private final long lastModified;
+	private final long sourceLength;
+	private final byte[] body;
+
+	/**
+	 * Creates a cache entry.
+	 * 
+	 * @param lastModified
+	 *            the file's modification time, as returned by {@link java.io.File#lastModified()}
+	 * @param body
+	 *            the file's content
+	 */
+	public CachedContent(long lastModified, byte[] body)
+	{
+		this(lastModified, body.length, body);
+	}
+
+	/**
+	 * Creates a cache entry whose body is an encoded form of the file's content.
+	 * 
+	 * @param lastModified
+	 *            the file's modification time, as returned by {@link java.io.File#lastModified()}
+	 * @param sourceLength
+	 *            the file's length
+	 * @param body
+	 *            the encoded content
+	 */
+	public CachedContent(long lastModified, long sourceLength, byte[] body)
+	{
+		this.lastModified = lastModified;
+		this.sourceLength = sourceLength;
+		this.body = body;
+	}
+
+	/**
+	 * Checks if this entry still matches the file it was read from.
+	 * 
+	 * @param fileLastModified
+	 *            the file's current modification time
+	 * @param fileLength
+	 *            the file's current length
+	 * @return {@code true} if the entry can be served, {@code false} otherwise
+	 */
+	public boolean isFresh(long fileLastModified, long fileLength)
+	{
+		return lastModified == fileLastModified && sourceLength == fileLength;
+	}
+
+	public byte[] getBody()
+	{
+		return body;
+	}
+
+	public int getLength()
+	{
+		return body.length;
+	}
+}
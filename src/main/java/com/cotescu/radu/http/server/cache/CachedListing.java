@@ -0,0 +1,84 @@
+package com.cotescu.radu.http.server.cache;
+
+import com.cotescu.radu.http.server.utils.HTTPDateFormatter;
+
+/**
+ * This class holds a rendered directory listing, in its identity and, optionally, its gzip encoded form, together with the header
+ * values that describe it.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+public class CachedListing
+{
+	private final long lastModified;
+	private final byte[] body;
+	private final byte[] gzipBody;
+	private final String contentType;
+	private final String etag;
+	private final String lastModifiedHeader;
+
+	/**
+	 * Creates a cache entry.
+	 * 
+	 * @param lastModified
+	 *            the time when the listing was rendered, which is used as its modification time
+	 * @param body
+	 *            the listing
+	 * @param gzipBody
+	 *            the gzip encoded listing or {@code null} if the listing is not compressed
+	 * @param contentType
+	 *            the listing's content type
+	 * @param etag
+	 *            the listing's entity tag or {@code null} if entity tags are disabled
+	 */
+	public CachedListing(long lastModified, byte[] body, byte[] gzipBody, String contentType, String etag)
+	{
+		this.lastModified = lastModified;
+		this.body = body;
+		this.gzipBody = gzipBody;
+		this.contentType = contentType;
+		this.etag = etag;
+		lastModifiedHeader = HTTPDateFormatter.getFormattedDate(lastModified);
+	}
+
+	public long getLastModified()
+	{
+		return lastModified;
+	}
+
+	public byte[] getBody()
+	{
+		return body;
+	}
+
+	public byte[] getGzipBody()
+	{
+		return gzipBody;
+	}
+
+	public String getContentType()
+	{
+		return contentType;
+	}
+
+	public String getEntityTag()
+	{
+		return etag;
+	}
+
+	public String getLastModifiedHeader()
+	{
+		return lastModifiedHeader;
+	}
+
+	/**
+	 * Returns the memory held by this entry.
+	 * 
+	 * @return the number of bytes of both forms of the listing
+	 */
+	public long getSize()
+	{
+		return body.length + (gzipBody == null ? 0 : gzipBody.length);
+	}
+}
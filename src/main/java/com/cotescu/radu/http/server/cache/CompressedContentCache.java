@@ -0,0 +1,39 @@
+package com.cotescu.radu.http.server.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.zip.Deflater;
+
+import com.cotescu.radu.http.server.utils.ContentCoding;
+
+/**
+ * This class caches the gzip compressed variants of text files. Since a variant is only compressed when it enters the cache, each
+ * file is compressed once, with the best compression level, instead of once per request; the same admission policy as in the
+ * {@link ContentCache} keeps the most requested variants.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+public class CompressedContentCache extends ContentCache
+{
+	/**
+	 * Creates a cache for compressed variants.
+	 * 
+	 * @param capacity
+	 *            the maximum number of compressed bytes held by the cache
+	 * @param maxFileSize
+	 *            the size of the largest file which is compressed
+	 */
+	public CompressedContentCache(long capacity, long maxFileSize)
+	{
+		super(capacity, maxFileSize);
+	}
+
+	@Override
+	protected CachedContent load(File file, long lastModified) throws IOException
+	{
+		byte[] source = Files.readAllBytes(file.toPath());
+		return new CachedContent(lastModified, source.length, ContentCoding.gzip(source, Deflater.BEST_COMPRESSION));
+	}
+}
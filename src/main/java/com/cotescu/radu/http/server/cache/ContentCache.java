@@ -0,0 +1,293 @@
+package com.cotescu.radu.http.server.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class implements a memory bounded cache for the content of small static files, keyed by the files' canonical paths.
+ * 
+ * The cache follows the W-TinyLFU design: new entries go to a small LRU window, which absorbs bursts, while most of the memory is
+ * given to a segmented LRU main area (a probation and a protected segment). An entry leaving the window is only admitted in the main
+ * area if a {@link FrequencySketch} estimates that it has been requested more often than the entry it would evict. This way a one-off
+ * download cannot flush the files which are requested all the time.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+public class ContentCache
+{
+	private static final int WINDOW_PERCENTAGE = 1;
+	private static final int PROTECTED_PERCENTAGE = 80;
+	private static final int AVERAGE_ENTRY_SIZE = 4096;
+
+	private final long maxFileSize;
+	private final long windowCapacity;
+	private final long mainCapacity;
+	private final long protectedCapacity;
+	private final FrequencySketch sketch;
+	private final LinkedHashMap<String, CachedContent> window;
+	private final LinkedHashMap<String, CachedContent> probation;
+	private final LinkedHashMap<String, CachedContent> protectedSegment;
+	private long windowSize;
+	private long probationSize;
+	private long protectedSize;
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * Creates a content cache.
+	 * 
+	 * @param capacity
+	 *            the maximum number of bytes held by the cache
+	 * @param maxFileSize
+	 *            the size of the largest file which is cached
+	 */
+	public ContentCache(long capacity, long maxFileSize)
+	{
+		this.maxFileSize = Math.min(maxFileSize, capacity);
+		windowCapacity = Math.max(capacity * WINDOW_PERCENTAGE / 100, 1);
+		mainCapacity = capacity - windowCapacity;
+		protectedCapacity = mainCapacity * PROTECTED_PERCENTAGE / 100;
+		sketch = new FrequencySketch((int) Math.min(capacity / AVERAGE_ENTRY_SIZE, 1 << 24));
+		window = new LinkedHashMap<String, CachedContent>();
+		probation = new LinkedHashMap<String, CachedContent>();
+		protectedSegment = new LinkedHashMap<String, CachedContent>();
+	}
+
+	/**
+	 * Returns the cached content of a file, reading the file in the cache if needed. Entries which do not match the file's metadata are
+	 * reloaded. The metadata comes from the {@link FileIndex}, so a hit does not touch the file system. A new entry is tagged with the
+	 * file's own modification time and the length actually read instead of the index's, so that the bytes of a file which changed before
+	 * the index noticed are not served as the version which the index announces.
+	 * 
+	 * @param metadata
+	 *            the file's metadata; its file has a canonical path
+	 * @return the cached content or {@code null} if the file is too large to be cached
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	public CachedContent get(FileMetadata metadata) throws IOException
+	{
+		File file = metadata.getFile();
+		String key = file.getPath();
+		long lastModified = metadata.getLastModified();
+		long length = metadata.getLength();
+		CachedContent content = lookup(key, lastModified, length);
+		if (content != null)
+		{
+			return content;
+		}
+		if (length > maxFileSize)
+		{
+			invalidate(key);
+			return null;
+		}
+		// the file is stated before it is read, so a change during the read leaves an entry which the updated index rejects
+		content = load(file, file.lastModified());
+		put(key, content);
+		return content;
+	}
+
+	/**
+	 * Reads a file which is not cached yet.
+	 * 
+	 * @param file
+	 *            the file
+	 * @param lastModified
+	 *            the file's modification time, taken just before reading it
+	 * @return the new cache entry; its source length is the number of bytes read
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	protected CachedContent load(File file, long lastModified) throws IOException
+	{
+		return new CachedContent(lastModified, Files.readAllBytes(file.toPath()));
+	}
+
+	/**
+	 * Looks up an entry and records the access. An entry which does not match the file anymore counts as a miss.
+	 */
+	private synchronized CachedContent lookup(String key, long lastModified, long length)
+	{
+		sketch.increment(key);
+		CachedContent content;
+		if ((content = window.remove(key)) != null)
+		{
+			window.put(key, content);
+		}
+		else
+			if ((content = protectedSegment.remove(key)) != null)
+			{
+				protectedSegment.put(key, content);
+			}
+			else
+				if ((content = probation.remove(key)) != null)
+				{
+					probationSize -= content.getLength();
+					protectedSegment.put(key, content);
+					protectedSize += content.getLength();
+					demoteProtectedEntries();
+				}
+		if (content != null && content.isFresh(lastModified, length))
+		{
+			hits++;
+			return content;
+		}
+		misses++;
+		return null;
+	}
+
+	/**
+	 * Adds or replaces an entry. New entries always go to the window; the entries pushed out of the window compete for the main area.
+	 */
+	private synchronized void put(String key, CachedContent content)
+	{
+		remove(key);
+		window.put(key, content);
+		windowSize += content.getLength();
+		while (windowSize > windowCapacity && !window.isEmpty())
+		{
+			Iterator<Map.Entry<String, CachedContent>> eldest = window.entrySet().iterator();
+			Map.Entry<String, CachedContent> candidate = eldest.next();
+			eldest.remove();
+			windowSize -= candidate.getValue().getLength();
+			admit(candidate.getKey(), candidate.getValue());
+		}
+	}
+
+	/**
+	 * Removes an entry whose file can no longer be cached.
+	 */
+	private synchronized void invalidate(String key)
+	{
+		remove(key);
+	}
+
+	/**
+	 * Moves an entry evicted from the window to the probation segment if the frequency sketch favours it over the main area's victims.
+	 */
+	private void admit(String key, CachedContent candidate)
+	{
+		if (candidate.getLength() > mainCapacity)
+		{
+			evictions++;
+			return;
+		}
+		if (probationSize + protectedSize + candidate.getLength() > mainCapacity)
+		{
+			String victim = firstKey(probation.isEmpty() ? protectedSegment : probation);
+			if (sketch.frequency(key) <= sketch.frequency(victim))
+			{
+				evictions++;
+				return;
+			}
+			while (probationSize + protectedSize + candidate.getLength() > mainCapacity)
+			{
+				evictMainVictim();
+			}
+		}
+		probation.put(key, candidate);
+		probationSize += candidate.getLength();
+	}
+
+	/**
+	 * Evicts the least recently used entry of the probation segment or, if it is empty, of the protected segment.
+	 */
+	private void evictMainVictim()
+	{
+		boolean fromProbation = !probation.isEmpty();
+		Iterator<CachedContent> eldest = (fromProbation ? probation : protectedSegment).values().iterator();
+		CachedContent victim = eldest.next();
+		eldest.remove();
+		if (fromProbation)
+		{
+			probationSize -= victim.getLength();
+		}
+		else
+		{
+			protectedSize -= victim.getLength();
+		}
+		evictions++;
+	}
+
+	/**
+	 * Moves the least recently used entries of the protected segment back to the probation segment while the protected segment is
+	 * over its capacity.
+	 */
+	private void demoteProtectedEntries()
+	{
+		while (protectedSize > protectedCapacity && protectedSegment.size() > 1)
+		{
+			Iterator<Map.Entry<String, CachedContent>> eldest = protectedSegment.entrySet().iterator();
+			Map.Entry<String, CachedContent> entry = eldest.next();
+			eldest.remove();
+			protectedSize -= entry.getValue().getLength();
+			probation.put(entry.getKey(), entry.getValue());
+			probationSize += entry.getValue().getLength();
+		}
+	}
+
+	private void remove(String key)
+	{
+		CachedContent content;
+		if ((content = window.remove(key)) != null)
+		{
+			windowSize -= content.getLength();
+		}
+		else
+			if ((content = probation.remove(key)) != null)
+			{
+				probationSize -= content.getLength();
+			}
+			else
+				if ((content = protectedSegment.remove(key)) != null)
+				{
+					protectedSize -= content.getLength();
+				}
+	}
+
+	private static String firstKey(LinkedHashMap<String, CachedContent> segment)
+	{
+		return segment.keySet().iterator().next();
+	}
+
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+
+	public synchronized long getEvictions()
+	{
+		return evictions;
+	}
+
+	public synchronized int getEntriesCount()
+	{
+		return window.size() + probation.size() + protectedSegment.size();
+	}
+
+	public synchronized long getSize()
+	{
+		return windowSize + probationSize + protectedSize;
+	}
+
+	public long getMaxFileSize()
+	{
+		return maxFileSize;
+	}
+
+	public long getCapacity()
+	{
+		return windowCapacity + mainCapacity;
+	}
+}
@@ -0,0 +1,636 @@
+package com.cotescu.radu.http.server.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cotescu.radu.commons.FileUtils;
+import com.cotescu.radu.http.server.HTTPServer;
+import com.cotescu.radu.http.server.constants.MIMEmap;
+
+/**
+ * This class keeps the metadata of the files of the root folder in memory, so that a request is resolved with a few map lookups instead
+ * of canonicalising its path and probing the file system for the requested file and for every default document. The index is built at
+ * startup by walking the root folder in parallel, in the common {@link ForkJoinPool}, and every indexed directory is watched with a
+ * {@link WatchService} whose events update the index. The default document of every indexed directory is resolved when the directory is
+ * indexed or updated, so that a request for a directory needs a single lookup to find it. When events are lost the whole index is
+ * rebuilt in the background and replaces the current one.
+ * 
+ * Request paths are normalised as strings, which never go above the root folder. Since normalised paths do not resolve symbolic links,
+ * the walk does not follow them: the metadata of a symbolic link, and of everything reached through it, is read from the file system on
+ * every lookup. The same happens for the directories which are not indexed, because the index reached its maximum number of entries or
+ * because they could not be watched, and for the whole root folder when the index is disabled.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+public class FileIndex
+{
+	private final File root;
+	private final Path rootPath;
+	private final MIMEmap mimeMap;
+	private final List<String> defaultDocuments;
+	private final long maxEntries;
+	private final MissingPathCache missingPaths;
+	private final Map<String, WatchKey> watchKeys = new ConcurrentHashMap<String, WatchKey>();
+	private final WatchService watchService;
+	private final AtomicLong fileSystemReads = new AtomicLong();
+	private volatile ConcurrentHashMap<String, FileMetadata> entries = new ConcurrentHashMap<String, FileMetadata>();
+
+	/**
+	 * Indexes the entries of a directory and forks the indexing of its subdirectories.
+	 */
+	private class IndexTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final transient FileMetadata directory;
+		private final ConcurrentHashMap<String, FileMetadata> target;
+
+		IndexTask(FileMetadata directory, ConcurrentHashMap<String, FileMetadata> target)
+		{
+			this.directory = directory;
+			this.target = target;
+		}
+
+		@Override
+		protected void compute()
+		{
+			invokeAll(index(directory, target));
+		}
+	}
+
+	/**
+	 * Creates the index of a root folder and starts the thread which watches the indexed directories.
+	 * 
+	 * @param root
+	 *            the root folder, which must be canonical
+	 * @param mimeMap
+	 *            the {@link MIMEmap} which provides the content types of the files
+	 * @param defaultDocuments
+	 *            the names of the default documents of a directory, in order of preference
+	 * @param maxEntries
+	 *            the maximum number of indexed files; 0 disables the index
+	 * @param missingPaths
+	 *            the {@link MissingPathCache} for the paths which are looked up on the file system or {@code null}
+	 */
+	public FileIndex(File root, MIMEmap mimeMap, List<String> defaultDocuments, long maxEntries, MissingPathCache missingPaths)
+	{
+		this.root = root;
+		this.mimeMap = mimeMap;
+		this.defaultDocuments = defaultDocuments;
+		this.missingPaths = missingPaths;
+		rootPath = root.toPath();
+		WatchService service = null;
+		if (maxEntries > 0)
+		{
+			try
+			{
+				service = FileSystems.getDefault().newWatchService();
+			}
+			catch (IOException e)
+			{
+				HTTPServer.getLog().warn("The root folder cannot be watched; its files will not be indexed", e);
+			}
+		}
+		watchService = service;
+		this.maxEntries = watchService != null ? maxEntries : 0;
+		if (watchService == null)
+		{
+			return;
+		}
+		long start = System.currentTimeMillis();
+		entries = build();
+		HTTPServer.getLog().info(
+				"Indexed " + entries.size() + " files in " + watchKeys.size() + " directories in " + (System.currentTimeMillis() - start)
+						+ " ms");
+		Thread watcher = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				processEvents();
+			}
+		}, "HTTPServerFileIndexWatcher");
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+
+	/**
+	 * Normalises the path of a request: empty and {@code .} segments are dropped and {@code ..} segments remove the previous segment,
+	 * without going above the root folder.
+	 * 
+	 * @param requestURI
+	 *            the decoded path of the request
+	 * @return the path relative to the root folder, without leading or trailing separators; the empty String stands for the root folder
+	 */
+	public static String normalize(String requestURI)
+	{
+		StringBuilder path = new StringBuilder(requestURI.length());
+		int length = requestURI.length();
+		int start = 0;
+		while (start < length)
+		{
+			int end = start;
+			while (end < length && !isSeparator(requestURI.charAt(end)))
+			{
+				end++;
+			}
+			int segmentLength = end - start;
+			if (segmentLength == 2 && requestURI.charAt(start) == '.' && requestURI.charAt(start + 1) == '.')
+			{
+				int previous = path.lastIndexOf("/");
+				path.setLength(previous < 0 ? 0 : previous);
+			}
+			else
+				if (segmentLength > 0 && !(segmentLength == 1 && requestURI.charAt(start) == '.'))
+				{
+					if (path.length() > 0)
+					{
+						path.append('/');
+					}
+					path.append(requestURI, start, end);
+				}
+			start = end + 1;
+		}
+		return path.toString();
+	}
+
+	/**
+	 * Looks up the metadata of a file. The metadata of the files which are not indexed is read from the file system, unless the
+	 * {@link MissingPathCache} knows that they do not exist.
+	 * 
+	 * @param path
+	 *            the normalised path of the file, as returned by {@link #normalize(String)}
+	 * @return the metadata or {@code null} if the file does not exist
+	 */
+	public FileMetadata lookup(String path)
+	{
+		ConcurrentHashMap<String, FileMetadata> current = entries;
+		FileMetadata metadata = current.get(path);
+		if (metadata != null ? metadata.isIndexed() : isAbsent(current, path))
+		{
+			return metadata;
+		}
+		if (missingPaths != null && missingPaths.contains(path))
+		{
+			return null;
+		}
+		fileSystemReads.incrementAndGet();
+		metadata = read(path, false);
+		if (metadata == null && missingPaths != null)
+		{
+			missingPaths.add(path);
+		}
+		return metadata;
+	}
+
+	/**
+	 * Looks up the default document of a directory: the first of the default documents which is a file of the directory. The default
+	 * document of an indexed directory is resolved by the index, while those of the other directories are looked up one by one.
+	 * 
+	 * @param directory
+	 *            the directory's metadata, as returned by {@link #lookup(String)}
+	 * @return the default document's metadata or {@code null} if the directory has none
+	 */
+	public FileMetadata getDefaultDocument(FileMetadata directory)
+	{
+		if (directory.isIndexed())
+		{
+			String path = directory.getDefaultDocument();
+			FileMetadata document = path != null ? lookup(path) : null;
+			return document != null && !document.isDirectory() ? document : null;
+		}
+		for (String name : defaultDocuments)
+		{
+			FileMetadata document = lookup(normalize(getChildPath(directory.getPath(), name)));
+			if (document != null && !document.isDirectory())
+			{
+				return document;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Checks if a path which is missing from the index does not exist, which is the case if its closest ancestor in the index is an
+	 * indexed directory or a file.
+	 */
+	private static boolean isAbsent(Map<String, FileMetadata> index, String path)
+	{
+		while (!path.isEmpty())
+		{
+			int slash = path.lastIndexOf('/');
+			path = slash < 0 ? "" : path.substring(0, slash);
+			FileMetadata ancestor = index.get(path);
+			if (ancestor != null)
+			{
+				return ancestor.isIndexed() || !ancestor.isDirectory();
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Walks the root folder into a new index.
+	 */
+	private ConcurrentHashMap<String, FileMetadata> build()
+	{
+		ConcurrentHashMap<String, FileMetadata> index = new ConcurrentHashMap<String, FileMetadata>();
+		FileMetadata rootMetadata = read("", true);
+		if (rootMetadata != null)
+		{
+			ForkJoinPool.commonPool().invoke(new IndexTask(rootMetadata, index));
+		}
+		return index;
+	}
+
+	/**
+	 * Watches a directory and indexes its entries. The directory is only marked as indexed if it is watched and all its entries were
+	 * read.
+	 * 
+	 * @return the tasks which index the subdirectories
+	 */
+	private List<IndexTask> index(FileMetadata directory, ConcurrentHashMap<String, FileMetadata> index)
+	{
+		String path = directory.getPath();
+		List<IndexTask> subtasks = new ArrayList<IndexTask>();
+		if (index.mappingCount() < maxEntries && watch(path))
+		{
+			if (list(path, index, subtasks))
+			{
+				index.put(path, resolveDefaultDocument(directory, index));
+				return subtasks;
+			}
+			// the entries read before the failure would never be updated
+			removeEntries(index, path);
+		}
+		unwatch(path);
+		index.put(path, new FileMetadata(path, directory.getFile(), true, directory.isReadable(), directory.getLength(), directory
+				.getLastModified(), directory.getContentType(), false));
+		return Collections.emptyList();
+	}
+
+	/**
+	 * Adds the entries of a directory to an index; the subdirectories are collected as tasks instead.
+	 * 
+	 * @return {@code true} if all the entries were read, {@code false} if the directory cannot be read or if the index is full
+	 */
+	private boolean list(String path, ConcurrentHashMap<String, FileMetadata> index, List<IndexTask> subtasks)
+	{
+		try
+		{
+			DirectoryStream<Path> stream = Files.newDirectoryStream(getFile(path).toPath());
+			try
+			{
+				for (Path child : stream)
+				{
+					if (index.mappingCount() >= maxEntries)
+					{
+						return false;
+					}
+					FileMetadata metadata = read(getChildPath(path, child.getFileName().toString()), true);
+					if (metadata == null)
+					{
+						continue;
+					}
+					if (metadata.isDirectory() && metadata.isIndexed())
+					{
+						subtasks.add(new IndexTask(metadata, index));
+					}
+					else
+					{
+						index.put(metadata.getPath(), metadata);
+					}
+				}
+			}
+			finally
+			{
+				stream.close();
+			}
+			return true;
+		}
+		catch (IOException e)
+		{
+			HTTPServer.getLog().debug("Unable to index " + getFile(path), e);
+		}
+		catch (DirectoryIteratorException e)
+		{
+			HTTPServer.getLog().debug("Unable to index " + getFile(path), e);
+		}
+		return false;
+	}
+
+	/**
+	 * Copies the metadata of an indexed directory together with the path of its default document, the first of the default documents
+	 * which is a file among the directory's indexed entries.
+	 */
+	private FileMetadata resolveDefaultDocument(FileMetadata directory, Map<String, FileMetadata> index)
+	{
+		String defaultDocument = null;
+		for (String name : defaultDocuments)
+		{
+			String path = normalize(getChildPath(directory.getPath(), name));
+			FileMetadata document = index.get(path);
+			if (document != null && !document.isDirectory())
+			{
+				defaultDocument = path;
+				break;
+			}
+		}
+		return new FileMetadata(directory.getPath(), directory.getFile(), true, directory.isReadable(), directory.getLength(), directory
+				.getLastModified(), directory.getContentType(), true, defaultDocument);
+	}
+
+	/**
+	 * Reads the metadata of a file from the file system. The metadata of a symbolic link is the metadata of its target, but it is never
+	 * indexed.
+	 * 
+	 * @return the metadata or {@code null} if the file does not exist or cannot be accessed
+	 */
+	private FileMetadata read(String path, boolean indexed)
+	{
+		File file = getFile(path);
+		Path filePath;
+		BasicFileAttributes attributes;
+		try
+		{
+			filePath = file.toPath();
+			attributes = Files.readAttributes(filePath, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+			if (attributes.isSymbolicLink())
+			{
+				indexed = false;
+				attributes = Files.readAttributes(filePath, BasicFileAttributes.class);
+			}
+		}
+		catch (IOException e)
+		{
+			return null;
+		}
+		catch (InvalidPathException e)
+		{
+			return null;
+		}
+		return new FileMetadata(path, file, attributes.isDirectory(), Files.isReadable(filePath), attributes.size(), attributes
+				.lastModifiedTime().toMillis(), mimeMap.getContentType(FileUtils.getExtension(file)), indexed);
+	}
+
+	/**
+	 * Waits for the events of the watched directories and applies them to the index. The events which are pending are processed
+	 * before rebuilding the index after an overflow, so that the overflows signalled together cause a single rebuild.
+	 */
+	private void processEvents()
+	{
+		boolean overflow = false;
+		while (true)
+		{
+			WatchKey watchKey;
+			try
+			{
+				watchKey = watchService.poll();
+				if (watchKey == null)
+				{
+					if (overflow)
+					{
+						overflow = false;
+						rebuild();
+						continue;
+					}
+					watchKey = watchService.take();
+				}
+			}
+			catch (InterruptedException e)
+			{
+				return;
+			}
+			catch (ClosedWatchServiceException e)
+			{
+				return;
+			}
+			String path = getPath((Path) watchKey.watchable());
+			for (WatchEvent<?> event : watchKey.pollEvents())
+			{
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+				{
+					overflow = true;
+				}
+				else
+				{
+					update(getChildPath(path, event.context().toString()));
+				}
+			}
+			if (watchKey.reset())
+			{
+				// the events of the entries change the modification time of the directory itself
+				update(path);
+			}
+			else
+			{
+				watchKeys.remove(path, watchKey);
+			}
+		}
+	}
+
+	/**
+	 * Updates the metadata of a file after an event. New directories are walked, while removed directories are dropped together with
+	 * their entries.
+	 */
+	private void update(String path)
+	{
+		ConcurrentHashMap<String, FileMetadata> index = entries;
+		FileMetadata previous = index.get(path);
+		FileMetadata metadata = read(path, true);
+		if (previous == null && metadata != null)
+		{
+			// the new file may also be reachable through paths which were cached as missing, like those of symbolic links
+			clearMissingPaths();
+		}
+		if (metadata == null)
+		{
+			remove(index, path);
+			return;
+		}
+		if (previous != null && previous.isDirectory() && previous.isIndexed())
+		{
+			if (metadata.isDirectory() && metadata.isIndexed())
+			{
+				// the events of the directory's entries are followed by this update, which resolves its default document again
+				index.put(path, resolveDefaultDocument(metadata, index));
+				return;
+			}
+			remove(index, path);
+		}
+		if (metadata.isDirectory() && metadata.isIndexed())
+		{
+			ForkJoinPool.commonPool().invoke(new IndexTask(metadata, index));
+		}
+		else
+		{
+			index.put(path, metadata);
+		}
+	}
+
+	/**
+	 * Replaces the index with a new walk of the root folder and stops watching the directories which are not indexed anymore.
+	 */
+	private void rebuild()
+	{
+		HTTPServer.getLog().info("File system events were lost; rebuilding the file index");
+		ConcurrentHashMap<String, FileMetadata> index = build();
+		entries = index;
+		clearMissingPaths();
+		for (Iterator<Map.Entry<String, WatchKey>> iterator = watchKeys.entrySet().iterator(); iterator.hasNext();)
+		{
+			Map.Entry<String, WatchKey> watched = iterator.next();
+			FileMetadata metadata = index.get(watched.getKey());
+			if (metadata == null || !metadata.isDirectory() || !metadata.isIndexed())
+			{
+				iterator.remove();
+				watched.getValue().cancel();
+			}
+		}
+	}
+
+	private void remove(ConcurrentHashMap<String, FileMetadata> index, String path)
+	{
+		FileMetadata removed = index.remove(path);
+		unwatch(path);
+		if (removed != null && removed.isDirectory())
+		{
+			removeEntries(index, path);
+		}
+	}
+
+	/**
+	 * Removes all the entries of a directory, recursively, and stops watching its subdirectories.
+	 */
+	private void removeEntries(ConcurrentHashMap<String, FileMetadata> index, String path)
+	{
+		String prefix = path + '/';
+		for (Iterator<String> iterator = index.keySet().iterator(); iterator.hasNext();)
+		{
+			String entry = iterator.next();
+			if (path.isEmpty() ? !entry.isEmpty() : entry.startsWith(prefix))
+			{
+				iterator.remove();
+				unwatch(entry);
+			}
+		}
+	}
+
+	private void clearMissingPaths()
+	{
+		if (missingPaths != null)
+		{
+			missingPaths.clear();
+		}
+	}
+
+	private boolean watch(String path)
+	{
+		try
+		{
+			watchKeys.put(path, getFile(path).toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY));
+			return true;
+		}
+		catch (IOException e)
+		{
+			HTTPServer.getLog().debug("Unable to watch " + getFile(path), e);
+			return false;
+		}
+	}
+
+	private void unwatch(String path)
+	{
+		WatchKey watchKey = watchKeys.remove(path);
+		if (watchKey != null)
+		{
+			watchKey.cancel();
+		}
+	}
+
+	/**
+	 * Stops the thread which watches the directories.
+	 */
+	public void shutdown()
+	{
+		if (watchService != null)
+		{
+			try
+			{
+				watchService.close();
+			}
+			catch (IOException e)
+			{
+				HTTPServer.getLog().debug("Unable to close the watch service", e);
+			}
+		}
+	}
+
+	private File getFile(String path)
+	{
+		return path.isEmpty() ? root : new File(root, path);
+	}
+
+	private String getPath(Path directory)
+	{
+		return rootPath.relativize(directory).toString().replace(File.separatorChar, '/');
+	}
+
+	private static String getChildPath(String path, String name)
+	{
+		return path.isEmpty() ? name : path + '/' + name;
+	}
+
+	private static boolean isSeparator(char c)
+	{
+		return c == '/' || c == File.separatorChar;
+	}
+
+	public boolean isEnabled()
+	{
+		return maxEntries > 0;
+	}
+
+	public int getEntriesCount()
+	{
+		return entries.size();
+	}
+
+	public int getWatchedDirectoriesCount()
+	{
+		return watchKeys.size();
+	}
+
+	public long getFileSystemReads()
+	{
+		return fileSystemReads.get();
+	}
+
+	public long getMaxEntries()
+	{
+		return maxEntries;
+	}
+}
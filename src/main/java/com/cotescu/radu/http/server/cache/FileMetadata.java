@@ -0,0 +1,135 @@
+package com.cotescu.radu.http.server.cache;
+
+import java.io.File;
+
+/**
+ * This class holds the metadata of a file or directory of the root folder, as it is needed for resolving and serving a request: its
+ * type, its size, its modification time, whether the server can read it and its content type. The metadata of an indexed directory also
+ * names the directory's default document.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+public class FileMetadata
+{
+	private final String path;
+	private final File file;
+	private final boolean directory;
+	private final boolean readable;
+	private final long length;
+	private final long lastModified;
+	private final String contentType;
+	private final boolean indexed;
+	private final String defaultDocument;
+
+	/**
+	 * Creates the metadata of a file.
+	 * 
+	 * @param path
+	 *            the normalised path of the file, relative to the root folder
+	 * @param file
+	 *            the file
+	 * @param directory
+	 *            {@code true} if the file is a directory
+	 * @param readable
+	 *            {@code true} if the server can read the file
+	 * @param length
+	 *            the file's length
+	 * @param lastModified
+	 *            the file's modification time
+	 * @param contentType
+	 *            the file's content type
+	 * @param indexed
+	 *            {@code true} if the {@link FileIndex} keeps this metadata (and, for a directory, the metadata of its entries) up to date
+	 */
+	public FileMetadata(String path, File file, boolean directory, boolean readable, long length, long lastModified, String contentType,
+			boolean indexed)
+	{
+		this(path, file, directory, readable, length, lastModified, contentType, indexed, null);
+	}
+
+	/**
+	 * Creates the metadata of a file, naming the default document if the file is an indexed directory.
+	 * 
+	 * @param path
+	 *            the normalised path of the file, relative to the root folder
+	 * @param file
+	 *            the file
+	 * @param directory
+	 *            {@code true} if the file is a directory
+	 * @param readable
+	 *            {@code true} if the server can read the file
+	 * @param length
+	 *            the file's length
+	 * @param lastModified
+	 *            the file's modification time
+	 * @param contentType
+	 *            the file's content type
+	 * @param indexed
+	 *            {@code true} if the {@link FileIndex} keeps this metadata (and, for a directory, the metadata of its entries) up to date
+	 * @param defaultDocument
+	 *            the normalised path of the directory's default document or {@code null} if it has none
+	 */
+	public FileMetadata(String path, File file, boolean directory, boolean readable, long length, long lastModified, String contentType,
+			boolean indexed, String defaultDocument)
+	{
+		this.path = path;
+		this.file = file;
+		this.directory = directory;
+		this.readable = readable;
+		this.length = length;
+		this.lastModified = lastModified;
+		this.contentType = contentType;
+		this.indexed = indexed;
+		this.defaultDocument = defaultDocument;
+	}
+
+	public String getPath()
+	{
+		return path;
+	}
+
+	public File getFile()
+	{
+		return file;
+	}
+
+	public boolean isDirectory()
+	{
+		return directory;
+	}
+
+	public boolean isReadable()
+	{
+		return readable;
+	}
+
+	public long getLength()
+	{
+		return length;
+	}
+
+	public long getLastModified()
+	{
+		return lastModified;
+	}
+
+	public String getContentType()
+	{
+		return contentType;
+	}
+
+	public boolean isIndexed()
+	{
+		return indexed;
+	}
+
+	/**
+	 * @return the normalised path of the default document of an indexed directory or {@code null} if it has none or if the directory is
+	 *         not indexed
+	 */
+	public String getDefaultDocument()
+	{
+		return defaultDocument;
+	}
+}
@@ -0,0 +1,108 @@
+package com.cotescu.radu.http.server.cache;
+
+/**
+ * This class implements a Count-Min sketch which estimates how often a key has been requested recently, using a fixed amount of memory.
+ * Every key is counted in four rows of saturating counters and its frequency is the smallest of its four counters. To let the sketch
+ * follow changes in popularity, all the counters are halved once the number of recorded requests reaches ten times the width of the
+ * sketch.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+public class FrequencySketch
+{
+	private static final int DEPTH = 4;
+	private static final int MAX_FREQUENCY = 15;
+	private static final int[] SEEDS = { 0x97cb3127, 0xb3c6a5b3, 0x6d8d3d1b, 0x27d4eb2f };
+
+	private final byte[][] table;
+	private final int mask;
+	private final int sampleSize;
+	private int additions;
+
+	/**
+	 * Creates a sketch sized for a number of distinct keys.
+	 * 
+	 * @param expectedKeys
+	 *            the number of distinct keys expected to be tracked
+	 */
+	public FrequencySketch(int expectedKeys)
+	{
+		int width = Integer.highestOneBit(Math.max(expectedKeys, 16) - 1) << 1;
+		table = new byte[DEPTH][width];
+		mask = width - 1;
+		sampleSize = 10 * width;
+	}
+
+	/**
+	 * Returns the estimated number of recent occurrences of a key, capped at 15.
+	 * 
+	 * @param key
+	 *            the key
+	 * @return the estimated frequency
+	 */
+	public int frequency(Object key)
+	{
+		int hash = spread(key.hashCode());
+		int frequency = MAX_FREQUENCY;
+		for (int i = 0; i < DEPTH; i++)
+		{
+			frequency = Math.min(frequency, table[i][index(hash, i)]);
+		}
+		return frequency;
+	}
+
+	/**
+	 * Records an occurrence of a key.
+	 * 
+	 * @param key
+	 *            the key
+	 */
+	public void increment(Object key)
+	{
+		int hash = spread(key.hashCode());
+		boolean incremented = false;
+		for (int i = 0; i < DEPTH; i++)
+		{
+			int index = index(hash, i);
+			if (table[i][index] < MAX_FREQUENCY)
+			{
+				table[i][index]++;
+				incremented = true;
+			}
+		}
+		if (incremented && ++additions >= sampleSize)
+		{
+			reset();
+		}
+	}
+
+	/**
+	 * Halves all the counters, so that old requests weigh less than new ones.
+	 */
+	private void reset()
+	{
+		for (byte[] row : table)
+		{
+			for (int i = 0; i < row.length; i++)
+			{
+				row[i] >>= 1;
+			}
+		}
+		additions /= 2;
+	}
+
+	private int index(int hash, int row)
+	{
+		int h = (hash ^ SEEDS[row]) * SEEDS[(row + 1) % DEPTH];
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	private static int spread(int hash)
+	{
+		hash ^= hash >>> 17;
+		hash *= 0xed5ad4bb;
+		hash ^= hash >>> 11;
+		return hash;
+	}
+}
@@ -0,0 +1,376 @@
+package com.cotescu.radu.http.server.cache;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.cotescu.radu.http.server.HTTPServer;
+
+/**
+ * This class implements a memory bounded LRU cache for rendered directory listings, keyed by the directory and by the variant of the
+ * listing (its page, its sort order and its format).
+ * 
+ * The directories whose listings are cached are watched with a {@link WatchService}, and any event in a directory drops all its
+ * listings. Since watch events can be late or missing on some file systems (network file systems, or platforms where the service
+ * polls), the modification time of the directory is also compared on every lookup, which catches the entries that were added, removed
+ * or renamed. A listing is only stored if its directory was not invalidated while the listing was being rendered.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+public class ListingCache
+{
+	private final long capacity;
+	private final long maxListingSize;
+	private final LinkedHashMap<String, Entry> listings;
+	private final Map<Path, WatchedDirectory> directories;
+	private final WatchService watchService;
+	private long size;
+	private long nextGeneration = 1;
+	private long hits;
+	private long misses;
+	private long invalidations;
+
+	/**
+	 * A cached listing together with its directory.
+	 */
+	private static class Entry
+	{
+		final Path directory;
+		final CachedListing listing;
+
+		Entry(Path directory, CachedListing listing)
+		{
+			this.directory = directory;
+			this.listing = listing;
+		}
+	}
+
+	/**
+	 * A directory which has listings in the cache or which is being rendered.
+	 */
+	private static class WatchedDirectory
+	{
+		final long generation;
+		final long lastModified;
+		final List<String> keys = new ArrayList<String>(2);
+		WatchKey watchKey;
+
+		WatchedDirectory(long generation, long lastModified)
+		{
+			this.generation = generation;
+			this.lastModified = lastModified;
+		}
+	}
+
+	/**
+	 * Creates a listing cache and starts the thread which watches the cached directories.
+	 * 
+	 * @param capacity
+	 *            the maximum number of bytes held by the cache
+	 */
+	public ListingCache(long capacity)
+	{
+		this.capacity = capacity;
+		maxListingSize = Math.max(capacity / 4, 1);
+		listings = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+		directories = new HashMap<Path, WatchedDirectory>();
+		WatchService service = null;
+		try
+		{
+			service = FileSystems.getDefault().newWatchService();
+		}
+		catch (IOException e)
+		{
+			HTTPServer.getLog().warn("Directory listings cannot be watched; only their modification times are checked", e);
+		}
+		watchService = service;
+		if (watchService != null)
+		{
+			Thread watcher = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					watch();
+				}
+			}, "HTTPServerListingWatcher");
+			watcher.setDaemon(true);
+			watcher.start();
+		}
+	}
+
+	/**
+	 * Returns a cached listing, unless the modification time of its directory changed since it was rendered.
+	 * 
+	 * @param directory
+	 *            the directory
+	 * @param variant
+	 *            the variant of the listing
+	 * @return the listing or {@code null} if it is not cached
+	 */
+	public CachedListing get(Path directory, String variant)
+	{
+		long lastModified = getLastModified(directory);
+		synchronized (this)
+		{
+			Entry entry = listings.get(getKey(directory, variant));
+			if (entry != null)
+			{
+				if (directories.get(directory).lastModified == lastModified)
+				{
+					hits++;
+					return entry.listing;
+				}
+				invalidate(directory);
+			}
+			misses++;
+			return null;
+		}
+	}
+
+	/**
+	 * Starts watching a directory before one of its listings is rendered, so that no change made while rendering is missed.
+	 * 
+	 * @param directory
+	 *            the directory
+	 * @return the token which must be passed to {@link #put(Path, String, long, CachedListing)}
+	 */
+	public long prepare(Path directory)
+	{
+		long lastModified = getLastModified(directory);
+		synchronized (this)
+		{
+			WatchedDirectory watched = directories.get(directory);
+			if (watched != null && watched.lastModified == lastModified)
+			{
+				return watched.generation;
+			}
+			if (watched != null)
+			{
+				invalidate(directory);
+			}
+			watched = new WatchedDirectory(nextGeneration++, lastModified);
+			directories.put(directory, watched);
+			if (watchService == null)
+			{
+				return watched.generation;
+			}
+			WatchKey watchKey = null;
+			try
+			{
+				watchKey = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+						StandardWatchEventKinds.ENTRY_MODIFY);
+			}
+			catch (IOException e)
+			{
+				HTTPServer.getLog().debug("Unable to watch " + directory, e);
+			}
+			watched.watchKey = watchKey;
+			return watched.generation;
+		}
+	}
+
+	/**
+	 * Stores a rendered listing. The listing is dropped if its directory changed since {@link #prepare(Path)} was called or if it is too
+	 * large; in both cases the directory stops being watched unless other listings of it are cached.
+	 * 
+	 * @param directory
+	 *            the directory
+	 * @param variant
+	 *            the variant of the listing
+	 * @param token
+	 *            the token returned by {@link #prepare(Path)}
+	 * @param listing
+	 *            the listing or {@code null} if it could not be rendered completely
+	 */
+	public synchronized void put(Path directory, String variant, long token, CachedListing listing)
+	{
+		WatchedDirectory watched = directories.get(directory);
+		if (watched == null || watched.generation != token)
+		{
+			return;
+		}
+		if (listing == null || listing.getSize() > maxListingSize)
+		{
+			release(directory, watched);
+			return;
+		}
+		String key = getKey(directory, variant);
+		Entry previous = listings.put(key, new Entry(directory, listing));
+		if (previous != null)
+		{
+			size -= previous.listing.getSize();
+		}
+		else
+		{
+			watched.keys.add(key);
+		}
+		size += listing.getSize();
+		Iterator<Map.Entry<String, Entry>> eldest = listings.entrySet().iterator();
+		while (size > capacity && eldest.hasNext())
+		{
+			Map.Entry<String, Entry> victim = eldest.next();
+			eldest.remove();
+			size -= victim.getValue().listing.getSize();
+			WatchedDirectory victimDirectory = directories.get(victim.getValue().directory);
+			victimDirectory.keys.remove(victim.getKey());
+			release(victim.getValue().directory, victimDirectory);
+		}
+	}
+
+	/**
+	 * Drops all the listings of a directory and stops watching it.
+	 * 
+	 * @param directory
+	 *            the directory
+	 */
+	public synchronized void invalidate(Path directory)
+	{
+		WatchedDirectory watched = directories.remove(directory);
+		if (watched == null)
+		{
+			return;
+		}
+		invalidations++;
+		for (String key : watched.keys)
+		{
+			size -= listings.remove(key).listing.getSize();
+		}
+		if (watched.watchKey != null)
+		{
+			watched.watchKey.cancel();
+		}
+	}
+
+	/**
+	 * Stops watching a directory which has no cached listings anymore.
+	 */
+	private void release(Path directory, WatchedDirectory watched)
+	{
+		if (watched.keys.isEmpty())
+		{
+			directories.remove(directory);
+			if (watched.watchKey != null)
+			{
+				watched.watchKey.cancel();
+			}
+		}
+	}
+
+	/**
+	 * Waits for the events of the watched directories and invalidates their listings.
+	 */
+	private void watch()
+	{
+		while (true)
+		{
+			WatchKey watchKey;
+			try
+			{
+				watchKey = watchService.take();
+			}
+			catch (InterruptedException e)
+			{
+				return;
+			}
+			catch (ClosedWatchServiceException e)
+			{
+				return;
+			}
+			// the events themselves do not matter: any change, including an overflow, invalidates the whole directory
+			watchKey.pollEvents();
+			Path directory = (Path) watchKey.watchable();
+			synchronized (this)
+			{
+				WatchedDirectory watched = directories.get(directory);
+				if (watched != null && watched.watchKey == watchKey)
+				{
+					invalidate(directory);
+				}
+			}
+			watchKey.reset();
+		}
+	}
+
+	/**
+	 * Stops the thread which watches the directories.
+	 */
+	public void shutdown()
+	{
+		if (watchService != null)
+		{
+			try
+			{
+				watchService.close();
+			}
+			catch (IOException e)
+			{
+				HTTPServer.getLog().debug("Unable to close the watch service", e);
+			}
+		}
+	}
+
+	private static String getKey(Path directory, String variant)
+	{
+		return directory.toString() + '?' + variant;
+	}
+
+	private static long getLastModified(Path directory)
+	{
+		try
+		{
+			return Files.getLastModifiedTime(directory).toMillis();
+		}
+		catch (IOException e)
+		{
+			return -1;
+		}
+	}
+
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+
+	public synchronized long getInvalidations()
+	{
+		return invalidations;
+	}
+
+	public synchronized int getEntriesCount()
+	{
+		return listings.size();
+	}
+
+	public synchronized int getWatchedDirectoriesCount()
+	{
+		return directories.size();
+	}
+
+	public synchronized long getSize()
+	{
+		return size;
+	}
+
+	public long getCapacity()
+	{
+		return capacity;
+	}
+}
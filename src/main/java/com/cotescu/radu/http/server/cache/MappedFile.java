@@ -0,0 +1,89 @@
+package com.cotescu.radu.http.server.cache;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * This class represents a file mapped in memory by the {@link MappedFileRegistry}. The mapping is shared by all the requests which serve
+ * the file at the same time; each of them must {@link MappedFileRegistry#release(MappedFile) release} it when done.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+public class MappedFile
+{
+	private final MappedByteBuffer buffer;
+	private final long lastModified;
+	private int references;
+	private long lastUsed;
+	private boolean stale;
+
+	MappedFile(MappedByteBuffer buffer, long lastModified)
+	{
+		this.buffer = buffer;
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * Returns a view of the mapped file with its own position and limit, which can be consumed by a single request.
+	 * 
+	 * @return a new buffer sharing the mapping
+	 */
+	public ByteBuffer getBuffer()
+	{
+		return buffer.duplicate();
+	}
+
+	public long getLength()
+	{
+		return buffer.capacity();
+	}
+
+	MappedByteBuffer getMappedBuffer()
+	{
+		return buffer;
+	}
+
+	boolean isFresh(long fileLastModified, long fileLength)
+	{
+		return !stale && lastModified == fileLastModified && buffer.capacity() == fileLength;
+	}
+
+	void acquire()
+	{
+		references++;
+	}
+
+	/**
+	 * Drops a reference to this mapping.
+	 * 
+	 * @param now
+	 *            the current time in milliseconds
+	 * @return {@code true} if the mapping is not used anymore
+	 */
+	boolean release(long now)
+	{
+		lastUsed = now;
+		return --references == 0;
+	}
+
+	boolean isUnused()
+	{
+		return references == 0;
+	}
+
+	long getLastUsed()
+	{
+		return lastUsed;
+	}
+
+	boolean isStale()
+	{
+		return stale;
+	}
+
+	void markStale()
+	{
+		stale = true;
+	}
+}
@@ -0,0 +1,239 @@
+package com.cotescu.radu.http.server.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * This class shares read-only memory mappings of large files between the requests which serve them concurrently, so that all the
+ * clients read the same page cache mapping instead of each copying the file through its own stream. The mappings are reference counted
+ * and unmapped once they have not been used for a configurable idle time, or as soon as they are released if their file has changed.
+ * 
+ * A mapped file must not be truncated while it is served, since reading the missing pages fails.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+public class MappedFileRegistry
+{
+	private static final Logger log = Logger.getLogger(MappedFileRegistry.class);
+	private static final Unmapper unmapper = new Unmapper();
+
+	private final Map<String, MappedFile> mappedFiles;
+	private final long idleTime;
+	private final ScheduledExecutorService reaper;
+
+	/**
+	 * Creates a registry of mapped files.
+	 * 
+	 * @param idleTime
+	 *            the time in seconds after which an unused mapping is unmapped
+	 */
+	public MappedFileRegistry(int idleTime)
+	{
+		this.idleTime = idleTime * 1000L;
+		mappedFiles = new HashMap<String, MappedFile>();
+		reaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+		{
+			public Thread newThread(Runnable task)
+			{
+				Thread t = new Thread(task, "HTTPServerMappedFileReaper");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		long period = Math.max(idleTime / 2, 1);
+		reaper.scheduleWithFixedDelay(new Runnable()
+		{
+			public void run()
+			{
+				unmapIdleFiles(System.currentTimeMillis());
+			}
+		}, period, period, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Returns the shared mapping of a file, mapping it if needed. A mapping which does not match the file's metadata is replaced. The
+	 * metadata comes from the {@link FileIndex}, so reusing a mapping does not touch the file system; a file which is shorter than its
+	 * metadata cannot be mapped.
+	 * 
+	 * @param metadata
+	 *            the file's metadata; its file has a canonical path and its length must not exceed {@link Integer#MAX_VALUE}
+	 * @return the mapped file, which must be released after use
+	 * @throws IOException
+	 *             if the file cannot be mapped
+	 */
+	public MappedFile acquire(FileMetadata metadata) throws IOException
+	{
+		File file = metadata.getFile();
+		String path = file.getPath();
+		long lastModified = metadata.getLastModified();
+		long length = metadata.getLength();
+		synchronized (this)
+		{
+			MappedFile mappedFile = mappedFiles.get(path);
+			if (mappedFile != null)
+			{
+				if (mappedFile.isFresh(lastModified, length))
+				{
+					mappedFile.acquire();
+					return mappedFile;
+				}
+				retire(path, mappedFile);
+			}
+		}
+		MappedFile mappedFile = new MappedFile(map(file, length), lastModified);
+		mappedFile.acquire();
+		synchronized (this)
+		{
+			MappedFile concurrent = mappedFiles.get(path);
+			if (concurrent != null && concurrent.isFresh(lastModified, length))
+			{
+				// another request mapped the same file in the meantime; use its mapping and drop ours
+				concurrent.acquire();
+				unmapper.unmap(mappedFile.getMappedBuffer());
+				return concurrent;
+			}
+			if (concurrent != null)
+			{
+				retire(path, concurrent);
+			}
+			mappedFiles.put(path, mappedFile);
+		}
+		return mappedFile;
+	}
+
+	/**
+	 * Removes a mapping which does not match its file anymore. It is unmapped as soon as the requests which still use it release it.
+	 */
+	private void retire(String path, MappedFile mappedFile)
+	{
+		mappedFiles.remove(path);
+		mappedFile.markStale();
+		if (mappedFile.isUnused())
+		{
+			unmapper.unmap(mappedFile.getMappedBuffer());
+		}
+	}
+
+	/**
+	 * Releases a mapping acquired by a request. Mappings of modified files are unmapped as soon as they are not used anymore.
+	 * 
+	 * @param mappedFile
+	 *            the mapping
+	 */
+	public synchronized void release(MappedFile mappedFile)
+	{
+		if (mappedFile.release(System.currentTimeMillis()) && mappedFile.isStale())
+		{
+			unmapper.unmap(mappedFile.getMappedBuffer());
+		}
+	}
+
+	/**
+	 * Returns the number of files which are currently mapped.
+	 * 
+	 * @return the number of mapped files
+	 */
+	public synchronized int getMappedFilesCount()
+	{
+		return mappedFiles.size();
+	}
+
+	/**
+	 * Unmaps the files which have not been used during the idle time.
+	 * 
+	 * @param now
+	 *            the current time in milliseconds
+	 */
+	private synchronized void unmapIdleFiles(long now)
+	{
+		Iterator<MappedFile> iterator = mappedFiles.values().iterator();
+		while (iterator.hasNext())
+		{
+			MappedFile mappedFile = iterator.next();
+			if (mappedFile.isUnused() && now - mappedFile.getLastUsed() >= idleTime)
+			{
+				iterator.remove();
+				unmapper.unmap(mappedFile.getMappedBuffer());
+			}
+		}
+	}
+
+	/**
+	 * Stops unmapping idle files.
+	 */
+	public void shutdown()
+	{
+		reaper.shutdown();
+	}
+
+	private static MappedByteBuffer map(File file, long length) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+	/**
+	 * Releases mappings right away through {@code sun.misc.Unsafe.invokeCleaner}, when it is available. Otherwise the mappings are
+	 * released by the garbage collector once they are not referenced anymore.
+	 */
+	private static class Unmapper
+	{
+		private Object unsafe;
+		private Method invokeCleaner;
+
+		Unmapper()
+		{
+			try
+			{
+				Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+				Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+				theUnsafe.setAccessible(true);
+				unsafe = theUnsafe.get(null);
+				invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			}
+			catch (Exception e)
+			{
+				log.warn("Mapped files will be unmapped by the garbage collector");
+			}
+		}
+
+		void unmap(MappedByteBuffer buffer)
+		{
+			if (invokeCleaner == null)
+			{
+				return;
+			}
+			try
+			{
+				invokeCleaner.invoke(unsafe, buffer);
+			}
+			catch (Exception e)
+			{
+				log.error("Unable to unmap file", e);
+			}
+		}
+	}
+}
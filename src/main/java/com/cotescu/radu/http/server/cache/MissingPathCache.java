@@ -0,0 +1,109 @@
+package com.cotescu.radu.http.server.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class implements a small LRU cache of the paths which were not found on the file system, so that repeated requests for missing
+ * files (scanners, broken links, absent precompressed sidecars) do not reach the file system. The {@link FileIndex} only consults it for
+ * the paths it does not index itself and clears it whenever a file is created under the root folder. Since the paths outside of the
+ * indexed directories are not watched, every entry also expires after a short time.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+public class MissingPathCache
+{
+	private final int capacity;
+	private final long timeToLive;
+	private final LinkedHashMap<String, Long> paths;
+	private long hits;
+	private long misses;
+
+	/**
+	 * Creates a cache of missing paths.
+	 * 
+	 * @param capacity
+	 *            the maximum number of paths
+	 * @param timeToLive
+	 *            the number of seconds after which a path is looked up again on the file system
+	 */
+	public MissingPathCache(final int capacity, int timeToLive)
+	{
+		this.capacity = capacity;
+		this.timeToLive = TimeUnit.SECONDS.toNanos(timeToLive);
+		paths = new LinkedHashMap<String, Long>(Math.min(capacity, 1024), 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Long> eldest)
+			{
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Checks if a path was recently found missing.
+	 * 
+	 * @param path
+	 *            the normalised path
+	 * @return {@code true} if the path is known to be missing, {@code false} if it must be looked up on the file system
+	 */
+	public synchronized boolean contains(String path)
+	{
+		Long expiry = paths.get(path);
+		if (expiry != null)
+		{
+			if (System.nanoTime() - expiry < 0)
+			{
+				hits++;
+				return true;
+			}
+			paths.remove(path);
+		}
+		misses++;
+		return false;
+	}
+
+	/**
+	 * Records a path which was not found on the file system.
+	 * 
+	 * @param path
+	 *            the normalised path
+	 */
+	public synchronized void add(String path)
+	{
+		paths.put(path, System.nanoTime() + timeToLive);
+	}
+
+	/**
+	 * Forgets all the missing paths.
+	 */
+	public synchronized void clear()
+	{
+		paths.clear();
+	}
+
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+
+	public synchronized int getEntriesCount()
+	{
+		return paths.size();
+	}
+
+	public int getCapacity()
+	{
+		return capacity;
+	}
+}
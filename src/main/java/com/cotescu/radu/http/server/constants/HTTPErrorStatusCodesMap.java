@@ -24,12 +24,29 @@ public class HTTPErrorStatusCodesMap
 				.put(HTTPStatusCode.HTTP_BAD_REQUEST,
 						formatDescription(HTTPStatusCode.HTTP_BAD_REQUEST.getStatusMessage(),
 								"The request cannot be fulfilled due to bad syntax."));
+		statusCodesMap.put(HTTPStatusCode.HTTP_CLIENT_TIMEOUT,
+				formatDescription(HTTPStatusCode.HTTP_CLIENT_TIMEOUT.getStatusMessage(),
+						"The request was not received completely in the allotted time."));
+		statusCodesMap.put(HTTPStatusCode.HTTP_REQ_TOO_LONG,
+				formatDescription(HTTPStatusCode.HTTP_REQ_TOO_LONG.getStatusMessage(), "The request line is too long."));
+		statusCodesMap.put(HTTPStatusCode.HTTP_HEADERS_TOO_LARGE,
+				formatDescription(HTTPStatusCode.HTTP_HEADERS_TOO_LARGE.getStatusMessage(),
+						"The request has too many header fields or a header field is too large."));
+		statusCodesMap.put(HTTPStatusCode.HTTP_PRECON_FAILED,
+				formatDescription(HTTPStatusCode.HTTP_PRECON_FAILED.getStatusMessage(),
+						"A precondition of the request does not hold for the current state of the resource."));
+		statusCodesMap.put(HTTPStatusCode.HTTP_RANGE_NOT_SATISFIABLE,
+				formatDescription(HTTPStatusCode.HTTP_RANGE_NOT_SATISFIABLE.getStatusMessage(),
+						"None of the requested ranges can be satisfied."));
 		statusCodesMap.put(
 				HTTPStatusCode.HTTP_INTERNAL_SERVER_ERROR,
 				formatDescription(HTTPStatusCode.HTTP_INTERNAL_SERVER_ERROR.getStatusMessage(),
 						"The server encountered an internal error and cannot fulfill the request."));
 		statusCodesMap.put(HTTPStatusCode.HTTP_NOT_IMPLEMENTED,
 				formatDescription(HTTPStatusCode.HTTP_NOT_IMPLEMENTED.getStatusMessage(), "The request method is not implemented."));
+		statusCodesMap.put(HTTPStatusCode.HTTP_SERVICE_UNAVAILABLE,
+				formatDescription(HTTPStatusCode.HTTP_SERVICE_UNAVAILABLE.getStatusMessage(),
+						"The server is too busy to fulfill the request. Please try again later."));
 	}
 
 	/**
@@ -51,10 +68,11 @@ public class HTTPErrorStatusCodesMap
 	 * 
 	 * @param statusCode
 	 *            the HTTPStatusCode for which the error will be generated
-	 * @return a String containing the HTML formatted error message
+	 * @return a String containing the HTML formatted error message; the status codes without a description only get their short status
 	 */
 	public static String getErrorMessage(HTTPStatusCode statusCode)
 	{
-		return statusCodesMap.get(statusCode);
+		String message = statusCodesMap.get(statusCode);
+		return message != null ? message : String.format("<h1>%s</h1>", statusCode.getStatusMessage());
 	}
 }
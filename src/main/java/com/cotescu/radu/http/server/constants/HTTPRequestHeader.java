@@ -28,6 +28,7 @@ public enum HTTPRequestHeader {
 	Range("Range"),
 	Referer("Referer"),
 	TE("TE"),
+	TransferEncoding("Transfer-Encoding"),
 	Upgrade("Upgrade"),
 	UserAgent("User-Agent"),
 	Via("Via"),
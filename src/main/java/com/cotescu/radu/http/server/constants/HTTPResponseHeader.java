@@ -1,5 +1,7 @@
 package com.cotescu.radu.http.server.constants;
 
+import java.nio.charset.StandardCharsets;
+
 public enum HTTPResponseHeader {
 	AcceptRanges("Accept-Ranges"),
 	Age("Age"),
@@ -17,6 +19,7 @@ public enum HTTPResponseHeader {
 	Date("Date"),
 	ETag("ETag"),
 	Expires("Expires"),
+	KeepAlive("Keep-Alive"),
 	LastModified("Last-Modified"),
 	Link("Link"),
 	Location("Location"),
@@ -36,12 +39,24 @@ public enum HTTPResponseHeader {
 	WWWAuthenticate("WWW-Authenticate");
 	
 	private String header;
+	private byte[] headerBytes;
 	
 	private HTTPResponseHeader(String header) {
 		this.header = header;
+		headerBytes = (header + ": ").getBytes(StandardCharsets.ISO_8859_1);
 	}
 	
 	public String getHeader() {
 		return header;
 	}
+
+	/**
+	 * Returns the header's name followed by the separator which precedes its value ({@code "Name: "}), encoded once. The returned array
+	 * is shared and must not be modified.
+	 * 
+	 * @return the encoded header name
+	 */
+	public byte[] getHeaderBytes() {
+		return headerBytes;
+	}
 }
@@ -1,5 +1,7 @@
 package com.cotescu.radu.http.server.constants;
 
+import java.nio.charset.StandardCharsets;
+
 public enum HTTPStatusCode {
 	// 2XX - Success
 	HTTP_OK(200, "OK"),
@@ -35,6 +37,8 @@ public enum HTTPStatusCode {
 	HTTP_ENTITY_TOO_LARGE(413, "Request Entity Too Large"),
 	HTTP_REQ_TOO_LONG(414, "Request-URI Too Long"),
 	HTTP_UNSUPPORTED_TYPE(415, "Unsupported Media Type"),
+	HTTP_RANGE_NOT_SATISFIABLE(416, "Requested Range Not Satisfiable"),
+	HTTP_HEADERS_TOO_LARGE(431, "Request Header Fields Too Large"),
 
 	// 5XX - Server Error
 	HTTP_INTERNAL_SERVER_ERROR(500, "Internal Server Error"),
@@ -46,10 +50,12 @@ public enum HTTPStatusCode {
 	
 	private int statusCode;
 	private String statusMessage;
+	private byte[] statusLine;
 	
 	private HTTPStatusCode(int statusCode, String statusMessage) {
 		this.statusCode = statusCode;
 		this.statusMessage = statusMessage;
+		statusLine = ("HTTP/1.1 " + statusCode + " " + statusMessage + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
 	}
 
 	public int getStatusCode() {
@@ -59,4 +65,14 @@ public enum HTTPStatusCode {
 	public String getStatusMessage() {
 		return statusMessage;
 	}
+
+	/**
+	 * Returns the status line of an HTTP/1.1 response with this status code, including the line terminator, encoded once. The returned
+	 * array is shared and must not be modified.
+	 * 
+	 * @return the encoded status line
+	 */
+	public byte[] getStatusLineBytes() {
+		return statusLine;
+	}
 }
@@ -72,4 +72,19 @@ public class MIMEmap
 		}
 		return contentType;
 	}
+
+	/**
+	 * Checks if the content of a type is worth compressing. Text, scripts, JSON and XML shrink well, while images, archives and media
+	 * are usually compressed already.
+	 * 
+	 * @param contentType
+	 *            the content type, without parameters
+	 * @return {@code true} if the content should be compressed
+	 */
+	public boolean isCompressible(String contentType)
+	{
+		return contentType.startsWith("text/") || contentType.endsWith("+xml") || contentType.endsWith("+json")
+				|| contentType.endsWith("/xml") || contentType.endsWith("/json") || contentType.endsWith("javascript")
+				|| contentType.equals("application/ecmascript");
+	}
 }
@@ -0,0 +1,312 @@
+package com.cotescu.radu.http.server.log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+
+import com.cotescu.radu.http.server.metrics.Metrics;
+
+/**
+ * This class writes the access log off the request path. The worker threads publish their requests as {@link AccessLogRecord}s into a
+ * lock-free ring buffer of preallocated slots and return right away; a single writer thread formats the records and writes them to the log
+ * file in batches, at least once per flush interval. A worker thread never waits for the writer or for the disk: when the ring buffer is
+ * full its record is dropped and counted by the {@link Metrics}.
+ * 
+ * The worker threads claim the sequences of the slots with a compare-and-set on a shared counter, fill their slot and publish it by
+ * writing its sequence. The writer thread consumes the slots in the order of their sequences and frees them by advancing its own counter,
+ * so a slot is only reused once its record has been written. A worker thread checks again that the log is running once it claimed its
+ * slot: the writer thread, which stops once it consumed every claimed slot, may not see a slot claimed after the shutdown, so such a slot
+ * is published empty and its record is dropped.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+public class AccessLog
+{
+	public static final String FORMAT_COMMON = "common";
+	public static final String FORMAT_COMBINED = "combined";
+	public static final String FORMAT_BINARY = "binary";
+
+	private static final Logger log = Logger.getLogger(AccessLog.class);
+	private static final int BATCH_SIZE = 65536;
+	private static final long MAX_IDLE_WAIT = TimeUnit.MILLISECONDS.toNanos(10);
+
+	private final AccessLogRecord[] records;
+	private final int mask;
+	private final AtomicLong claimed = new AtomicLong();
+	private volatile long consumed;
+	private volatile boolean running = true;
+	private volatile long written;
+	private final Metrics metrics;
+	private final AccessLogFormatter formatter;
+	private final FileOutputStream file;
+	private final ByteArrayOutputStream batch = new ByteArrayOutputStream(BATCH_SIZE * 2);
+	private final DataOutputStream batchStream = new DataOutputStream(batch);
+	private final long flushInterval;
+	private final Thread writer;
+
+	/**
+	 * Creates an access log and starts its writer thread. Records are appended to the file if it already exists.
+	 * 
+	 * @param file
+	 *            the log file
+	 * @param format
+	 *            one of {@link #FORMAT_COMMON}, {@link #FORMAT_COMBINED} or {@link #FORMAT_BINARY}
+	 * @param capacity
+	 *            the number of records of the ring buffer, rounded up to a power of two
+	 * @param flushInterval
+	 *            the maximum time in milliseconds during which written records stay in the writer's batch
+	 * @param metrics
+	 *            the Metrics counting the dropped records
+	 * @throws IOException
+	 *             if the file cannot be opened
+	 * @throws IllegalArgumentException
+	 *             if the format is unknown or if the capacity or the flush interval are not positive
+	 */
+	public AccessLog(File file, String format, int capacity, int flushInterval, Metrics metrics) throws IOException
+	{
+		if (capacity < 1 || capacity > 1 << 30)
+		{
+			throw new IllegalArgumentException("The access log buffer must hold between 1 and 2^30 records.");
+		}
+		if (flushInterval < 1)
+		{
+			throw new IllegalArgumentException("The access log flush interval must be at least 1 ms.");
+		}
+		formatter = new AccessLogFormatter(format);
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity)
+		{
+			size <<= 1;
+		}
+		records = new AccessLogRecord[size];
+		for (int i = 0; i < size; i++)
+		{
+			records[i] = new AccessLogRecord();
+		}
+		mask = size - 1;
+		this.flushInterval = TimeUnit.MILLISECONDS.toNanos(flushInterval);
+		this.metrics = metrics;
+		boolean empty = file.length() == 0;
+		this.file = new FileOutputStream(file, true);
+		if (formatter.isBinary() && empty)
+		{
+			batch.write(AccessLogFormatter.MAGIC);
+		}
+		writer = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				writeRecords();
+			}
+		}, "HTTPServerAccessLogWriter");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Publishes a served request. This method never blocks: if the ring buffer is full the record is dropped.
+	 * 
+	 * @param time
+	 *            the time when the request was received, in milliseconds since the epoch
+	 * @param address
+	 *            the client's address
+	 * @param requestLine
+	 *            the first line of the request, or {@code null} if it could not be read
+	 * @param status
+	 *            the response's status code
+	 * @param bytes
+	 *            the number of bytes of the response's body
+	 * @param duration
+	 *            the duration of the request, in microseconds
+	 * @param referer
+	 *            the Referer header, or {@code null}
+	 * @param userAgent
+	 *            the User-Agent header, or {@code null}
+	 * @return {@code true} if the record was published, {@code false} if it was dropped
+	 */
+	public boolean log(long time, InetAddress address, String requestLine, int status, long bytes, long duration, String referer,
+			String userAgent)
+	{
+		long sequence;
+		do
+		{
+			sequence = claimed.get();
+			if (sequence - consumed >= records.length || !running)
+			{
+				metrics.recordAccessLogDrop();
+				return false;
+			}
+		}
+		while (!claimed.compareAndSet(sequence, sequence + 1));
+		AccessLogRecord record = records[(int) sequence & mask];
+		if (!running)
+		{
+			// a writer thread which is still draining waits for this slot, so it is published even though the record is dropped
+			record.dropped = true;
+			record.sequence = sequence;
+			metrics.recordAccessLogDrop();
+			return false;
+		}
+		record.time = time;
+		record.address = address;
+		record.requestLine = requestLine;
+		record.status = status;
+		record.bytes = bytes;
+		record.duration = duration;
+		record.referer = referer;
+		record.userAgent = userAgent;
+		record.sequence = sequence;
+		return true;
+	}
+
+	/**
+	 * Stops accepting records, writes the published ones and closes the log file.
+	 */
+	public void shutdown()
+	{
+		running = false;
+		LockSupport.unpark(writer);
+		try
+		{
+			writer.join();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * The writer thread's loop: formats the published records into the batch, which is written once it is large enough or once the
+	 * flush interval has elapsed, and waits a little when there is nothing to write.
+	 */
+	private void writeRecords()
+	{
+		long lastFlush = System.nanoTime();
+		while (true)
+		{
+			boolean stopping = !running;
+			boolean drained = drain();
+			long now = System.nanoTime();
+			if (batch.size() == 0)
+			{
+				// the flush interval starts with the first record of a batch
+				lastFlush = now;
+			}
+			else
+				if (stopping || now - lastFlush >= flushInterval)
+				{
+					flush();
+					lastFlush = now;
+				}
+			if (stopping && !drained && consumed == claimed.get())
+			{
+				break;
+			}
+			if (!drained)
+			{
+				LockSupport.parkNanos(Math.min(flushInterval - (now - lastFlush), MAX_IDLE_WAIT));
+			}
+		}
+		try
+		{
+			file.close();
+		}
+		catch (IOException e)
+		{
+			log.error("Unable to close the access log", e);
+		}
+	}
+
+	/**
+	 * Formats the records published since the last call, in the order of their sequences.
+	 * 
+	 * @return {@code true} if at least one record was formatted
+	 */
+	private boolean drain()
+	{
+		long sequence = consumed;
+		long first = sequence;
+		long formatted = 0;
+		AccessLogRecord record = records[(int) sequence & mask];
+		while (record.sequence == sequence)
+		{
+			if (record.dropped)
+			{
+				record.dropped = false;
+			}
+			else
+			{
+				try
+				{
+					formatter.format(record, batchStream);
+				}
+				catch (IOException e)
+				{
+					// the batch is in memory and cannot fail
+				}
+				formatted++;
+			}
+			record.clear();
+			consumed = ++sequence;
+			if (batch.size() >= BATCH_SIZE)
+			{
+				flush();
+			}
+			record = records[(int) sequence & mask];
+		}
+		written += formatted;
+		return sequence != first;
+	}
+
+	private void flush()
+	{
+		try
+		{
+			batch.writeTo(file);
+		}
+		catch (IOException e)
+		{
+			log.error("Unable to write the access log", e);
+		}
+		batch.reset();
+	}
+
+	/**
+	 * @return the number of records formatted by the writer thread
+	 */
+	public long getWritten()
+	{
+		return written;
+	}
+
+	/**
+	 * @return the number of records which can wait in the ring buffer
+	 */
+	public int getCapacity()
+	{
+		return records.length;
+	}
+
+	/**
+	 * @return the number of records waiting in the ring buffer; none once the writer thread stopped, since the slots claimed after that
+	 *         hold dropped records
+	 */
+	public long getPending()
+	{
+		if (!writer.isAlive())
+		{
+			return 0;
+		}
+		return Math.max(claimed.get() - consumed, 0);
+	}
+}
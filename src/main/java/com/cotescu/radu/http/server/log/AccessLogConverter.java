@@ -0,0 +1,96 @@
+package com.cotescu.radu.http.server.log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * This class converts a binary access log, written by the {@link AccessLog} with the {@link AccessLog#FORMAT_BINARY} format, into the
+ * common or the combined log format, so that it can be read by the usual log analysis tools. The records are converted as they are read,
+ * so logs of any size can be converted:
+ * 
+ * <pre>
+ * java -cp shs.jar com.cotescu.radu.http.server.log.AccessLogConverter access.log.bin [common|combined] [output file]
+ * </pre>
+ * 
+ * The combined format is used by default and the converted log is written to the standard output if no output file is given.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+public class AccessLogConverter
+{
+	/**
+	 * Converts a binary access log.
+	 * 
+	 * @param args
+	 *            the binary log, the text format and the output file
+	 * @throws IOException
+	 *             if any I/O error occurs or if the input is not a binary access log
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 1 || args.length > 3)
+		{
+			System.err.println("Usage: AccessLogConverter <binary log> [common|combined] [output file]");
+			System.exit(1);
+		}
+		String format = args.length > 1 ? args[1] : AccessLog.FORMAT_COMBINED;
+		if (!AccessLog.FORMAT_COMMON.equals(format) && !AccessLog.FORMAT_COMBINED.equals(format))
+		{
+			System.err.println("Unknown text format " + format + ".");
+			System.exit(1);
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(args[0]), 65536));
+		OutputStream out = args.length > 2 ? new FileOutputStream(args[2]) : System.out;
+		try
+		{
+			long records = convert(in, new DataOutputStream(new BufferedOutputStream(out, 65536)), format);
+			if (args.length > 2)
+			{
+				System.err.println("Converted " + records + " records.");
+			}
+		}
+		finally
+		{
+			in.close();
+			if (out != System.out)
+			{
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * Converts a binary access log.
+	 * 
+	 * @param in
+	 *            the binary log
+	 * @param out
+	 *            the stream to which the text log is written; it is flushed, but not closed
+	 * @param format
+	 *            {@link AccessLog#FORMAT_COMMON} or {@link AccessLog#FORMAT_COMBINED}
+	 * @return the number of converted records
+	 * @throws IOException
+	 *             if any I/O error occurs or if the input is not a binary access log
+	 */
+	public static long convert(DataInputStream in, DataOutputStream out, String format) throws IOException
+	{
+		AccessLogFormatter formatter = new AccessLogFormatter(format);
+		AccessLogRecord record = new AccessLogRecord();
+		long records = 0;
+		AccessLogFormatter.readMagic(in);
+		while (AccessLogFormatter.read(in, record))
+		{
+			formatter.format(record, out);
+			records++;
+		}
+		out.flush();
+		return records;
+	}
+}
@@ -0,0 +1,301 @@
+package com.cotescu.radu.http.server.log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.TimeZone;
+
+import com.cotescu.radu.http.server.utils.HTTPDateFormatter;
+
+/**
+ * This class writes the {@link AccessLogRecord}s of the {@link AccessLog} in one of its formats: the common log format, the combined log
+ * format, which adds the referer and the user agent, or a compact binary format, which also keeps the duration of the requests and which
+ * the {@link AccessLogConverter} turns into one of the text formats. A formatter keeps the last formatted date, so it must only be used by
+ * one thread.
+ * 
+ * A binary log starts with the {@link #MAGIC} bytes, followed by the records. The time and the sizes of a record are variable-length
+ * integers of 7 bits per byte and its strings are preceded by their length on two bytes, {@code 0xffff} standing for a missing string:
+ * 
+ * <pre>
+ * time (ms) | address length | address | status (2 bytes) | bytes | duration (&micro;s) | request line | referer | user agent
+ * </pre>
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+class AccessLogFormatter
+{
+	static final byte[] MAGIC = "SHSLOG1\n".getBytes(StandardCharsets.ISO_8859_1);
+
+	private static final int MISSING = 0xffff;
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final boolean binary;
+	private final boolean combined;
+	private final StringBuilder line = new StringBuilder(256);
+	private final TimeZone timeZone = TimeZone.getDefault();
+	private final byte[] formattedDate = new byte[HTTPDateFormatter.COMMON_LOG_DATE_LENGTH];
+	private long formattedSecond = Long.MIN_VALUE;
+
+	/**
+	 * Creates a formatter.
+	 * 
+	 * @param format
+	 *            one of {@link AccessLog#FORMAT_COMMON}, {@link AccessLog#FORMAT_COMBINED} or {@link AccessLog#FORMAT_BINARY}
+	 * @throws IllegalArgumentException
+	 *             if the format is unknown
+	 */
+	AccessLogFormatter(String format)
+	{
+		binary = AccessLog.FORMAT_BINARY.equals(format);
+		combined = AccessLog.FORMAT_COMBINED.equals(format);
+		if (!binary && !combined && !AccessLog.FORMAT_COMMON.equals(format))
+		{
+			throw new IllegalArgumentException("Unknown access log format " + format + ".");
+		}
+	}
+
+	/**
+	 * @return {@code true} if this formatter writes the binary format
+	 */
+	boolean isBinary()
+	{
+		return binary;
+	}
+
+	/**
+	 * Writes a record.
+	 * 
+	 * @param record
+	 *            the record
+	 * @param out
+	 *            the stream to which the record is written
+	 * @throws IOException
+	 *             if any I/O error occurs
+	 */
+	void format(AccessLogRecord record, DataOutputStream out) throws IOException
+	{
+		if (binary)
+		{
+			writeBinary(record, out);
+			return;
+		}
+		line.setLength(0);
+		line.append(record.address != null ? record.address.getHostAddress() : "-").append(" - - [");
+		appendDate(record.time);
+		line.append("] \"");
+		appendEscaped(record.requestLine);
+		line.append("\" ").append(record.status).append(' ');
+		if (record.bytes > 0)
+		{
+			line.append(record.bytes);
+		}
+		else
+		{
+			line.append('-');
+		}
+		if (combined)
+		{
+			line.append(" \"");
+			appendEscaped(record.referer);
+			line.append("\" \"");
+			appendEscaped(record.userAgent);
+			line.append('"');
+		}
+		line.append('\n');
+		for (int i = 0; i < line.length(); i++)
+		{
+			out.write(line.charAt(i));
+		}
+	}
+
+	/**
+	 * Reads the next record of a binary log.
+	 * 
+	 * @param in
+	 *            the stream, positioned after the {@link #MAGIC} bytes or after the previous record
+	 * @param record
+	 *            the record into which the values are read
+	 * @return {@code true} if a record was read, {@code false} at the end of the log
+	 * @throws IOException
+	 *             if any I/O error occurs or if the log ends in the middle of a record
+	 */
+	static boolean read(DataInputStream in, AccessLogRecord record) throws IOException
+	{
+		int first = in.read();
+		if (first < 0)
+		{
+			return false;
+		}
+		record.time = readNumber(in, first);
+		int addressLength = in.readUnsignedByte();
+		if (addressLength > 0)
+		{
+			byte[] address = new byte[addressLength];
+			in.readFully(address);
+			record.address = InetAddress.getByAddress(address);
+		}
+		else
+		{
+			record.address = null;
+		}
+		record.status = in.readUnsignedShort();
+		record.bytes = readNumber(in, in.readUnsignedByte());
+		record.duration = readNumber(in, in.readUnsignedByte());
+		record.requestLine = readString(in);
+		record.referer = readString(in);
+		record.userAgent = readString(in);
+		return true;
+	}
+
+	/**
+	 * Checks that a stream starts with the {@link #MAGIC} bytes of a binary log.
+	 * 
+	 * @param in
+	 *            the stream
+	 * @throws IOException
+	 *             if any I/O error occurs or if the stream is not a binary log
+	 */
+	static void readMagic(DataInputStream in) throws IOException
+	{
+		byte[] magic = new byte[MAGIC.length];
+		try
+		{
+			in.readFully(magic);
+		}
+		catch (EOFException e)
+		{
+			throw new IOException("The file is not a binary access log.");
+		}
+		if (!Arrays.equals(magic, MAGIC))
+		{
+			throw new IOException("The file is not a binary access log.");
+		}
+	}
+
+	private static void writeBinary(AccessLogRecord record, DataOutputStream out) throws IOException
+	{
+		writeNumber(out, record.time);
+		if (record.address != null)
+		{
+			byte[] address = record.address.getAddress();
+			out.write(address.length);
+			out.write(address);
+		}
+		else
+		{
+			out.write(0);
+		}
+		out.writeShort(record.status);
+		writeNumber(out, Math.max(record.bytes, 0));
+		writeNumber(out, Math.max(record.duration, 0));
+		writeString(out, record.requestLine);
+		writeString(out, record.referer);
+		writeString(out, record.userAgent);
+	}
+
+	private static void writeNumber(DataOutputStream out, long value) throws IOException
+	{
+		while ((value & ~0x7fL) != 0)
+		{
+			out.write((int) (value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	private static long readNumber(DataInputStream in, int first) throws IOException
+	{
+		long value = first & 0x7f;
+		int shift = 7;
+		int b = first;
+		while ((b & 0x80) != 0)
+		{
+			b = in.readUnsignedByte();
+			value |= (long) (b & 0x7f) << shift;
+			shift += 7;
+		}
+		return value;
+	}
+
+	/**
+	 * Writes a string as ISO-8859-1, which keeps the bytes received from the client; strings longer than the length field are truncated.
+	 */
+	private static void writeString(DataOutputStream out, String value) throws IOException
+	{
+		if (value == null)
+		{
+			out.writeShort(MISSING);
+			return;
+		}
+		int length = Math.min(value.length(), MISSING - 1);
+		out.writeShort(length);
+		for (int i = 0; i < length; i++)
+		{
+			out.write(value.charAt(i));
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException
+	{
+		int length = in.readUnsignedShort();
+		if (length == MISSING)
+		{
+			return null;
+		}
+		byte[] value = new byte[length];
+		in.readFully(value);
+		return new String(value, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Appends a date in the server's time zone; the date is only formatted again when its second changes.
+	 */
+	private void appendDate(long time)
+	{
+		long second = Math.floorDiv(time, 1000);
+		if (second != formattedSecond)
+		{
+			HTTPDateFormatter.formatCommonLog(time, timeZone.getOffset(time), formattedDate, 0);
+			formattedSecond = second;
+		}
+		for (byte b : formattedDate)
+		{
+			line.append((char) b);
+		}
+	}
+
+	/**
+	 * Appends a value received from the client, escaping the quotes, the backslashes and the control characters, so that a request cannot
+	 * forge log lines; a missing value is logged as {@code -}.
+	 */
+	private void appendEscaped(String value)
+	{
+		if (value == null)
+		{
+			line.append('-');
+			return;
+		}
+		for (int i = 0; i < value.length(); i++)
+		{
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\')
+			{
+				line.append('\\').append(c);
+			}
+			else
+				if (c < 0x20 || c == 0x7f)
+				{
+					line.append("\\x").append(HEX[c >> 4]).append(HEX[c & 0xf]);
+				}
+				else
+				{
+					line.append(c);
+				}
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package com.cotescu.radu.http.server.log;
+
+import java.net.InetAddress;
+
+/**
+ * This class is a slot of the {@link AccessLog}'s ring buffer. The slots are allocated once, when the access log is created, and are
+ * reused for every request: a worker thread only stores its primitive values and the references to the strings which the
+ * {@link com.cotescu.radu.http.server.Request} already holds, so publishing a record neither allocates nor copies any bytes.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+class AccessLogRecord
+{
+	/**
+	 * The sequence of the record stored in this slot; it is written last by the worker thread, which publishes the other fields to the
+	 * writer thread.
+	 */
+	volatile long sequence = -1;
+
+	/**
+	 * Set for a slot which was claimed while the access log was shut down; the writer thread skips it.
+	 */
+	boolean dropped;
+	long time;
+	InetAddress address;
+	String requestLine;
+	int status;
+	long bytes;
+	long duration;
+	String referer;
+	String userAgent;
+
+	/**
+	 * Drops the references held by this slot, so that the strings of old requests can be collected.
+	 */
+	void clear()
+	{
+		address = null;
+		requestLine = null;
+		referer = null;
+		userAgent = null;
+	}
+}
@@ -0,0 +1,157 @@
+package com.cotescu.radu.http.server.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * This class records durations in a histogram of fixed size, in the manner of HdrHistogram: the durations are counted in microseconds,
+ * in buckets whose width doubles every 16 buckets, so that every recorded value is known with a relative error below 1/16 from one
+ * microsecond up to 2^36 microseconds (about 19 hours). Recording a value only updates its bucket, the sum and the maximum, without
+ * locks; the percentiles are computed from a copy of the buckets when the histogram is read.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+public class LatencyHistogram
+{
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int MAX_EXPONENT = 36;
+	private static final long MAX_VALUE = (1L << MAX_EXPONENT) - 1;
+	private static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(new LongBinaryOperator()
+	{
+		@Override
+		public long applyAsLong(long left, long right)
+		{
+			return Math.max(left, right);
+		}
+	}, 0);
+
+	/**
+	 * Records a duration.
+	 * 
+	 * @param nanos
+	 *            the duration in nanoseconds
+	 */
+	public void record(long nanos)
+	{
+		long micros = Math.min(Math.max(TimeUnit.NANOSECONDS.toMicros(nanos), 0), MAX_VALUE);
+		buckets.incrementAndGet(getBucket(micros));
+		sum.add(micros);
+		max.accumulate(micros);
+	}
+
+	/**
+	 * Takes a copy of the buckets, from which consistent percentiles can be computed.
+	 * 
+	 * @return the copy
+	 */
+	public Snapshot getSnapshot()
+	{
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+		return new Snapshot(counts, total, sum.sum(), max.get());
+	}
+
+	/**
+	 * A copy of the buckets of a {@link LatencyHistogram}.
+	 */
+	public static class Snapshot
+	{
+		private final long[] counts;
+		private final long count;
+		private final long sum;
+		private final long max;
+
+		Snapshot(long[] counts, long count, long sum, long max)
+		{
+			this.counts = counts;
+			this.count = count;
+			this.sum = sum;
+			this.max = max;
+		}
+
+		/**
+		 * Computes a percentile of the recorded durations.
+		 * 
+		 * @param quantile
+		 *            the quantile, between 0 and 1
+		 * @return the highest duration, in microseconds, of the bucket which holds the percentile or 0 if nothing was recorded
+		 */
+		public long getPercentile(double quantile)
+		{
+			if (count == 0)
+			{
+				return 0;
+			}
+			long rank = Math.max((long) Math.ceil(quantile * count), 1);
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++)
+			{
+				seen += counts[i];
+				if (seen >= rank)
+				{
+					return Math.min(getHighestValue(i), max);
+				}
+			}
+			return max;
+		}
+
+		public long getCount()
+		{
+			return count;
+		}
+
+		/**
+		 * @return the sum of the recorded durations, in microseconds
+		 */
+		public long getSum()
+		{
+			return sum;
+		}
+
+		/**
+		 * @return the longest recorded duration, in microseconds
+		 */
+		public long getMax()
+		{
+			return max;
+		}
+	}
+
+	/**
+	 * The first 16 buckets hold one value each; after them, every group of 16 buckets covers the values with the same highest bit.
+	 */
+	private static int getBucket(long value)
+	{
+		if (value < SUB_BUCKETS)
+		{
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return SUB_BUCKETS + shift * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+	}
+
+	private static long getHighestValue(int bucket)
+	{
+		if (bucket < SUB_BUCKETS)
+		{
+			return bucket;
+		}
+		int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+		long subBucket = SUB_BUCKETS + (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
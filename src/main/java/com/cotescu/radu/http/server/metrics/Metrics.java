@@ -0,0 +1,438 @@
+package com.cotescu.radu.http.server.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.cotescu.radu.http.server.constants.HTTPMethod;
+import com.cotescu.radu.http.server.constants.HTTPStatusCode;
+
+/**
+ * This class collects the server's metrics: the requests by method, the responses by status code, the bytes received and sent, the
+ * connections, the connections shed under overload or closed after a deadline and the {@link LatencyHistogram}s of the time spent by
+ * connections in the executor's queue, of the time to the first byte of the responses and of the total time of the requests. The counters
+ * are {@link LongAdder}s, so the worker threads never contend on a lock or on a single memory location; the metrics are only summed when
+ * they are exported, as Prometheus text or as JSON.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+public class Metrics
+{
+	private static final String PREFIX = "shs_";
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+	private static final String[] QUANTILE_NAMES = { "p50", "p90", "p99", "p999" };
+
+	private final HTTPMethod[] methods = HTTPMethod.values();
+	private final HTTPStatusCode[] statusCodes = HTTPStatusCode.values();
+	// the last counter holds the requests whose method could not be read
+	private final LongAdder[] requests = createCounters(methods.length + 1);
+	private final LongAdder[] responses = createCounters(statusCodes.length);
+	private final LongAdder bytesReceived = new LongAdder();
+	private final LongAdder bytesSent = new LongAdder();
+	private final LongAdder connections = new LongAdder();
+	private final LongAdder activeConnections = new LongAdder();
+	private final LongAdder accessLogDrops = new LongAdder();
+	private final ShedReason[] shedReasons = ShedReason.values();
+	private final LongAdder[] shed = createCounters(shedReasons.length);
+	private final TimeoutPhase[] timeoutPhases = TimeoutPhase.values();
+	private final LongAdder[] timeouts = createCounters(timeoutPhases.length);
+	private volatile long queueDelay;
+	private volatile boolean overloaded;
+	private final LatencyHistogram queueWait = new LatencyHistogram();
+	private final LatencyHistogram timeToFirstByte = new LatencyHistogram();
+	private final LatencyHistogram responseTime = new LatencyHistogram();
+
+	/**
+	 * Records the opening of a connection.
+	 */
+	public void connectionOpened()
+	{
+		connections.increment();
+		activeConnections.increment();
+	}
+
+	/**
+	 * Records the closing of a connection.
+	 */
+	public void connectionClosed()
+	{
+		activeConnections.decrement();
+	}
+
+	/**
+	 * The reasons for which connections are shed without being served.
+	 */
+	public enum ShedReason
+	{
+		/**
+		 * The executor had no room for the connection.
+		 */
+		REJECTED("rejected"),
+		/**
+		 * The server was overloaded when the connection was accepted.
+		 */
+		OVERLOADED("overloaded"),
+		/**
+		 * The connection waited longer than the target delay in the executor's queue while the server was overloaded.
+		 */
+		QUEUE_DELAY("queue_delay");
+
+		private final String label;
+
+		private ShedReason(String label)
+		{
+			this.label = label;
+		}
+
+		public String getLabel()
+		{
+			return label;
+		}
+	}
+
+	/**
+	 * Records a connection shed without being served.
+	 * 
+	 * @param reason
+	 *            the reason for which the connection was shed
+	 */
+	public void recordShed(ShedReason reason)
+	{
+		shed[reason.ordinal()].increment();
+	}
+
+	/**
+	 * The phases of a request whose deadline can expire.
+	 */
+	public enum TimeoutPhase
+	{
+		/**
+		 * The head of the request was not received in time.
+		 */
+		HEADER("header"),
+		/**
+		 * The body of the request was not received in time.
+		 */
+		BODY("body"),
+		/**
+		 * The client did not read the response in time.
+		 */
+		WRITE("write");
+
+		private final String label;
+
+		private TimeoutPhase(String label)
+		{
+			this.label = label;
+		}
+
+		public String getLabel()
+		{
+			return label;
+		}
+	}
+
+	/**
+	 * Records a connection closed because the deadline of one of its request's phases expired.
+	 * 
+	 * @param phase
+	 *            the phase which did not complete in time
+	 */
+	public void recordTimeout(TimeoutPhase phase)
+	{
+		timeouts[phase.ordinal()].increment();
+	}
+
+	/**
+	 * Records the shortest queue wait of the last interval of the overload control.
+	 * 
+	 * @param nanos
+	 *            the queue wait in nanoseconds
+	 * @param overloaded
+	 *            {@code true} if the server is considered overloaded
+	 */
+	public void setQueueDelay(long nanos, boolean overloaded)
+	{
+		queueDelay = nanos;
+		this.overloaded = overloaded;
+	}
+
+	/**
+	 * Records an access log record dropped because the access log's buffer was full.
+	 */
+	public void recordAccessLogDrop()
+	{
+		accessLogDrops.increment();
+	}
+
+	/**
+	 * Records the bytes received from a client.
+	 * 
+	 * @param bytes
+	 *            the number of bytes
+	 */
+	public void addBytesReceived(long bytes)
+	{
+		bytesReceived.add(bytes);
+	}
+
+	/**
+	 * Records the time spent by a connection between being handed to the executor and being served by a worker thread.
+	 * 
+	 * @param nanos
+	 *            the duration in nanoseconds
+	 */
+	public void recordQueueWait(long nanos)
+	{
+		queueWait.record(nanos);
+	}
+
+	/**
+	 * Records a served request.
+	 * 
+	 * @param method
+	 *            the request's method or {@code null} if it could not be read
+	 * @param statusCode
+	 *            the response's status code or {@code null} if no response was sent
+	 * @param bytes
+	 *            the number of bytes sent for the response, including its head
+	 * @param timeToFirstByte
+	 *            the time until the head of the response was sent, in nanoseconds
+	 * @param responseTime
+	 *            the total time of the request, in nanoseconds
+	 */
+	public void recordRequest(HTTPMethod method, HTTPStatusCode statusCode, long bytes, long timeToFirstByte, long responseTime)
+	{
+		requests[method != null ? method.ordinal() : methods.length].increment();
+		if (statusCode != null)
+		{
+			responses[statusCode.ordinal()].increment();
+		}
+		bytesSent.add(bytes);
+		this.timeToFirstByte.record(timeToFirstByte);
+		this.responseTime.record(responseTime);
+	}
+
+	/**
+	 * Writes the metrics in the Prometheus text exposition format. The latencies are exported as summaries, in seconds.
+	 * 
+	 * @param writer
+	 *            the Writer
+	 * @throws IOException
+	 *             if any I/O error occurs
+	 */
+	public void writePrometheus(Writer writer) throws IOException
+	{
+		writeType(writer, "requests_total", "counter", "Requests served, by method.");
+		for (int i = 0; i < requests.length; i++)
+		{
+			writer.append(PREFIX).append("requests_total{method=\"").append(i < methods.length ? methods[i].name() : "unknown")
+					.append("\"} ").append(String.valueOf(requests[i].sum())).append('\n');
+		}
+		writeType(writer, "responses_total", "counter", "Responses sent, by status code.");
+		for (int i = 0; i < responses.length; i++)
+		{
+			long count = responses[i].sum();
+			if (count > 0)
+			{
+				writer.append(PREFIX).append("responses_total{code=\"").append(String.valueOf(statusCodes[i].getStatusCode()))
+						.append("\"} ").append(String.valueOf(count)).append('\n');
+			}
+		}
+		writeCounter(writer, "received_bytes_total", "counter", "Bytes received from the clients.", bytesReceived.sum());
+		writeCounter(writer, "sent_bytes_total", "counter", "Bytes sent to the clients.", bytesSent.sum());
+		writeCounter(writer, "connections_total", "counter", "Connections opened.", connections.sum());
+		writeCounter(writer, "connections_active", "gauge", "Connections currently open.", activeConnections.sum());
+		writeCounter(writer, "access_log_dropped_total", "counter", "Access log records dropped because the buffer was full.",
+				accessLogDrops.sum());
+		writeType(writer, "shed_total", "counter", "Connections shed without being served, by reason.");
+		for (int i = 0; i < shed.length; i++)
+		{
+			writer.append(PREFIX).append("shed_total{reason=\"").append(shedReasons[i].getLabel()).append("\"} ")
+					.append(String.valueOf(shed[i].sum())).append('\n');
+		}
+		writeType(writer, "timeouts_total", "counter", "Connections closed because a phase of a request exceeded its deadline.");
+		for (int i = 0; i < timeouts.length; i++)
+		{
+			writer.append(PREFIX).append("timeouts_total{phase=\"").append(timeoutPhases[i].getLabel()).append("\"} ")
+					.append(String.valueOf(timeouts[i].sum())).append('\n');
+		}
+		writeType(writer, "queue_delay_seconds", "gauge", "Shortest queue wait of the last overload control interval.");
+		writer.append(PREFIX).append("queue_delay_seconds ").append(String.valueOf(queueDelay / 1e9)).append('\n');
+		writeCounter(writer, "overloaded", "gauge", "1 if the queue wait exceeds the overload target delay.", overloaded ? 1 : 0);
+		writeSummary(writer, "queue_wait_seconds", "Time spent by connections waiting for a worker thread.", queueWait.getSnapshot());
+		writeSummary(writer, "time_to_first_byte_seconds", "Time until the head of the response was sent.", timeToFirstByte.getSnapshot());
+		writeSummary(writer, "response_time_seconds", "Total time of the requests.", responseTime.getSnapshot());
+	}
+
+	/**
+	 * Writes the metrics as a JSON object. The latencies are in microseconds.
+	 * 
+	 * @param writer
+	 *            the Writer
+	 * @throws IOException
+	 *             if any I/O error occurs
+	 */
+	public void writeJson(Writer writer) throws IOException
+	{
+		writer.append("{\"requests\":{");
+		for (int i = 0; i < requests.length; i++)
+		{
+			writer.append(i == 0 ? "\"" : ",\"").append(i < methods.length ? methods[i].name() : "unknown").append("\":")
+					.append(String.valueOf(requests[i].sum()));
+		}
+		writer.append("},\"responses\":{");
+		boolean first = true;
+		for (int i = 0; i < responses.length; i++)
+		{
+			long count = responses[i].sum();
+			if (count > 0)
+			{
+				writer.append(first ? "\"" : ",\"").append(String.valueOf(statusCodes[i].getStatusCode())).append("\":")
+						.append(String.valueOf(count));
+				first = false;
+			}
+		}
+		writer.append("},\"bytesReceived\":").append(String.valueOf(bytesReceived.sum()));
+		writer.append(",\"bytesSent\":").append(String.valueOf(bytesSent.sum()));
+		writer.append(",\"connections\":").append(String.valueOf(connections.sum()));
+		writer.append(",\"activeConnections\":").append(String.valueOf(activeConnections.sum()));
+		writer.append(",\"shed\":{");
+		for (int i = 0; i < shed.length; i++)
+		{
+			writer.append(i == 0 ? "\"" : ",\"").append(shedReasons[i].getLabel()).append("\":").append(String.valueOf(shed[i].sum()));
+		}
+		writer.append("},\"timeouts\":{");
+		for (int i = 0; i < timeouts.length; i++)
+		{
+			writer.append(i == 0 ? "\"" : ",\"").append(timeoutPhases[i].getLabel()).append("\":")
+					.append(String.valueOf(timeouts[i].sum()));
+		}
+		writer.append("},\"queueDelay\":").append(String.valueOf(queueDelay / 1000));
+		writer.append(",\"overloaded\":").append(String.valueOf(overloaded));
+		writer.append(",\"accessLogDropped\":").append(String.valueOf(accessLogDrops.sum()));
+		writeJsonHistogram(writer, "queueWait", queueWait.getSnapshot());
+		writeJsonHistogram(writer, "timeToFirstByte", timeToFirstByte.getSnapshot());
+		writeJsonHistogram(writer, "responseTime", responseTime.getSnapshot());
+		writer.append("}\n");
+	}
+
+	private static void writeType(Writer writer, String name, String type, String help) throws IOException
+	{
+		writer.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+		writer.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void writeCounter(Writer writer, String name, String type, String help, long value) throws IOException
+	{
+		writeType(writer, name, type, help);
+		writer.append(PREFIX).append(name).append(' ').append(String.valueOf(value)).append('\n');
+	}
+
+	private static void writeSummary(Writer writer, String name, String help, LatencyHistogram.Snapshot snapshot) throws IOException
+	{
+		writeType(writer, name, "summary", help);
+		for (double quantile : QUANTILES)
+		{
+			writer.append(PREFIX).append(name).append("{quantile=\"").append(String.valueOf(quantile)).append("\"} ")
+					.append(toSeconds(snapshot.getPercentile(quantile))).append('\n');
+		}
+		writer.append(PREFIX).append(name).append("_sum ").append(toSeconds(snapshot.getSum())).append('\n');
+		writer.append(PREFIX).append(name).append("_count ").append(String.valueOf(snapshot.getCount())).append('\n');
+	}
+
+	private static void writeJsonHistogram(Writer writer, String name, LatencyHistogram.Snapshot snapshot) throws IOException
+	{
+		writer.append(",\"").append(name).append("\":{\"count\":").append(String.valueOf(snapshot.getCount()));
+		writer.append(",\"sum\":").append(String.valueOf(snapshot.getSum()));
+		for (int i = 0; i < QUANTILES.length; i++)
+		{
+			writer.append(",\"").append(QUANTILE_NAMES[i]).append("\":").append(String.valueOf(snapshot.getPercentile(QUANTILES[i])));
+		}
+		writer.append(",\"max\":").append(String.valueOf(snapshot.getMax())).append('}');
+	}
+
+	private static String toSeconds(long micros)
+	{
+		return String.valueOf(micros / 1e6);
+	}
+
+	private static LongAdder[] createCounters(int count)
+	{
+		LongAdder[] counters = new LongAdder[count];
+		for (int i = 0; i < count; i++)
+		{
+			counters[i] = new LongAdder();
+		}
+		return counters;
+	}
+
+	public long getRequests()
+	{
+		long total = 0;
+		for (LongAdder counter : requests)
+		{
+			total += counter.sum();
+		}
+		return total;
+	}
+
+	public long getBytesReceived()
+	{
+		return bytesReceived.sum();
+	}
+
+	public long getBytesSent()
+	{
+		return bytesSent.sum();
+	}
+
+	public long getActiveConnections()
+	{
+		return activeConnections.sum();
+	}
+
+	public long getShed(ShedReason reason)
+	{
+		return shed[reason.ordinal()].sum();
+	}
+
+	public long getTimeouts(TimeoutPhase phase)
+	{
+		return timeouts[phase.ordinal()].sum();
+	}
+
+	/**
+	 * @return the shortest queue wait of the last overload control interval, in microseconds
+	 */
+	public long getQueueDelay()
+	{
+		return queueDelay / 1000;
+	}
+
+	public boolean isOverloaded()
+	{
+		return overloaded;
+	}
+
+	public long getAccessLogDrops()
+	{
+		return accessLogDrops.sum();
+	}
+
+	public LatencyHistogram getQueueWait()
+	{
+		return queueWait;
+	}
+
+	public LatencyHistogram getTimeToFirstByte()
+	{
+		return timeToFirstByte;
+	}
+
+	public LatencyHistogram getResponseTime()
+	{
+		return responseTime;
+	}
+}
@@ -0,0 +1,170 @@
+package com.cotescu.radu.http.server.nio;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.cotescu.radu.http.server.Connection;
+import com.cotescu.radu.http.server.RequestParser;
+import com.cotescu.radu.http.server.ResponseHead;
+
+/**
+ * This class represents a single request received by an {@link EventLoop}, which is served by a worker thread. The request has already
+ * been read completely, while the response is written directly to the non-blocking channel.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+public class ChannelConnection extends Connection
+{
+	private final ChannelContext context;
+	private final ChannelOutputStream channelOutputStream;
+	private boolean served;
+
+	/**
+	 * Creates a Connection for a request received on a channel.
+	 * 
+	 * @param context
+	 *            the {@link ChannelContext} of the channel
+	 * @param parser
+	 *            the {@link RequestParser} holding the request
+	 */
+	public ChannelConnection(ChannelContext context, RequestParser parser)
+	{
+		this(context, parser, new ChannelOutputStream(context.getChannel()));
+	}
+
+	private ChannelConnection(ChannelContext context, RequestParser parser, ChannelOutputStream channelOutputStream)
+	{
+		super(context.getChannel().socket(), null, parser, new BufferedOutputStream(channelOutputStream));
+		this.context = context;
+		this.channelOutputStream = channelOutputStream;
+	}
+
+	/**
+	 * Only the request received by the {@link EventLoop} is served by this Connection; the following requests are waited for by the
+	 * event loop, without holding a worker thread.
+	 */
+	@Override
+	public boolean awaitRequest()
+	{
+		if (served)
+		{
+			return false;
+		}
+		served = true;
+		return true;
+	}
+
+	/**
+	 * The {@link EventLoop} has already received the whole request, or as much of it as fits in the parser's buffer.
+	 */
+	@Override
+	protected int fill()
+	{
+		return -1;
+	}
+
+	/**
+	 * The non-blocking writes wait for the channel themselves, so they enforce the deadline of the response.
+	 */
+	@Override
+	public void startWriteDeadline()
+	{
+		super.startWriteDeadline();
+		channelOutputStream.setDeadline(getWriteDeadline());
+	}
+
+	@Override
+	public void clearWriteDeadline()
+	{
+		super.clearWriteDeadline();
+		channelOutputStream.setDeadline(0);
+	}
+
+	@Override
+	public long transferFrom(FileChannel fileChannel, long position, long count) throws IOException
+	{
+		return channelOutputStream.transferFrom(fileChannel, position, count);
+	}
+
+	@Override
+	public void write(ByteBuffer buffer) throws IOException
+	{
+		channelOutputStream.write(buffer);
+	}
+
+	@Override
+	public void write(ByteBuffer[] buffers) throws IOException
+	{
+		channelOutputStream.write(buffers);
+	}
+
+	/**
+	 * A new Connection is created for every request received on the channel, so the {@link ResponseHead} is kept by the
+	 * {@link ChannelContext} instead.
+	 */
+	@Override
+	public ResponseHead getResponseHead()
+	{
+		return context.getResponseHead();
+	}
+
+	@Override
+	public int getRequestsCount()
+	{
+		return context.getRequestsCount();
+	}
+
+	/**
+	 * Hands the channel back to its {@link EventLoop} if the connection is kept alive, otherwise closes it.
+	 */
+	@Override
+	public void release(boolean keepAlive) throws IOException
+	{
+		if (keepAlive && context.getChannel().isOpen())
+		{
+			getOutputStream().flush();
+			context.resume();
+		}
+		else
+		{
+			close();
+		}
+	}
+
+	/**
+	 * The response is written with a single non-blocking write, since the refused connections are closed by the {@link EventLoop}'s
+	 * thread; the request has already been read.
+	 */
+	@Override
+	public void reject(byte[] response) throws IOException
+	{
+		try
+		{
+			context.getChannel().write(ByteBuffer.wrap(response));
+		}
+		finally
+		{
+			close();
+		}
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if (!context.getChannel().isOpen())
+		{
+			return;
+		}
+		try
+		{
+			getOutputStream().flush();
+		}
+		finally
+		{
+			context.close();
+		}
+	}
+}
@@ -0,0 +1,228 @@
+package com.cotescu.radu.http.server.nio;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+import com.cotescu.radu.http.server.ConnectionSettings;
+import com.cotescu.radu.http.server.HTTPServer;
+import com.cotescu.radu.http.server.RequestParser;
+import com.cotescu.radu.http.server.ResponseHead;
+import com.cotescu.radu.http.server.metrics.Metrics;
+
+/**
+ * This class holds the state of a client connection served by an {@link EventLoop}. The bytes received from the client are accumulated
+ * and parsed incrementally by a {@link RequestParser}, so that a request is handed to the worker threads only once its head and its body
+ * have been received completely.
+ * 
+ * The head of a request must be received before the header deadline, which starts with its first bytes, and its body before the body
+ * deadline, which starts with the end of the head; the {@link EventLoop} closes the channels whose deadline expired.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+public class ChannelContext
+{
+	private final EventLoop eventLoop;
+	private final SocketChannel channel;
+	private final RequestParser parser;
+	private final ConnectionSettings settings;
+	private ResponseHead responseHead;
+	private SelectionKey key;
+	private int requestsCount;
+	private long lastActivity;
+	private long headerDeadline;
+	private long bodyDeadline;
+	private volatile boolean busy;
+
+	/**
+	 * Creates the context for a newly accepted {@link SocketChannel}.
+	 * 
+	 * @param eventLoop
+	 *            the {@link EventLoop} which owns the channel
+	 * @param channel
+	 *            the non-blocking channel
+	 */
+	public ChannelContext(EventLoop eventLoop, SocketChannel channel)
+	{
+		this.eventLoop = eventLoop;
+		this.channel = channel;
+		settings = HTTPServer.getConnectionSettings();
+		parser = settings.createParser();
+		lastActivity = System.currentTimeMillis();
+		HTTPServer.getMetrics().connectionOpened();
+	}
+
+	/**
+	 * Reads the available bytes from the channel.
+	 * 
+	 * @return the number of bytes read or -1 if the client closed the connection or if the request head does not fit in the buffer
+	 * @throws IOException
+	 *             if any I/O error occurs
+	 */
+	public int read() throws IOException
+	{
+		if (parser.isFull())
+		{
+			return -1;
+		}
+		int bytesRead = parser.read(channel);
+		lastActivity = System.currentTimeMillis();
+		if (bytesRead > 0)
+		{
+			HTTPServer.getMetrics().addBytesReceived(bytesRead);
+			if (headerDeadline == 0 && bodyDeadline == 0)
+			{
+				headerDeadline = ConnectionSettings.deadline(settings.getHeaderTimeout());
+			}
+		}
+		return bytesRead;
+	}
+
+	/**
+	 * Parses the bytes received since the last call and checks if a complete request is available. After the head of the request, as
+	 * many bytes as declared by the Content-Length header are expected. A body which does not fit in the parser's buffer is not waited
+	 * for; the {@link com.cotescu.radu.http.server.Request} will then be incomplete and the connection will be closed after its response.
+	 * A head refused for exceeding the limits is handed over right away, so that its error is answered.
+	 * 
+	 * @return {@code true} if a complete request has been received, {@code false} otherwise
+	 */
+	public boolean hasRequest()
+	{
+		if (!parser.parse())
+		{
+			return false;
+		}
+		long requestLength = parser.getHeadLength() + Math.max(parser.getContentLength(), 0);
+		if (parser.isTooLarge() || requestLength > RequestParser.MAX_BUFFER_SIZE || parser.getReceivedLength() >= requestLength)
+		{
+			return true;
+		}
+		if (bodyDeadline == 0)
+		{
+			headerDeadline = 0;
+			bodyDeadline = ConnectionSettings.deadline(settings.getBodyTimeout());
+		}
+		return false;
+	}
+
+	/**
+	 * Marks the complete request as being served. Its bytes stay in the parser's buffer until the request has been served, since the
+	 * event loop does not read from the channel in the meantime.
+	 * 
+	 * @return the parser holding the request
+	 */
+	public RequestParser takeRequest()
+	{
+		requestsCount++;
+		busy = true;
+		headerDeadline = 0;
+		bodyDeadline = 0;
+		return parser;
+	}
+
+	/**
+	 * Checks if the connection has been idle for too long. An idle persistent connection is allowed to wait for the keep-alive timeout,
+	 * while a connection which did not send a complete request yet is subject to the read timeout and to the deadline of the part of the
+	 * request being received.
+	 * 
+	 * @param now
+	 *            the current time in milliseconds
+	 * @return {@code true} if the connection should be closed, {@code false} otherwise
+	 */
+	public boolean isExpired(long now)
+	{
+		if (busy)
+		{
+			return false;
+		}
+		if (isExpired(headerDeadline, Metrics.TimeoutPhase.HEADER) || isExpired(bodyDeadline, Metrics.TimeoutPhase.BODY))
+		{
+			return true;
+		}
+		long timeout = requestsCount > 0 && !parser.hasBufferedData() ? HTTPServer.getKeepAliveTimeout() * 1000L : settings
+				.getReadTimeout();
+		return now - lastActivity > timeout;
+	}
+
+	private static boolean isExpired(long deadline, Metrics.TimeoutPhase phase)
+	{
+		if (deadline == 0 || System.nanoTime() - deadline < 0)
+		{
+			return false;
+		}
+		HTTPServer.getMetrics().recordTimeout(phase);
+		return true;
+	}
+
+	/**
+	 * Marks the end of a request's processing, after which the connection is watched again by its {@link EventLoop}.
+	 */
+	public void resume()
+	{
+		parser.recycle();
+		if (parser.hasBufferedData())
+		{
+			// a pipelined request has already started
+			headerDeadline = ConnectionSettings.deadline(settings.getHeaderTimeout());
+		}
+		busy = false;
+		lastActivity = System.currentTimeMillis();
+		eventLoop.resume(this);
+	}
+
+	/**
+	 * Closes the channel.
+	 */
+	public void close()
+	{
+		if (!channel.isOpen())
+		{
+			return;
+		}
+		try
+		{
+			HTTPServer.getMetrics().connectionClosed();
+			channel.close();
+		}
+		catch (IOException e)
+		{
+			HTTPServer.getLog().debug("Unable to close channel", e);
+		}
+	}
+
+	public SocketChannel getChannel()
+	{
+		return channel;
+	}
+
+	/**
+	 * Returns the {@link ResponseHead} reused by the responses sent on the channel.
+	 * 
+	 * @return the ResponseHead
+	 */
+	public ResponseHead getResponseHead()
+	{
+		if (responseHead == null)
+		{
+			responseHead = new ResponseHead();
+		}
+		return responseHead;
+	}
+
+	public SelectionKey getKey()
+	{
+		return key;
+	}
+
+	public void setKey(SelectionKey key)
+	{
+		this.key = key;
+	}
+
+	public int getRequestsCount()
+	{
+		return requestsCount;
+	}
+
+}
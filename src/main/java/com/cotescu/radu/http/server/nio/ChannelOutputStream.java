@@ -0,0 +1,216 @@
+package com.cotescu.radu.http.server.nio;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+import com.cotescu.radu.http.server.ConnectionSettings;
+import com.cotescu.radu.http.server.HTTPServer;
+import com.cotescu.radu.http.server.metrics.Metrics;
+
+/**
+ * This class adapts a non-blocking {@link SocketChannel} to an {@link OutputStream}, so that the blocking request handlers can write
+ * their responses from a worker thread. When the socket's send buffer is full, the writing thread waits on its own {@link Selector}
+ * instead of spinning, without disturbing the {@link EventLoop} that owns the channel. The wait is bounded by the read timeout and by the
+ * deadline of the response. Each thread opens its selector on its first wait and keeps it until {@link #closeSelector()} is called when
+ * the thread retires.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+public class ChannelOutputStream extends OutputStream
+{
+	private static final ThreadLocal<Selector> selectors = new ThreadLocal<Selector>();
+
+	private final SocketChannel channel;
+	private long deadline;
+
+	/**
+	 * Creates an OutputStream for a non-blocking {@link SocketChannel}.
+	 * 
+	 * @param channel
+	 *            the channel to which the data is written
+	 */
+	public ChannelOutputStream(SocketChannel channel)
+	{
+		this.channel = channel;
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] buffer, int offset, int length) throws IOException
+	{
+		write(ByteBuffer.wrap(buffer, offset, length));
+	}
+
+	/**
+	 * Writes all the remaining bytes of a {@link ByteBuffer} to the channel.
+	 * 
+	 * @param buffer
+	 *            the data
+	 * @throws IOException
+	 *             if any I/O error occurs or if the client does not read the data in time
+	 */
+	public void write(ByteBuffer buffer) throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			if (channel.write(buffer) == 0)
+			{
+				awaitWritable();
+			}
+		}
+	}
+
+	/**
+	 * Writes all the remaining bytes of several {@link ByteBuffer}s to the channel, in order, using gathering writes.
+	 * 
+	 * @param buffers
+	 *            the data
+	 * @throws IOException
+	 *             if any I/O error occurs or if the client does not read the data in time
+	 */
+	public void write(ByteBuffer[] buffers) throws IOException
+	{
+		long remaining = 0;
+		for (ByteBuffer buffer : buffers)
+		{
+			remaining += buffer.remaining();
+		}
+		// the last buffer may be empty, so the loop cannot stop on its remaining bytes alone
+		while (remaining > 0)
+		{
+			long written = channel.write(buffers);
+			if (written == 0)
+			{
+				awaitWritable();
+			}
+			remaining -= written;
+		}
+	}
+
+	/**
+	 * Sends a region of a file to the channel, letting the kernel move the data without copying it through the JVM.
+	 * 
+	 * @param fileChannel
+	 *            the file's channel
+	 * @param position
+	 *            the position in the file from which the data is sent
+	 * @param count
+	 *            the number of bytes to send
+	 * @return the number of bytes sent, which is smaller than {@code count} only if the file is shorter than expected
+	 * @throws IOException
+	 *             if any I/O error occurs or if the client does not read the data in time
+	 */
+	public long transferFrom(FileChannel fileChannel, long position, long count) throws IOException
+	{
+		long transferred = 0;
+		while (transferred < count)
+		{
+			long bytes = fileChannel.transferTo(position + transferred, count - transferred, channel);
+			if (bytes > 0)
+			{
+				transferred += bytes;
+			}
+			else
+				if (position + transferred >= fileChannel.size())
+				{
+					break;
+				}
+				else
+				{
+					awaitWritable();
+				}
+		}
+		return transferred;
+	}
+
+	/**
+	 * Sets the deadline for writing the current response.
+	 * 
+	 * @param deadline
+	 *            the deadline, as returned by {@link ConnectionSettings#deadline(long)}, or 0 for no deadline
+	 */
+	public void setDeadline(long deadline)
+	{
+		this.deadline = deadline;
+	}
+
+	/**
+	 * Blocks the current thread until the channel can accept more data.
+	 * 
+	 * @throws IOException
+	 *             if any I/O error occurs or if the channel does not become writable during the read timeout or before the deadline
+	 */
+	private void awaitWritable() throws IOException
+	{
+		ConnectionSettings settings = HTTPServer.getConnectionSettings();
+		int wait = settings.getWaitTime(deadline);
+		if (wait > 0 && awaitWritable(wait))
+		{
+			return;
+		}
+		if (deadline != 0 && settings.getWaitTime(deadline) == 0)
+		{
+			HTTPServer.getMetrics().recordTimeout(Metrics.TimeoutPhase.WRITE);
+			throw new SocketTimeoutException("The response was not sent before its deadline");
+		}
+		throw new SocketTimeoutException("Timed out while writing the response");
+	}
+
+	/**
+	 * Waits on the current thread's {@link Selector} until the channel can accept more data.
+	 * 
+	 * @return {@code true} if the channel became writable, {@code false} if the wait timed out
+	 */
+	private boolean awaitWritable(int wait) throws IOException
+	{
+		Selector selector = selectors.get();
+		if (selector == null)
+		{
+			selector = Selector.open();
+			selectors.set(selector);
+		}
+		SelectionKey key = channel.register(selector, SelectionKey.OP_WRITE);
+		try
+		{
+			return selector.select(wait) > 0;
+		}
+		finally
+		{
+			// the channel is deregistered right away, so that the next wait can register another channel
+			key.cancel();
+			selector.selectNow();
+		}
+	}
+
+	/**
+	 * Closes the {@link Selector} of the current thread, if it has one. Called by the worker threads when they retire.
+	 */
+	public static void closeSelector()
+	{
+		Selector selector = selectors.get();
+		if (selector != null)
+		{
+			selectors.remove();
+			try
+			{
+				selector.close();
+			}
+			catch (IOException e)
+			{
+				HTTPServer.getLog().debug("Unable to close selector", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,234 @@
+package com.cotescu.radu.http.server.nio;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.log4j.Logger;
+
+import com.cotescu.radu.http.server.HTTPServer;
+import com.cotescu.radu.http.server.HTTPServerWorkerThread;
+
+/**
+ * This class implements an event loop which watches a set of non-blocking client channels with a {@link Selector}. Requests are read
+ * incrementally by the loop and only complete requests are handed to the worker threads, so idle and slow clients do not hold a thread.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+public class EventLoop implements Runnable
+{
+	private static final long SELECT_TIMEOUT = 1000;
+
+	private final Logger log = Logger.getLogger(EventLoop.class);
+	private final Selector selector;
+	private final ExecutorService executorService;
+	private final Queue<ChannelContext> pendingContexts;
+	private volatile boolean isRunning = true;
+
+	/**
+	 * Creates an event loop.
+	 * 
+	 * @param executorService
+	 *            the thread pool used for processing the requests
+	 * @throws IOException
+	 *             if the {@link Selector} cannot be opened
+	 */
+	public EventLoop(ExecutorService executorService) throws IOException
+	{
+		this.executorService = executorService;
+		selector = Selector.open();
+		pendingContexts = new ConcurrentLinkedQueue<ChannelContext>();
+	}
+
+	/**
+	 * Hands a newly accepted channel to this event loop. This method can be called from any thread.
+	 * 
+	 * @param channel
+	 *            the accepted channel
+	 * @throws IOException
+	 *             if the channel cannot be switched to non-blocking mode or if its socket options cannot be set
+	 */
+	public void register(SocketChannel channel) throws IOException
+	{
+		HTTPServer.getConnectionSettings().configure(channel.socket());
+		channel.configureBlocking(false);
+		pendingContexts.add(new ChannelContext(this, channel));
+		selector.wakeup();
+	}
+
+	/**
+	 * Hands a channel back to this event loop after one of its requests was served. This method can be called from any thread.
+	 * 
+	 * @param context
+	 *            the channel's context
+	 */
+	void resume(ChannelContext context)
+	{
+		pendingContexts.add(context);
+		selector.wakeup();
+	}
+
+	/**
+	 * Returns the number of channels currently watched by this event loop.
+	 * 
+	 * @return the number of open connections
+	 */
+	public int getConnectionsCount()
+	{
+		return selector.keys().size();
+	}
+
+	/**
+	 * Stops this event loop and closes all its channels.
+	 */
+	public void shutdown()
+	{
+		isRunning = false;
+		selector.wakeup();
+	}
+
+	public void run()
+	{
+		long lastExpiryCheck = System.currentTimeMillis();
+		while (isRunning)
+		{
+			try
+			{
+				selector.select(SELECT_TIMEOUT);
+				processPendingContexts();
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext())
+				{
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (key.isValid() && key.isReadable())
+					{
+						read((ChannelContext) key.attachment());
+					}
+				}
+				long now = System.currentTimeMillis();
+				if (now - lastExpiryCheck >= SELECT_TIMEOUT)
+				{
+					closeExpiredContexts(now);
+					lastExpiryCheck = now;
+				}
+			}
+			catch (ClosedSelectorException e)
+			{
+				break;
+			}
+			catch (IOException e)
+			{
+				log.error("I/O error in event loop", e);
+			}
+		}
+		for (SelectionKey key : selector.keys())
+		{
+			((ChannelContext) key.attachment()).close();
+		}
+		try
+		{
+			selector.close();
+		}
+		catch (IOException e)
+		{
+			log.error("Unable to close selector", e);
+		}
+	}
+
+	/**
+	 * Registers the new channels and resumes watching the channels whose requests were served.
+	 */
+	private void processPendingContexts()
+	{
+		ChannelContext context;
+		while ((context = pendingContexts.poll()) != null)
+		{
+			try
+			{
+				if (context.getKey() == null)
+				{
+					context.setKey(context.getChannel().register(selector, SelectionKey.OP_READ, context));
+				}
+				else
+					if (context.hasRequest())
+					{
+						dispatch(context);
+					}
+					else
+					{
+						context.getKey().interestOps(SelectionKey.OP_READ);
+					}
+			}
+			catch (Exception e)
+			{
+				log.debug("Unable to watch channel", e);
+				context.close();
+			}
+		}
+	}
+
+	/**
+	 * Reads the data available on a channel and dispatches the request once it is complete.
+	 * 
+	 * @param context
+	 *            the channel's context
+	 */
+	private void read(ChannelContext context)
+	{
+		try
+		{
+			if (context.read() < 0)
+			{
+				context.close();
+			}
+			else
+				if (context.hasRequest())
+				{
+					context.getKey().interestOps(0);
+					dispatch(context);
+				}
+		}
+		catch (IOException e)
+		{
+			log.debug("I/O error while reading request", e);
+			context.close();
+		}
+	}
+
+	/**
+	 * Hands a complete request to the worker threads. The channel is not watched for reading while its request is being processed.
+	 * 
+	 * @param context
+	 *            the channel's context
+	 */
+	private void dispatch(ChannelContext context)
+	{
+		executorService.execute(new HTTPServerWorkerThread(new ChannelConnection(context, context.takeRequest())));
+	}
+
+	/**
+	 * Closes the channels which have been idle for too long.
+	 * 
+	 * @param now
+	 *            the current time in milliseconds
+	 */
+	private void closeExpiredContexts(long now)
+	{
+		for (SelectionKey key : selector.keys())
+		{
+			ChannelContext context = (ChannelContext) key.attachment();
+			if (context.isExpired(now))
+			{
+				context.close();
+			}
+		}
+	}
+}
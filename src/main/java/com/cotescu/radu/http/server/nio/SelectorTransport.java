@@ -0,0 +1,130 @@
+package com.cotescu.radu.http.server.nio;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.log4j.Logger;
+
+/**
+ * This class implements a non-blocking transport for the server. Connections are accepted on a {@link ServerSocketChannel} and spread
+ * over a small number of {@link EventLoop}s, which read the requests and hand only the complete ones to the worker threads.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+public class SelectorTransport implements Runnable
+{
+	private final Logger log = Logger.getLogger(SelectorTransport.class);
+	private final ServerSocketChannel serverChannel;
+	private final EventLoop[] eventLoops;
+	private volatile boolean isRunning = true;
+	private int nextEventLoop;
+
+	/**
+	 * Opens the listening channel and creates the event loops.
+	 * 
+	 * @param address
+	 *            the address on which the server listens
+	 * @param port
+	 *            the port on which the server listens
+	 * @param executorService
+	 *            the thread pool used for processing the requests
+	 * @param eventLoopsCount
+	 *            the number of event loops
+	 * @param backlog
+	 *            the maximum number of pending connections of the listening channel; 0 uses the system's default
+	 * @throws IOException
+	 *             if the listening channel or the selectors cannot be opened
+	 */
+	public SelectorTransport(InetAddress address, int port, ExecutorService executorService, int eventLoopsCount, int backlog)
+			throws IOException
+	{
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.socket().setReuseAddress(true);
+		serverChannel.socket().bind(new InetSocketAddress(address, port), backlog);
+		eventLoops = new EventLoop[eventLoopsCount];
+		for (int i = 0; i < eventLoopsCount; i++)
+		{
+			eventLoops[i] = new EventLoop(executorService);
+		}
+	}
+
+	/**
+	 * Starts the event loops and accepts connections until the transport is shut down.
+	 */
+	public void run()
+	{
+		for (int i = 0; i < eventLoops.length; i++)
+		{
+			new Thread(eventLoops[i], "HTTPServerEventLoop-" + (i + 1)).start();
+		}
+		while (isRunning)
+		{
+			try
+			{
+				SocketChannel channel = serverChannel.accept();
+				try
+				{
+					eventLoops[nextEventLoop].register(channel);
+				}
+				catch (IOException e)
+				{
+					log.error("Unable to register connection", e);
+					channel.close();
+				}
+				nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
+			}
+			catch (IOException e)
+			{
+				if (isRunning)
+				{
+					log.error("I/o error while waiting for connection", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stops accepting connections and shuts down the event loops.
+	 */
+	public void shutdown()
+	{
+		isRunning = false;
+		try
+		{
+			serverChannel.close();
+		}
+		catch (IOException e)
+		{
+			log.error("Unable to close server channel", e);
+		}
+		for (EventLoop eventLoop : eventLoops)
+		{
+			eventLoop.shutdown();
+		}
+	}
+
+	/**
+	 * Returns the number of connections currently held by the event loops.
+	 * 
+	 * @return the number of open connections
+	 */
+	public int getConnectionsCount()
+	{
+		int count = 0;
+		for (EventLoop eventLoop : eventLoops)
+		{
+			count += eventLoop.getConnectionsCount();
+		}
+		return count;
+	}
+
+	public InetSocketAddress getLocalAddress()
+	{
+		return (InetSocketAddress) serverChannel.socket().getLocalSocketAddress();
+	}
+}
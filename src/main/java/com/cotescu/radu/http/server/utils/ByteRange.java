@@ -0,0 +1,152 @@
+package com.cotescu.radu.http.server.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * This class represents a range of bytes requested through the Range header, with both ends included.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+public class ByteRange
+{
+	/**
+	 * Requests asking for more ranges than this are served in full, to avoid generating huge multipart responses out of tiny requests.
+	 */
+	public static final int MAX_RANGES = 16;
+	private static final String BYTES_UNIT = "bytes=";
+
+	private final long start;
+	private final long end;
+
+	public ByteRange(long start, long end)
+	{
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * Parses the value of a Range header for a representation of a given length. Overlapping and adjacent ranges are coalesced, so the
+	 * returned ranges are sorted and disjoint.
+	 * 
+	 * @param header
+	 *            the Range header's value
+	 * @param length
+	 *            the length of the representation
+	 * @return the satisfiable ranges, an empty list if none of the ranges can be satisfied, or {@code null} if the header is invalid and
+	 *         must be ignored
+	 */
+	public static List<ByteRange> parse(String header, long length)
+	{
+		if (header == null || !header.regionMatches(true, 0, BYTES_UNIT, 0, BYTES_UNIT.length()))
+		{
+			return null;
+		}
+		String[] specs = header.substring(BYTES_UNIT.length()).split(",");
+		if (specs.length > MAX_RANGES)
+		{
+			return null;
+		}
+		List<ByteRange> ranges = new ArrayList<ByteRange>(specs.length);
+		for (String spec : specs)
+		{
+			spec = spec.trim();
+			int dash = spec.indexOf('-');
+			if (dash < 0)
+			{
+				return null;
+			}
+			try
+			{
+				if (dash == 0)
+				{
+					long suffix = Long.parseLong(spec.substring(1));
+					if (suffix > 0 && length > 0)
+					{
+						ranges.add(new ByteRange(Math.max(length - suffix, 0), length - 1));
+					}
+				}
+				else
+				{
+					long first = Long.parseLong(spec.substring(0, dash));
+					long last = dash == spec.length() - 1 ? Long.MAX_VALUE : Long.parseLong(spec.substring(dash + 1));
+					if (first < 0 || last < first)
+					{
+						return null;
+					}
+					if (first < length)
+					{
+						ranges.add(new ByteRange(first, Math.min(last, length - 1)));
+					}
+				}
+			}
+			catch (NumberFormatException e)
+			{
+				return null;
+			}
+		}
+		return coalesce(ranges);
+	}
+
+	private static List<ByteRange> coalesce(List<ByteRange> ranges)
+	{
+		if (ranges.size() < 2)
+		{
+			return ranges;
+		}
+		Collections.sort(ranges, new Comparator<ByteRange>()
+		{
+			public int compare(ByteRange r1, ByteRange r2)
+			{
+				return r1.start < r2.start ? -1 : r1.start == r2.start ? 0 : 1;
+			}
+		});
+		List<ByteRange> coalesced = new ArrayList<ByteRange>(ranges.size());
+		ByteRange current = ranges.get(0);
+		for (int i = 1; i < ranges.size(); i++)
+		{
+			ByteRange next = ranges.get(i);
+			if (next.start <= current.end + 1)
+			{
+				current = new ByteRange(current.start, Math.max(current.end, next.end));
+			}
+			else
+			{
+				coalesced.add(current);
+				current = next;
+			}
+		}
+		coalesced.add(current);
+		return coalesced;
+	}
+
+	public long getStart()
+	{
+		return start;
+	}
+
+	public long getEnd()
+	{
+		return end;
+	}
+
+	public long getLength()
+	{
+		return end - start + 1;
+	}
+
+	/**
+	 * Returns the value of the Content-Range header describing this range.
+	 * 
+	 * @param length
+	 *            the length of the whole representation
+	 * @return the Content-Range value
+	 */
+	public String getContentRange(long length)
+	{
+		return "bytes " + start + "-" + end + "/" + length;
+	}
+}
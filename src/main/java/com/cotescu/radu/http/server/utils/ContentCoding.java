@@ -0,0 +1,104 @@
+package com.cotescu.radu.http.server.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * This class negotiates and applies the content codings (compression formats) of response bodies.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+public class ContentCoding
+{
+	public static final String GZIP = "gzip";
+	public static final String BROTLI = "br";
+	/**
+	 * Smaller bodies are sent as they are, since compressing them saves less than the overhead of the compressed format.
+	 */
+	public static final int MIN_COMPRESSIBLE_SIZE = 256;
+
+	/**
+	 * Checks if a content coding is acceptable according to the Accept-Encoding header of a request. A coding is acceptable if it is
+	 * listed, or covered by {@code *}, with a non-zero quality value.
+	 * 
+	 * @param acceptEncoding
+	 *            the header's value or {@code null} if the header is missing
+	 * @param coding
+	 *            the content coding
+	 * @return {@code true} if the coding can be used for the response
+	 */
+	public static boolean accepts(String acceptEncoding, String coding)
+	{
+		if (acceptEncoding == null)
+		{
+			return false;
+		}
+		float quality = -1;
+		float wildcardQuality = -1;
+		for (String element : acceptEncoding.split(","))
+		{
+			String[] parameters = element.split(";");
+			String name = parameters[0].trim();
+			float q = 1;
+			for (int i = 1; i < parameters.length; i++)
+			{
+				String parameter = parameters[i].trim();
+				if (parameter.startsWith("q=") || parameter.startsWith("Q="))
+				{
+					try
+					{
+						q = Float.parseFloat(parameter.substring(2).trim());
+					}
+					catch (NumberFormatException e)
+					{
+						q = 0;
+					}
+				}
+			}
+			if (name.equalsIgnoreCase(coding) || (GZIP.equals(coding) && name.equalsIgnoreCase("x-gzip")))
+			{
+				quality = Math.max(quality, q);
+			}
+			else
+				if (name.equals("*"))
+				{
+					wildcardQuality = q;
+				}
+		}
+		return (quality >= 0 ? quality : wildcardQuality) > 0;
+	}
+
+	/**
+	 * Compresses data in the gzip format.
+	 * 
+	 * @param data
+	 *            the data
+	 * @param level
+	 *            the compression level, from {@link java.util.zip.Deflater#BEST_SPEED} to
+	 *            {@link java.util.zip.Deflater#BEST_COMPRESSION}
+	 * @return the compressed data
+	 * @throws IOException
+	 *             if any I/O error occurs
+	 */
+	public static byte[] gzip(byte[] data, final int level) throws IOException
+	{
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 2 + 64);
+		GZIPOutputStream out = new GZIPOutputStream(compressed)
+		{
+			{
+				def.setLevel(level);
+			}
+		};
+		try
+		{
+			out.write(data);
+		}
+		finally
+		{
+			out.close();
+		}
+		return compressed.toByteArray();
+	}
+}
@@ -0,0 +1,247 @@
+package com.cotescu.radu.http.server.utils;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * This class reads one page of the entries of a directory through a {@link DirectoryStream}, so that very large directories are never
+ * loaded in memory at once. The attributes of every entry are read with a single {@link BasicFileAttributes} call instead of separate
+ * calls for the type, the size and the modification time.
+ * 
+ * Unsorted pages are handed to a {@link Visitor} while the directory is being read. Sorted pages only keep the entries which may belong
+ * to the page, in a bounded heap, so the memory needed depends on the offset and the limit of the page rather than on the size of the
+ * directory. Directories always come before the files.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+public class DirectoryListing
+{
+	public static final String SORT_NAME = "name";
+	public static final String SORT_SIZE = "size";
+	public static final String SORT_MTIME = "mtime";
+	public static final String SORT_NONE = "none";
+
+	/**
+	 * An entry of a directory.
+	 */
+	public static class Entry
+	{
+		private final String name;
+		private final boolean directory;
+		private final long size;
+		private final long lastModified;
+
+		public Entry(String name, boolean directory, long size, long lastModified)
+		{
+			this.name = name;
+			this.directory = directory;
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		public boolean isDirectory()
+		{
+			return directory;
+		}
+
+		public long getSize()
+		{
+			return size;
+		}
+
+		public long getLastModified()
+		{
+			return lastModified;
+		}
+	}
+
+	/**
+	 * Receives the entries of a page, in order.
+	 */
+	public interface Visitor
+	{
+		void visit(Entry entry) throws IOException;
+	}
+
+	/**
+	 * Checks if a sort order is supported.
+	 * 
+	 * @param sort
+	 *            the sort order
+	 * @return {@code true} if the sort order is one of {@link #SORT_NAME}, {@link #SORT_SIZE}, {@link #SORT_MTIME} or
+	 *         {@link #SORT_NONE}
+	 */
+	public static boolean isValidSort(String sort)
+	{
+		return SORT_NAME.equals(sort) || SORT_SIZE.equals(sort) || SORT_MTIME.equals(sort) || SORT_NONE.equals(sort);
+	}
+
+	/**
+	 * Lists a page of the entries of a directory.
+	 * 
+	 * @param directory
+	 *            the directory
+	 * @param sort
+	 *            the sort order, {@link #SORT_NONE} for the order in which the file system returns the entries
+	 * @param descending
+	 *            {@code true} to reverse the sort order
+	 * @param offset
+	 *            the number of entries skipped before the page
+	 * @param limit
+	 *            the maximum number of entries of the page or 0 for no limit
+	 * @param visitor
+	 *            the {@link Visitor} which receives the entries of the page
+	 * @return {@code true} if the directory has more entries after the page, {@code false} otherwise
+	 * @throws IOException
+	 *             if the directory cannot be read
+	 */
+	public static boolean list(Path directory, String sort, boolean descending, int offset, int limit, Visitor visitor) throws IOException
+	{
+		DirectoryStream<Path> stream = Files.newDirectoryStream(directory);
+		try
+		{
+			if (SORT_NONE.equals(sort))
+			{
+				return stream(stream.iterator(), offset, limit, visitor);
+			}
+			Comparator<Entry> comparator = getComparator(sort, descending);
+			// the heap keeps the first offset + limit entries, with the last one of them at its head
+			int capacity = limit > 0 && offset + limit > 0 ? offset + limit : Integer.MAX_VALUE;
+			PriorityQueue<Entry> heap = new PriorityQueue<Entry>(Math.min(capacity, 1024), Collections.reverseOrder(comparator));
+			boolean more = false;
+			for (Path path : stream)
+			{
+				Entry entry = readEntry(path);
+				if (entry == null)
+				{
+					continue;
+				}
+				if (heap.size() < capacity)
+				{
+					heap.add(entry);
+				}
+				else
+				{
+					more = true;
+					if (comparator.compare(entry, heap.peek()) < 0)
+					{
+						heap.poll();
+						heap.add(entry);
+					}
+				}
+			}
+			Entry[] entries = heap.toArray(new Entry[heap.size()]);
+			Arrays.sort(entries, comparator);
+			for (int i = offset; i < entries.length; i++)
+			{
+				visitor.visit(entries[i]);
+			}
+			return more;
+		}
+		finally
+		{
+			stream.close();
+		}
+	}
+
+	/**
+	 * Hands the entries of an unsorted page to the visitor while they are read.
+	 */
+	private static boolean stream(Iterator<Path> paths, int offset, int limit, Visitor visitor) throws IOException
+	{
+		int skipped = 0;
+		int visited = 0;
+		while (paths.hasNext())
+		{
+			Path path = paths.next();
+			if (skipped < offset)
+			{
+				skipped++;
+				continue;
+			}
+			if (limit > 0 && visited == limit)
+			{
+				return true;
+			}
+			Entry entry = readEntry(path);
+			if (entry != null)
+			{
+				visitor.visit(entry);
+				visited++;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Reads the attributes of an entry. The attributes of broken symbolic links are those of the links themselves.
+	 * 
+	 * @return the entry or {@code null} if it disappeared in the meantime
+	 */
+	private static Entry readEntry(Path path)
+	{
+		BasicFileAttributes attributes;
+		try
+		{
+			attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		}
+		catch (IOException e)
+		{
+			try
+			{
+				attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+			}
+			catch (IOException e1)
+			{
+				return null;
+			}
+		}
+		return new Entry(path.getFileName().toString(), attributes.isDirectory(), attributes.size(), attributes.lastModifiedTime()
+				.toMillis());
+	}
+
+	private static Comparator<Entry> getComparator(final String sort, final boolean descending)
+	{
+		return new Comparator<Entry>()
+		{
+			@Override
+			public int compare(Entry entry1, Entry entry2)
+			{
+				if (entry1.directory != entry2.directory)
+				{
+					return entry1.directory ? -1 : 1;
+				}
+				int result = 0;
+				if (SORT_SIZE.equals(sort))
+				{
+					result = Long.compare(entry1.size, entry2.size);
+				}
+				else
+					if (SORT_MTIME.equals(sort))
+					{
+						result = Long.compare(entry1.lastModified, entry2.lastModified);
+					}
+				if (result == 0)
+				{
+					result = entry1.name.compareTo(entry2.name);
+				}
+				return descending ? -result : result;
+			}
+		};
+	}
+}
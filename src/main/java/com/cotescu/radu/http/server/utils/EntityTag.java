@@ -0,0 +1,98 @@
+package com.cotescu.radu.http.server.utils;
+
+/**
+ * This class generates and compares entity tags, the opaque validators sent in the ETag header.
+ * 
+ * @author Radu Cotescu
+ * 
+ */
+public class EntityTag
+{
+	private static final String WEAK_PREFIX = "W/";
+
+	/**
+	 * Generates an entity tag from a file's length and modification time, without reading the file.
+	 * 
+	 * @param length
+	 *            the file's length
+	 * @param lastModified
+	 *            the file's modification time in milliseconds
+	 * @param weak
+	 *            {@code true} for a weak validator, {@code false} for a strong one
+	 * @return the entity tag, quoted as sent in the ETag header
+	 */
+	public static String generate(long length, long lastModified, boolean weak)
+	{
+		String tag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+		return weak ? WEAK_PREFIX + tag : tag;
+	}
+
+	/**
+	 * Derives the entity tag of an encoded variant of a resource, which must differ from the tag of the resource's unencoded form.
+	 * 
+	 * @param tag
+	 *            the entity tag of the unencoded resource
+	 * @param coding
+	 *            the content coding of the variant
+	 * @return the variant's entity tag
+	 */
+	public static String forCoding(String tag, String coding)
+	{
+		return tag.substring(0, tag.length() - 1) + "-" + coding + "\"";
+	}
+
+	/**
+	 * Checks if an entity tag is weak.
+	 * 
+	 * @param tag
+	 *            the entity tag
+	 * @return {@code true} if the entity tag is weak
+	 */
+	public static boolean isWeak(String tag)
+	{
+		return tag.startsWith(WEAK_PREFIX);
+	}
+
+	/**
+	 * Checks if a list of entity tags, as sent in the If-Match or If-None-Match headers, matches an entity tag.
+	 * 
+	 * @param header
+	 *            the header's value: {@code *} or a comma separated list of entity tags
+	 * @param tag
+	 *            the current entity tag of the resource
+	 * @param strong
+	 *            {@code true} for the strong comparison, in which weak tags never match, {@code false} for the weak comparison, which
+	 *            only compares the opaque parts of the tags
+	 * @return {@code true} if any of the tags matches
+	 */
+	public static boolean matches(String header, String tag, boolean strong)
+	{
+		if (header.trim().equals("*"))
+		{
+			return true;
+		}
+		if (strong && isWeak(tag))
+		{
+			return false;
+		}
+		String opaqueTag = opaque(tag);
+		for (String candidate : header.split(","))
+		{
+			candidate = candidate.trim();
+			if (strong && isWeak(candidate))
+			{
+				continue;
+			}
+			if (opaque(candidate).equals(opaqueTag))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String opaque(String tag)
+	{
+		return isWeak(tag) ? tag.substring(WEAK_PREFIX.length()) : tag;
+	}
+}
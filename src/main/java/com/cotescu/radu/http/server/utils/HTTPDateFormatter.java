@@ -1,41 +1,306 @@
 package com.cotescu.radu.http.server.utils;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
-import java.util.TimeZone;
-
-import org.apache.log4j.Logger;
 
+/**
+ * This class formats and parses the dates used by HTTP headers. Dates are always sent in the IMF-fixdate format
+ * ({@code Sun, 06 Nov 1994 08:49:37 GMT}), while the obsolete RFC 850 and asctime formats are also accepted when parsing, as required by
+ * RFC 7231. The conversions work directly on the characters, without {@link java.text.SimpleDateFormat}, calendars or time zones.
+ * 
+ * The current date, sent in the Date header of every response, is rendered at most once per second and shared by all the threads. Dates
+ * can also be formatted as in the common log format of the access log ({@code 10/Oct/2000:13:55:36 -0700}).
+ * 
+ * @author Radu Cotescu
+ * 
+ */
 public class HTTPDateFormatter {
-	
-	private static Logger log = Logger.getLogger(HTTPDateFormatter.class);
-	
+
+	/**
+	 * The length of a formatted date.
+	 */
+	public static final int DATE_LENGTH = 29;
+
+	/**
+	 * The length of a date formatted for the common log format.
+	 */
+	public static final int COMMON_LOG_DATE_LENGTH = 26;
+
+	private static final String[] DAYS = { "Sun", "Mon", "Tue", "Wed", "Thu", "Fri", "Sat" };
+	private static final String[] MONTHS = { "Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec" };
+	private static final long MILLIS_PER_DAY = 86400000L;
+
+	private static volatile CurrentDate currentDate = new CurrentDate(System.currentTimeMillis());
+
+	/**
+	 * The current date in both its String and its encoded form, for the second in which it was rendered.
+	 */
+	private static final class CurrentDate {
+		final long second;
+		final String text;
+		final byte[] bytes;
+
+		CurrentDate(long millis) {
+			second = millis / 1000;
+			bytes = new byte[DATE_LENGTH];
+			format(millis, bytes, 0);
+			text = new String(bytes, StandardCharsets.ISO_8859_1);
+		}
+	}
+
+	/**
+	 * Returns the current date, formatted for the Date header.
+	 * 
+	 * @return the formatted current date
+	 */
+	public static String getCurrentDate() {
+		return current().text;
+	}
+
+	/**
+	 * Returns the current date, formatted for the Date header and encoded in ASCII. The returned array is shared and must not be
+	 * modified.
+	 * 
+	 * @return the encoded current date
+	 */
+	public static byte[] getCurrentDateBytes() {
+		return current().bytes;
+	}
+
+	/**
+	 * Renders the current date again if the second changed. Concurrent threads may render the same second twice, which is harmless.
+	 */
+	private static CurrentDate current() {
+		long now = System.currentTimeMillis();
+		CurrentDate date = currentDate;
+		if (now / 1000 != date.second) {
+			date = new CurrentDate(now);
+			currentDate = date;
+		}
+		return date;
+	}
+
 	public static String getFormattedDate(Date date) {
-		SimpleDateFormat sdf = new SimpleDateFormat("E, dd MMM yyyy HH:mm:ss zz");
-		sdf.setTimeZone(TimeZone.getTimeZone("GMT"));
-		return sdf.format(date);
+		return getFormattedDate(date.getTime());
+	}
+
+	/**
+	 * Formats a date for an HTTP header.
+	 * 
+	 * @param millis
+	 *            the date in milliseconds since the epoch
+	 * @return the formatted date
+	 */
+	public static String getFormattedDate(long millis) {
+		byte[] bytes = new byte[DATE_LENGTH];
+		format(millis, bytes, 0);
+		return new String(bytes, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Formats a date for an HTTP header into a byte array, without allocating any object.
+	 * 
+	 * @param millis
+	 *            the date in milliseconds since the epoch
+	 * @param destination
+	 *            the array which receives the {@link #DATE_LENGTH} ASCII characters of the date
+	 * @param offset
+	 *            the position in the array of the first character
+	 */
+	public static void format(long millis, byte[] destination, int offset) {
+		long days = Math.floorDiv(millis, MILLIS_PER_DAY);
+		long date = toDate(days);
+		int i = offset;
+		i = putName(DAYS[Math.floorMod(days + 4, 7)], destination, i);
+		destination[i++] = ',';
+		destination[i++] = ' ';
+		i = putDigits(Math.floorMod(date, 100), 2, destination, i);
+		destination[i++] = ' ';
+		i = putName(MONTHS[Math.floorMod(Math.floorDiv(date, 100), 100) - 1], destination, i);
+		destination[i++] = ' ';
+		i = putDigits((int) Math.floorDiv(date, 10000), 4, destination, i);
+		destination[i++] = ' ';
+		i = putTime(millis, destination, i);
+		destination[i++] = ' ';
+		destination[i++] = 'G';
+		destination[i++] = 'M';
+		destination[i] = 'T';
+	}
+
+	/**
+	 * Formats a date as in the common log format ({@code 10/Oct/2000:13:55:36 -0700}) into a byte array, without allocating any object.
+	 * 
+	 * @param millis
+	 *            the date in milliseconds since the epoch
+	 * @param zoneOffset
+	 *            the offset in milliseconds of the time zone in which the date is written, as returned by
+	 *            {@link java.util.TimeZone#getOffset(long)}
+	 * @param destination
+	 *            the array which receives the {@link #COMMON_LOG_DATE_LENGTH} ASCII characters of the date
+	 * @param offset
+	 *            the position in the array of the first character
+	 */
+	public static void formatCommonLog(long millis, int zoneOffset, byte[] destination, int offset) {
+		long local = millis + zoneOffset;
+		long date = toDate(Math.floorDiv(local, MILLIS_PER_DAY));
+		int i = offset;
+		i = putDigits(Math.floorMod(date, 100), 2, destination, i);
+		destination[i++] = '/';
+		i = putName(MONTHS[Math.floorMod(Math.floorDiv(date, 100), 100) - 1], destination, i);
+		destination[i++] = '/';
+		i = putDigits((int) Math.floorDiv(date, 10000), 4, destination, i);
+		destination[i++] = ':';
+		i = putTime(local, destination, i);
+		destination[i++] = ' ';
+		int zoneMinutes = zoneOffset / 60000;
+		destination[i++] = (byte) (zoneMinutes < 0 ? '-' : '+');
+		zoneMinutes = Math.abs(zoneMinutes);
+		i = putDigits(zoneMinutes / 60, 2, destination, i);
+		putDigits(zoneMinutes % 60, 2, destination, i);
+	}
+
+	/**
+	 * Converts the days since the epoch to a proleptic Gregorian date, using eras of 400 years that start on March 1st.
+	 * 
+	 * @return the date as {@code year * 10000 + month * 100 + day}
+	 */
+	private static long toDate(long days) {
+		long z = days + 719468;
+		long era = Math.floorDiv(z, 146097);
+		int dayOfEra = (int) (z - era * 146097);
+		int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		int shiftedMonth = (5 * dayOfYear + 2) / 153;
+		int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+		int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+		long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+		return year * 10000 + month * 100 + day;
+	}
+
+	/**
+	 * Writes the time of the day ({@code HH:mm:ss}) of a date.
+	 */
+	private static int putTime(long millis, byte[] destination, int offset) {
+		int secondOfDay = (int) (Math.floorMod(millis, MILLIS_PER_DAY) / 1000);
+		int i = putDigits(secondOfDay / 3600, 2, destination, offset);
+		destination[i++] = ':';
+		i = putDigits(secondOfDay / 60 % 60, 2, destination, i);
+		destination[i++] = ':';
+		return putDigits(secondOfDay % 60, 2, destination, i);
 	}
-	
+
 	public static Date getDateFromString(String date) {
-		SimpleDateFormat sdf = new SimpleDateFormat();
-		sdf.applyPattern("E, dd MMM yyyy HH:mm:ss zz");
-		Date resultedDate = null;
-		try {
-			resultedDate = sdf.parse(date);
-		} catch (ParseException e) {
-			sdf.applyPattern("EEEE, dd-MMM-yy HH:mm:ss zz");
-			try {
-				resultedDate = sdf.parse(date);
-			} catch (ParseException e1) {
-				sdf.applyPattern("E MMM d HH:mm:ss yyyy");
-				try {
-					resultedDate = sdf.parse(date);
-				} catch (ParseException e2) {
-					log.error("Unable to parse date string received as " + date, e);
-				}
+		long millis = parse(date);
+		return millis < 0 ? null : new Date(millis);
+	}
+
+	/**
+	 * Parses a date sent in an HTTP header, in any of the IMF-fixdate ({@code Sun, 06 Nov 1994 08:49:37 GMT}), RFC 850
+	 * ({@code Sunday, 06-Nov-94 08:49:37 GMT}) or asctime ({@code Sun Nov  6 08:49:37 1994}) formats. The name of the day is not
+	 * checked.
+	 * 
+	 * @param date
+	 *            the date
+	 * @return the date in milliseconds since the epoch or -1 if the date is not valid
+	 */
+	public static long parse(String date) {
+		int comma = date.indexOf(',');
+		if (comma == 3 && date.length() == DATE_LENGTH) {
+			// IMF-fixdate
+			if (date.charAt(4) != ' ' || date.charAt(7) != ' ' || date.charAt(11) != ' ' || date.charAt(16) != ' '
+					|| !date.endsWith(" GMT")) {
+				return -1;
+			}
+			return toMillis(digits(date, 12, 4), month(date, 8), digits(date, 5, 2), date, 17);
+		}
+		if (comma > 3 && date.length() == comma + 24) {
+			// RFC 850, whose two-digit years are taken from 1970 to 2069
+			int i = comma + 2;
+			if (date.charAt(comma + 1) != ' ' || date.charAt(i + 2) != '-' || date.charAt(i + 6) != '-' || date.charAt(i + 9) != ' '
+					|| !date.endsWith(" GMT")) {
+				return -1;
+			}
+			int year = digits(date, i + 7, 2);
+			if (year >= 0) {
+				year += year < 70 ? 2000 : 1900;
+			}
+			return toMillis(year, month(date, i + 3), digits(date, i, 2), date, i + 10);
+		}
+		if (comma < 0 && date.length() == 24) {
+			// asctime, whose day of the month is padded with a space
+			if (date.charAt(3) != ' ' || date.charAt(7) != ' ' || date.charAt(10) != ' ' || date.charAt(19) != ' ') {
+				return -1;
+			}
+			int day = date.charAt(8) == ' ' ? digits(date, 9, 1) : digits(date, 8, 2);
+			return toMillis(digits(date, 20, 4), month(date, 4), day, date, 11);
+		}
+		return -1;
+	}
+
+	/**
+	 * Combines the parts of a date with the time found at a position of the String ({@code HH:mm:ss}).
+	 */
+	private static long toMillis(int year, int month, int day, String date, int timeOffset) {
+		int hours = digits(date, timeOffset, 2);
+		int minutes = digits(date, timeOffset + 3, 2);
+		int seconds = digits(date, timeOffset + 6, 2);
+		if (year < 0 || month < 0 || day < 1 || day > 31 || hours < 0 || hours > 23 || minutes < 0 || minutes > 59 || seconds < 0
+				|| seconds > 60 || date.charAt(timeOffset + 2) != ':' || date.charAt(timeOffset + 5) != ':') {
+			return -1;
+		}
+		// converts a proleptic Gregorian date to the days since the epoch, the inverse of the conversion done by format()
+		int y = month <= 2 ? year - 1 : year;
+		int era = y / 400;
+		int yearOfEra = y - era * 400;
+		int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		long days = era * 146097L + dayOfEra - 719468;
+		return days * MILLIS_PER_DAY + (hours * 3600 + minutes * 60 + seconds) * 1000L;
+	}
+
+	/**
+	 * Parses a fixed number of decimal digits.
+	 * 
+	 * @return the value or -1 if any of the characters is not a digit
+	 */
+	private static int digits(String date, int offset, int count) {
+		int value = 0;
+		for (int i = offset; i < offset + count; i++) {
+			char c = date.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	/**
+	 * Finds the month whose three letter name starts at a position of the String.
+	 * 
+	 * @return the month, from 1 to 12, or -1 if the name is not valid
+	 */
+	private static int month(String date, int offset) {
+		for (int i = 0; i < MONTHS.length; i++) {
+			if (date.regionMatches(offset, MONTHS[i], 0, 3)) {
+				return i + 1;
 			}
 		}
-		return resultedDate;
+		return -1;
+	}
+
+	private static int putName(String name, byte[] destination, int offset) {
+		for (int i = 0; i < name.length(); i++) {
+			destination[offset + i] = (byte) name.charAt(i);
+		}
+		return offset + name.length();
+	}
+
+	private static int putDigits(int value, int count, byte[] destination, int offset) {
+		for (int i = offset + count - 1; i >= offset; i--) {
+			destination[i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		return offset + count;
 	}
 }